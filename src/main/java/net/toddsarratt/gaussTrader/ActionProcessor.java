@@ -1,6 +1,6 @@
 package net.toddsarratt.gaussTrader;
 
-import net.toddsarratt.gaussTrader.persistence.entity.Order;
+import net.toddsarratt.gaussTrader.orders.Order;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
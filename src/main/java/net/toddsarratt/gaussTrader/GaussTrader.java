@@ -1,5 +1,9 @@
 package net.toddsarratt.gaussTrader;
 
+import net.toddsarratt.gaussTrader.market.CachingMarket;
+import net.toddsarratt.gaussTrader.market.Market;
+import net.toddsarratt.gaussTrader.market.YahooMarket;
+import net.toddsarratt.gaussTrader.persistence.store.DataStore;
 import net.toddsarratt.gaussTrader.portfolio.PortfolioManager;
 
 import java.util.concurrent.ExecutorService;
@@ -19,36 +23,33 @@ public class GaussTrader {
 //	// TODO: Inject via static factory method but not in this method
 //	private static final EntityManagerFactory ENTITY_MANAGER_FACTORY = Persistence.createEntityManagerFactory("net.toddsarratt.gaussTrader.jpa");
 //	private static final EntityManager ENTITY_MANAGER = ENTITY_MANAGER_FACTORY.createEntityManager();
-//	private static final DataStore DATA_STORE = new PostgresStore();
-//	private static final Market MARKET = new YahooMarket();
 //	private static final Portfolio PORTFOLIO = Portfolio.of(Constants.getPortfolioName());
+	private static final DataStore DATA_STORE = PortfolioManager.retrieveDataStore();
+	private static final Market MARKET = new CachingMarket(new YahooMarket());
 	// This guy runs the show. Start him, make him do his thing
-	private static final PortfolioManager PORTFOLIO_MANAGER = new PortfolioManager();
+	private static final PortfolioManager PORTFOLIO_MANAGER = new PortfolioManager(MARKET, DATA_STORE);
 	private static final ExecutorService EXECUTOR_SERVICE = Executors.newCachedThreadPool();
 
 
-//	/**
-//	 * @return DataStore associated with the application.
-//	 */
-//	public static DataStore getDataStore() {
-//		return DATA_STORE;
-//	}
-//
-//	/**
-//	 * @return Market associated with the application.
-//	 */
-//	public static Market getMarket() {
-//		return MARKET;
-//	}
-//
+	/**
+	 * @return DataStore associated with the application.
+	 */
+	public static DataStore getDataStore() {
+		return DATA_STORE;
+	}
+
+	/**
+	 * @return Market associated with the application.
+	 */
+	public static Market getMarket() {
+		return MARKET;
+	}
+
 //	private static void setUp() {
 //		ENTITY_MANAGER.getTransaction().begin();
 //	}
 
 	public static void main(String[] args) {
-		PORTFOLIO_MANAGER.setDataStore(null);
-		PORTFOLIO_MANAGER.setMarket(null);
-		PORTFOLIO_MANAGER.setPortfolio(null);
 		PORTFOLIO_MANAGER.run();
 	}
 //		try {
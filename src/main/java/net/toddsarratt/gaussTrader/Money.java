@@ -0,0 +1,171 @@
+package net.toddsarratt.gaussTrader;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Fixed point arithmetic on amounts of money and prices held in a long as millionths of a dollar (micros). This is the
+ * one conversion to micros in GaussTrader; PriceSeries, and through it TickJournal and the data stores, use it too.
+ * Accounting and order sizing work in micros so moving cash around a portfolio does not allocate; amounts become
+ * BigDecimal only where they leave for the data store, a PortfolioSummary or a log.
+ * <p>
+ * Rounding rules:
+ * <ul>
+ * <li>of(BigDecimal) rounds half up to the micro. Quotes have no more than four decimal places, so in practice nothing
+ * is rounded.</li>
+ * <li>plus(), minus() and timesQuantity() are exact. Results outside the range of a long (about
+ * $9.2 trillion) throw ArithmeticException instead of wrapping.</li>
+ * <li>The product or quotient of two fixed point values is rounded with the RoundingMode the caller passes. Order
+ * sizing rounds DOWN so it never commits more cash than allowed.</li>
+ * </ul>
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
+public final class Money {
+	/** Decimal places kept for each amount */
+	public static final int SCALE = 6;
+	/** One dollar in micros */
+	public static final long ONE = 1_000_000L;
+	private static final BigDecimal BIGDECIMAL_ONE = BigDecimal.valueOf(ONE);
+
+	/* Thou shall not instantiate. */
+	private Money() {
+	}
+
+	/**
+	 * @param amount amount in dollars
+	 * @return amount in micros, rounded half up
+	 * @throws ArithmeticException if amount does not fit in a long as micros
+	 */
+	public static long of(BigDecimal amount) {
+		return amount.setScale(SCALE, RoundingMode.HALF_UP).movePointRight(SCALE).longValueExact();
+	}
+
+	/**
+	 * @param micros amount in micros
+	 * @return amount in dollars, with SCALE decimal places
+	 */
+	public static BigDecimal toBigDecimal(long micros) {
+		return BigDecimal.valueOf(micros, SCALE);
+	}
+
+	/**
+	 * @param micros amount in micros
+	 * @return nearest double to the amount in dollars, for display only
+	 */
+	public static double toDouble(long micros) {
+		return micros / (double) ONE;
+	}
+
+	public static long plus(long augendMicros, long addendMicros) {
+		return Math.addExact(augendMicros, addendMicros);
+	}
+
+	public static long minus(long minuendMicros, long subtrahendMicros) {
+		return Math.subtractExact(minuendMicros, subtrahendMicros);
+	}
+
+	/**
+	 * @param micros   price or amount in micros
+	 * @param quantity whole number of shares, contracts or multiplier, may be negative
+	 * @return micros * quantity, exactly
+	 */
+	public static long timesQuantity(long micros, long quantity) {
+		return Math.multiplyExact(micros, quantity);
+	}
+
+	/**
+	 * Multiplies two fixed point values, such as an amount by a fraction or percentage held in micros.
+	 *
+	 * @return micros * multiplierMicros / ONE, rounded with roundingMode
+	 */
+	public static long times(long micros, long multiplierMicros, RoundingMode roundingMode) {
+		long high = Math.multiplyHigh(micros, multiplierMicros);
+		long low = micros * multiplierMicros;
+		if (fitsInLong(high, low)) {
+			return divideRounded(low, ONE, roundingMode);
+		}
+		return BigDecimal.valueOf(micros).multiply(BigDecimal.valueOf(multiplierMicros))
+				.divide(BIGDECIMAL_ONE, 0, roundingMode)
+				.longValueExact();
+	}
+
+	/**
+	 * Divides one fixed point value by another.
+	 *
+	 * @return dividendMicros / divisorMicros in micros, rounded with roundingMode
+	 * @throws ArithmeticException if divisorMicros is zero
+	 */
+	public static long divide(long dividendMicros, long divisorMicros, RoundingMode roundingMode) {
+		long high = Math.multiplyHigh(dividendMicros, ONE);
+		long low = dividendMicros * ONE;
+		if (fitsInLong(high, low)) {
+			return divideRounded(low, divisorMicros, roundingMode);
+		}
+		return BigDecimal.valueOf(dividendMicros).multiply(BIGDECIMAL_ONE)
+				.divide(BigDecimal.valueOf(divisorMicros), 0, roundingMode)
+				.longValueExact();
+	}
+
+	/**
+	 * @return how many whole divisorMicros fit in dividendMicros, rounded toward negative infinity. For example the
+	 * number of contracts a budget pays for.
+	 * @throws ArithmeticException if divisorMicros is zero
+	 */
+	public static long quotient(long dividendMicros, long divisorMicros) {
+		return Math.floorDiv(dividendMicros, divisorMicros);
+	}
+
+	/**
+	 * @return amount in dollars as a plain string, for logging
+	 */
+	public static String toString(long micros) {
+		return toBigDecimal(micros).toPlainString();
+	}
+
+	/* True if the 128 bit product high:low is the sign extension of low */
+	private static boolean fitsInLong(long high, long low) {
+		return high == (low >> 63);
+	}
+
+	private static long divideRounded(long dividend, long divisor, RoundingMode roundingMode) {
+		long quotient = dividend / divisor;
+		long remainder = dividend % divisor;
+		if (remainder == 0) {
+			return quotient;
+		}
+		int signum = ((dividend ^ divisor) < 0) ? -1 : 1;
+		boolean awayFromZero;
+		switch (roundingMode) {
+			case UNNECESSARY:
+				throw new ArithmeticException("Rounding necessary");
+			case DOWN:
+				awayFromZero = false;
+				break;
+			case UP:
+				awayFromZero = true;
+				break;
+			case FLOOR:
+				awayFromZero = (signum < 0);
+				break;
+			case CEILING:
+				awayFromZero = (signum > 0);
+				break;
+			default:
+				/* Compare the remainder with what is left of the divisor, which cannot overflow like doubling it */
+				long absoluteRemainder = Math.abs(remainder);
+				int towardHalf = Long.compare(absoluteRemainder, Math.abs(divisor) - absoluteRemainder);
+				if (towardHalf != 0) {
+					awayFromZero = (towardHalf > 0);
+				} else if (roundingMode == RoundingMode.HALF_UP) {
+					awayFromZero = true;
+				} else if (roundingMode == RoundingMode.HALF_DOWN) {
+					awayFromZero = false;
+				} else {
+					awayFromZero = ((quotient & 1L) != 0);
+				}
+		}
+		return awayFromZero ? (quotient + signum) : quotient;
+	}
+}
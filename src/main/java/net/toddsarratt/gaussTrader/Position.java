@@ -1,8 +1,9 @@
 package net.toddsarratt.gaussTrader;
 
-import net.toddsarratt.gaussTrader.market.Market;
+import net.toddsarratt.gaussTrader.domain.Stock;
 import net.toddsarratt.gaussTrader.orders.OptionOrder;
 import net.toddsarratt.gaussTrader.orders.Order;
+import net.toddsarratt.gaussTrader.securities.Security;
 import net.toddsarratt.gaussTrader.singletons.BuyOrSell;
 import net.toddsarratt.gaussTrader.singletons.SecurityType;
 import org.slf4j.Logger;
@@ -17,16 +18,22 @@ import static net.toddsarratt.gaussTrader.singletons.BuyOrSell.SELL;
 
 public class Position {
 	private static final Logger LOGGER = LoggerFactory.getLogger(Position.class);
-	private static Market market = GaussTrader.getMarket();
 	private long positionId;
 	private long originatingOrderId;
 	private boolean open;
 	private Security security;
-	private InstantPrice priceAtOpen;
+	private String ticker;
+	private SecurityType secType;
+	private LocalDate expiry;
+	private String underlyingTicker;
+	private BigDecimal strikePrice;
+	private Instant instantOpened;
+	private BigDecimal priceAtOpen;
 	private BuyOrSell buyOrSell;
 	private int numberTransacted;
-	private BigDecimal costBasis;
-	private BigDecimal claimAgainstCash;
+	/* Cost basis and claim against cash in micros, see Money */
+	private long costBasis;
+	private long claimAgainstCash;
 	private InstantPrice lastTick;
 	private BigDecimal netAssetValue;
 	private Instant instantClosed;
@@ -46,6 +53,7 @@ public class Position {
 		this.originatingOrderId = orderToFill.getOrderId();
 		this.open = true;
 		this.security = orderToFill.getSecurity();
+		this.ticker = security.getTicker();
 		this.secType = orderToFill.getAction().getSecurityType();
 		switch (orderToFill.getAction().getSecurityType()) {
 			case PUT:
@@ -64,13 +72,44 @@ public class Position {
 		this.priceAtOpen = priceAtOpen;
 		this.costBasis = calculateCostBasis();
 		this.claimAgainstCash = calculateClaimAgainstCash();
-		LOGGER.debug("claimAgainstCash = ${}", claimAgainstCash);
+		LOGGER.debug("claimAgainstCash = ${}", Money.toString(claimAgainstCash));
 		this.lastTick = InstantPrice.of(priceAtOpen, instantOpened);
-		this.netAssetValue = costBasis;
+		this.netAssetValue = Money.toBigDecimal(costBasis);
 		LOGGER.info("New position created with positionId " + positionId + " ticker " + ticker +
 				" secType " + secType + " open " + open + " instantOpened " + instantOpened);
 		LOGGER.info("buyOrSell " + buyOrSell + " numberTransacted " + numberTransacted +
-				" priceAtOpen " + priceAtOpen + " costBasis " + costBasis);
+				" priceAtOpen " + priceAtOpen + " costBasis " + Money.toString(costBasis));
+	}
+
+	/* Copies every field of position, for snapshot() */
+	private Position(Position position) {
+		this.positionId = position.positionId;
+		this.originatingOrderId = position.originatingOrderId;
+		this.open = position.open;
+		this.security = position.security;
+		this.ticker = position.ticker;
+		this.secType = position.secType;
+		this.expiry = position.expiry;
+		this.underlyingTicker = position.underlyingTicker;
+		this.strikePrice = position.strikePrice;
+		this.instantOpened = position.instantOpened;
+		this.priceAtOpen = position.priceAtOpen;
+		this.buyOrSell = position.buyOrSell;
+		this.numberTransacted = position.numberTransacted;
+		this.costBasis = position.costBasis;
+		this.claimAgainstCash = position.claimAgainstCash;
+		this.lastTick = position.lastTick;
+		this.netAssetValue = position.netAssetValue;
+		this.instantClosed = position.instantClosed;
+		this.priceAtClose = position.priceAtClose;
+		this.profit = position.profit;
+	}
+
+	/**
+	 * @return a copy of this position as it stands now, unchanged by later marks, exercises or closing
+	 */
+	public Position snapshot() {
+		return new Position(this);
 	}
 
 	public static Position exerciseOptionPosition(Position exercisingOptionPosition) {
@@ -83,9 +122,10 @@ public class Position {
 		newStockPosition.setBuyOrSell(BUY);
 		newStockPosition.setNumberTransacted(exercisingOptionPosition.getNumberTransacted() * 100);
 		newStockPosition.setPriceAtOpen(exercisingOptionPosition.getStrikePrice());
-		newStockPosition.setCostBasis(newStockPosition.getPriceAtOpen()
-				.multiply(new BigDecimal(newStockPosition.getNumberTransacted())));
-		newStockPosition.setLastTick(market.lastTick(exercisingOptionPosition.security));
+		newStockPosition.costBasis = Money.timesQuantity(Money.of(newStockPosition.getPriceAtOpen()), newStockPosition.getNumberTransacted());
+		newStockPosition.setSecurity(Stock.withoutTechnicals(ticker));
+		/* Priced at the strike until PortfolioAccountant marks it against its own market when the position opens */
+		newStockPosition.setLastTick(InstantPrice.of(newStockPosition.getPriceAtOpen(), Instant.now()));
 /*      } catch (IOException ioe) {
          LOGGER.info("Could not connect to yahoo! to get lastTick() for {} when exercising option position {}", ticker, exercisingOptionPosition.getPositionId());
          LOGGER.info("lastTick and netAssetValue are incorrect for current open position {}", newStockPosition.getPositionId());
@@ -100,9 +140,7 @@ public class Position {
 		open = false;
 		instantClosed = Instant.now();
 		priceAtClose = closePrice;
-		profit = priceAtClose
-				.multiply(new BigDecimal(numberTransacted * (isStock() ? 1 : 100) * (isLong() ? 1 : -1)))
-				.subtract(costBasis);
+		profit = Money.toBigDecimal(Money.minus(Money.timesQuantity(Money.of(priceAtClose), signedMultiple()), costBasis));
 	}
 
 	public long getPositionId() {
@@ -113,7 +151,7 @@ public class Position {
 		this.positionId = positionId;
 	}
 
-	long getOriginatingOrderId() {
+	public long getOriginatingOrderId() {
 		return originatingOrderId;
 	}
 
@@ -214,20 +252,24 @@ public class Position {
 	}
 
 	public BigDecimal getCostBasis() {
+		return Money.toBigDecimal(costBasis);
+	}
+
+	public long getCostBasisMicros() {
 		return costBasis;
 	}
 
 	void setCostBasis(BigDecimal costBasis) {
-		this.costBasis = costBasis;
+		this.costBasis = Money.of(costBasis);
 	}
 
-	BigDecimal calculateCostBasis() {
-		return priceAtOpen.multiply(new BigDecimal(numberTransacted * (isStock() ? 1 : 100) * (isLong() ? 1 : -1)));
+	long calculateCostBasis() {
+		return Money.timesQuantity(Money.of(priceAtOpen), signedMultiple());
 	}
 
-	public InstantPrice getLastTick() {
-		// TODO: Market needs to return an InstantPrice and not have one created here
-		return lastTick = InstantPrice.of(market.lastTick(security).getPrice(), Instant.now());
+	/* Shares (stock) or shares controlled (options) in the position, negative if short */
+	private long signedMultiple() {
+		return (long) numberTransacted * (isStock() ? 1 : 100) * (isLong() ? 1 : -1);
 	}
 
 	public InstantPrice getLastTick() {
@@ -238,7 +280,11 @@ public class Position {
 		this.lastTick = lastTick;
 	}
 
-	void setNetAssetValue(BigDecimal netAssetValue) {
+	public BigDecimal getNetAssetValue() {
+		return netAssetValue;
+	}
+
+	public void setNetAssetValue(BigDecimal netAssetValue) {
 		this.netAssetValue = netAssetValue;
 	}
 
@@ -253,7 +299,7 @@ public class Position {
 		this.instantClosed = instantClosed;
 	}
 
-	BigDecimal getPriceAtClose() {
+	public BigDecimal getPriceAtClose() {
 		if (!open) {
 			return priceAtClose;
 		}
@@ -265,7 +311,11 @@ public class Position {
 	}
 
 	BigDecimal calculateProfit() {
-		return netAssetValue.subtract(costBasis);
+		return netAssetValue.subtract(Money.toBigDecimal(costBasis));
+	}
+
+	public BigDecimal getProfit() {
+		return profit;
 	}
 
 	void setProfit(BigDecimal profit) {
@@ -281,15 +331,15 @@ public class Position {
 	}
 
 	public BigDecimal getClaimAgainstCash() {
-		return claimAgainstCash;
+		return Money.toBigDecimal(claimAgainstCash);
 	}
 
-	void setClaimAgainstCash(BigDecimal requiredCash) {
-		claimAgainstCash = requiredCash;
+	public long getClaimAgainstCashMicros() {
+		return claimAgainstCash;
 	}
 
-	public boolean isExpired() {
-		return isOption() && expiry.isBefore(LocalDate.from(market.getCurrentDateTime()));
+	void setClaimAgainstCash(BigDecimal requiredCash) {
+		claimAgainstCash = Money.of(requiredCash);
 	}
 
 	public Security getSecurity() {
@@ -304,8 +354,8 @@ public class Position {
 	 * could result in an infinite liability. Only calculating for selling a put which has
 	 * a fixed obligation.
 	 */
-	BigDecimal calculateClaimAgainstCash() {
-		return (isPut() && isShort()) ? strikePrice.multiply(new BigDecimal(numberTransacted * 100)) : BigDecimal.ZERO;
+	long calculateClaimAgainstCash() {
+		return (isPut() && isShort()) ? Money.timesQuantity(Money.of(strikePrice), numberTransacted * 100L) : 0L;
 	}
 
 
@@ -313,6 +363,6 @@ public class Position {
 	public String toString() {
 		return (positionId + " | " + ticker + " | " + secType + " | " + open + " | " + instantOpened +
 				" | " + buyOrSell + " | " + numberTransacted + " | " + priceAtOpen + " | " +
-				costBasis + " | " + instantClosed + " | " + priceAtClose + " | " + profit);
+				Money.toString(costBasis) + " | " + instantClosed + " | " + priceAtClose + " | " + profit);
 	}
 }
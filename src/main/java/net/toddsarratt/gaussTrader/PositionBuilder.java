@@ -1,5 +1,6 @@
 package net.toddsarratt.gaussTrader;
 
+import net.toddsarratt.gaussTrader.singletons.BuyOrSell;
 import net.toddsarratt.gaussTrader.singletons.SecurityType;
 
 import java.math.BigDecimal;
@@ -28,7 +29,7 @@ public class PositionBuilder {
 		return this;
 	}
 
-	public PositionBuilder originatingOrderId(TransactionId originatingOrderId) {
+	public PositionBuilder originatingOrderId(long originatingOrderId) {
 		position.setOriginatingOrderId(originatingOrderId);
 		return this;
 	}
@@ -69,7 +70,7 @@ public class PositionBuilder {
 	}
 
 	public PositionBuilder longPosition(boolean longPosition) {
-		position.setBuyOrSell(longPosition);
+		position.setBuyOrSell(longPosition ? BuyOrSell.BUY : BuyOrSell.SELL);
 		return this;
 	}
 
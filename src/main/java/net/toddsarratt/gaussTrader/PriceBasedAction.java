@@ -14,7 +14,7 @@ import java.math.BigDecimal;
  */
 
 public class PriceBasedAction {
-	static final PriceBasedAction DO_NOTHING = new PriceBasedAction(Constants.BIGDECIMAL_MINUS_ONE, false, null, null, 0);
+	public static final PriceBasedAction DO_NOTHING = new PriceBasedAction(Constants.BIGDECIMAL_MINUS_ONE, false, null, null, 0);
 	private final BigDecimal triggerPrice;
 	private final boolean isActionable;
 	private final BuyOrSell buyOrSell;
@@ -29,6 +29,14 @@ public class PriceBasedAction {
 		this.numberToTransact = numberToTransact;
 	}
 
+	/**
+	 * Static factory method for an action recorded elsewhere, for example the action of an order recovered from the
+	 * portfolio ledger.
+	 */
+	public static PriceBasedAction of(BigDecimal triggerPrice, boolean isActionable, BuyOrSell buyOrSell, SecurityType securityType, int numberToTransact) {
+		return new PriceBasedAction(triggerPrice, isActionable, buyOrSell, securityType, numberToTransact);
+	}
+
 	@Override
 	public String toString() {
 		return "";
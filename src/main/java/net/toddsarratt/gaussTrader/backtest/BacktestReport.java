@@ -0,0 +1,145 @@
+package net.toddsarratt.gaussTrader.backtest;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Results of a backtest: every option written, exercised or expired in chronological order, the combined NAV curve
+ * and how fast the bars were processed.
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
+public class BacktestReport {
+	private final int tickerCount;
+	private final BigDecimal startingCash;
+	private final List<BacktestTrade> trades;
+	private final NavigableMap<LocalDate, BigDecimal> navCurve;
+	private final long barCount;
+	private final Duration elapsed;
+
+	BacktestReport(int tickerCount,
+	               BigDecimal startingCash,
+	               List<BacktestTrade> trades,
+	               NavigableMap<LocalDate, BigDecimal> navCurve,
+	               long barCount,
+	               Duration elapsed) {
+		this.tickerCount = tickerCount;
+		this.startingCash = startingCash;
+		this.trades = Collections.unmodifiableList(trades);
+		this.navCurve = Collections.unmodifiableNavigableMap(navCurve);
+		this.barCount = barCount;
+		this.elapsed = elapsed;
+	}
+
+	/**
+	 * Combines per ticker results into one report. Trades are sorted by date then ticker. A ticker with no close on a
+	 * date contributes its NAV from its previous close, or its starting cash before its first close.
+	 *
+	 * @param results       per ticker results, in ticker order
+	 * @param startingCash  cash for the whole portfolio
+	 * @param cashPerTicker starting cash of each ticker
+	 * @param elapsed       wall clock time taken
+	 * @return combined report
+	 */
+	static BacktestReport merge(List<TickerBacktest.Result> results, BigDecimal startingCash, BigDecimal cashPerTicker,
+	                            Duration elapsed) {
+		List<BacktestTrade> trades = new ArrayList<>();
+		TreeSet<LocalDate> allDates = new TreeSet<>();
+		long barCount = 0L;
+		for (TickerBacktest.Result result : results) {
+			trades.addAll(result.trades);
+			allDates.addAll(result.navCurve.keySet());
+			barCount += result.barCount;
+		}
+		trades.sort(BacktestTrade.CHRONOLOGICAL);
+		NavigableMap<LocalDate, BigDecimal> navCurve = new TreeMap<>();
+		for (LocalDate date : allDates) {
+			BigDecimal nav = BigDecimal.ZERO;
+			for (TickerBacktest.Result result : results) {
+				Map.Entry<LocalDate, BigDecimal> tickerNav = result.navCurve.floorEntry(date);
+				nav = nav.add((tickerNav == null) ? cashPerTicker : tickerNav.getValue());
+			}
+			navCurve.put(date, nav);
+		}
+		return new BacktestReport(results.size(), startingCash, trades, navCurve, barCount, elapsed);
+	}
+
+	public int getTickerCount() {
+		return tickerCount;
+	}
+
+	public BigDecimal getStartingCash() {
+		return startingCash;
+	}
+
+	public List<BacktestTrade> getTrades() {
+		return trades;
+	}
+
+	/**
+	 * @return portfolio net asset value at each close, summed across every ticker
+	 */
+	public NavigableMap<LocalDate, BigDecimal> getNavCurve() {
+		return navCurve;
+	}
+
+	public BigDecimal getEndingNav() {
+		return navCurve.isEmpty() ? startingCash : navCurve.lastEntry().getValue();
+	}
+
+	/**
+	 * @return largest fall of the NAV curve from a previous peak, as a fraction of that peak
+	 */
+	public BigDecimal getMaxDrawdown() {
+		BigDecimal peak = startingCash;
+		BigDecimal maxDrawdown = BigDecimal.ZERO;
+		for (BigDecimal nav : navCurve.values()) {
+			if (nav.compareTo(peak) > 0) {
+				peak = nav;
+			} else if (peak.signum() > 0) {
+				BigDecimal drawdown = peak.subtract(nav).divide(peak, 6, RoundingMode.HALF_UP);
+				maxDrawdown = maxDrawdown.max(drawdown);
+			}
+		}
+		return maxDrawdown;
+	}
+
+	public long getBarCount() {
+		return barCount;
+	}
+
+	public Duration getElapsed() {
+		return elapsed;
+	}
+
+	/**
+	 * @return daily bars processed per second of wall clock time
+	 */
+	public double getBarsPerSecond() {
+		long elapsedNanos = Math.max(elapsed.toNanos(), 1L);
+		return barCount * 1_000_000_000.0 / elapsedNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "BacktestReport{" +
+				"tickers=" + tickerCount +
+				", bars=" + barCount +
+				", trades=" + trades.size() +
+				", startingCash=" + startingCash +
+				", endingNav=" + getEndingNav() +
+				", elapsedMs=" + elapsed.toMillis() +
+				", barsPerSecond=" + String.format("%.0f", getBarsPerSecond()) +
+				'}';
+	}
+}
@@ -0,0 +1,177 @@
+package net.toddsarratt.gaussTrader.backtest;
+
+import net.toddsarratt.gaussTrader.persistence.store.ColumnarPriceCache;
+import net.toddsarratt.gaussTrader.persistence.store.DataStore;
+import net.toddsarratt.gaussTrader.singletons.Constants;
+import net.toddsarratt.gaussTrader.strategy.BollingerParameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Runs the trading strategy over recorded daily closes for many tickers at once. Starting cash is split evenly between
+ * tickers and each ticker is replayed independently (see TickerBacktest), partitioned across a fork-join pool.
+ * <p>
+ * Results are merged in ticker order regardless of which partition finishes first, so the same input always produces
+ * the same report.
+ * <pre>
+ *     BacktestReport report = BacktestRunner.fromDataStore(dataStore, tickers, LocalDate.of(2008, 1, 1)).run();
+ * </pre>
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
+public class BacktestRunner {
+	private static final Logger LOGGER = LoggerFactory.getLogger(BacktestRunner.class);
+	private final Map<String, NavigableMap<LocalDate, BigDecimal>> closesByTicker;
+	private final BigDecimal startingCash;
+	private final int parallelism;
+	private final BollingerParameters parameters;
+
+	/**
+	 * Backtests the properties file settings with Constants.STARTING_CASH on every available processor.
+	 *
+	 * @param closesByTicker daily closes for each ticker
+	 */
+	public BacktestRunner(Map<String, NavigableMap<LocalDate, BigDecimal>> closesByTicker) {
+		this(closesByTicker, Constants.STARTING_CASH, Runtime.getRuntime().availableProcessors(),
+				BollingerParameters.fromConstants());
+	}
+
+	/**
+	 * @param closesByTicker daily closes for each ticker
+	 * @param startingCash   cash for the whole portfolio, split evenly between tickers
+	 * @param parallelism    number of worker threads
+	 * @param parameters     strategy settings to backtest
+	 */
+	public BacktestRunner(Map<String, NavigableMap<LocalDate, BigDecimal>> closesByTicker,
+	                      BigDecimal startingCash,
+	                      int parallelism,
+	                      BollingerParameters parameters) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be at least 1");
+		}
+		this.closesByTicker = closesByTicker;
+		this.startingCash = startingCash;
+		this.parallelism = parallelism;
+		this.parameters = parameters;
+	}
+
+	/**
+	 * Reads daily closes for each ticker from the prices table.
+	 *
+	 * @param dataStore    store to read prices from
+	 * @param tickers      tickers to backtest
+	 * @param earliestDate earliest close to read
+	 * @return runner over the stored closes
+	 */
+	public static BacktestRunner fromDataStore(DataStore dataStore, Collection<String> tickers, LocalDate earliestDate) {
+		Map<String, NavigableMap<LocalDate, BigDecimal>> closesByTicker = new TreeMap<>();
+		for (String ticker : tickers) {
+			closesByTicker.put(ticker, new TreeMap<>(dataStore.readHistoricalPrices(ticker, earliestDate)));
+		}
+		return new BacktestRunner(closesByTicker);
+	}
+
+	/**
+	 * Reads daily closes for each ticker from a local price cache, syncing it with the data store first. Repeated
+	 * backtests over the same years only read the current year from the store.
+	 *
+	 * @param priceCache   cache to read prices from
+	 * @param dataStore    store to sync the cache with
+	 * @param tickers      tickers to backtest
+	 * @param earliestDate earliest close to read
+	 * @return runner over the cached closes
+	 * @throws IOException if the cache cannot be synced or read
+	 */
+	public static BacktestRunner fromPriceCache(ColumnarPriceCache priceCache, DataStore dataStore,
+	                                            Collection<String> tickers, LocalDate earliestDate) throws IOException {
+		priceCache.sync(dataStore, tickers, earliestDate);
+		Map<String, NavigableMap<LocalDate, BigDecimal>> closesByTicker = new TreeMap<>();
+		priceCache.readPriceSeries(tickers, earliestDate)
+				.forEach((ticker, closes) -> closesByTicker.put(ticker, new TreeMap<>(closes.toMap())));
+		return new BacktestRunner(closesByTicker);
+	}
+
+	/**
+	 * Runs every ticker and merges the results.
+	 *
+	 * @return trades, combined NAV curve and throughput
+	 */
+	public BacktestReport run() {
+		List<String> tickers = new ArrayList<>(new TreeSet<>(closesByTicker.keySet()));
+		tickers.removeIf(ticker -> closesByTicker.get(ticker).isEmpty());
+		if (tickers.isEmpty()) {
+			LOGGER.warn("No prices to backtest");
+			return new BacktestReport(0, startingCash, new ArrayList<>(), new TreeMap<>(), 0L, Duration.ZERO);
+		}
+		BigDecimal cashPerTicker = cashPerTicker(startingCash, tickers.size());
+		LOGGER.info("Backtesting {} tickers with ${} each on {} threads", tickers.size(), cashPerTicker, parallelism);
+		long startNanos = System.nanoTime();
+		ForkJoinPool forkJoinPool = new ForkJoinPool(parallelism);
+		List<TickerBacktest.Result> results;
+		try {
+			results = forkJoinPool.invoke(new TickerPartition(tickers, 0, tickers.size(), cashPerTicker));
+		} finally {
+			forkJoinPool.shutdown();
+		}
+		BacktestReport report = BacktestReport.merge(results, startingCash, cashPerTicker,
+				Duration.ofNanos(System.nanoTime() - startNanos));
+		LOGGER.info("{}", report);
+		return report;
+	}
+
+	static BigDecimal cashPerTicker(BigDecimal startingCash, int tickerCount) {
+		return startingCash.divide(BigDecimal.valueOf(tickerCount), 2, RoundingMode.DOWN);
+	}
+
+	/**
+	 * Splits the sorted ticker list in half until each task holds one ticker. Left results always precede right
+	 * results, so the merged list stays in ticker order.
+	 */
+	private class TickerPartition extends RecursiveTask<List<TickerBacktest.Result>> {
+		private final List<String> tickers;
+		private final int from;
+		private final int to;
+		private final BigDecimal cashPerTicker;
+
+		private TickerPartition(List<String> tickers, int from, int to, BigDecimal cashPerTicker) {
+			this.tickers = tickers;
+			this.from = from;
+			this.to = to;
+			this.cashPerTicker = cashPerTicker;
+		}
+
+		@Override
+		protected List<TickerBacktest.Result> compute() {
+			if (to - from == 1) {
+				String ticker = tickers.get(from);
+				List<TickerBacktest.Result> result = new ArrayList<>(1);
+				TickerSeries series = new TickerSeries(ticker, closesByTicker.get(ticker));
+				result.add(new TickerBacktest(series, cashPerTicker, parameters).run());
+				return result;
+			}
+			int middle = (from + to) >>> 1;
+			TickerPartition left = new TickerPartition(tickers, from, middle, cashPerTicker);
+			TickerPartition right = new TickerPartition(tickers, middle, to, cashPerTicker);
+			right.fork();
+			List<TickerBacktest.Result> results = left.compute();
+			results.addAll(right.join());
+			return results;
+		}
+	}
+}
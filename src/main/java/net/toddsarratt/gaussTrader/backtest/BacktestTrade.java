@@ -0,0 +1,90 @@
+package net.toddsarratt.gaussTrader.backtest;
+
+import net.toddsarratt.gaussTrader.singletons.SecurityType;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Comparator;
+
+/**
+ * One event in the life of an option written during a backtest: the write itself, and later its exercise or expiry.
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
+public class BacktestTrade {
+	/* Date first, then ticker, so merged results do not depend on which partition finished first */
+	static final Comparator<BacktestTrade> CHRONOLOGICAL = Comparator.comparing(BacktestTrade::getDate)
+			.thenComparing(BacktestTrade::getTicker)
+			.thenComparing(BacktestTrade::getEvent);
+	private final LocalDate date;
+	private final String ticker;
+	private final Event event;
+	private final SecurityType securityType;
+	private final BigDecimal strike;
+	private final LocalDate expiry;
+	private final int contracts;
+	private final BigDecimal underlyingPrice;
+
+	BacktestTrade(LocalDate date,
+	              String ticker,
+	              Event event,
+	              SecurityType securityType,
+	              BigDecimal strike,
+	              LocalDate expiry,
+	              int contracts,
+	              BigDecimal underlyingPrice) {
+		this.date = date;
+		this.ticker = ticker;
+		this.event = event;
+		this.securityType = securityType;
+		this.strike = strike;
+		this.expiry = expiry;
+		this.contracts = contracts;
+		this.underlyingPrice = underlyingPrice;
+	}
+
+	public LocalDate getDate() {
+		return date;
+	}
+
+	public String getTicker() {
+		return ticker;
+	}
+
+	public Event getEvent() {
+		return event;
+	}
+
+	public SecurityType getSecurityType() {
+		return securityType;
+	}
+
+	public BigDecimal getStrike() {
+		return strike;
+	}
+
+	public LocalDate getExpiry() {
+		return expiry;
+	}
+
+	public int getContracts() {
+		return contracts;
+	}
+
+	public BigDecimal getUnderlyingPrice() {
+		return underlyingPrice;
+	}
+
+	@Override
+	public String toString() {
+		return date + " " + ticker + " " + event + " " + contracts + " " + securityType +
+				" strike $" + strike + " expiry " + expiry + " underlying $" + underlyingPrice;
+	}
+
+	public enum Event {
+		WRITTEN,
+		EXERCISED,
+		EXPIRED
+	}
+}
@@ -0,0 +1,216 @@
+package net.toddsarratt.gaussTrader.backtest;
+
+import net.toddsarratt.gaussTrader.strategy.BollingerParameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * Backtests many combinations of Bollinger strategy parameters in one JVM and ranks them. Closes are loaded once.
+ * Moving averages, and the Bollinger bands for each distinct period, are calculated once per ticker (see
+ * TickerSeries) and shared by every combination. Combinations run in parallel on a fork-join pool; each
+ * combination replays its tickers in ticker order, so results do not depend on scheduling.
+ * <pre>
+ *     ParameterSweep sweep = new ParameterSweep(closesByTicker, Constants.STARTING_CASH, 8);
+ *     List&lt;SweepResult&gt; ranked = sweep.run(ParameterSweep.grid(
+ *             List.of(10, 20, 30),
+ *             List.of(new BigDecimal("1.5"), new BigDecimal("2.0")),
+ *             List.of(new BigDecimal("2.5")),
+ *             List.of(new BigDecimal("3.0"), new BigDecimal("3.5")),
+ *             List.of(new BigDecimal("5.0"), new BigDecimal("10.0"))));
+ *     System.out.println(ParameterSweep.formatTable(ranked, 25));
+ * </pre>
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
+public class ParameterSweep {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ParameterSweep.class);
+	private final List<TickerSeries> tickerSeries;
+	private final BigDecimal startingCash;
+	private final int parallelism;
+
+	/**
+	 * @param closesByTicker daily closes for each ticker
+	 * @param startingCash   cash for the whole portfolio, split evenly between tickers
+	 * @param parallelism    number of worker threads
+	 */
+	public ParameterSweep(Map<String, NavigableMap<LocalDate, BigDecimal>> closesByTicker, BigDecimal startingCash, int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be at least 1");
+		}
+		this.tickerSeries = new TreeSet<>(closesByTicker.keySet()).stream()
+				.filter(ticker -> !closesByTicker.get(ticker).isEmpty())
+				.map(ticker -> new TickerSeries(ticker, closesByTicker.get(ticker)))
+				.collect(Collectors.toList());
+		this.startingCash = startingCash;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Every combination of the values given. Combinations whose standard deviations are out of order
+	 * (sd1 <= sd2 <= sd3) are left out.
+	 *
+	 * @return combinations in the order the values were given
+	 */
+	public static List<BollingerParameters> grid(Collection<Integer> periods,
+	                                             Collection<BigDecimal> sd1s,
+	                                             Collection<BigDecimal> sd2s,
+	                                             Collection<BigDecimal> sd3s,
+	                                             Collection<BigDecimal> stockPctsOfPortfolio) {
+		List<BollingerParameters> combinations = new ArrayList<>();
+		for (int period : periods) {
+			for (BigDecimal sd1 : sd1s) {
+				for (BigDecimal sd2 : sd2s) {
+					for (BigDecimal sd3 : sd3s) {
+						if ((sd1.compareTo(sd2) > 0) || (sd2.compareTo(sd3) > 0)) {
+							continue;
+						}
+						for (BigDecimal stockPctOfPortfolio : stockPctsOfPortfolio) {
+							combinations.add(BollingerParameters.of(period, sd1, sd2, sd3, stockPctOfPortfolio));
+						}
+					}
+				}
+			}
+		}
+		return combinations;
+	}
+
+	/**
+	 * Random combinations drawn uniformly from the ranges given. Standard deviations and percentages are rounded to one
+	 * decimal place and the three deviations drawn are sorted into sd1 <= sd2 <= sd3. Duplicates are dropped, so
+	 * fewer than count combinations may be returned. The same seed always draws the same combinations.
+	 *
+	 * @param count     number of combinations to draw
+	 * @param seed      random seed
+	 * @param minPeriod smallest period
+	 * @param maxPeriod largest period
+	 * @param minSd     smallest standard deviation multiple
+	 * @param maxSd     largest standard deviation multiple
+	 * @param minPct    smallest stock percent of portfolio
+	 * @param maxPct    largest stock percent of portfolio
+	 * @return combinations in the order drawn
+	 */
+	public static List<BollingerParameters> random(int count, long seed,
+	                                               int minPeriod, int maxPeriod,
+	                                               BigDecimal minSd, BigDecimal maxSd,
+	                                               BigDecimal minPct, BigDecimal maxPct) {
+		Random random = new Random(seed);
+		Set<BollingerParameters> combinations = new LinkedHashSet<>();
+		for (int drawn = 0; drawn < count; drawn++) {
+			int period = minPeriod + random.nextInt(maxPeriod - minPeriod + 1);
+			BigDecimal[] sds = {
+					between(random, minSd, maxSd),
+					between(random, minSd, maxSd),
+					between(random, minSd, maxSd)};
+			Arrays.sort(sds);
+			combinations.add(BollingerParameters.of(period, sds[0], sds[1], sds[2], between(random, minPct, maxPct)));
+		}
+		return new ArrayList<>(combinations);
+	}
+
+	private static BigDecimal between(Random random, BigDecimal low, BigDecimal high) {
+		return low.add(high.subtract(low).multiply(BigDecimal.valueOf(random.nextDouble())))
+				.setScale(1, RoundingMode.HALF_UP);
+	}
+
+	/**
+	 * Backtests every combination.
+	 *
+	 * @param combinations parameter combinations to evaluate
+	 * @return results ranked best first
+	 */
+	public List<SweepResult> run(Collection<BollingerParameters> combinations) {
+		if (tickerSeries.isEmpty()) {
+			LOGGER.warn("No prices to sweep");
+			return new ArrayList<>();
+		}
+		BigDecimal cashPerTicker = BacktestRunner.cashPerTicker(startingCash, tickerSeries.size());
+		/* Combinations sharing a period run next to each other while their bands are hot in cache */
+		List<BollingerParameters> byPeriod = combinations.stream()
+				.distinct()
+				.sorted(Comparator.comparingInt(BollingerParameters::getPeriod))
+				.collect(Collectors.toList());
+		Set<Integer> periods = byPeriod.stream()
+				.map(BollingerParameters::getPeriod)
+				.collect(Collectors.toCollection(TreeSet::new));
+		LOGGER.info("Sweeping {} combinations ({} distinct periods) over {} tickers on {} threads",
+				byPeriod.size(), periods.size(), tickerSeries.size(), parallelism);
+		long startNanos = System.nanoTime();
+		ForkJoinPool forkJoinPool = new ForkJoinPool(parallelism);
+		List<SweepResult> results;
+		try {
+			forkJoinPool.submit(() -> tickerSeries.parallelStream()
+					.forEach(series -> periods.forEach(series::bollingerBands)))
+					.join();
+			results = forkJoinPool.submit(() -> byPeriod.parallelStream()
+					.map(parameters -> evaluate(parameters, cashPerTicker))
+					.collect(Collectors.toList()))
+					.join();
+		} finally {
+			forkJoinPool.shutdown();
+		}
+		results.sort(SweepResult.RANKING);
+		Duration elapsed = Duration.ofNanos(System.nanoTime() - startNanos);
+		long bars = tickerSeries.stream().mapToLong(TickerSeries::size).sum() * byPeriod.size();
+		LOGGER.info("Swept {} combinations in {}ms ({} bars/sec)", results.size(), elapsed.toMillis(),
+				String.format("%.0f", bars * 1_000_000_000.0 / Math.max(elapsed.toNanos(), 1L)));
+		return results;
+	}
+
+	private SweepResult evaluate(BollingerParameters parameters, BigDecimal cashPerTicker) {
+		long startNanos = System.nanoTime();
+		List<TickerBacktest.Result> tickerResults = new ArrayList<>(tickerSeries.size());
+		for (TickerSeries series : tickerSeries) {
+			tickerResults.add(new TickerBacktest(series, cashPerTicker, parameters).run());
+		}
+		BacktestReport report = BacktestReport.merge(tickerResults, startingCash, cashPerTicker,
+				Duration.ofNanos(System.nanoTime() - startNanos));
+		return new SweepResult(parameters, report);
+	}
+
+	/**
+	 * Plain text table of the best results.
+	 *
+	 * @param ranked results ranked best first, as returned by run()
+	 * @param rows   most rows to print
+	 * @return table with one line per result
+	 */
+	public static String formatTable(List<SweepResult> ranked, int rows) {
+		StringBuilder table = new StringBuilder(String.format("%5s %6s %5s %5s %5s %6s %15s %9s %9s %7s%n",
+				"rank", "period", "sd1", "sd2", "sd3", "pct", "ending NAV", "return", "drawdown", "trades"));
+		for (int rank = 0; rank < Math.min(rows, ranked.size()); rank++) {
+			SweepResult result = ranked.get(rank);
+			BollingerParameters parameters = result.getParameters();
+			table.append(String.format("%5d %6d %5s %5s %5s %6s %15s %8.2f%% %8.2f%% %7d%n",
+					rank + 1,
+					parameters.getPeriod(),
+					parameters.getSd1(),
+					parameters.getSd2(),
+					parameters.getSd3(),
+					parameters.getStockPctOfPortfolio(),
+					result.getEndingNav().setScale(2, RoundingMode.HALF_UP),
+					result.getTotalReturn().doubleValue() * 100.0,
+					result.getMaxDrawdown().doubleValue() * 100.0,
+					result.getTradeCount()));
+		}
+		return table.toString();
+	}
+}
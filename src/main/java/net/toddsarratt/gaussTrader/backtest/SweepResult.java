@@ -0,0 +1,69 @@
+package net.toddsarratt.gaussTrader.backtest;
+
+import net.toddsarratt.gaussTrader.strategy.BollingerParameters;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Comparator;
+
+/**
+ * Outcome of backtesting one combination of strategy parameters during a ParameterSweep.
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
+public class SweepResult {
+	/* Best ending NAV first, shallower drawdown breaks ties, parameters break any remaining tie so ranking is stable */
+	static final Comparator<SweepResult> RANKING = Comparator.comparing(SweepResult::getEndingNav).reversed()
+			.thenComparing(SweepResult::getMaxDrawdown)
+			.thenComparing(sweepResult -> sweepResult.getParameters().toString());
+	private final BollingerParameters parameters;
+	private final BigDecimal endingNav;
+	private final BigDecimal totalReturn;
+	private final BigDecimal maxDrawdown;
+	private final int tradeCount;
+
+	SweepResult(BollingerParameters parameters, BacktestReport report) {
+		this.parameters = parameters;
+		this.endingNav = report.getEndingNav();
+		this.totalReturn = report.getStartingCash().signum() == 0 ?
+				BigDecimal.ZERO :
+				endingNav.subtract(report.getStartingCash()).divide(report.getStartingCash(), 6, RoundingMode.HALF_UP);
+		this.maxDrawdown = report.getMaxDrawdown();
+		this.tradeCount = report.getTrades().size();
+	}
+
+	public BollingerParameters getParameters() {
+		return parameters;
+	}
+
+	public BigDecimal getEndingNav() {
+		return endingNav;
+	}
+
+	/**
+	 * @return ending NAV over starting cash minus one
+	 */
+	public BigDecimal getTotalReturn() {
+		return totalReturn;
+	}
+
+	public BigDecimal getMaxDrawdown() {
+		return maxDrawdown;
+	}
+
+	public int getTradeCount() {
+		return tradeCount;
+	}
+
+	@Override
+	public String toString() {
+		return "SweepResult{" +
+				"parameters=" + parameters +
+				", endingNav=" + endingNav +
+				", totalReturn=" + totalReturn +
+				", maxDrawdown=" + maxDrawdown +
+				", tradeCount=" + tradeCount +
+				'}';
+	}
+}
@@ -0,0 +1,195 @@
+package net.toddsarratt.gaussTrader.backtest;
+
+import net.toddsarratt.gaussTrader.Position;
+import net.toddsarratt.gaussTrader.PriceBasedAction;
+import net.toddsarratt.gaussTrader.domain.Option;
+import net.toddsarratt.gaussTrader.domain.Stock;
+import net.toddsarratt.gaussTrader.market.ReplayMarket;
+import net.toddsarratt.gaussTrader.orders.Order;
+import net.toddsarratt.gaussTrader.persistence.entity.Portfolio;
+import net.toddsarratt.gaussTrader.portfolio.PortfolioAccountant;
+import net.toddsarratt.gaussTrader.singletons.SecurityType;
+import net.toddsarratt.gaussTrader.strategy.BollingerParameters;
+import net.toddsarratt.gaussTrader.strategy.OptionWritesAgainstBollingerBands;
+import net.toddsarratt.gaussTrader.technicals.BollingerBands;
+import net.toddsarratt.gaussTrader.technicals.MovingAverages;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static net.toddsarratt.gaussTrader.singletons.Constants.BIGDECIMAL_ONE_HUNDRED;
+import static net.toddsarratt.gaussTrader.singletons.SecurityType.CALL;
+import static net.toddsarratt.gaussTrader.singletons.SecurityType.PUT;
+
+/**
+ * Replays one ticker's daily closes through the trading strategy with its own slice of starting cash. Everything a
+ * TickerBacktest touches belongs to it alone (market, portfolio, accountant), so many can run in parallel without
+ * locking.
+ * <p>
+ * Each bar the strategy sees the close against Bollinger bands and moving averages calculated from the closes before
+ * it, taken from the shared TickerSeries so nothing is recalculated per backtest. Actionable results are filled at the
+ * close: puts are cash secured and calls are covered by shares already held. Options expire on the third Friday of
+ * the following month and are settled against the close on or after expiry. There is no option price history, so
+ * written options collect no premium and are marked at intrinsic value.
+ * <p>
+ * Writes, assignments and expiries go through the PortfolioAccountant as live trades do, so its cash, NAV and the
+ * positions the strategy counts (assigned stock to cover calls, puts already written) are the backtest's own.
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
+class TickerBacktest {
+	private static final Logger LOGGER = LoggerFactory.getLogger(TickerBacktest.class);
+	private final String ticker;
+	private final TickerSeries series;
+	private final BollingerParameters parameters;
+	private final ReplayMarket market;
+	private final PortfolioAccountant portfolioAccountant;
+	/* Open option positions written by this backtest, settled through the accountant at expiry */
+	private final List<Position> writtenOptions = new ArrayList<>();
+	private final List<BacktestTrade> trades = new ArrayList<>();
+	private final NavigableMap<LocalDate, BigDecimal> navCurve = new TreeMap<>();
+
+	TickerBacktest(TickerSeries series, BigDecimal startingCash, BollingerParameters parameters) {
+		this.ticker = series.getTicker();
+		this.series = series;
+		this.parameters = parameters;
+		NavigableMap<LocalDate, BigDecimal> closes = series.getCloses();
+		this.market = new ReplayMarket(closes.firstKey(), closes.lastKey());
+		closes.forEach((date, close) -> market.addDailyClose(ticker, date, close));
+		Portfolio portfolio = new Portfolio();
+		portfolio.setName("Backtest " + ticker);
+		portfolio.setPositions(new HashSet<>());
+		portfolio.setOrders(new HashSet<>());
+		portfolio.setFreeCash(startingCash);
+		portfolio.setReservedCash(BigDecimal.ZERO);
+		portfolio.setTotalCash(startingCash);
+		this.portfolioAccountant = new PortfolioAccountant(portfolio, market);
+	}
+
+	/**
+	 * Runs every bar for this ticker.
+	 *
+	 * @return trades, NAV curve and bar count for this ticker
+	 */
+	Result run() {
+		LOGGER.debug("Entering run() for {} with {} closes and {}", ticker, series.size(), parameters);
+		LocalDate[] dates = series.getDates();
+		BigDecimal[] prices = series.getPrices();
+		MovingAverages[] movingAverages = series.getMovingAverages();
+		BollingerBands[] bollingerBands = series.bollingerBands(parameters.getPeriod());
+		for (int bar = 0; bar < prices.length; bar++) {
+			LocalDate date = dates[bar];
+			BigDecimal close = prices[bar];
+			market.moveTo(market.closingDateTimeOn(date));
+			portfolioAccountant.updateStockPositions();
+			portfolioAccountant.updateOptionPositions();
+			settleExpiringOptions(date, close);
+			/* Technicals come from the closes before this bar, as they would in live trading */
+			if ((movingAverages[bar] != null) && (bollingerBands[bar] != null)) {
+				Stock stock = Stock.of(ticker, movingAverages[bar], bollingerBands[bar]);
+				PriceBasedAction actionToTake = OptionWritesAgainstBollingerBands.findActionToTake(stock, close,
+						portfolioAccountant, parameters);
+				if (actionToTake.isActionable()) {
+					writeOption(stock, actionToTake, date, close);
+				}
+			}
+			/* Written options are marked at intrinsic value, so NAV is net of what they would cost to close */
+			navCurve.put(date, portfolioAccountant.calcPortfolioNav());
+		}
+		return new Result(ticker, trades, navCurve, prices.length);
+	}
+
+	private void writeOption(Stock stock, PriceBasedAction action, LocalDate date, BigDecimal close) {
+		SecurityType securityType = action.getSecurityType();
+		LocalDate expiry = date.plusMonths(1).with(TemporalAdjusters.dayOfWeekInMonth(3, DayOfWeek.FRIDAY));
+		int contracts;
+		BigDecimal strike;
+		if (securityType == PUT) {
+			strike = close.setScale(0, RoundingMode.FLOOR);
+			BigDecimal cashPerContract = strike.multiply(BIGDECIMAL_ONE_HUNDRED);
+			if (cashPerContract.signum() <= 0) {
+				return;
+			}
+			long affordableContracts = portfolioAccountant.getSummary().getFreeCash()
+					.divide(cashPerContract, 0, RoundingMode.DOWN).longValue();
+			contracts = (int) Math.min(action.getNumberToTransact(), affordableContracts);
+			if (contracts < 1) {
+				LOGGER.debug("Not enough free cash to secure {} put on {}", ticker, date);
+				return;
+			}
+		} else if (securityType == CALL) {
+			strike = close.setScale(0, RoundingMode.CEILING);
+			long coveredContracts = (portfolioAccountant.countOfOpenLongStockShares(stock) / 100) -
+					portfolioAccountant.numberOfOpenCallShorts(stock);
+			contracts = (int) Math.min(action.getNumberToTransact(), coveredContracts);
+			if (contracts < 1) {
+				LOGGER.debug("No uncovered {} shares to write calls against on {}", ticker, date);
+				return;
+			}
+		} else {
+			LOGGER.warn("Backtest only writes options, ignoring {} action for {}", securityType, ticker);
+			return;
+		}
+		/* Filled at once for no premium; the accountant reserves the strike value of a put until it settles */
+		Order writeOrder = Order.of(Option.of(ticker, securityType, expiry, strike), BigDecimal.ZERO,
+				PriceBasedAction.of(close, true, action.getBuyOrSell(), securityType, contracts), "GFD");
+		Position writtenOption = new Position(writeOrder, BigDecimal.ZERO);
+		portfolioAccountant.addNewPosition(writtenOption);
+		writtenOptions.add(writtenOption);
+		trades.add(new BacktestTrade(date, ticker, BacktestTrade.Event.WRITTEN, securityType, strike, expiry, contracts, close));
+	}
+
+	private void settleExpiringOptions(LocalDate date, BigDecimal close) {
+		Iterator<Position> writtenOptionIterator = writtenOptions.iterator();
+		while (writtenOptionIterator.hasNext()) {
+			Position writtenOption = writtenOptionIterator.next();
+			if (writtenOption.getExpiry().isAfter(date)) {
+				continue;
+			}
+			writtenOptionIterator.remove();
+			SecurityType securityType = writtenOption.isPut() ? PUT : CALL;
+			int contracts = writtenOption.getNumberTransacted();
+			boolean exercised = (securityType == PUT) ?
+					(close.compareTo(writtenOption.getStrikePrice()) <= 0) :
+					(close.compareTo(writtenOption.getStrikePrice()) >= 0);
+			if (exercised) {
+				/* A put buys the shares at the strike with the cash reserved for it, a call delivers covered shares */
+				portfolioAccountant.exerciseOption(writtenOption);
+			} else {
+				portfolioAccountant.expireOptionPosition(writtenOption);
+			}
+			trades.add(new BacktestTrade(date, ticker,
+					exercised ? BacktestTrade.Event.EXERCISED : BacktestTrade.Event.EXPIRED,
+					securityType, writtenOption.getStrikePrice(), writtenOption.getExpiry(), contracts, close));
+		}
+	}
+
+	/**
+	 * Outcome of one ticker's backtest.
+	 */
+	static class Result {
+		final String ticker;
+		final List<BacktestTrade> trades;
+		final NavigableMap<LocalDate, BigDecimal> navCurve;
+		final long barCount;
+
+		Result(String ticker, List<BacktestTrade> trades, NavigableMap<LocalDate, BigDecimal> navCurve, long barCount) {
+			this.ticker = ticker;
+			this.trades = trades;
+			this.navCurve = navCurve;
+			this.barCount = barCount;
+		}
+	}
+}
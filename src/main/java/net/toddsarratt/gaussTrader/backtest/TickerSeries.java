@@ -0,0 +1,92 @@
+package net.toddsarratt.gaussTrader.backtest;
+
+import net.toddsarratt.gaussTrader.technicals.BollingerBands;
+import net.toddsarratt.gaussTrader.technicals.MovingAverages;
+import net.toddsarratt.gaussTrader.technicals.RollingBollingerBands;
+import net.toddsarratt.gaussTrader.technicals.RollingMovingAverages;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One ticker's daily closes with the technicals for every bar calculated once and shared by every backtest of that
+ * ticker. Moving averages are calculated when the series is built. Bollinger bands depend on the period, so they are
+ * calculated the first time a period is asked for and reused by every parameter combination with that period.
+ * <p>
+ * Technicals at bar i describe the closes before bar i, which is what the strategy would have known at that close.
+ * Bars without enough prior closes hold null.
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
+class TickerSeries {
+	private final String ticker;
+	private final NavigableMap<LocalDate, BigDecimal> closes;
+	private final LocalDate[] dates;
+	private final BigDecimal[] prices;
+	private final MovingAverages[] movingAverages;
+	private final Map<Integer, BollingerBands[]> bollingerBandsByPeriod = new ConcurrentHashMap<>();
+
+	TickerSeries(String ticker, NavigableMap<LocalDate, BigDecimal> closes) {
+		this.ticker = ticker;
+		this.closes = closes;
+		this.dates = closes.keySet().toArray(new LocalDate[0]);
+		this.prices = closes.values().toArray(new BigDecimal[0]);
+		this.movingAverages = new MovingAverages[prices.length];
+		RollingMovingAverages rollingMovingAverages = new RollingMovingAverages();
+		for (int bar = 0; bar < prices.length; bar++) {
+			if (rollingMovingAverages.isReady()) {
+				movingAverages[bar] = rollingMovingAverages.getMovingAverages();
+			}
+			rollingMovingAverages.addClose(prices[bar]);
+		}
+	}
+
+	/**
+	 * Bollinger bands of every bar for period, calculated on first request by rolling a RollingBollingerBands window
+	 * through the closes.
+	 *
+	 * @param period number of prior closes in each band
+	 * @return bands by bar, null where fewer than period closes precede the bar
+	 */
+	BollingerBands[] bollingerBands(int period) {
+		return bollingerBandsByPeriod.computeIfAbsent(period, this::calculateBollingerBands);
+	}
+
+	private BollingerBands[] calculateBollingerBands(int period) {
+		BollingerBands[] bollingerBands = new BollingerBands[prices.length];
+		RollingBollingerBands rollingBollingerBands = new RollingBollingerBands(period);
+		for (int bar = 0; bar < prices.length; bar++) {
+			bollingerBands[bar] = rollingBollingerBands.getBollingerBands();
+			rollingBollingerBands.addClose(prices[bar]);
+		}
+		return bollingerBands;
+	}
+
+	String getTicker() {
+		return ticker;
+	}
+
+	NavigableMap<LocalDate, BigDecimal> getCloses() {
+		return closes;
+	}
+
+	LocalDate[] getDates() {
+		return dates;
+	}
+
+	BigDecimal[] getPrices() {
+		return prices;
+	}
+
+	MovingAverages[] getMovingAverages() {
+		return movingAverages;
+	}
+
+	int size() {
+		return prices.length;
+	}
+}
@@ -2,8 +2,8 @@ package net.toddsarratt.gaussTrader.domain;
 
 import net.toddsarratt.gaussTrader.GaussTrader;
 import net.toddsarratt.gaussTrader.PriceBasedAction;
-import net.toddsarratt.gaussTrader.market.Market;
-import net.toddsarratt.gaussTrader.persistence.entity.InstantPrice;
+import net.toddsarratt.gaussTrader.InstantPrice;
+import net.toddsarratt.gaussTrader.securities.Security;
 import net.toddsarratt.gaussTrader.singletons.SecurityType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,7 +23,6 @@ import java.util.regex.Pattern;
  */
 
 public class Option implements Security {
-	private final static Market MARKET = GaussTrader.getMarket();
 	private static final Logger LOGGER = LoggerFactory.getLogger(Option.class);
 	private final String ticker;
 	private final SecurityType secType;
@@ -44,10 +43,28 @@ public class Option implements Security {
 		this.strike = strike;
 	}
 
+	/**
+	 * Static factory method for an option whose contract terms are already known, for example the option of an order
+	 * recovered from the portfolio ledger. The market is not consulted.
+	 */
+	public static Option of(String ticker, SecurityType secType, LocalDate expiry, String underlyingTicker, BigDecimal strike) {
+		LOGGER.debug("Entering factory method of(\"{}\", {}, {}, \"{}\", ${})", ticker, secType, expiry, underlyingTicker, strike);
+		return new Option(ticker, secType, expiry, underlyingTicker, strike);
+	}
+
+	/**
+	 * Static factory method for an option on underlyingTicker whose ticker is built from its terms, for example one
+	 * written in a backtest. The market is not consulted.
+	 */
+	public static Option of(String underlyingTicker, SecurityType secType, LocalDate expiry, BigDecimal strike) {
+		return of(createOptionTicker(underlyingTicker, expiry, (secType == SecurityType.CALL) ? 'C' : 'P', strike),
+				secType, expiry, underlyingTicker, strike);
+	}
+
 	public static Option with(String ticker) {
 		// Receive an option ticker such as : XOM130720P00070000
 		LOGGER.debug("Entering static constructor with(String {})", ticker);
-		if (!MARKET.tickerValid(ticker)) {
+		if (!GaussTrader.getMarket().tickerValid(ticker)) {
 			throw new IllegalArgumentException("Invalid option ticker");
 		}
 		Pattern pattern = Pattern.compile("^[A-Z](1,4)");
@@ -72,11 +89,7 @@ public class Option implements Security {
 		BigDecimal strike = new BigDecimal(matcher.group(0)).divide(BigDecimal.valueOf(1000), 3, RoundingMode.HALF_UP);
 		LOGGER.info("Created {} option {} for underlying {} expiry {} for strike ${}",
 				secType, ticker, underlyingTicker, expiry.format(expiryFormat), strike);
-		if (secType.equals(SecurityType.PUT)) {
-			return new Put(ticker, expiry, underlyingTicker, strike);
-		} else {
-			return new Call(ticker, expiry, underlyingTicker, strike);
-		}
+		return new Option(ticker, secType, expiry, underlyingTicker, strike);
 	}
 
 	/**
@@ -116,7 +129,7 @@ public class Option implements Security {
 	public static Option with(Stock stock, PriceBasedAction action) {
 		LOGGER.debug("Entering with(Stock {}, action {})", stock, action);
 		LocalDate expiry;
-		ZonedDateTime currentZonedDateTime = MARKET.getCurrentZonedDateTime();
+		ZonedDateTime currentZonedDateTime = GaussTrader.getMarket().getCurrentZonedDateTime();
 		int expirationSaturday = calculateFutureExpiry(currentZonedDateTime.getMonth().getValue(),
 				currentZonedDateTime.getYear());
 		/* If today is less than 7 days before this month's options expiration, go out a month */
@@ -162,7 +175,7 @@ public class Option implements Security {
 				.compareTo(BigDecimal.valueOf(0.1))) < 0) {
 			String optionTickerToTry = createOptionTicker(stock.getTicker(), expiry, 'C', strikePrice);
 			LOGGER.debug("Trying option ticker {}", optionTickerToTry);
-			if (MARKET.tickerValid(optionTickerToTry)) {
+			if (GaussTrader.getMarket().tickerValid(optionTickerToTry)) {
 				return Option.with(optionTickerToTry);
 			}
 			strikePrice = strikePrice.add(BigDecimal.valueOf(0.50));
@@ -189,7 +202,7 @@ public class Option implements Security {
 				.divide(limitStrikePrice, 3, RoundingMode.HALF_UP)
 				.compareTo(BigDecimal.valueOf(0.1))) > 0) {
 			String optionTickerToTry = createOptionTicker(stock.getTicker(), expiry, 'P', strikePrice);
-			if (MARKET.tickerValid(optionTickerToTry)) {
+			if (GaussTrader.getMarket().tickerValid(optionTickerToTry)) {
 				LOGGER.debug("Returning new OptionDao(\"{}\")", optionTickerToTry);
 				return Option.with(optionTickerToTry);
 			}
@@ -12,19 +12,20 @@ package net.toddsarratt.gaussTrader.domain;
  */
 
 import net.toddsarratt.gaussTrader.GaussTrader;
-import net.toddsarratt.gaussTrader.market.Market;
-import net.toddsarratt.gaussTrader.persistence.entity.InstantPrice;
-import net.toddsarratt.gaussTrader.persistence.store.DataStore;
+import net.toddsarratt.gaussTrader.InstantPrice;
+import net.toddsarratt.gaussTrader.securities.Security;
 import net.toddsarratt.gaussTrader.singletons.Constants;
 import net.toddsarratt.gaussTrader.singletons.SecurityType;
 import net.toddsarratt.gaussTrader.technicals.BollingerBands;
 import net.toddsarratt.gaussTrader.technicals.MovingAverages;
+import net.toddsarratt.gaussTrader.technicals.PriceSeries;
+import net.toddsarratt.gaussTrader.technicals.RollingBollingerBands;
+import net.toddsarratt.gaussTrader.technicals.RollingMovingAverages;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -32,13 +33,14 @@ import java.util.stream.Collectors;
 import static net.toddsarratt.gaussTrader.singletons.SecurityType.STOCK;
 
 public class Stock implements Security {
-	private static final Market MARKET = GaussTrader.getMarket();
-	private static final DataStore DATA_STORE = GaussTrader.getDataStore();
 	private static final Logger LOGGER = LoggerFactory.getLogger(Stock.class);
 	private final String ticker;
 	private MovingAverages movingAverages;
 	//	public LinkedList<Dividend> dividendsPaid = null;
 	private BollingerBands bollingerBands;
+	/* Kept for stocks built from price history so technicals can follow new closes and ticks. Null when precalculated */
+	private RollingMovingAverages rollingMovingAverages;
+	private RollingBollingerBands rollingBollingerBands;
 	private InstantPrice lastPrice;
 
 	/**
@@ -58,34 +60,110 @@ public class Stock implements Security {
 
 	public static Stock of(String ticker) {
 		LOGGER.debug("Entering factory method of(\"{}\")", ticker);
-		if (MARKET.tickerValid(ticker)) {
-			MovingAverages movingAverages = MARKET.getMovingAverages(ticker);
-			HashMap<LocalDate, BigDecimal> historicalPriceMap = fetchHistoricalPrices(ticker);
-			BollingerBands bollingerBands = BollingerBands.generateBollingerBands(historicalPriceMap);
-			return new Stock(ticker, movingAverages, bollingerBands);
+		if (GaussTrader.getMarket().tickerValid(ticker)) {
+			Set<LocalDate> datesNeeded = historyDatesNeeded();
+			return fromHistory(ticker, datesNeeded, GaussTrader.getDataStore().readPriceSeries(ticker, findEarliestDate(datesNeeded)));
 		}
 		throw new IllegalArgumentException("Ticker invalid");
 	}
 
-	private static HashMap<LocalDate, BigDecimal> fetchHistoricalPrices(String ticker) {
-		int datesNeededCount = Constants.getBollBandPeriod();
-		Set<LocalDate> datesNeeded = priorOpenMarketDates(datesNeededCount);
-		HashMap<LocalDate, BigDecimal> historicalPriceMap = fetchStoredHistoricalPrices(ticker, datesNeeded);
-		if (historicalPriceMap.size() < datesNeededCount) {
-			Set<LocalDate> missingPriceDates = datesNeeded.stream()
-					.filter(dateNeeded -> !historicalPriceMap.containsKey(dateNeeded))
-					.collect(Collectors.toSet());
-			HashMap<LocalDate, BigDecimal> missingPriceMap = fetchMissingPricesFromMarket(ticker, missingPriceDates);
-			missingPriceDates.forEach(missingDate -> historicalPriceMap.put(missingDate, missingPriceMap.get(missingDate)));
-			updateStoreMissingPrices(ticker, missingPriceDates, historicalPriceMap);
+	/**
+	 * Static factory method for a ticker already known to be valid whose stored closes have already been read, for
+	 * example in bulk by WatchListBootstrap. Only closes missing from storedPrices are read from the market.
+	 *
+	 * @param ticker       a String representing the ticker
+	 * @param storedPrices closes read from the data store since earliestHistoryDate()
+	 * @return Stock object
+	 */
+	public static Stock of(String ticker, PriceSeries storedPrices) {
+		LOGGER.debug("Entering factory method of(\"{}\", {})", ticker, storedPrices);
+		return fromHistory(ticker, historyDatesNeeded(), storedPrices);
+	}
+
+	/**
+	 * @return earliest close needed to calculate a stock's technicals today
+	 */
+	public static LocalDate earliestHistoryDate() {
+		return findEarliestDate(historyDatesNeeded());
+	}
+
+	private static Stock fromHistory(String ticker, Set<LocalDate> datesNeeded, PriceSeries storedPrices) {
+		PriceSeries historicalPrices = fetchHistoricalPrices(ticker, datesNeeded, storedPrices);
+		RollingMovingAverages rollingMovingAverages = RollingMovingAverages.of(historicalPrices);
+		RollingBollingerBands rollingBollingerBands = RollingBollingerBands.of(Constants.getBollBandPeriod(), historicalPrices);
+		if (!rollingMovingAverages.isReady()) {
+			LOGGER.warn("Only {} closes found for {}, moving averages are incomplete", historicalPrices.size(), ticker);
 		}
-		return historicalPriceMap;
+		if (!rollingBollingerBands.isReady()) {
+			LOGGER.warn("Not enough historical data to calculate Bollinger Bands for {}", ticker);
+		}
+		Stock stock = new Stock(ticker, rollingMovingAverages.getMovingAverages(), rollingBollingerBands.getBollingerBands());
+		stock.rollingMovingAverages = rollingMovingAverages;
+		stock.rollingBollingerBands = rollingBollingerBands;
+		return stock;
+	}
+
+	/**
+	 * Static factory method for a stock whose technicals have already been calculated, for example by a backtest
+	 * replaying recorded prices. Neither the market nor the data store is consulted.
+	 *
+	 * @param ticker         a String representing the ticker
+	 * @param movingAverages moving averages as of the last close
+	 * @param bollingerBands Bollinger bands as of the last close
+	 * @return Stock object
+	 */
+	public static Stock of(String ticker, MovingAverages movingAverages, BollingerBands bollingerBands) {
+		LOGGER.debug("Entering factory method of(\"{}\", MovingAverages, BollingerBands)", ticker);
+		return new Stock(ticker, movingAverages, bollingerBands);
+	}
+
+	/**
+	 * Static factory method for a stock known only by its ticker, for example the stock of an order recovered from the
+	 * portfolio ledger. It has no technicals, and neither the market nor the data store is consulted.
+	 *
+	 * @param ticker a String representing the ticker
+	 * @return Stock object
+	 */
+	public static Stock withoutTechnicals(String ticker) {
+		LOGGER.debug("Entering factory method withoutTechnicals(\"{}\")", ticker);
+		return new Stock(ticker, null, null);
+	}
+
+	/* Open market dates before today covering the longer of the Bollinger band period and the 200 day moving average */
+	private static Set<LocalDate> historyDatesNeeded() {
+		return priorOpenMarketDates(Math.max(Constants.getBollBandPeriod(), RollingMovingAverages.LONGEST_PERIOD));
+	}
+
+	/**
+	 * Closes on each of datesNeeded, taken from storedPrices. Any the store is missing are read from the market and
+	 * written back to the store.
+	 */
+	private static PriceSeries fetchHistoricalPrices(String ticker, Set<LocalDate> datesNeeded, PriceSeries storedPrices) {
+		Set<LocalDate> missingPriceDates = datesNeeded.stream()
+				.filter(dateNeeded -> !storedPrices.containsDate(dateNeeded))
+				.collect(Collectors.toSet());
+		PriceSeries marketPrices = missingPriceDates.isEmpty() ?
+				PriceSeries.empty() :
+				fetchMissingPricesFromMarket(ticker, missingPriceDates);
+		PriceSeries.Builder historicalPrices = PriceSeries.builder(datesNeeded.size());
+		for (LocalDate dateNeeded : datesNeeded) {
+			BigDecimal price = missingPriceDates.contains(dateNeeded) ?
+					marketPrices.getPrice(dateNeeded) :
+					storedPrices.getPrice(dateNeeded);
+			if ((price == null) || (price.compareTo(Constants.BIGDECIMAL_MINUS_ONE) == 0)) {
+				LOGGER.warn("No close for {} on {}", ticker, dateNeeded);
+				continue;
+			}
+			historicalPrices.add(dateNeeded, price);
+		}
+		updateStoreMissingPrices(ticker, missingPriceDates, marketPrices);
+		return historicalPrices.build();
 	}
 
 	// TODO: Replace with stream
 	private static LocalDate findEarliestDate(Set<LocalDate> dates) {
 		// TODO: Not the right way to get the TZ
-		LocalDate earliestDate = LocalDate.now(MARKET.getClosingZonedDateTime().getZone());
+		LocalDate earliestDate = LocalDate.now(GaussTrader.getMarket().getClosingZonedDateTime().getZone());
 		for (LocalDate date : dates) {
 			if (date.isBefore(earliestDate)) {
 				earliestDate = date;
@@ -94,28 +172,28 @@ public class Stock implements Security {
 		return earliestDate;
 	}
 
-	private static HashMap<LocalDate, BigDecimal> fetchStoredHistoricalPrices(String ticker, Set<LocalDate> datesToRetrieve) {
-		return DATA_STORE.readHistoricalPrices(ticker, findEarliestDate(datesToRetrieve));
-	}
-
-	private static HashMap<LocalDate, BigDecimal> fetchMissingPricesFromMarket(String ticker, Set<LocalDate> datesToRetrieve) {
+	private static PriceSeries fetchMissingPricesFromMarket(String ticker, Set<LocalDate> datesToRetrieve) {
 		LOGGER.debug("Calculating date range for missing stock prices.");
-		return MARKET.readHistoricalPrices(ticker, findEarliestDate(datesToRetrieve));
+		return GaussTrader.getMarket().readPriceSeries(ticker, findEarliestDate(datesToRetrieve));
 	}
 
-	private static void updateStoreMissingPrices(String ticker, Set<LocalDate> missingPriceDates, HashMap<LocalDate, BigDecimal> priceMap) {
-		missingPriceDates.forEach(date -> DATA_STORE.writeStockPrice(ticker, date, priceMap.get(date)));
+	private static void updateStoreMissingPrices(String ticker, Set<LocalDate> missingPriceDates, PriceSeries marketPrices) {
+		PriceSeries.Builder missingPrices = PriceSeries.builder(missingPriceDates.size());
+		missingPriceDates.stream()
+				.filter(marketPrices::containsDate)
+				.forEach(date -> missingPrices.add(date, marketPrices.getPrice(date)));
+		GaussTrader.getDataStore().writeStockPrices(ticker, missingPrices.build());
 	}
 
 	private static Set<LocalDate> priorOpenMarketDates(int datesNeeded) {
 		LOGGER.debug("Entering openMarketDates()");
 		Set<LocalDate> openMarketDates = new HashSet<>();
 		// TODO: Not the right way to get the TZ
-		LocalDate dateToCheck = LocalDate.now(MARKET.getClosingZonedDateTime().getZone());
+		LocalDate dateToCheck = LocalDate.now(GaussTrader.getMarket().getClosingZonedDateTime().getZone());
 		LOGGER.debug("Looking for valid open market dates backwards from {} ", dateToCheck);
 		for (int checkedDates = 0; checkedDates < datesNeeded; checkedDates++) {
 			dateToCheck = dateToCheck.minusDays(1);
-			while (!MARKET.isOpenMarketDate(dateToCheck)) {
+			while (!GaussTrader.getMarket().isOpenMarketDate(dateToCheck)) {
 				dateToCheck = dateToCheck.minusDays(1);
 			}
 			openMarketDates.add(dateToCheck);
@@ -147,10 +225,45 @@ public class Stock implements Security {
 		return movingAverages;
 	}
 
+	public BigDecimal getFiftyDma() {
+		return (movingAverages == null) ? null : movingAverages.getFiftyDma();
+	}
+
+	public BigDecimal getTwoHundredDma() {
+		return (movingAverages == null) ? null : movingAverages.getTwoHundredDma();
+	}
+
 	public BollingerBands getBollingerBands() {
 		return bollingerBands;
 	}
 
+	/**
+	 * Bollinger bands with the last price standing in for today's close, or the closing bands if there is no intraday
+	 * price or the bands were precalculated.
+	 *
+	 * @return BollingerBands object, null if there are not enough closes
+	 */
+	public BollingerBands getIntradayBollingerBands() {
+		return (rollingBollingerBands == null) ? bollingerBands : rollingBollingerBands.getIntradayBollingerBands();
+	}
+
+	/**
+	 * Rolls today's close into the moving averages and Bollinger bands without rereading price history.
+	 *
+	 * @param close closing price
+	 */
+	public void addClose(BigDecimal close) {
+		LOGGER.debug("Entering addClose(BigDecimal {}) for {}", close, ticker);
+		if ((rollingMovingAverages == null) || (rollingBollingerBands == null)) {
+			LOGGER.warn("Technicals for {} were precalculated and cannot be rolled forward", ticker);
+			return;
+		}
+		rollingMovingAverages.addClose(close);
+		movingAverages = rollingMovingAverages.getMovingAverages();
+		rollingBollingerBands.addClose(close);
+		bollingerBands = rollingBollingerBands.getBollingerBands();
+	}
+
 	@Override
 	public InstantPrice getLastPrice() {
 		return lastPrice;
@@ -158,6 +271,9 @@ public class Stock implements Security {
 
 	public void setLastPrice(InstantPrice lastPrice) {
 		this.lastPrice = lastPrice;
+		if ((rollingBollingerBands != null) && (lastPrice != null) && (lastPrice != InstantPrice.NO_PRICE)) {
+			rollingBollingerBands.updateIntraday(lastPrice.getPrice());
+		}
 	}
 
 	@Override
@@ -0,0 +1,346 @@
+package net.toddsarratt.gaussTrader.market;
+
+import net.toddsarratt.gaussTrader.InstantPrice;
+import net.toddsarratt.gaussTrader.securities.Security;
+import net.toddsarratt.gaussTrader.singletons.Constants;
+import net.toddsarratt.gaussTrader.technicals.PriceSeries;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A Market decorator which caches last ticks in front of another Market. A cached tick is served until it is older
+ * than the freshness window, which defaults to one trading cycle (Constants.DELAY_MS). Quotes from Yahoo! are already
+ * delayed 20 minutes, so repeat lookups of the same ticker within a cycle lose nothing by sharing one quote.
+ * <p>
+ * Concurrent requests for the same ticker are coalesced: only the first caller goes to the underlying market and the
+ * rest wait for its answer. The cache holds at most maxSize tickers and evicts the least recently used. Failed
+ * lookups (InstantPrice.NO_PRICE) are never cached.
+ * <p>
+ * Every other Market method is passed straight through to the underlying market.
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
+public class CachingMarket extends Market {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CachingMarket.class);
+	private final Market market;
+	private final long freshnessNanos;
+	private final Map<String, CachedTick> cachedTicks;
+	private final Map<String, CompletableFuture<InstantPrice>> ticksInFlight = new ConcurrentHashMap<>();
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder coalescedCount = new LongAdder();
+	private final LongAdder evictionCount = new LongAdder();
+
+	/**
+	 * Caches in front of market using QUOTE_CACHE_TTL_MS and QUOTE_CACHE_MAX_SIZE from the properties file.
+	 *
+	 * @param market market to cache last ticks from
+	 */
+	public CachingMarket(Market market) {
+		this(market, Duration.ofMillis(Constants.QUOTE_CACHE_TTL_MS), Constants.QUOTE_CACHE_MAX_SIZE);
+	}
+
+	/**
+	 * @param market    market to cache last ticks from
+	 * @param freshness how long a cached tick is served before it is requested again
+	 * @param maxSize   most tickers to hold before evicting the least recently used
+	 */
+	public CachingMarket(Market market, Duration freshness, int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("maxSize must be at least 1");
+		}
+		this.market = market;
+		this.freshnessNanos = freshness.toNanos();
+		this.cachedTicks = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedTick> eldest) {
+				if (size() > maxSize) {
+					evictionCount.increment();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	@Override
+	public void run() {
+		market.run();
+	}
+
+	@Override
+	public InstantPrice getLastTick(Security security) {
+		return cachedLastTick(security.getTicker(), () -> market.getLastTick(security));
+	}
+
+	@Override
+	InstantPrice getLastTick(String ticker) {
+		return cachedLastTick(ticker, () -> market.getLastTick(ticker));
+	}
+
+	/**
+	 * Serves fresh tickers from the cache and requests all the others from the underlying market in one call to its
+	 * lastTicks(), so batching by the underlying market is preserved.
+	 *
+	 * @param tickers tickers whose last tick is to be returned
+	 * @return map of ticker to InstantPrice with the last tick, or InstantPrice.NO_PRICE
+	 */
+	@Override
+	public Map<String, InstantPrice> lastTicks(Collection<String> tickers) {
+		LOGGER.debug("Entering lastTicks(Collection<String> {})", tickers);
+		Map<String, InstantPrice> lastTicks = new HashMap<>();
+		Map<String, CompletableFuture<InstantPrice>> ownedRequests = new HashMap<>();
+		Map<String, CompletableFuture<InstantPrice>> coalescedRequests = new HashMap<>();
+		for (String ticker : new LinkedHashSet<>(tickers)) {
+			InstantPrice freshTick = freshTick(ticker);
+			if (freshTick != null) {
+				lastTicks.put(ticker, freshTick);
+				continue;
+			}
+			CompletableFuture<InstantPrice> request = new CompletableFuture<>();
+			CompletableFuture<InstantPrice> requestInFlight = ticksInFlight.putIfAbsent(ticker, request);
+			if (requestInFlight == null) {
+				ownedRequests.put(ticker, request);
+			} else {
+				coalescedCount.increment();
+				coalescedRequests.put(ticker, requestInFlight);
+			}
+		}
+		if (!ownedRequests.isEmpty()) {
+			missCount.add(ownedRequests.size());
+			try {
+				Map<String, InstantPrice> marketTicks = market.lastTicks(new ArrayList<>(ownedRequests.keySet()));
+				ownedRequests.forEach((ticker, request) -> {
+					InstantPrice marketTick = marketTicks.getOrDefault(ticker, InstantPrice.NO_PRICE);
+					cache(ticker, marketTick);
+					request.complete(marketTick);
+					lastTicks.put(ticker, marketTick);
+				});
+			} catch (RuntimeException re) {
+				ownedRequests.values().forEach(request -> request.completeExceptionally(re));
+				throw re;
+			} finally {
+				ownedRequests.forEach(ticksInFlight::remove);
+			}
+		}
+		coalescedRequests.forEach((ticker, request) -> lastTicks.put(ticker, request.join()));
+		return lastTicks;
+	}
+
+	/**
+	 * Drops every cached tick. The next lookup of each ticker goes to the underlying market.
+	 */
+	public void invalidateAll() {
+		synchronized (cachedTicks) {
+			cachedTicks.clear();
+		}
+	}
+
+	public long getHitCount() {
+		return hitCount.sum();
+	}
+
+	public long getMissCount() {
+		return missCount.sum();
+	}
+
+	public long getCoalescedCount() {
+		return coalescedCount.sum();
+	}
+
+	public long getEvictionCount() {
+		return evictionCount.sum();
+	}
+
+	public int size() {
+		synchronized (cachedTicks) {
+			return cachedTicks.size();
+		}
+	}
+
+	/**
+	 * Returns the cached tick for ticker if it is still fresh, otherwise asks the underlying market. If another thread
+	 * is already asking the underlying market for this ticker, waits for and returns its answer instead.
+	 */
+	private InstantPrice cachedLastTick(String ticker, Supplier<InstantPrice> marketLookup) {
+		InstantPrice freshTick = freshTick(ticker);
+		if (freshTick != null) {
+			return freshTick;
+		}
+		CompletableFuture<InstantPrice> request = new CompletableFuture<>();
+		CompletableFuture<InstantPrice> requestInFlight = ticksInFlight.putIfAbsent(ticker, request);
+		if (requestInFlight != null) {
+			LOGGER.debug("Joining lookup already in flight for {}", ticker);
+			coalescedCount.increment();
+			return requestInFlight.join();
+		}
+		missCount.increment();
+		try {
+			InstantPrice marketTick = marketLookup.get();
+			cache(ticker, marketTick);
+			request.complete(marketTick);
+			return marketTick;
+		} catch (RuntimeException re) {
+			request.completeExceptionally(re);
+			throw re;
+		} finally {
+			ticksInFlight.remove(ticker, request);
+		}
+	}
+
+	private InstantPrice freshTick(String ticker) {
+		CachedTick cachedTick;
+		synchronized (cachedTicks) {
+			cachedTick = cachedTicks.get(ticker);
+		}
+		if ((cachedTick != null) && ((System.nanoTime() - cachedTick.cachedAtNanos) < freshnessNanos)) {
+			hitCount.increment();
+			return cachedTick.instantPrice;
+		}
+		return null;
+	}
+
+	private void cache(String ticker, InstantPrice instantPrice) {
+		if (instantPrice == InstantPrice.NO_PRICE) {
+			return;
+		}
+		synchronized (cachedTicks) {
+			cachedTicks.put(ticker, new CachedTick(instantPrice, System.nanoTime()));
+		}
+	}
+
+	@Override
+	LocalTime getClosingTime() {
+		return market.getClosingTime();
+	}
+
+	@Override
+	LocalDateTime getClosingDateTime() {
+		return market.getClosingDateTime();
+	}
+
+	@Override
+	public LocalDateTime getCurrentDateTime() {
+		return market.getCurrentDateTime();
+	}
+
+	@Override
+	public ZonedDateTime getClosingZonedDateTime() {
+		return market.getClosingZonedDateTime();
+	}
+
+	@Override
+	public ZonedDateTime getCurrentZonedDateTime() {
+		return market.getCurrentZonedDateTime();
+	}
+
+	@Override
+	ZoneId getMarketZone() {
+		return market.getMarketZone();
+	}
+
+	@Override
+	String getName() {
+		return "Cached " + market.getName();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return market.isOpen();
+	}
+
+	@Override
+	public boolean isOpenToday() {
+		return market.isOpenToday();
+	}
+
+	@Override
+	InstantPrice lastAsk(String ticker) {
+		return market.lastAsk(ticker);
+	}
+
+	@Override
+	InstantPrice lastBid(String ticker) {
+		return market.lastBid(ticker);
+	}
+
+	@Override
+	boolean marketPricesCurrent() {
+		return market.marketPricesCurrent();
+	}
+
+	@Override
+	public HashMap<LocalDate, BigDecimal> readHistoricalPrices(String ticker, LocalDate earliestDate) {
+		return market.readHistoricalPrices(ticker, earliestDate);
+	}
+
+	@Override
+	public PriceSeries readPriceSeries(String ticker, LocalDate earliestDate) {
+		return market.readPriceSeries(ticker, earliestDate);
+	}
+
+	@Override
+	public boolean tickerValid(String ticker) {
+		return market.tickerValid(ticker);
+	}
+
+	@Override
+	public Duration durationUntilMarketOpens() {
+		return market.durationUntilMarketOpens();
+	}
+
+	/**
+	 * Sleeps in the underlying market's time and drops cached ticks, since the underlying clock may be simulated and
+	 * jump further than the freshness window measures.
+	 *
+	 * @param duration time to wait
+	 */
+	@Override
+	public void sleep(Duration duration) {
+		market.sleep(duration);
+		invalidateAll();
+	}
+
+	@Override
+	public String toString() {
+		return "CachingMarket{" +
+				"market=" + market.getName() +
+				", freshnessMs=" + TimeUnit.NANOSECONDS.toMillis(freshnessNanos) +
+				", size=" + size() +
+				", hits=" + getHitCount() +
+				", misses=" + getMissCount() +
+				", coalesced=" + getCoalescedCount() +
+				", evictions=" + getEvictionCount() +
+				'}';
+	}
+
+	private static class CachedTick {
+		private final InstantPrice instantPrice;
+		private final long cachedAtNanos;
+
+		private CachedTick(InstantPrice instantPrice, long cachedAtNanos) {
+			this.instantPrice = instantPrice;
+			this.cachedAtNanos = cachedAtNanos;
+		}
+	}
+}
@@ -1,16 +1,18 @@
 package net.toddsarratt.gaussTrader.market;
 
 import net.toddsarratt.gaussTrader.InstantPrice;
-import net.toddsarratt.gaussTrader.persistence.entity.Security;
-import net.toddsarratt.gaussTrader.persistence.entity.Stock;
+import net.toddsarratt.gaussTrader.securities.Security;
 import net.toddsarratt.gaussTrader.singletons.Constants;
-import net.toddsarratt.gaussTrader.technicals.MovingAverages;
+import net.toddsarratt.gaussTrader.technicals.PriceSeries;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.math.BigDecimal;
 import java.time.*;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Provides market functions such as current and historical prices and access to exchanges for the trading with
@@ -84,15 +86,13 @@ public abstract class Market implements Runnable {
 	 * @return BigDecimal with the closing price with the stock on the date requested
 	 */
 	public BigDecimal getHistoricalClosingPrice(String ticker, LocalDate historicalDate) {
-		HashMap<LocalDate, BigDecimal> priceMap = readHistoricalPrices(ticker, historicalDate);
-		LOGGER.debug("Map {}", priceMap.toString());
-		return priceMap.get(historicalDate);
+		PriceSeries priceSeries = readPriceSeries(ticker, historicalDate);
+		LOGGER.debug("Series {}", priceSeries);
+		return priceSeries.getPrice(historicalDate);
 	}
 
 	abstract ZoneId getMarketZone();
 
-	public abstract MovingAverages getMovingAverages(String ticker);
-
 	abstract String getName();
 
 	/**
@@ -126,36 +126,87 @@ public abstract class Market implements Runnable {
 
 	abstract InstantPrice getLastTick(String ticker);
 
+	/**
+	 * Returns the last tick for every ticker in the collection. This default implementation requests each ticker
+	 * separately; markets whose data source accepts several symbols per request should override it.
+	 *
+	 * @param tickers tickers whose last tick is to be returned
+	 * @return map of ticker to InstantPrice with the last tick, or InstantPrice.NO_PRICE
+	 */
+	public Map<String, InstantPrice> lastTicks(Collection<String> tickers) {
+		Map<String, InstantPrice> lastTicks = new HashMap<>();
+		tickers.forEach(ticker -> lastTicks.put(ticker, getLastTick(ticker)));
+		return lastTicks;
+	}
+
+	/**
+	 * Asynchronous form of getLastTick(Security). This default implementation runs the blocking call on the common
+	 * pool; markets with a non-blocking transport should override it.
+	 *
+	 * @param security security whose last tick is to be returned
+	 * @return future completed with the InstantPrice of the last tick, or InstantPrice.NO_PRICE
+	 */
+	public CompletableFuture<InstantPrice> lastTickAsync(Security security) {
+		return CompletableFuture.supplyAsync(() -> getLastTick(security));
+	}
+
+	/**
+	 * Asynchronous form of lastTicks(Collection).
+	 *
+	 * @param tickers tickers whose last tick is to be returned
+	 * @return future completed with a map of ticker to InstantPrice with the last tick, or InstantPrice.NO_PRICE
+	 */
+	public CompletableFuture<Map<String, InstantPrice>> lastTicksAsync(Collection<String> tickers) {
+		return CompletableFuture.supplyAsync(() -> lastTicks(tickers));
+	}
+
 	abstract boolean marketPricesCurrent();
 
 	public abstract HashMap<LocalDate, BigDecimal> readHistoricalPrices(String ticker, LocalDate earliestDate);
 
+	/**
+	 * Asynchronous form of readHistoricalPrices().
+	 *
+	 * @param ticker       stock ticker
+	 * @param earliestDate LocalDate of the earliest price needed
+	 * @return future completed with a HashMap of <date, closing price>
+	 */
+	public CompletableFuture<HashMap<LocalDate, BigDecimal>> readHistoricalPricesAsync(String ticker, LocalDate earliestDate) {
+		return CompletableFuture.supplyAsync(() -> readHistoricalPrices(ticker, earliestDate));
+	}
+
+	/**
+	 * Reads daily closes into a compact PriceSeries. Markets should override this to build the series directly
+	 * rather than through a map.
+	 *
+	 * @param ticker       stock ticker
+	 * @param earliestDate LocalDate of the earliest price needed
+	 * @return closes on or after earliestDate
+	 */
+	public PriceSeries readPriceSeries(String ticker, LocalDate earliestDate) {
+		return PriceSeries.of(readHistoricalPrices(ticker, earliestDate));
+	}
+
 	public abstract boolean tickerValid(String ticker);
 
 	public abstract Duration durationUntilMarketOpens();
 
-
 	/**
-	 * This method should NOT be called if options expiration occurs on a Friday when the market is closed//.
-	 * Do not make any change to this logic assuming that it will always be run on a day when
-	 * option positions have been opened, closed, or updated
+	 * Waits for duration to pass in market time. Live markets block the calling thread; simulated markets may advance
+	 * their clock instead.
+	 *
+	 * @param duration time to wait
 	 */
-	private void persistClosingPrices() {
-		LOGGER.debug("Entering persistClosingPrices()");
-		LOGGER.info("Writing closing prices to DB");
-		InstantPrice closingPrice;
-		for (Stock stock : portfolio.getWatchList()) {
-			closingPrice = market.lastTick(stock);
-			if (closingPrice == InstantPrice.NO_PRICE) {
-				LOGGER.warn("Could not get valid price for ticker {}", stock.getTicker());
-				return;
-			}
-			if (closingPrice.getInstant().isBefore(getClosingZonedDateTime().toInstant())) {
-				LOGGER.warn("closingPrice.getInstant() {} is before market.getClosingZonedDateTime() {}",
-						closingPrice.getInstant(), getClosingZonedDateTime());
-				return;
-			}
-			dataStore.writeStockPrice(stock.getTicker(), closingPrice);
+	public void sleep(Duration duration) {
+		if (duration.isNegative() || duration.isZero()) {
+			return;
+		}
+		try {
+			Thread.sleep(duration.toMillis());
+		} catch (InterruptedException ie) {
+			LOGGER.warn("Interrupted exception trying to sleep {} ms", duration.toMillis());
+			LOGGER.debug("Caught (InterruptedException ie)", ie);
+			Thread.currentThread().interrupt();
 		}
 	}
 }
@@ -0,0 +1,109 @@
+package net.toddsarratt.gaussTrader.market;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.function.Supplier;
+
+/**
+ * Market time without a network call per lookup. The clock reads the time reported by the market data feed at most
+ * once per sync interval and records System.nanoTime() at that moment. Between syncs market time is the last feed time
+ * plus the monotonic time elapsed since the sync, so now() is a local call.
+ * <p>
+ * If a sync fails the clock keeps deriving time from the previous sync and tries the feed again on the next lookup
+ * after the interval. Only a clock which has never synced lets the failure through to the caller.
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
+public class MarketClock {
+	private static final Logger LOGGER = LoggerFactory.getLogger(MarketClock.class);
+	private final Supplier<LocalDateTime> feedTime;
+	private final long syncIntervalNanos;
+	private volatile Sync lastSync;
+
+	/**
+	 * @param feedTime     source of market time, usually a network call to the market data feed
+	 * @param syncInterval longest time between calls to feedTime
+	 */
+	public MarketClock(Supplier<LocalDateTime> feedTime, Duration syncInterval) {
+		this.feedTime = feedTime;
+		this.syncIntervalNanos = syncInterval.toNanos();
+	}
+
+	/**
+	 * Current market time, derived from the last sync with the feed. Syncs first if the last sync is older than the
+	 * sync interval.
+	 *
+	 * @return current market time
+	 */
+	public LocalDateTime now() {
+		Sync sync = currentSync();
+		return sync.feedDateTime.plusNanos(System.nanoTime() - sync.syncNanos);
+	}
+
+	/**
+	 * Market time as last reported by the feed, without the time elapsed since. Used to tell whether the feed itself is
+	 * still moving. Syncs first if the last sync is older than the sync interval.
+	 *
+	 * @return market time reported by the feed at the last sync
+	 */
+	public LocalDateTime lastFeedDateTime() {
+		return currentSync().feedDateTime;
+	}
+
+	/**
+	 * Forces the next lookup to read the feed regardless of the sync interval.
+	 */
+	public void invalidate() {
+		Sync sync = lastSync;
+		if (sync != null) {
+			lastSync = new Sync(sync.feedDateTime, sync.syncNanos, System.nanoTime());
+		}
+	}
+
+	private Sync currentSync() {
+		Sync sync = lastSync;
+		if ((sync == null) || (System.nanoTime() - sync.nextSyncNanos >= 0)) {
+			sync = syncWithFeed();
+		}
+		return sync;
+	}
+
+	private synchronized Sync syncWithFeed() {
+		Sync sync = lastSync;
+		/* Another thread may have synced while this one waited for the lock */
+		if ((sync != null) && (System.nanoTime() - sync.nextSyncNanos < 0)) {
+			return sync;
+		}
+		try {
+			LocalDateTime feedDateTime = feedTime.get();
+			long syncNanos = System.nanoTime();
+			LOGGER.debug("Synced market clock to feed time {}", feedDateTime);
+			lastSync = new Sync(feedDateTime, syncNanos, syncNanos + syncIntervalNanos);
+		} catch (RuntimeException re) {
+			if (sync == null) {
+				throw re;
+			}
+			LOGGER.warn("Could not sync market clock, continuing from last sync at feed time {}", sync.feedDateTime);
+			LOGGER.debug("Caught (RuntimeException re)", re);
+			/* Hold off retrying the feed until another interval has passed */
+			lastSync = new Sync(sync.feedDateTime, sync.syncNanos, System.nanoTime() + syncIntervalNanos);
+		}
+		return lastSync;
+	}
+
+	private static class Sync {
+		private final LocalDateTime feedDateTime;
+		private final long syncNanos;
+		private final long nextSyncNanos;
+
+		private Sync(LocalDateTime feedDateTime, long syncNanos, long nextSyncNanos) {
+			this.feedDateTime = feedDateTime;
+			this.syncNanos = syncNanos;
+			this.nextSyncNanos = nextSyncNanos;
+		}
+	}
+}
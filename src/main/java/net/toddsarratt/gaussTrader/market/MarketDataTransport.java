@@ -0,0 +1,23 @@
+package net.toddsarratt.gaussTrader.market;
+
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The transport a Market uses to reach its data source. Implementations must not block the calling thread; the
+ * response body is delivered through the returned future.
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
+public interface MarketDataTransport {
+
+	/**
+	 * Requests the resource at uri.
+	 *
+	 * @param uri resource to request
+	 * @return future completed with the response body, or completed exceptionally if the request failed, timed out or
+	 * returned a status other than 200
+	 */
+	CompletableFuture<String> fetch(URI uri);
+}
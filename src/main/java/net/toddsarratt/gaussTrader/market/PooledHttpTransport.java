@@ -0,0 +1,111 @@
+package net.toddsarratt.gaussTrader.market;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Non-blocking MarketDataTransport built on {@code java.net.http.HttpClient}. A single client is shared by every
+ * request so connections to the data source are kept alive and reused. At most maxInFlight requests are on the wire
+ * at once; requests beyond that wait in a queue and are sent as earlier requests complete. The calling thread never
+ * waits for a slot.
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
+public class PooledHttpTransport implements MarketDataTransport {
+	private static final Logger LOGGER = LoggerFactory.getLogger(PooledHttpTransport.class);
+	private final HttpClient httpClient;
+	private final Duration requestTimeout;
+	private final Semaphore inFlightPermits;
+	private final Queue<Runnable> pendingRequests = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * @param maxInFlight    most requests allowed on the wire at the same time
+	 * @param connectTimeout longest to wait when opening a new connection
+	 * @param requestTimeout longest to wait for a complete response to each request
+	 */
+	public PooledHttpTransport(int maxInFlight, Duration connectTimeout, Duration requestTimeout) {
+		if (maxInFlight < 1) {
+			throw new IllegalArgumentException("maxInFlight must be at least 1");
+		}
+		this.httpClient = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_1_1)
+				.followRedirects(HttpClient.Redirect.NORMAL)
+				.connectTimeout(connectTimeout)
+				.build();
+		this.requestTimeout = requestTimeout;
+		this.inFlightPermits = new Semaphore(maxInFlight);
+	}
+
+	@Override
+	public CompletableFuture<String> fetch(URI uri) {
+		LOGGER.debug("Entering fetch(URI {})", uri);
+		CompletableFuture<String> responseBody = new CompletableFuture<>();
+		pendingRequests.add(() -> send(uri, responseBody));
+		dispatchPending();
+		return responseBody;
+	}
+
+	/**
+	 * @return number of requests waiting for an in-flight slot
+	 */
+	public int getPendingCount() {
+		return pendingRequests.size();
+	}
+
+	private void dispatchPending() {
+		while (!pendingRequests.isEmpty() && inFlightPermits.tryAcquire()) {
+			Runnable nextRequest = pendingRequests.poll();
+			if (nextRequest == null) {
+				inFlightPermits.release();
+				return;
+			}
+			nextRequest.run();
+		}
+	}
+
+	/**
+	 * Sends the request holding one in-flight permit. If it cannot even be sent, for example because uri is not an http
+	 * URI, the permit is given back and responseBody fails at once, so dispatchPending() goes on to the next request.
+	 */
+	private void send(URI uri, CompletableFuture<String> responseBody) {
+		CompletableFuture<HttpResponse<String>> pendingResponse;
+		try {
+			HttpRequest request = HttpRequest.newBuilder(uri)
+					.timeout(requestTimeout)
+					.GET()
+					.build();
+			pendingResponse = httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+		} catch (RuntimeException re) {
+			LOGGER.warn("Could not send request to {}", uri);
+			LOGGER.debug("Caught (RuntimeException re)", re);
+			inFlightPermits.release();
+			responseBody.completeExceptionally(re);
+			return;
+		}
+		pendingResponse.whenComplete((response, throwable) -> {
+			inFlightPermits.release();
+			dispatchPending();
+			if (throwable != null) {
+				LOGGER.debug("Request to {} failed", uri, throwable);
+				responseBody.completeExceptionally(throwable);
+			} else if (response.statusCode() != 200) {
+				responseBody.completeExceptionally(
+						new IOException("Received HTTP status " + response.statusCode() + " from " + uri));
+			} else {
+				responseBody.complete(response.body());
+			}
+		});
+	}
+}
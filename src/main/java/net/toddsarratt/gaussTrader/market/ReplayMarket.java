@@ -0,0 +1,415 @@
+package net.toddsarratt.gaussTrader.market;
+
+import net.toddsarratt.gaussTrader.InstantPrice;
+import net.toddsarratt.gaussTrader.securities.Security;
+import net.toddsarratt.gaussTrader.persistence.store.DataStore;
+import net.toddsarratt.gaussTrader.persistence.store.TickJournal;
+import net.toddsarratt.gaussTrader.singletons.Constants;
+import net.toddsarratt.gaussTrader.technicals.PriceSeries;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A Market which replays recorded prices against a simulated clock, for running the trading day loop offline. Daily
+ * closes are read from CSV files or from a DataStore, and intraday ticks from CSV files or a TickJournal. Nothing is
+ * fetched over the network and sleep() advances the simulated clock instead of blocking, so years of history replay in
+ * minutes.
+ * <p>
+ * Every lookup answers as of the simulated clock: the last tick is the latest recorded price at or before the
+ * current simulated instant and historical prices stop at the previous trading day, so the strategy never sees the
+ * future. Option prices are not recorded; options are marked at intrinsic value against their underlying.
+ * <p>
+ * Typical use is to load prices, start the clock on the first day and call PortfolioManager.run() once per day:
+ * <pre>
+ *     ReplayMarket market = new ReplayMarket(LocalDate.of(2017, 1, 3), LocalDate.of(2018, 12, 31));
+ *     market.loadDailyCloses(Paths.get("closes.csv"));
+ *     DataStore dataStore = EmbeddedStore.open(Paths.get("replay-store"), false);
+ *     PortfolioManager portfolioManager = new PortfolioManager(market, dataStore);
+ *     do {
+ *         portfolioManager.run();
+ *     } while (market.nextMarketDay());
+ * </pre>
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
+public class ReplayMarket extends Market {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ReplayMarket.class);
+	private static final ZoneId MARKET_ZONE = ZoneId.of("America/New_York");
+	private static final LocalTime MARKET_OPEN_TIME = LocalTime.of(9, 30);
+	private static final LocalTime MARKET_CLOSE_TIME = LocalTime.of(16, 0);
+	private static final LocalTime MARKET_EARLY_CLOSE_TIME = LocalTime.of(13, 0);
+	private static final Pattern OPTION_TICKER = Pattern.compile("^([A-Z]{1,4})(\\d{6})([CP])(\\d{8})$");
+	private final Map<String, NavigableMap<Instant, BigDecimal>> ticks = new ConcurrentHashMap<>();
+	private final Map<String, NavigableMap<LocalDate, BigDecimal>> dailyCloses = new ConcurrentHashMap<>();
+	private final LocalDate lastReplayDate;
+	private volatile Instant simulatedInstant;
+
+	/**
+	 * Creates a replay market with the simulated clock at midnight of the first market day on or after firstReplayDate.
+	 *
+	 * @param firstReplayDate first date to replay
+	 * @param lastReplayDate  last date to replay, after which nextMarketDay() returns false
+	 */
+	public ReplayMarket(LocalDate firstReplayDate, LocalDate lastReplayDate) {
+		this.lastReplayDate = lastReplayDate;
+		LocalDate firstMarketDay = firstReplayDate;
+		while (!isReplayMarketDate(firstMarketDay)) {
+			firstMarketDay = firstMarketDay.plusDays(1);
+		}
+		this.simulatedInstant = firstMarketDay.atStartOfDay(MARKET_ZONE).toInstant();
+	}
+
+	/**
+	 * Loads daily closing prices from a CSV file with lines of {@code ticker,yyyy-MM-dd,close}. Each close also
+	 * becomes a tick at that day's market close. Blank lines, lines starting with '#' and a header line are skipped.
+	 *
+	 * @param csvFile file of daily closes
+	 * @throws IOException if the file cannot be read
+	 */
+	public void loadDailyCloses(Path csvFile) throws IOException {
+		LOGGER.debug("Entering loadDailyCloses(Path {})", csvFile);
+		int loadedCloses = 0;
+		try (BufferedReader reader = Files.newBufferedReader(csvFile)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split(",");
+				if (skipLine(line, fields)) {
+					continue;
+				}
+				addDailyClose(fields[0].trim(), LocalDate.parse(fields[1].trim()), new BigDecimal(fields[2].trim()));
+				loadedCloses++;
+			}
+		}
+		LOGGER.info("Loaded {} daily closes from {}", loadedCloses, csvFile);
+	}
+
+	/**
+	 * Loads intraday ticks from a CSV file with lines of {@code ticker,epochMilliseconds,price}. Blank lines, lines
+	 * starting with '#' and a header line are skipped.
+	 *
+	 * @param csvFile file of ticks
+	 * @throws IOException if the file cannot be read
+	 */
+	public void loadTicks(Path csvFile) throws IOException {
+		LOGGER.debug("Entering loadTicks(Path {})", csvFile);
+		int loadedTicks = 0;
+		try (BufferedReader reader = Files.newBufferedReader(csvFile)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split(",");
+				if (skipLine(line, fields)) {
+					continue;
+				}
+				addTick(fields[0].trim(), Instant.ofEpochMilli(Long.parseLong(fields[1].trim())), new BigDecimal(fields[2].trim()));
+				loadedTicks++;
+			}
+		}
+		LOGGER.info("Loaded {} ticks from {}", loadedTicks, csvFile);
+	}
+
+	/**
+	 * Loads the intraday ticks recorded in a tick journal on one market day.
+	 *
+	 * @param tickJournal journal to read ticks from
+	 * @param date        market day to load
+	 * @throws IOException if the journal cannot be read
+	 */
+	public void loadTicks(TickJournal tickJournal, LocalDate date) throws IOException {
+		LOGGER.debug("Entering loadTicks(TickJournal, LocalDate {})", date);
+		tickJournal.replay(date, (ticker, epochNanos, priceMicros) ->
+				addTick(ticker, Instant.ofEpochSecond(0L, epochNanos), BigDecimal.valueOf(priceMicros, PriceSeries.SCALE)));
+	}
+
+	/**
+	 * Loads daily closing prices for each ticker from the prices table of a DataStore.
+	 *
+	 * @param dataStore    store to read prices from
+	 * @param tickers      stock tickers to load
+	 * @param earliestDate earliest close to load
+	 */
+	public void loadDailyCloses(DataStore dataStore, Collection<String> tickers, LocalDate earliestDate) {
+		LOGGER.debug("Entering loadDailyCloses(DataStore, Collection<String> {}, LocalDate {})", tickers, earliestDate);
+		for (String ticker : tickers) {
+			Map<LocalDate, BigDecimal> storedCloses = dataStore.readHistoricalPrices(ticker, earliestDate);
+			storedCloses.forEach((date, close) -> addDailyClose(ticker, date, close));
+			LOGGER.info("Loaded {} daily closes for {} from data store", storedCloses.size(), ticker);
+		}
+	}
+
+	/**
+	 * Records a daily close. The close also becomes the tick at that day's market close.
+	 *
+	 * @param ticker stock ticker
+	 * @param date   trading date
+	 * @param close  closing price
+	 */
+	public void addDailyClose(String ticker, LocalDate date, BigDecimal close) {
+		dailyCloses.computeIfAbsent(ticker, key -> new TreeMap<>()).put(date, close);
+		addTick(ticker, closingZonedDateTime(date).toInstant(), close);
+	}
+
+	/**
+	 * Records a tick.
+	 *
+	 * @param ticker  stock ticker
+	 * @param instant moment of the tick
+	 * @param price   price of the tick
+	 */
+	public void addTick(String ticker, Instant instant, BigDecimal price) {
+		ticks.computeIfAbsent(ticker, key -> new TreeMap<>()).put(instant, price);
+	}
+
+	/**
+	 * Moves the simulated clock to midnight of the next market day.
+	 *
+	 * @return false once the next market day would be after the last replay date, in which case the clock is not moved
+	 */
+	public boolean nextMarketDay() {
+		LocalDate nextDate = getCurrentDateTime().toLocalDate().plusDays(1);
+		while (!isReplayMarketDate(nextDate)) {
+			nextDate = nextDate.plusDays(1);
+		}
+		if (nextDate.isAfter(lastReplayDate)) {
+			LOGGER.info("Replay finished at {}", getCurrentDateTime());
+			return false;
+		}
+		simulatedInstant = nextDate.atStartOfDay(MARKET_ZONE).toInstant();
+		LOGGER.debug("Replay advanced to {}", nextDate);
+		return true;
+	}
+
+	/**
+	 * Moves the simulated clock forward to dateTime. The clock never moves backwards.
+	 *
+	 * @param dateTime market date and time to move to
+	 */
+	public synchronized void moveTo(LocalDateTime dateTime) {
+		Instant target = dateTime.atZone(MARKET_ZONE).toInstant();
+		if (target.isAfter(simulatedInstant)) {
+			simulatedInstant = target;
+		}
+	}
+
+	/**
+	 * Market date and time of the close on date, accounting for known early closes.
+	 *
+	 * @param date trading date
+	 * @return closing date and time on date
+	 */
+	public LocalDateTime closingDateTimeOn(LocalDate date) {
+		return closingZonedDateTime(date).toLocalDateTime();
+	}
+
+	/**
+	 * Advances the simulated clock by duration. Never blocks.
+	 *
+	 * @param duration simulated time to pass
+	 */
+	@Override
+	public synchronized void sleep(Duration duration) {
+		if (!duration.isNegative()) {
+			simulatedInstant = simulatedInstant.plus(duration);
+		}
+	}
+
+	@Override
+	public void run() {
+		LOGGER.info("Replay market has nothing to serve, prices are read directly");
+	}
+
+	@Override
+	LocalTime getClosingTime() {
+		return earlyClose(getCurrentDateTime().toLocalDate()) ? MARKET_EARLY_CLOSE_TIME : MARKET_CLOSE_TIME;
+	}
+
+	@Override
+	LocalDateTime getClosingDateTime() {
+		return getCurrentDateTime().with(getClosingTime());
+	}
+
+	@Override
+	public LocalDateTime getCurrentDateTime() {
+		return getCurrentZonedDateTime().toLocalDateTime();
+	}
+
+	@Override
+	public ZonedDateTime getClosingZonedDateTime() {
+		return getClosingDateTime().atZone(MARKET_ZONE);
+	}
+
+	@Override
+	public ZonedDateTime getCurrentZonedDateTime() {
+		return simulatedInstant.atZone(MARKET_ZONE);
+	}
+
+	@Override
+	ZoneId getMarketZone() {
+		return MARKET_ZONE;
+	}
+
+	@Override
+	String getName() {
+		return "Replay";
+	}
+
+	@Override
+	public boolean isOpen() {
+		LocalDateTime now = getCurrentDateTime();
+		return isReplayMarketDate(now.toLocalDate()) &&
+				!now.toLocalTime().isBefore(MARKET_OPEN_TIME) &&
+				now.toLocalTime().isBefore(getClosingTime());
+	}
+
+	@Override
+	public boolean isOpenToday() {
+		return isReplayMarketDate(getCurrentDateTime().toLocalDate());
+	}
+
+	@Override
+	InstantPrice lastAsk(String ticker) {
+		return getLastTick(ticker);
+	}
+
+	@Override
+	InstantPrice lastBid(String ticker) {
+		return getLastTick(ticker);
+	}
+
+	@Override
+	public InstantPrice getLastTick(Security security) {
+		return getLastTick(security.getTicker());
+	}
+
+	/**
+	 * Latest recorded price at or before the simulated clock. Option tickers are marked at intrinsic value against the
+	 * last tick of their underlying.
+	 *
+	 * @param ticker stock or option ticker
+	 * @return InstantPrice of the last tick, or InstantPrice.NO_PRICE if nothing was recorded by now
+	 */
+	@Override
+	InstantPrice getLastTick(String ticker) {
+		Matcher optionMatcher = OPTION_TICKER.matcher(ticker);
+		if (optionMatcher.matches()) {
+			return intrinsicValue(optionMatcher);
+		}
+		NavigableMap<Instant, BigDecimal> tickerTicks = ticks.get(ticker);
+		if (tickerTicks == null) {
+			return InstantPrice.NO_PRICE;
+		}
+		Map.Entry<Instant, BigDecimal> lastTick = tickerTicks.floorEntry(simulatedInstant);
+		if (lastTick == null) {
+			return InstantPrice.NO_PRICE;
+		}
+		return InstantPrice.of(lastTick.getValue(), lastTick.getKey());
+	}
+
+	/**
+	 * Replayed prices are always current as of the simulated clock.
+	 *
+	 * @return true
+	 */
+	@Override
+	boolean marketPricesCurrent() {
+		return true;
+	}
+
+	/**
+	 * Daily closes from earliestDate up to but not including the current simulated date.
+	 *
+	 * @param ticker       stock ticker
+	 * @param earliestDate earliest close to return
+	 * @return HashMap of date to closing price
+	 */
+	@Override
+	public HashMap<LocalDate, BigDecimal> readHistoricalPrices(String ticker, LocalDate earliestDate) {
+		return new HashMap<>(priorCloses(ticker).tailMap(earliestDate, true));
+	}
+
+	@Override
+	public PriceSeries readPriceSeries(String ticker, LocalDate earliestDate) {
+		return PriceSeries.of(priorCloses(ticker).tailMap(earliestDate, true));
+	}
+
+	@Override
+	public boolean tickerValid(String ticker) {
+		Matcher optionMatcher = OPTION_TICKER.matcher(ticker);
+		if (optionMatcher.matches()) {
+			return ticks.containsKey(optionMatcher.group(1));
+		}
+		return ticks.containsKey(ticker);
+	}
+
+	@Override
+	public Duration durationUntilMarketOpens() {
+		Duration untilOpen = Duration.between(getCurrentDateTime(), getCurrentDateTime().with(MARKET_OPEN_TIME));
+		return untilOpen.isNegative() ? Duration.ZERO : untilOpen;
+	}
+
+	private InstantPrice intrinsicValue(Matcher optionMatcher) {
+		InstantPrice underlyingTick = getLastTick(optionMatcher.group(1));
+		if (underlyingTick == InstantPrice.NO_PRICE) {
+			return InstantPrice.NO_PRICE;
+		}
+		/* OptionDao strike format is xxxxx.yyy * 10^3 Example : Strike $82.50 = 00082500 */
+		BigDecimal strike = new BigDecimal(optionMatcher.group(4)).movePointLeft(3);
+		BigDecimal moneyness = optionMatcher.group(3).equals("C") ?
+				underlyingTick.getPrice().subtract(strike) :
+				strike.subtract(underlyingTick.getPrice());
+		return InstantPrice.of(moneyness.max(BigDecimal.ZERO), underlyingTick.getInstant());
+	}
+
+	private NavigableMap<LocalDate, BigDecimal> priorCloses(String ticker) {
+		NavigableMap<LocalDate, BigDecimal> tickerCloses = dailyCloses.get(ticker);
+		if (tickerCloses == null) {
+			return new TreeMap<>();
+		}
+		return tickerCloses.headMap(getCurrentDateTime().toLocalDate(), false);
+	}
+
+	private ZonedDateTime closingZonedDateTime(LocalDate date) {
+		return date.atTime(earlyClose(date) ? MARKET_EARLY_CLOSE_TIME : MARKET_CLOSE_TIME).atZone(MARKET_ZONE);
+	}
+
+	/**
+	 * Weekends are always closed. Holidays and early closes are only known for the years in the properties file; other
+	 * years replay as regular trading days.
+	 */
+	private static boolean isReplayMarketDate(LocalDate date) {
+		if ((date.getDayOfWeek() == DayOfWeek.SATURDAY) || (date.getDayOfWeek() == DayOfWeek.SUNDAY)) {
+			return false;
+		}
+		return !Constants.getHolidayMap().containsKey(date.getYear()) || !isHoliday(date);
+	}
+
+	private static boolean earlyClose(LocalDate date) {
+		return Constants.getEarlyCloseMap().containsKey(date.getYear()) && isEarlyClose(date);
+	}
+
+	private static boolean skipLine(String line, String[] fields) {
+		return line.isBlank() || line.startsWith("#") || (fields.length < 3) || !InstantPrice.isNumeric(fields[2].trim());
+	}
+}
@@ -1,24 +1,29 @@
 package net.toddsarratt.gaussTrader.market;
 
-import net.toddsarratt.gaussTrader.persistence.entity.InstantPrice;
+import net.toddsarratt.gaussTrader.InstantPrice;
+import net.toddsarratt.gaussTrader.securities.Security;
 import net.toddsarratt.gaussTrader.singletons.Constants;
-import net.toddsarratt.gaussTrader.technicals.MovingAverages;
+import net.toddsarratt.gaussTrader.technicals.PriceSeries;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.math.BigDecimal;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.net.URI;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * YahooMarket uses the undocumented Yahoo! stock API and Yahoo! finance web scraping to return market results.
@@ -38,10 +43,36 @@ public class YahooMarket extends Market {
 	private static final int YAHOO_RETRIES = Integer.valueOf(
 			Constants.getProperties().getProperty("YAHOO_RETRIES")
 	);
+	private static final int YAHOO_MAX_TICKERS_PER_REQUEST = Integer.valueOf(
+			Constants.getProperties().getProperty("YAHOO_MAX_TICKERS_PER_REQUEST", "200")
+	);
+	private static final int HTTP_MAX_IN_FLIGHT = Integer.valueOf(
+			Constants.getProperties().getProperty("HTTP_MAX_IN_FLIGHT", "32")
+	);
+	private static final Duration HTTP_CONNECT_TIMEOUT = Duration.ofSeconds(Long.valueOf(
+			Constants.getProperties().getProperty("HTTP_CONNECT_TIMEOUT_SECONDS", "5")
+	));
+	private static final Duration HTTP_REQUEST_TIMEOUT = Duration.ofSeconds(Long.valueOf(
+			Constants.getProperties().getProperty("HTTP_REQUEST_TIMEOUT_SECONDS", "10")
+	));
+	private static final Duration MARKET_CLOCK_SYNC_INTERVAL = Duration.ofSeconds(Long.valueOf(
+			Constants.getProperties().getProperty("MARKET_CLOCK_SYNC_SECONDS", "300")
+	));
 	private static LocalTime marketClosingTime;
 	private static boolean shutdown;
+	private final MarketDataTransport transport;
+	private final MarketClock marketClock;
 
 	public YahooMarket() {
+		this(new PooledHttpTransport(HTTP_MAX_IN_FLIGHT, HTTP_CONNECT_TIMEOUT, HTTP_REQUEST_TIMEOUT));
+	}
+
+	/**
+	 * @param transport transport used for every request to Yahoo!
+	 */
+	public YahooMarket(MarketDataTransport transport) {
+		this.transport = transport;
+		this.marketClock = new MarketClock(this::bacLastTradeDateTime, MARKET_CLOCK_SYNC_INTERVAL);
 		try {
 			if (isEarlyClose(LocalDate.now())) {
 				marketClosingTime = LocalTime.of(13, 20);
@@ -96,21 +127,14 @@ public class YahooMarket extends Market {
 	}
 
 	/**
-	 * Calls Yahoo! and finds the last trade date and time of Bank with America (BAC) stock. BAC is far and away the most
-	 * actively traded stock with the highest daily volume and should be representative of current Yahoo! market time.
-	 * Yahoo! API arguments:
-	 * <p><pre>
-	 *     d1   Last Trade Date
-	 *     t1   Last Trade Time
-	 * </pre>
+	 * Current Yahoo! market time. The market clock syncs to the last trade time of BAC at most once every
+	 * MARKET_CLOCK_SYNC_SECONDS and counts forward locally in between, so this does not call Yahoo! on every lookup.
 	 *
-	 * @return LocalDateTime parsed from last trade date and time of BAC
+	 * @return current Yahoo! market time
 	 */
 	@Override
 	public LocalDateTime getCurrentDateTime() {
-		String[] yahooDateTime = yahooGummyApi("BAC", "d1t1");
-		logger.debug("yahooDateTime == {}", Arrays.toString(yahooDateTime));
-		return LocalDateTime.parse(yahooDateTime[0] + yahooDateTime[1], YAHOO_API_FORMATTER);
+		return marketClock.now();
 	}
 
 	@Override
@@ -128,26 +152,6 @@ public class YahooMarket extends Market {
 		return MARKET_ZONE;
 	}
 
-	/**
-	 * Calls Yahoo! API with arguments:
-	 * <p><pre>
-	 *     m3   50-day Moving Average
-	 *     m4   200-day Moving Average
-	 * </pre>
-	 * <p>
-	 * Returns a BigDecimal array with the form [BigDecimal(50 dma), BigDecimal(200 dma)]
-	 *
-	 * @param ticker string representing a stock or option symbol
-	 * @return BigDecimal array with the 50 and 200 daily moving averages
-	 */
-	@Override
-	public MovingAverages getMovingAverages(String ticker) {
-		BigDecimal[] movingAverages = Arrays.stream(yahooGummyApi(ticker, "m3m4")).toArray(BigDecimal[]::new);
-		return new MovingAverages(null, movingAverages[0], movingAverages[1]);
-
-		//  http://finance.yahoo.com/d/quotes.csv?s=XOM&f=m3m4
-	}
-
 	/**
 	 * This class contains methods to access Yahoo! specifically for market information and returns a market name
 	 * of "Yahoo! market"
@@ -166,21 +170,21 @@ public class YahooMarket extends Market {
 	 */
 	@Override
 	public boolean isOpen() {
-		logger.debug("Inside isOpen()");
+		LOGGER.debug("Inside isOpen()");
 		ZonedDateTime todaysDateTime = ZonedDateTime.now(MARKET_ZONE);
 		// Add 20 minutes to market close (4pm) to allow for Yahoo! 20 minute delay
 		// 1:20 pm will be used for early close days
 		LocalTime marketCloseTime = isEarlyClose(todaysDateTime.toLocalDate()) ?
 				LocalTime.of(13, 20) : LocalTime.of(16, 20);
-		logger.debug("Current time = {}", todaysDateTime);
-		logger.debug("Comparing currentEpoch {} to marketOpenEpoch {} and marketCloseEpoch {} ",
+		LOGGER.debug("Current time = {}", todaysDateTime);
+		LOGGER.debug("Comparing currentEpoch {} to marketOpenEpoch {} and marketCloseEpoch {} ",
 				todaysDateTime, MARKET_OPEN_TIME, marketCloseTime);
 		if ((todaysDateTime.toLocalTime().isBefore(MARKET_OPEN_TIME))
 				|| (todaysDateTime.toLocalTime().isAfter(marketCloseTime))) {
-			logger.debug("Outside market trading hours");
+			LOGGER.debug("Outside market trading hours");
 			return false;
 		}
-		logger.debug("Within market trading hours");
+		LOGGER.debug("Within market trading hours");
 		return true;
 	}
 
@@ -210,7 +214,7 @@ public class YahooMarket extends Market {
 	 */
 	@Override
 	public InstantPrice lastAsk(String ticker) {
-		logger.debug("Entering lastAsk(String {})", ticker);
+		LOGGER.debug("Entering lastAsk(String {})", ticker);
 		String[] askString = yahooGummyApi(ticker, "sad1t1");
 		if (ticker.equals(askString[0])) {
 			return InstantPrice.of(askString[1], askString[2] + askString[3], YAHOO_API_FORMATTER, MARKET_ZONE);
@@ -232,7 +236,7 @@ public class YahooMarket extends Market {
 	 */
 	@Override
 	public InstantPrice lastBid(String ticker) {
-		logger.debug("Entering lastBid(String {})", ticker);
+		LOGGER.debug("Entering lastBid(String {})", ticker);
 		String[] bidString = yahooGummyApi(ticker, "sbd1t1");
 		if (ticker.equals(bidString[0])) {
 			return InstantPrice.of(bidString[1], bidString[2] + bidString[3], YAHOO_API_FORMATTER, MARKET_ZONE);
@@ -243,27 +247,31 @@ public class YahooMarket extends Market {
 	/**
 	 * Returns an InstantPrice with the last tick with the security represented by ticker. If the method is unable to
 	 * find a price it will return InstantPrice.NO_PRICE.
-	 * <p>
-	 * TODO: Move prefix and suffix into the GaussTrader.properties file
 	 *
 	 * @param security security whose last tick is to be returned
 	 * @return InstantPrice
 	 */
 	@Override
-	public InstantPrice lastTick(Security security) {
-		logger.debug("Entering lastTick(Security {})", security);
+	public InstantPrice getLastTick(Security security) {
+		LOGGER.debug("Entering getLastTick(Security {})", security);
+		return lastTickAsync(security).join();
+	}
+
+	/**
+	 * Asynchronous form of getLastTick(Security). The returned future is never completed exceptionally; a failed request
+	 * or a quote that cannot be parsed, such as "N/A", completes it with InstantPrice.NO_PRICE.
+	 *
+	 * @param security security whose last tick is to be returned
+	 * @return future completed with the InstantPrice of the last tick, or InstantPrice.NO_PRICE
+	 * @throws IllegalArgumentException if security is neither a stock nor an option
+	 */
+	@Override
+	public CompletableFuture<InstantPrice> lastTickAsync(Security security) {
+		LOGGER.debug("Entering lastTickAsync(Security {})", security);
 		if (security.isStock()) {
-			return lastTick(security.getTicker());
+			return lastTickAsync(security.getTicker());
 		} else if (security.isOption()) {
-			String prefix = "},\"currency\":\"USD\",\"regularMarketPrice\":{\"raw\":";
-			String suffix = ",\"";
-			String scrapedPrice = yahooOptionScraper(security.getTicker(), prefix, suffix);
-			logger.debug("Received {} from yahooOptionScraper() ", scrapedPrice);
-			if (InstantPrice.isNumeric(scrapedPrice)) {
-				return InstantPrice.of(scrapedPrice);
-			} else {
-				return InstantPrice.NO_PRICE;
-			}
+			return lastOptionTickAsync(security.getTicker());
 		} else {
 			throw new IllegalArgumentException("Security must be a Stock or an Option");
 		}
@@ -279,15 +287,108 @@ public class YahooMarket extends Market {
 	 * @return InstantPrice with the last tick with the stock, or InstantPrice.NO_PRICE
 	 */
 	@Override
-	public InstantPrice lastTick(String ticker) {
-		logger.debug("Entering lastTick(String {})", ticker);
-		String[] tickString = yahooGummyApi(ticker, "sl1d1t1");
-		if (ticker.equals(tickString[0])) {
-			return InstantPrice.of(tickString[1], tickString[2] + tickString[3], YAHOO_API_FORMATTER, MARKET_ZONE);
+	public InstantPrice getLastTick(String ticker) {
+		LOGGER.debug("Entering getLastTick(String {})", ticker);
+		return lastTickAsync(ticker).join();
+	}
+
+	private CompletableFuture<InstantPrice> lastTickAsync(String ticker) {
+		return yahooGummyApiLinesAsync(ticker, "sl1d1t1")
+				.thenApply(yahooResults -> yahooResults.isEmpty() ?
+						InstantPrice.NO_PRICE : parseLastTick(ticker, yahooResults.get(0)));
+	}
+
+	/**
+	 * Returns the last tick for every ticker in the collection. Stock tickers are requested from the Yahoo! API in
+	 * batches of up to YAHOO_MAX_TICKERS_PER_REQUEST comma-joined symbols, so a full watch list costs one or a few
+	 * round trips instead of one per ticker. Option tickers have no batch API and are scraped one at a time.
+	 * <p>
+	 * Every ticker requested is present in the returned map. Tickers Yahoo! did not return a valid quote for map to
+	 * InstantPrice.NO_PRICE, without affecting the other tickers in their batch.
+	 *
+	 * @param tickers stock and / or option tickers
+	 * @return map of ticker to InstantPrice with the last tick of that security, or InstantPrice.NO_PRICE
+	 */
+	@Override
+	public Map<String, InstantPrice> lastTicks(Collection<String> tickers) {
+		LOGGER.debug("Entering lastTicks(Collection<String> {})", tickers);
+		return lastTicksAsync(tickers).join();
+	}
+
+	/**
+	 * Asynchronous form of lastTicks(Collection). Every batch and every option scrape is sent at once, bounded only by
+	 * the transport's in-flight limit.
+	 *
+	 * @param tickers stock and / or option tickers
+	 * @return future completed with a map of ticker to InstantPrice, or InstantPrice.NO_PRICE
+	 */
+	@Override
+	public CompletableFuture<Map<String, InstantPrice>> lastTicksAsync(Collection<String> tickers) {
+		LOGGER.debug("Entering lastTicksAsync(Collection<String> {})", tickers);
+		Map<String, InstantPrice> lastTicks = new ConcurrentHashMap<>();
+		List<CompletableFuture<Void>> requests = new ArrayList<>();
+		List<String> stockTickers = new ArrayList<>();
+		for (String ticker : new LinkedHashSet<>(tickers)) {
+			if (ticker.length() <= 4) {
+				stockTickers.add(ticker);
+			} else {
+				requests.add(lastOptionTickAsync(ticker).thenAccept(optionTick -> lastTicks.put(ticker, optionTick)));
+			}
+		}
+		for (int batchStart = 0; batchStart < stockTickers.size(); batchStart += YAHOO_MAX_TICKERS_PER_REQUEST) {
+			List<String> batch = stockTickers.subList(batchStart,
+					Math.min(batchStart + YAHOO_MAX_TICKERS_PER_REQUEST, stockTickers.size()));
+			requests.add(yahooGummyApiLinesAsync(String.join(",", batch), "sl1d1t1")
+					.thenAccept(yahooResults -> yahooResults.stream()
+							.filter(tickString -> (tickString.length == 4) && batch.contains(tickString[0]))
+							.forEach(tickString -> lastTicks.put(tickString[0], parseLastTick(tickString[0], tickString)))));
+		}
+		return CompletableFuture.allOf(requests.toArray(new CompletableFuture[0]))
+				.thenApply(allDone -> {
+					stockTickers.forEach(ticker -> lastTicks.putIfAbsent(ticker, InstantPrice.NO_PRICE));
+					LOGGER.debug("Returning {} last ticks for {} stock tickers", lastTicks.size(), stockTickers.size());
+					return lastTicks;
+				});
+	}
+
+	/**
+	 * Parses a line returned from the Yahoo! API for arguments "sl1d1t1" (symbol, last trade, date, time).
+	 *
+	 * @param ticker     ticker the line was requested for
+	 * @param tickString line returned by Yahoo!, split on commas
+	 * @return InstantPrice with the last tick, or InstantPrice.NO_PRICE if the line is not for this ticker or its price
+	 * or time cannot be parsed
+	 */
+	private InstantPrice parseLastTick(String ticker, String[] tickString) {
+		if ((tickString.length == 4) && ticker.equals(tickString[0])) {
+			try {
+				return InstantPrice.of(tickString[1], tickString[2] + tickString[3], YAHOO_API_FORMATTER, MARKET_ZONE);
+			} catch (NumberFormatException | DateTimeException e) {
+				LOGGER.warn("Could not parse last tick for {} from {}", ticker, Arrays.toString(tickString));
+				LOGGER.debug("Caught (RuntimeException e)", e);
+			}
 		}
 		return InstantPrice.NO_PRICE;
 	}
 
+	/**
+	 * Scrapes Yahoo! for the last price of an option.
+	 * <p>
+	 * TODO: Move prefix and suffix into the GaussTrader.properties file
+	 *
+	 * @param optionTicker string representing an option ticker
+	 * @return future completed with the option's last tick, or InstantPrice.NO_PRICE
+	 */
+	private CompletableFuture<InstantPrice> lastOptionTickAsync(String optionTicker) {
+		String prefix = "},\"currency\":\"USD\",\"regularMarketPrice\":{\"raw\":";
+		String suffix = ",\"";
+		return yahooOptionScraperAsync(optionTicker, prefix, suffix)
+				.thenApply(scrapedPrice -> {
+					LOGGER.debug("Received {} from yahooOptionScraper() ", scrapedPrice);
+					return InstantPrice.isNumeric(scrapedPrice) ? InstantPrice.of(scrapedPrice) : InstantPrice.NO_PRICE;
+				});
+	}
+
 	/**
 	 * Returns false if last tick for BAC was over one hour ago.
 	 *
@@ -296,14 +397,14 @@ public class YahooMarket extends Market {
 	@Override
 	public boolean marketPricesCurrent() {
 		/* Get date/time for last BAC tick. Very liquid, should be representative of how current Yahoo! prices are */
-		logger.debug("Inside yahooPricesCurrent()");
+		LOGGER.debug("Inside yahooPricesCurrent()");
 		ZonedDateTime currentTime = Instant.now().atZone(MARKET_ZONE);
-		logger.debug("currentTime = {}", currentTime);
-		ZonedDateTime lastBacTick = ZonedDateTime.of(getCurrentDateTime(), MARKET_ZONE);
-		logger.debug("lastBacTick == {}", lastBacTick);
-		logger.debug("Comparing currentTime {} to lastBacTick {} ", currentTime, lastBacTick);
+		LOGGER.debug("currentTime = {}", currentTime);
+		ZonedDateTime lastBacTick = ZonedDateTime.of(marketClock.lastFeedDateTime(), MARKET_ZONE);
+		LOGGER.debug("lastBacTick == {}", lastBacTick);
+		LOGGER.debug("Comparing currentTime {} to lastBacTick {} ", currentTime, lastBacTick);
 		if (lastBacTick.isBefore(currentTime.minusHours(1))) {
-			logger.debug("Yahoo! last tick for BAC differs from current time by over an hour.");
+			LOGGER.debug("Yahoo! last tick for BAC differs from current time by over an hour.");
 			return false;
 		}
 		return true;
@@ -319,28 +420,54 @@ public class YahooMarket extends Market {
 	 */
 	@Override
 	public HashMap<LocalDate, BigDecimal> readHistoricalPrices(String ticker, LocalDate earliestDate) {
-		logger.debug("Entering retrieveYahooHistoricalPrices()");
-		LinkedHashMap<LocalDate, BigDecimal> yahooPriceReturns = new LinkedHashMap<>();
-		String inputLine;
-		try {
-			final URL yahooUrl = new URL(createYahooHistUrl(ticker, earliestDate));
-			BufferedReader yahooBufferedReader = new BufferedReader(new InputStreamReader(yahooUrl.openStream()));
-			/* First line is not added to array : "	Date,Open,High,Low,Close,Volume,Adj Close" so we swallow it
-			* in a log entry where it looks nice. */
-			logger.debug(yahooBufferedReader.readLine().replace("Date,", "Date         ").replaceAll(",", "    "));
-			while ((inputLine = yahooBufferedReader.readLine()) != null) {
-				String[] yahooLine = inputLine.replaceAll("[\"+%]", "").split("[,]");
-				logger.debug(Arrays.toString(yahooLine));
-				LocalDate yahooDate = LocalDate.parse(yahooLine[0]);
-				BigDecimal closePrice = new BigDecimal(yahooLine[6]);
-				yahooPriceReturns.put(yahooDate, closePrice);
-			}
-			return yahooPriceReturns;
-		} catch (IOException ioe) {
-			logger.warn("Caught IOException in readHistoricalPrices()");
-			logger.debug("Caught (IOException ioe)", ioe);
-		}
-		return new LinkedHashMap<>(Collections.emptyMap());
+		LOGGER.debug("Entering readHistoricalPrices(String {}, LocalDate {})", ticker, earliestDate);
+		return readHistoricalPricesAsync(ticker, earliestDate).join();
+	}
+
+	/**
+	 * Asynchronous form of readHistoricalPrices(). The returned future is never completed exceptionally; a failed
+	 * request completes it with an empty map.
+	 *
+	 * @param ticker       string representing the stock represented by this ticker
+	 * @param earliestDate LocalDate of the earliest missing price from the data store
+	 * @return future completed with a HashMap of <date, missing price>
+	 */
+	@Override
+	public CompletableFuture<HashMap<LocalDate, BigDecimal>> readHistoricalPricesAsync(String ticker, LocalDate earliestDate) {
+		return readPriceSeriesAsync(ticker, earliestDate).<HashMap<LocalDate, BigDecimal>>thenApply(PriceSeries::toMap);
+	}
+
+	@Override
+	public PriceSeries readPriceSeries(String ticker, LocalDate earliestDate) {
+		LOGGER.debug("Entering readPriceSeries(String {}, LocalDate {})", ticker, earliestDate);
+		return readPriceSeriesAsync(ticker, earliestDate).join();
+	}
+
+	private CompletableFuture<PriceSeries> readPriceSeriesAsync(String ticker, LocalDate earliestDate) {
+		return fetchWithRetries(createYahooHistUrl(ticker, earliestDate))
+				.thenApply(this::parseHistoricalPrices)
+				.exceptionally(throwable -> {
+					LOGGER.warn("Could not read historical prices for {} from Yahoo!", ticker);
+					LOGGER.debug("Caught (Throwable)", throwable);
+					return PriceSeries.empty();
+				});
+	}
+
+	private PriceSeries parseHistoricalPrices(String yahooCsv) {
+		PriceSeries.Builder yahooPriceReturns = PriceSeries.builder(256);
+		/* First line is not added to array : "	Date,Open,High,Low,Close,Volume,Adj Close" so we swallow it
+		 * in a log entry where it looks nice. */
+		yahooCsv.lines()
+				.findFirst()
+				.ifPresent(header -> LOGGER.debug(header.replace("Date,", "Date         ").replaceAll(",", "    ")));
+		yahooCsv.lines()
+				.skip(1)
+				.map(inputLine -> inputLine.replaceAll("[\"+%]", "").split("[,]"))
+				.forEach(yahooLine -> {
+					LOGGER.debug(Arrays.toString(yahooLine));
+					yahooPriceReturns.add(LocalDate.parse(yahooLine[0]), new BigDecimal(yahooLine[6]));
+				});
+		return yahooPriceReturns.build();
 	}
 
 	/**
@@ -359,7 +486,7 @@ public class YahooMarket extends Market {
 	 */
 	@Override
 	public boolean tickerValid(String ticker) {
-		logger.debug("Entering tickerValid(String ticker)");
+		LOGGER.debug("Entering tickerValid(String ticker)");
 		if (ticker.length() <= 4) {
 			return yahooGummyApi(ticker, "e1")[0].equals("N/A");
 		} else {
@@ -369,10 +496,27 @@ public class YahooMarket extends Market {
 
 	@Override
 	public Duration durationUntilMarketOpens() {
-		logger.debug("Entering durationUntilMarketOpens()");
+		LOGGER.debug("Entering durationUntilMarketOpens()");
 		return Duration.between(MARKET_OPEN_TIME, LocalTime.from(Instant.now().atZone(MARKET_ZONE)));
 	}
 
+	/**
+	 * Calls Yahoo! and finds the last trade date and time of Bank with America (BAC) stock. BAC is far and away the most
+	 * actively traded stock with the highest daily volume and should be representative of current Yahoo! market time.
+	 * Yahoo! API arguments:
+	 * <p><pre>
+	 *     d1   Last Trade Date
+	 *     t1   Last Trade Time
+	 * </pre>
+	 *
+	 * @return LocalDateTime parsed from last trade date and time of BAC
+	 */
+	private LocalDateTime bacLastTradeDateTime() {
+		String[] yahooDateTime = yahooGummyApi("BAC", "d1t1");
+		LOGGER.debug("yahooDateTime == {}", Arrays.toString(yahooDateTime));
+		return LocalDateTime.parse(yahooDateTime[0] + yahooDateTime[1], YAHOO_API_FORMATTER);
+	}
+
 	/**
 	 * Uses the Yahoo! finance API, referenced here: http://www.financialwisdomforum.org/gummy-stuff/Yahoo-data.htm
 	 *
@@ -381,32 +525,67 @@ public class YahooMarket extends Market {
 	 * @return string array of Yahoo! results
 	 */
 	private String[] yahooGummyApi(String ticker, String arguments) {
-		logger.debug("Entering yahooGummyApi(String {}, String {})", ticker, arguments);
+		List<String[]> yahooResults = yahooGummyApiLinesAsync(ticker, arguments).join();
+		if (yahooResults.isEmpty()) {
+			return new String[]{"No valid response from Yahoo! market"};
+		}
+		return yahooResults.get(0);
+	}
+
+	/**
+	 * Uses the Yahoo! finance API, referenced here: http://www.financialwisdomforum.org/gummy-stuff/Yahoo-data.htm
+	 * The quotes.csv endpoint accepts comma-joined symbols and returns one line per symbol, in request order.
+	 *
+	 * @param tickers   one stock symbol, or several joined with commas
+	 * @param arguments requested data, as documented
+	 * @return future completed with a list of string arrays of Yahoo! results, one per line returned. The list is
+	 * empty if Yahoo! could not be reached
+	 */
+	private CompletableFuture<List<String[]>> yahooGummyApiLinesAsync(String tickers, String arguments) {
+		LOGGER.debug("Entering yahooGummyApiLinesAsync(String {}, String {})", tickers, arguments);
+		return fetchWithRetries("http://finance.yahoo.com/d/quotes.csv?s=" + tickers + "&f=" + arguments)
+				.thenApply(yahooCsv -> yahooCsv.lines()
+						.map(yahooLine -> yahooLine.replaceAll("[\"+%]", "").split("[,]"))
+						.peek(yahooResult -> LOGGER.debug("Retrieved from Yahoo! with arguments {} : {}",
+								arguments, Arrays.toString(yahooResult)))
+						.collect(Collectors.toList()))
+				.exceptionally(throwable -> {
+					LOGGER.warn("No valid response from Yahoo! for {} with arguments {}", tickers, arguments);
+					LOGGER.debug("Caught (Throwable)", throwable);
+					return Collections.emptyList();
+				});
+	}
+
+	/**
+	 * Requests url through the transport, retrying up to YAHOO_RETRIES times if the request fails or the response is
+	 * empty.
+	 *
+	 * @param url url to request
+	 * @return future completed with the response body, or completed exceptionally after the last failed attempt
+	 */
+	private CompletableFuture<String> fetchWithRetries(String url) {
 		try {
-			URL yahooUrl = new URL("http://finance.yahoo.com/d/quotes.csv?s=" + ticker + "&f=" + arguments);
-			for (int yahooAttempt = 1; yahooAttempt <= YAHOO_RETRIES; yahooAttempt++) {
-				try (InputStream inputStream = yahooUrl.openStream();
-				     InputStreamReader inputStreamReader = new InputStreamReader(inputStream);
-				     BufferedReader yahooReader = new BufferedReader(inputStreamReader)
-				) {
-					String[] yahooResults = yahooReader.readLine().replaceAll("[\"+%]", "").split("[,]");
-					logger.debug("Retrieved from Yahoo! for ticker {} with arguments {} : {}",
-							ticker, arguments, Arrays.toString(yahooResults));
-					return yahooResults;
-				} catch (IOException ioe) {
-					logger.warn("Attempt {} : Caught IOException in yahooGummyApi()", yahooAttempt);
-					logger.debug("", ioe);
-				} catch (NullPointerException npe) {
-				/* yahooReader.readLine() may return null */
-					logger.warn("Attempt {} : Caught NullPointerException in yahooGummyApi()", yahooAttempt);
-					logger.debug("", npe);
-				}
-			}
-		} catch (MalformedURLException mue) {
-			logger.warn("Caught MalformedURLException in yahooGummyApi()");
-			logger.debug("", mue);
+			return fetchWithRetries(URI.create(url), 1);
+		} catch (IllegalArgumentException iae) {
+			LOGGER.warn("Invalid Yahoo! url {}", url);
+			return CompletableFuture.failedFuture(iae);
 		}
-		return new String[]{"No valid response from Yahoo! market"};
+	}
+
+	private CompletableFuture<String> fetchWithRetries(URI yahooUri, int yahooAttempt) {
+		return transport.fetch(yahooUri)
+				.handle((responseBody, throwable) -> {
+					if ((throwable == null) && !responseBody.isEmpty()) {
+						return CompletableFuture.completedFuture(responseBody);
+					}
+					LOGGER.warn("Attempt {} : No valid response from {}", yahooAttempt, yahooUri);
+					if (yahooAttempt >= YAHOO_RETRIES) {
+						return CompletableFuture.<String>failedFuture(throwable != null ?
+								throwable : new IOException("Empty response from " + yahooUri));
+					}
+					return fetchWithRetries(yahooUri, yahooAttempt + 1);
+				})
+				.thenCompose(Function.identity());
 	}
 
 	/**
@@ -417,7 +596,7 @@ public class YahooMarket extends Market {
 	 * @return string representing an URL to retrieve historical prices
 	 */
 	private String createYahooHistUrl(String ticker, LocalDate earlyDate) {
-		logger.debug("Entering createYahooHistUrl()");
+		LOGGER.debug("Entering createYahooHistUrl()");
 		LocalDate today = LocalDate.now(MARKET_ZONE);
 		StringBuilder yahooPriceArgs = new StringBuilder("http://ichart.finance.yahoo.com/table.csv?s=");
 		yahooPriceArgs.append(ticker)
@@ -428,7 +607,7 @@ public class YahooMarket extends Market {
 				.append("&e=").append(today.getDayOfMonth())
 				.append("&f=").append(today.getYear())
 				.append("&g=d&ignore=.csv");
-		logger.debug("yahooPriceArgs = {}", yahooPriceArgs);
+		LOGGER.debug("yahooPriceArgs = {}", yahooPriceArgs);
 		return yahooPriceArgs.toString();
 	}
 
@@ -439,13 +618,13 @@ public class YahooMarket extends Market {
 	 * @return true if this option ticker is found on Yahoo!
 	 */
 	private boolean optionTickerValid(String optionTicker) {
-		logger.debug("Entering optionTickerValid(String {})", optionTicker);
+		LOGGER.debug("Entering optionTickerValid(String {})", optionTicker);
 		if (!optionTicker.matches(VALID_OPTION_TICKER_FORMAT)) {
 			return false;
 		}
 		String prefix = "$main-0-Quote-Proxy.$main-0-Quote.0.1.0\">";
 		String suffix = "</p>";
-		String price = yahooOptionScraper(optionTicker, prefix, suffix);
+		String price = yahooOptionScraperAsync(optionTicker, prefix, suffix).join();
 		return InstantPrice.isNumeric(price);
 	}
 
@@ -459,42 +638,33 @@ public class YahooMarket extends Market {
 	 * @param optionTicker ticker of the option to web scrape
 	 * @param prefix       boundary for the beginning of the information needed
 	 * @param suffix       boundary for the end of the information
-	 * @return string of the information being web scraped
+	 * @return future completed with the string of the information being web scraped, or "" if it could not be found
 	 */
-	private String yahooOptionScraper(String optionTicker, String prefix, String suffix) {
-		logger.debug("Entering yahooOptionScraper(String {}, String {}, String {})",
+	private CompletableFuture<String> yahooOptionScraperAsync(String optionTicker, String prefix, String suffix) {
+		LOGGER.debug("Entering yahooOptionScraperAsync(String {}, String {}, String {})",
 				optionTicker, prefix, suffix);
-		try {
-			URL yahooUrl = new URL("http://finance.yahoo.com/quote/" + optionTicker);
-			logger.debug("Calling to URL: {}", yahooUrl);
-			try (InputStream inputStream = yahooUrl.openStream();
-			     InputStreamReader inputStreamReader = new InputStreamReader(inputStream);
-			     BufferedReader yahooReader = new BufferedReader(inputStreamReader)
-			) {
-				StringBuilder yahooSourceBuilder = new StringBuilder();
-				String yahooLine;
-				while ((yahooLine = yahooReader.readLine()) != null) {
-					yahooSourceBuilder.append(yahooLine);
-				}
-				String yahooSource = yahooSourceBuilder.toString();
-				int scrapeStart = yahooSource.indexOf(prefix);
-				logger.debug("scrapeStart = {}", scrapeStart);
-				int scrapeFrom = scrapeStart + prefix.length();
-				logger.debug("scrapeFrom = {}", scrapeFrom);
-				int scrapeTo = yahooSource.indexOf(suffix, scrapeFrom);
-				logger.debug("scrapeTo = {}", scrapeTo);
-				String finalScrape = yahooSource.substring(scrapeFrom, scrapeTo);
-				logger.debug("Scraped from Yahoo! : {}", finalScrape);
-				return finalScrape;
-			} catch (IOException ioe) {
-				logger.warn("Attempt {} : Caught IOException in yahooOptionTick()");
-				logger.debug("Caught (IOException ioe)", ioe);
-				return "";
-			}
-		} catch (MalformedURLException mue) {
-			logger.warn("Caught MalformedURLException in yahooOptionTick()");
-			logger.debug("Caught (MalformedURLException)", mue);
-			return "";
-		}
+		return fetchWithRetries("http://finance.yahoo.com/quote/" + optionTicker)
+				.thenApply(yahooSource -> {
+					int scrapeStart = yahooSource.indexOf(prefix);
+					LOGGER.debug("scrapeStart = {}", scrapeStart);
+					if (scrapeStart < 0) {
+						return "";
+					}
+					int scrapeFrom = scrapeStart + prefix.length();
+					LOGGER.debug("scrapeFrom = {}", scrapeFrom);
+					int scrapeTo = yahooSource.indexOf(suffix, scrapeFrom);
+					LOGGER.debug("scrapeTo = {}", scrapeTo);
+					if (scrapeTo < 0) {
+						return "";
+					}
+					String finalScrape = yahooSource.substring(scrapeFrom, scrapeTo);
+					LOGGER.debug("Scraped from Yahoo! : {}", finalScrape);
+					return finalScrape;
+				})
+				.exceptionally(throwable -> {
+					LOGGER.warn("Could not scrape Yahoo! for option {}", optionTicker);
+					LOGGER.debug("Caught (Throwable)", throwable);
+					return "";
+				});
 	}
 }
@@ -1,7 +1,9 @@
 package net.toddsarratt.gaussTrader.orders;
 
+import net.toddsarratt.gaussTrader.Money;
 import net.toddsarratt.gaussTrader.PriceBasedAction;
 import net.toddsarratt.gaussTrader.domain.Option;
+import net.toddsarratt.gaussTrader.securities.Security;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,12 +29,17 @@ public class OptionOrder extends Order {
 
 	OptionOrder(Option option, BigDecimal limitPrice, PriceBasedAction action, String tif) {
 		this.option = option;
+		this.security = option;
+		this.limitPrice = limitPrice;
 		this.action = action;
+		this.buyOrSell = action.getBuyOrSell();
+		setUnderlyingTicker(option.getUnderlyingTicker());
+		setTotalQuantity(action.getNumberToTransact());
 		this.tif = tif;
 		this.open = true;
 		this.instantOpened = Instant.now();
 		this.claimAgainstCash = calculateClaimAgainstCash();
-		LOGGER.debug("claimAgainstCash = ${}", claimAgainstCash);
+		LOGGER.debug("claimAgainstCash = ${}", Money.toString(claimAgainstCash));
 		LOGGER.info("Created order ID {} for {} to {} {} with {} @ ${} TIF : {}",
 				orderId, option.getUnderlyingTicker(), action, option.getTicker(), limitPrice, tif);
 	}
@@ -42,14 +49,20 @@ public class OptionOrder extends Order {
 	}
 
 	@Override
-	BigDecimal calculateClaimAgainstCash() {
+	public void setSecurity(Security security) {
+		super.setSecurity(security);
+		this.option = (Option) security;
+	}
+
+	@Override
+	long calculateClaimAgainstCash() {
 		if (action.getBuyOrSell() == BUY) {
 			return calculateCostBasis();
 		}
 		if (option.isPut()) {
-			return option.getStrike().multiply(
-					new BigDecimal(action.getNumberToTransact() * 100)).add(calculateCostBasis());
+			return Money.plus(Money.timesQuantity(Money.of(option.getStrike()), action.getNumberToTransact() * 100L),
+					calculateCostBasis());
 		}
-		return BigDecimal.ZERO;
+		return 0L;
 	}
 }
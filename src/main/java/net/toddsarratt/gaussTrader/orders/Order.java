@@ -1,8 +1,10 @@
 package net.toddsarratt.gaussTrader.orders;
 
+import net.toddsarratt.gaussTrader.Money;
 import net.toddsarratt.gaussTrader.PriceBasedAction;
 import net.toddsarratt.gaussTrader.domain.Option;
 import net.toddsarratt.gaussTrader.domain.Stock;
+import net.toddsarratt.gaussTrader.securities.Security;
 import net.toddsarratt.gaussTrader.singletons.BuyOrSell;
 import net.toddsarratt.gaussTrader.singletons.SecurityType;
 import org.slf4j.Logger;
@@ -40,7 +42,8 @@ public abstract class Order {
 	BuyOrSell buyOrSell;
 	BigDecimal limitPrice;
 	PriceBasedAction action;
-	BigDecimal claimAgainstCash;
+	/* In micros, see Money */
+	long claimAgainstCash;
 	String tif;
 	Instant instantOpened;
 	Instant instantClosed;
@@ -63,6 +66,29 @@ public abstract class Order {
 		return new StockOrder((Stock) security, limitPrice, action, tif);
 	}
 
+	/**
+	 * @return a copy of this order as it stands now, unchanged by a later fill, expiry or cancel
+	 */
+	public Order snapshot() {
+		Order snapshot = OrderBuilder.of(security.getSecType())
+				.orderId(orderId)
+				.open(open)
+				.security(security)
+				.limitPrice(limitPrice)
+				.action(action)
+				.underlyingTicker(underlyingTicker)
+				.buyOrSell(buyOrSell)
+				.totalQuantity(totalQuantity)
+				.tif(tif)
+				.instantOpened(instantOpened)
+				.instantClosed(instantClosed)
+				.build();
+		snapshot.claimAgainstCash = claimAgainstCash;
+		snapshot.closeReason = closeReason;
+		snapshot.fillPrice = fillPrice;
+		return snapshot;
+	}
+
 	public boolean isCall() {
 		return security.getSecType() == CALL;
 	}
@@ -87,7 +113,7 @@ public abstract class Order {
 		this.open = open;
 	}
 
-	BigDecimal getLimitPrice() {
+	public BigDecimal getLimitPrice() {
 		return limitPrice;
 	}
 
@@ -137,7 +163,7 @@ public abstract class Order {
 		LOGGER.info("Order {} {} @ ${} epoch {}", this.orderId, closeReason, fillPrice, instantClosed);
 	}
 
-	Instant getInstantOpened() {
+	public Instant getInstantOpened() {
 		return instantOpened;
 	}
 
@@ -145,7 +171,7 @@ public abstract class Order {
 		this.instantOpened = instantOpened;
 	}
 
-	Instant getInstantClosed() {
+	public Instant getInstantClosed() {
 		return instantClosed;
 	}
 
@@ -153,7 +179,7 @@ public abstract class Order {
 		this.instantClosed = instantClosed;
 	}
 
-	String getCloseReason() {
+	public String getCloseReason() {
 		return closeReason;
 	}
 
@@ -161,7 +187,7 @@ public abstract class Order {
 		this.closeReason = closeReason;
 	}
 
-	BigDecimal getFillPrice() {
+	public BigDecimal getFillPrice() {
 		return fillPrice;
 	}
 
@@ -170,25 +196,34 @@ public abstract class Order {
 	}
 
 	public BigDecimal getClaimAgainstCash() {
-		return claimAgainstCash;
+		return Money.toBigDecimal(claimAgainstCash);
 	}
 
-	void setClaimAgainstCash(BigDecimal claimAgainstCash) {
-		this.claimAgainstCash = claimAgainstCash;
+	public long getClaimAgainstCashMicros() {
+		return claimAgainstCash;
 	}
 
-	BigDecimal calculateCostBasis() {
-		LOGGER.debug("Entering Order.calculateClaimAgainstCash()");
-		BigDecimal costBasis = limitPrice.multiply(
-				new BigDecimal(
-						action.getNumberToTransact()
-								* (action.getSecurityType().equals(SecurityType.STOCK) ? 1.0 : 100.0)
-								* (action.getBuyOrSell().equals("BUY") ? 1.0 : -1.0)));
-		LOGGER.debug("costBasis = ${}", costBasis);
+	void setClaimAgainstCash(BigDecimal claimAgainstCash) {
+		this.claimAgainstCash = Money.of(claimAgainstCash);
+	}
+
+	/**
+	 * @return limit price * shares (stock) or limit price * 100 * contracts (options) in micros, negative when selling
+	 */
+	long calculateCostBasis() {
+		LOGGER.debug("Entering Order.calculateCostBasis()");
+		long costBasis = Money.timesQuantity(Money.of(limitPrice),
+				(long) action.getNumberToTransact()
+						* (action.getSecurityType().equals(SecurityType.STOCK) ? 1 : 100)
+						* ((action.getBuyOrSell() == BUY) ? 1 : -1));
+		LOGGER.debug("costBasis = ${}", Money.toString(costBasis));
 		return costBasis;
 	}
 
-	abstract BigDecimal calculateClaimAgainstCash();
+	/**
+	 * @return cash in micros to set aside while the order is open
+	 */
+	abstract long calculateClaimAgainstCash();
 
 	public boolean canBeFilled(BigDecimal lastTick) {
 		return (lastTick.compareTo(BigDecimal.ZERO) > 0) &&
@@ -213,11 +248,23 @@ public abstract class Order {
 		return underlyingTicker;
 	}
 
+	void setUnderlyingTicker(String underlyingTicker) {
+		this.underlyingTicker = underlyingTicker;
+	}
+
 	public BuyOrSell getBuyOrSell() {
 		return buyOrSell;
 	}
 
+	void setBuyOrSell(BuyOrSell buyOrSell) {
+		this.buyOrSell = buyOrSell;
+	}
+
 	public int getTotalQuantity() {
 		return totalQuantity;
 	}
+
+	void setTotalQuantity(int totalQuantity) {
+		this.totalQuantity = totalQuantity;
+	}
 }
@@ -1,5 +1,8 @@
 package net.toddsarratt.gaussTrader.orders;
 
+import net.toddsarratt.gaussTrader.PriceBasedAction;
+import net.toddsarratt.gaussTrader.securities.Security;
+import net.toddsarratt.gaussTrader.singletons.BuyOrSell;
 import net.toddsarratt.gaussTrader.singletons.SecurityType;
 
 import java.math.BigDecimal;
@@ -43,8 +46,38 @@ public class OrderBuilder {
 		return this;
 	}
 
-	public OrderBuilder ticker(String ticker) {
-		order.setTicker(ticker);
+	public OrderBuilder security(Security security) {
+		order.setSecurity(security);
+		return this;
+	}
+
+	public OrderBuilder limitPrice(BigDecimal limitPrice) {
+		order.setLimitPrice(limitPrice);
+		return this;
+	}
+
+	public OrderBuilder action(PriceBasedAction action) {
+		order.setAction(action);
+		return this;
+	}
+
+	public OrderBuilder underlyingTicker(String underlyingTicker) {
+		order.setUnderlyingTicker(underlyingTicker);
+		return this;
+	}
+
+	public OrderBuilder buyOrSell(BuyOrSell buyOrSell) {
+		order.setBuyOrSell(buyOrSell);
+		return this;
+	}
+
+	public OrderBuilder totalQuantity(int totalQuantity) {
+		order.setTotalQuantity(totalQuantity);
+		return this;
+	}
+
+	public OrderBuilder tif(String tif) {
+		order.setTif(tif);
 		return this;
 	}
 
@@ -1,13 +1,17 @@
 package net.toddsarratt.gaussTrader.orders;
 
+import net.toddsarratt.gaussTrader.Money;
 import net.toddsarratt.gaussTrader.PriceBasedAction;
 import net.toddsarratt.gaussTrader.domain.Stock;
+import net.toddsarratt.gaussTrader.securities.Security;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.math.BigDecimal;
 import java.time.Instant;
 
+import static net.toddsarratt.gaussTrader.singletons.BuyOrSell.BUY;
+
 /**
  * OptionOrder extends Order to hold Options, specifically.
  *
@@ -24,14 +28,19 @@ public class StockOrder extends Order {
 
 	StockOrder(Stock stock, BigDecimal limitPrice, PriceBasedAction action, String tif) {
 		this.stock = stock;
+		this.security = stock;
+		this.limitPrice = limitPrice;
 		this.action = action;
+		this.buyOrSell = action.getBuyOrSell();
+		setUnderlyingTicker(stock.getTicker());
+		setTotalQuantity(action.getNumberToTransact());
 		this.tif = tif;
 		this.open = true;
 		this.instantOpened = Instant.now();
 		this.claimAgainstCash = calculateClaimAgainstCash();
-		LOGGER.debug("claimAgainstCash = ${}", claimAgainstCash);
+		LOGGER.debug("claimAgainstCash = ${}", Money.toString(claimAgainstCash));
 		LOGGER.info("Created order ID {} for {} to {} {} with {} @ ${} TIF : {}",
-				orderId, stock.getTicker(), action, ticker, limitPrice, tif);
+				orderId, stock.getTicker(), action, stock.getTicker(), limitPrice, tif);
 	}
 
 	public Stock getStock() {
@@ -39,7 +48,13 @@ public class StockOrder extends Order {
 	}
 
 	@Override
-	BigDecimal calculateClaimAgainstCash() {
-		return action.getBuyOrSell().equals("BUY") ? calculateCostBasis() : BigDecimal.ZERO;
+	public void setSecurity(Security security) {
+		super.setSecurity(security);
+		this.stock = (Stock) security;
+	}
+
+	@Override
+	long calculateClaimAgainstCash() {
+		return (action.getBuyOrSell() == BUY) ? calculateCostBasis() : 0L;
 	}
 }
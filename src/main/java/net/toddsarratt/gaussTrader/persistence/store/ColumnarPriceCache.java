@@ -0,0 +1,381 @@
+package net.toddsarratt.gaussTrader.persistence.store;
+
+import net.toddsarratt.gaussTrader.technicals.PriceSeries;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local copy of the prices table in a columnar file format, for backtests and watch list startup which read the same
+ * daily closes over and over. Each calendar year of closes is kept in its own file, prices_&lt;year&gt;.gpc, laid out
+ * as:
+ * <pre>
+ *     header     magic, format version, year, ticker count, close count, directory length, epoch day of last sync
+ *     directory  for each ticker: ticker, index of its first close, number of closes, epoch day of its first close
+ *     closes     every close in millionths of a dollar, 8 bytes each, grouped by ticker in date order
+ *     days       days since the ticker's previous close, 2 bytes each, in the same order as closes
+ * </pre>
+ * Files are memory-mapped read-only with FileChannel.map(). A ticker's closes are copied from the mapping into a
+ * PriceSeries with one bulk get, so the only per-close work is adding up the day deltas. Everything is little endian.
+ * <p>
+ * sync() refreshes the files from a DataStore. A year is rewritten when its file is missing, lacks one of the tickers
+ * asked for or was last synced before the year ended. Files are written in full to a temporary file and moved into
+ * place, so a reader never sees a partly written year.
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
+public class ColumnarPriceCache {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ColumnarPriceCache.class);
+	/* "GPC1" */
+	private static final int MAGIC = 0x47504331;
+	private static final int FORMAT_VERSION = 1;
+	private static final int HEADER_BYTES = 32;
+	private static final int MAX_TICKER_BYTES = 32;
+	private static final Pattern YEAR_FILE_NAME = Pattern.compile("prices_(\\d{4})\\.gpc");
+	private static final ZoneId PRICES_ZONE = ZoneId.of("America/New_York");
+	private final Path directory;
+	private final Map<Integer, YearFile> yearFiles = new ConcurrentHashMap<>();
+
+	/**
+	 * @param directory directory holding the year files. Created by the first sync() if missing
+	 */
+	public ColumnarPriceCache(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Reads cached daily closes for many tickers.
+	 *
+	 * @param tickers           stock tickers
+	 * @param earliestCloseDate earliest close to read
+	 * @return closes on or after earliestCloseDate by ticker. Tickers without cached closes map to an empty series
+	 * @throws IOException if a year file cannot be mapped or is corrupt
+	 */
+	public Map<String, PriceSeries> readPriceSeries(Collection<String> tickers, LocalDate earliestCloseDate) throws IOException {
+		LOGGER.debug("Entering readPriceSeries(Collection<String> of {} tickers, LocalDate {})", tickers.size(), earliestCloseDate);
+		long startNanos = System.nanoTime();
+		List<YearFile> years = openYearsFrom(earliestCloseDate.getYear());
+		Map<String, PriceSeries> priceSeriesByTicker = new HashMap<>();
+		long closeCount = 0L;
+		for (String ticker : tickers) {
+			PriceSeries closes = read(ticker, years).since(earliestCloseDate);
+			priceSeriesByTicker.put(ticker, closes);
+			closeCount += closes.size();
+		}
+		LOGGER.info("Read {} closes for {} tickers from {} years of {} in {}ms", closeCount, tickers.size(), years.size(),
+				directory, Duration.ofNanos(System.nanoTime() - startNanos).toMillis());
+		return priceSeriesByTicker;
+	}
+
+	/**
+	 * Reads cached daily closes for one ticker.
+	 *
+	 * @param ticker            stock ticker
+	 * @param earliestCloseDate earliest close to read
+	 * @return closes on or after earliestCloseDate, empty if none are cached
+	 * @throws IOException if a year file cannot be mapped or is corrupt
+	 */
+	public PriceSeries readPriceSeries(String ticker, LocalDate earliestCloseDate) throws IOException {
+		LOGGER.debug("Entering readPriceSeries(String {}, LocalDate {})", ticker, earliestCloseDate);
+		return read(ticker, openYearsFrom(earliestCloseDate.getYear())).since(earliestCloseDate);
+	}
+
+	private static PriceSeries read(String ticker, List<YearFile> years) {
+		int closeCount = 0;
+		for (YearFile yearFile : years) {
+			closeCount += yearFile.getCloseCount(ticker);
+		}
+		int[] epochDays = new int[closeCount];
+		long[] micros = new long[closeCount];
+		int offset = 0;
+		for (YearFile yearFile : years) {
+			offset += yearFile.read(ticker, epochDays, micros, offset);
+		}
+		return PriceSeries.wrap(epochDays, micros);
+	}
+
+	/**
+	 * Brings the cache up to date with the data store for tickers from earliestCloseDate on. Only stale years are read
+	 * from the store and rewritten. Tickers already cached in a rewritten year are kept.
+	 *
+	 * @param dataStore         store to read closes from
+	 * @param tickers           stock tickers to cache
+	 * @param earliestCloseDate earliest close to cache
+	 * @throws IOException if a year file cannot be written
+	 */
+	public void sync(DataStore dataStore, Collection<String> tickers, LocalDate earliestCloseDate) throws IOException {
+		LOGGER.debug("Entering sync(DataStore, Collection<String> of {} tickers, LocalDate {})", tickers.size(), earliestCloseDate);
+		long startNanos = System.nanoTime();
+		LocalDate today = LocalDate.now(PRICES_ZONE);
+		Set<String> tickersToWrite = new TreeSet<>(tickers);
+		List<Integer> staleYears = new ArrayList<>();
+		for (int year = earliestCloseDate.getYear(); year <= today.getYear(); year++) {
+			YearFile yearFile = openYear(year);
+			if ((yearFile == null) || !yearFile.isFinal() || !yearFile.getTickers().containsAll(tickers)) {
+				staleYears.add(year);
+				if (yearFile != null) {
+					tickersToWrite.addAll(yearFile.getTickers());
+				}
+			}
+		}
+		if (staleYears.isEmpty()) {
+			LOGGER.debug("Price cache in {} is up to date", directory);
+			return;
+		}
+		Files.createDirectories(directory);
+		Map<String, PriceSeries> storedPrices = dataStore.readPriceSeries(tickersToWrite, LocalDate.of(staleYears.get(0), 1, 1));
+		for (int year : staleYears) {
+			writeYear(year, tickersToWrite, storedPrices, today);
+		}
+		LOGGER.info("Synced {} tickers for years {} to {} in {}ms", tickersToWrite.size(), staleYears, directory,
+				Duration.ofNanos(System.nanoTime() - startNanos).toMillis());
+	}
+
+	private void writeYear(int year, Set<String> tickers, Map<String, PriceSeries> closesByTicker, LocalDate syncedOn)
+			throws IOException {
+		LocalDate firstDate = LocalDate.of(year, 1, 1);
+		LocalDate lastDate = LocalDate.of(year, 12, 31);
+		Map<String, PriceSeries> yearCloses = new TreeMap<>();
+		int closeCount = 0;
+		int directoryBytes = 0;
+		for (String ticker : tickers) {
+			int tickerBytes = ticker.getBytes(StandardCharsets.US_ASCII).length;
+			if (tickerBytes > MAX_TICKER_BYTES) {
+				throw new IllegalArgumentException("Ticker " + ticker + " is longer than " + MAX_TICKER_BYTES + " characters");
+			}
+			/* Tickers without closes are still listed, so the next sync does not take the year for stale */
+			PriceSeries closes = closesByTicker.getOrDefault(ticker, PriceSeries.empty()).since(firstDate);
+			closes = closes.subSeries(0, closes.floorIndex(lastDate) + 1);
+			yearCloses.put(ticker, closes);
+			closeCount += closes.size();
+			directoryBytes += 1 + tickerBytes + 3 * Integer.BYTES;
+		}
+		int closesStart = alignToLong(HEADER_BYTES + directoryBytes);
+		int daysStart = closesStart + closeCount * Long.BYTES;
+		ByteBuffer buffer = ByteBuffer.allocate(daysStart + closeCount * Short.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC)
+				.putInt(FORMAT_VERSION)
+				.putInt(year)
+				.putInt(yearCloses.size())
+				.putInt(closeCount)
+				.putInt(directoryBytes)
+				.putInt(Math.toIntExact(syncedOn.toEpochDay()))
+				.putInt(0);
+		int closeIndex = 0;
+		for (Map.Entry<String, PriceSeries> tickerCloses : yearCloses.entrySet()) {
+			byte[] tickerBytes = tickerCloses.getKey().getBytes(StandardCharsets.US_ASCII);
+			PriceSeries closes = tickerCloses.getValue();
+			buffer.put((byte) tickerBytes.length)
+					.put(tickerBytes)
+					.putInt(closeIndex)
+					.putInt(closes.size())
+					.putInt(closes.isEmpty() ? 0 : closes.getEpochDay(0));
+			for (int index = 0; index < closes.size(); index++) {
+				buffer.putLong(closesStart + (closeIndex + index) * Long.BYTES, closes.getMicros(index));
+				/* Closes in one year are at most 365 days apart, so the delta always fits a short */
+				int dayDelta = (index == 0) ? 0 : closes.getEpochDay(index) - closes.getEpochDay(index - 1);
+				buffer.putShort(daysStart + (closeIndex + index) * Short.BYTES, (short) dayDelta);
+			}
+			closeIndex += closes.size();
+		}
+		buffer.rewind();
+		Path yearPath = yearPath(year);
+		Path tempPath = Files.createTempFile(directory, yearPath.getFileName().toString(), ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.WRITE)) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				channel.force(true);
+			}
+			Files.move(tempPath, yearPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException ioe) {
+			Files.deleteIfExists(tempPath);
+			throw ioe;
+		}
+		yearFiles.put(year, YearFile.open(yearPath));
+		LOGGER.debug("Wrote {} closes for {} tickers to {}", closeCount, yearCloses.size(), yearPath);
+	}
+
+	private List<YearFile> openYearsFrom(int firstYear) throws IOException {
+		List<Integer> years = new ArrayList<>();
+		if (Files.isDirectory(directory)) {
+			try (DirectoryStream<Path> yearPaths = Files.newDirectoryStream(directory, "prices_*.gpc")) {
+				for (Path yearPath : yearPaths) {
+					Matcher nameMatcher = YEAR_FILE_NAME.matcher(yearPath.getFileName().toString());
+					if (nameMatcher.matches() && (Integer.parseInt(nameMatcher.group(1)) >= firstYear)) {
+						years.add(Integer.parseInt(nameMatcher.group(1)));
+					}
+				}
+			}
+		}
+		Collections.sort(years);
+		List<YearFile> openedYears = new ArrayList<>();
+		for (int year : years) {
+			YearFile yearFile = openYear(year);
+			if (yearFile != null) {
+				openedYears.add(yearFile);
+			}
+		}
+		return openedYears;
+	}
+
+	private YearFile openYear(int year) throws IOException {
+		YearFile yearFile = yearFiles.get(year);
+		if (yearFile == null) {
+			Path yearPath = yearPath(year);
+			if (Files.notExists(yearPath)) {
+				return null;
+			}
+			yearFile = YearFile.open(yearPath);
+			yearFiles.put(year, yearFile);
+		}
+		return yearFile;
+	}
+
+	private Path yearPath(int year) {
+		return directory.resolve("prices_" + year + ".gpc");
+	}
+
+	private static int alignToLong(int position) {
+		return (position + Long.BYTES - 1) & -Long.BYTES;
+	}
+
+	/**
+	 * One mapped year file. The mapping is only read with absolute gets or through duplicates, so it can be shared by
+	 * any number of threads.
+	 */
+	private static final class YearFile {
+		private final int year;
+		private final ByteBuffer mapping;
+		private final int syncedOnEpochDay;
+		private final int closesStart;
+		private final int daysStart;
+		private final Map<String, Segment> segments;
+
+		private YearFile(int year, ByteBuffer mapping, int syncedOnEpochDay, int closesStart, int daysStart,
+		                 Map<String, Segment> segments) {
+			this.year = year;
+			this.mapping = mapping;
+			this.syncedOnEpochDay = syncedOnEpochDay;
+			this.closesStart = closesStart;
+			this.daysStart = daysStart;
+			this.segments = segments;
+		}
+
+		private static YearFile open(Path yearPath) throws IOException {
+			ByteBuffer mapping;
+			try (FileChannel channel = FileChannel.open(yearPath, StandardOpenOption.READ)) {
+				mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+			}
+			if ((mapping.capacity() < HEADER_BYTES) || (mapping.getInt(0) != MAGIC) || (mapping.getInt(4) != FORMAT_VERSION)) {
+				throw new IOException(yearPath + " is not a version " + FORMAT_VERSION + " price cache file");
+			}
+			int year = mapping.getInt(8);
+			int tickerCount = mapping.getInt(12);
+			int closeCount = mapping.getInt(16);
+			int directoryBytes = mapping.getInt(20);
+			int syncedOnEpochDay = mapping.getInt(24);
+			int closesStart = alignToLong(HEADER_BYTES + directoryBytes);
+			int daysStart = closesStart + closeCount * Long.BYTES;
+			if (mapping.capacity() != daysStart + closeCount * Short.BYTES) {
+				throw new IOException(yearPath + " is " + mapping.capacity() + " bytes, expected " +
+						(daysStart + closeCount * Short.BYTES));
+			}
+			Map<String, Segment> segments = new HashMap<>(tickerCount * 2);
+			int position = HEADER_BYTES;
+			for (int tickerIndex = 0; tickerIndex < tickerCount; tickerIndex++) {
+				int tickerLength = mapping.get(position);
+				byte[] tickerBytes = new byte[tickerLength];
+				mapping.duplicate().position(position + 1).get(tickerBytes);
+				position += 1 + tickerLength;
+				segments.put(new String(tickerBytes, StandardCharsets.US_ASCII),
+						new Segment(mapping.getInt(position), mapping.getInt(position + 4), mapping.getInt(position + 8)));
+				position += 3 * Integer.BYTES;
+			}
+			return new YearFile(year, mapping, syncedOnEpochDay, closesStart, daysStart, segments);
+		}
+
+		/**
+		 * @return true if the file was synced after the year ended, so no more closes can arrive for it
+		 */
+		private boolean isFinal() {
+			return syncedOnEpochDay > LocalDate.of(year, 12, 31).toEpochDay();
+		}
+
+		private Set<String> getTickers() {
+			return segments.keySet();
+		}
+
+		private int getCloseCount(String ticker) {
+			Segment segment = segments.get(ticker);
+			return (segment == null) ? 0 : segment.closeCount;
+		}
+
+		/**
+		 * Copies the closes of ticker into the arrays starting at offset.
+		 *
+		 * @return number of closes copied
+		 */
+		private int read(String ticker, int[] epochDays, long[] micros, int offset) {
+			Segment segment = segments.get(ticker);
+			if ((segment == null) || (segment.closeCount == 0)) {
+				return 0;
+			}
+			ByteBuffer closes = mapping.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+			closes.position(closesStart + segment.firstClose * Long.BYTES);
+			closes.asLongBuffer().get(micros, offset, segment.closeCount);
+			ByteBuffer days = mapping.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+			days.position(daysStart + segment.firstClose * Short.BYTES);
+			ShortBuffer dayDeltas = days.asShortBuffer();
+			int epochDay = segment.firstEpochDay;
+			for (int index = 0; index < segment.closeCount; index++) {
+				epochDay += dayDeltas.get(index);
+				epochDays[offset + index] = epochDay;
+			}
+			return segment.closeCount;
+		}
+	}
+
+	/**
+	 * Where one ticker's closes sit in the columns of a year file.
+	 */
+	private static final class Segment {
+		private final int firstClose;
+		private final int closeCount;
+		private final int firstEpochDay;
+
+		private Segment(int firstClose, int closeCount, int firstEpochDay) {
+			this.firstClose = firstClose;
+			this.closeCount = closeCount;
+			this.firstEpochDay = firstEpochDay;
+		}
+	}
+}
@@ -3,22 +3,107 @@ package net.toddsarratt.gaussTrader.persistence.store;
 import net.toddsarratt.gaussTrader.Position;
 import net.toddsarratt.gaussTrader.domain.Stock;
 import net.toddsarratt.gaussTrader.orders.Order;
-import net.toddsarratt.gaussTrader.persistence.entity.InstantPrice;
+import net.toddsarratt.gaussTrader.InstantPrice;
 import net.toddsarratt.gaussTrader.portfolio.PortfolioSummary;
+import net.toddsarratt.gaussTrader.technicals.PriceSeries;
 
 import java.math.BigDecimal;
 import java.sql.SQLException;
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 /**
- * The root interface for persistent data storage. The only current subclass implements a PostgreSQL database.
+ * The root interface for persistent data storage. PostgresStore keeps data in a PostgreSQL database and EmbeddedStore
+ * in local files for hosts without one.
+ * <p>
+ * NONE stores nothing and reads back nothing, for portfolios kept only in memory such as a backtest's.
  *
  * @author Todd Sarratt todd.sarratt@gmail.com
  * @since gaussTrader v0.2
  */
 public interface DataStore {
+	DataStore NONE = new DataStore() {
+		@Override
+		public void resetWatchList() {
+		}
+
+		@Override
+		public HashMap<LocalDate, BigDecimal> readHistoricalPrices(String ticker, LocalDate earliestCloseDate) {
+			return new HashMap<>();
+		}
+
+		@Override
+		public void writeStockMetrics(Stock stockToUpdate) {
+		}
+
+		@Override
+		public void writeStockMetrics(Set<Stock> stocksToUpdate) {
+		}
+
+		@Override
+		public void writeStockPrice(String ticker, LocalDate date, BigDecimal adjClose) {
+		}
+
+		@Override
+		public void writeStockPrice(String ticker, InstantPrice instantPrice) {
+		}
+
+		@Override
+		public void writeStockPrice(Stock stock, InstantPrice instantPrice) {
+		}
+
+		@Override
+		public boolean tickerPriceInStore(String ticker) {
+			return false;
+		}
+
+		@Override
+		public void deactivateStock(String tickerToRemove) {
+		}
+
+		@Override
+		public boolean portfolioInStore(String name) {
+			return false;
+		}
+
+		@Override
+		public PortfolioSummary getPortfolioSummary(String portfolioName) {
+			return null;
+		}
+
+		@Override
+		public Set<Position> getPortfolioPositions() {
+			return Set.of();
+		}
+
+		@Override
+		public Set<Order> getPortfolioOrders() {
+			return Set.of();
+		}
+
+		@Override
+		public void write(Order order) {
+		}
+
+		@Override
+		public void write(Position position) {
+		}
+
+		@Override
+		public void write(PortfolioSummary summary) {
+		}
+
+		@Override
+		public void close(Order orderToFill) {
+		}
+
+		@Override
+		public void close(Position optionPositionToExercise) {
+		}
+	};
 
 	void resetWatchList();
 
@@ -28,12 +113,62 @@ public interface DataStore {
 
 	HashMap<LocalDate, BigDecimal> readHistoricalPrices(String ticker, LocalDate earliestCloseDate);
 
+	/**
+	 * Reads stored daily closes into a compact PriceSeries. Stores should override this to build the series directly
+	 * rather than through a map.
+	 *
+	 * @param ticker            stock ticker
+	 * @param earliestCloseDate earliest close to read
+	 * @return closes on or after earliestCloseDate
+	 */
+	default PriceSeries readPriceSeries(String ticker, LocalDate earliestCloseDate) {
+		return PriceSeries.of(readHistoricalPrices(ticker, earliestCloseDate));
+	}
+
+	/**
+	 * Reads stored daily closes for many tickers at once. Stores should override this to read every ticker in one
+	 * query.
+	 *
+	 * @param tickers           stock tickers
+	 * @param earliestCloseDate earliest close to read
+	 * @return closes on or after earliestCloseDate by ticker. Tickers without stored closes map to an empty series
+	 */
+	default Map<String, PriceSeries> readPriceSeries(Collection<String> tickers, LocalDate earliestCloseDate) {
+		Map<String, PriceSeries> priceSeriesByTicker = new HashMap<>();
+		tickers.forEach(ticker -> priceSeriesByTicker.put(ticker, readPriceSeries(ticker, earliestCloseDate)));
+		return priceSeriesByTicker;
+	}
+
 	void writeStockMetrics(Stock stockToUpdate);
 
 	void writeStockMetrics(Set<Stock> stocksToUpdate);
 
 	void writeStockPrice(String ticker, LocalDate date, BigDecimal adjClose);
 
+	/**
+	 * Writes many daily closes for one ticker. Closes already stored are left as they are.
+	 *
+	 * @param ticker stock ticker
+	 * @param closes daily closes to store
+	 */
+	default void writeStockPrices(String ticker, PriceSeries closes) {
+		writeStockPrices(Map.of(ticker, closes));
+	}
+
+	/**
+	 * Writes daily closes for many tickers. Closes already stored are left as they are. Stores should override this to
+	 * write every close in one transaction.
+	 *
+	 * @param closesByTicker daily closes to store by ticker
+	 */
+	default void writeStockPrices(Map<String, PriceSeries> closesByTicker) {
+		closesByTicker.forEach((ticker, closes) -> {
+			for (int index = 0; index < closes.size(); index++) {
+				writeStockPrice(ticker, closes.getDate(index), closes.getPrice(index));
+			}
+		});
+	}
+
 	void writeStockPrice(String ticker, InstantPrice instantPrice);
 
 	void writeStockPrice(Stock stock, InstantPrice instantPrice);
@@ -54,10 +189,36 @@ public interface DataStore {
 
 	void write(Position position);
 
+	/**
+	 * Writes the last tick and net asset value of positions already stored. Stores should override this to write every
+	 * position in one statement, and may skip positions whose last tick has not changed since they were last marked.
+	 *
+	 * @param positions open positions to mark to market
+	 */
+	default void writeMarks(Collection<Position> positions) {
+		positions.forEach(this::write);
+	}
+
 	void write(PortfolioSummary summary);
 
 	void close(Order orderToFill);
 
 	void close(Position optionPositionToExercise);
 
+	/**
+	 * Makes every store call in writes as one transaction. Stores without transactions just make the calls.
+	 *
+	 * @param writes store calls to make
+	 * @throws SQLException if the transaction failed and nothing was written
+	 */
+	default void inTransaction(Runnable writes) throws SQLException {
+		writes.run();
+	}
+
+	/**
+	 * Blocks until every write accepted so far has been stored. Stores that write before returning have nothing to
+	 * wait for.
+	 */
+	default void flush() {
+	}
 }
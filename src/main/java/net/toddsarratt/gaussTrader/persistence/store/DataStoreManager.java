@@ -1,6 +1,309 @@
 package net.toddsarratt.gaussTrader.persistence.store;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import net.toddsarratt.gaussTrader.singletons.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Owns the pool of Postgres connections shared by every PostgresStore. Connections are opened once and handed out
+ * again after close(), instead of each write paying for a new socket and login.
+ * <p>
+ * The pool keeps at least DB_POOL_MIN_IDLE idle connections and opens at most DB_POOL_MAX_SIZE. Connections idle
+ * longer than DB_POOL_IDLE_TIMEOUT_MS are closed down to the minimum, each connection is validated with
+ * Connection.isValid() before it is handed out, and a connection held longer than DB_POOL_LEAK_DETECTION_MS is logged
+ * with the stack trace of the caller that borrowed it. Callers must close connections, ideally with try-with-resources.
+ * <p>
+ * inTransaction() binds one connection to the calling thread so that every store method it runs shares a single
+ * transaction.
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
 public class DataStoreManager {
+	private static final Logger LOGGER = LoggerFactory.getLogger(DataStoreManager.class);
+	private static final String POOL_NAME = "gaussTrader-postgres";
+	private static final HikariDataSource DATA_SOURCE = createDataSource();
+	private static final LongAdder CONNECTIONS_SERVED = new LongAdder();
+	private static final LongAdder CONNECTION_FAILURES = new LongAdder();
+	private static final LongAdder TOTAL_WAIT_NANOS = new LongAdder();
+	private static final LongAccumulator MAX_WAIT_NANOS = new LongAccumulator(Math::max, 0L);
+	private static final ThreadLocal<Transaction> TRANSACTION = new ThreadLocal<>();
+
+	private DataStoreManager() {
+	}
+
+	private static HikariDataSource createDataSource() {
+		LOGGER.debug("Entering createDataSource()");
+		HikariConfig hikariConfig = new HikariConfig();
+		hikariConfig.setPoolName(POOL_NAME);
+		hikariConfig.setJdbcUrl("jdbc:postgresql://" + Constants.DB_IP + "/" + Constants.DB_NAME);
+		hikariConfig.setUsername(Constants.DB_USER);
+		hikariConfig.setPassword(Constants.DB_PASSWORD);
+		hikariConfig.setMinimumIdle(Constants.DB_POOL_MIN_IDLE);
+		hikariConfig.setMaximumPoolSize(Constants.DB_POOL_MAX_SIZE);
+		hikariConfig.setIdleTimeout(Constants.DB_POOL_IDLE_TIMEOUT_MS);
+		hikariConfig.setConnectionTimeout(Constants.DB_POOL_CONNECTION_TIMEOUT_MS);
+		hikariConfig.setValidationTimeout(Constants.DB_POOL_VALIDATION_TIMEOUT_MS);
+		hikariConfig.setLeakDetectionThreshold(Constants.DB_POOL_LEAK_DETECTION_MS);
+		/* Lets the driver collapse batched INSERTs into multi-row statements */
+		hikariConfig.addDataSourceProperty("reWriteBatchedInserts", "true");
+		LOGGER.info("Opening connection pool to {} on {} ({} to {} connections)",
+				Constants.DB_NAME, Constants.DB_IP, Constants.DB_POOL_MIN_IDLE, Constants.DB_POOL_MAX_SIZE);
+		return new HikariDataSource(hikariConfig);
+	}
+
+	/**
+	 * Borrows a connection from the pool, waiting up to DB_POOL_CONNECTION_TIMEOUT_MS if every connection is in use.
+	 * Closing the connection returns it to the pool. Inside inTransaction() the transaction's connection is returned
+	 * instead, and closing it does nothing.
+	 *
+	 * @return pooled connection
+	 * @throws SQLException if no connection became available in time or the database cannot be reached
+	 */
+	public static Connection getConnection() throws SQLException {
+		Transaction transaction = TRANSACTION.get();
+		if (transaction != null) {
+			return transaction.connectionProxy;
+		}
+		return borrowConnection();
+	}
+
+	private static Connection borrowConnection() throws SQLException {
+		long startNanos = System.nanoTime();
+		try {
+			return DATA_SOURCE.getConnection();
+		} catch (SQLException sqle) {
+			CONNECTION_FAILURES.increment();
+			throw sqle;
+		} finally {
+			long waitNanos = System.nanoTime() - startNanos;
+			CONNECTIONS_SERVED.increment();
+			TOTAL_WAIT_NANOS.add(waitNanos);
+			MAX_WAIT_NANOS.accumulate(waitNanos);
+		}
+	}
+
+	/**
+	 * Runs writes in one transaction on one pooled connection. Store methods called by writes get that connection from
+	 * getConnection(), and their own commit(), rollback(), setAutoCommit() and close() calls are ignored. Store methods
+	 * log and swallow their SQLExceptions, so any SQLException thrown by a statement is also recorded and rolls the
+	 * whole transaction back at the end. Calls nested inside another inTransaction() join the outer transaction.
+	 *
+	 * @param writes store calls to make
+	 * @throws SQLException if any statement failed, in which case nothing was committed
+	 */
+	public static void inTransaction(Runnable writes) throws SQLException {
+		if (TRANSACTION.get() != null) {
+			writes.run();
+			return;
+		}
+		try (Connection dbConnection = borrowConnection()) {
+			Transaction transaction = new Transaction(dbConnection);
+			dbConnection.setAutoCommit(false);
+			TRANSACTION.set(transaction);
+			try {
+				writes.run();
+				if (transaction.failure != null) {
+					throw transaction.failure;
+				}
+				dbConnection.commit();
+				transaction.afterCommit.forEach(Runnable::run);
+			} catch (SQLException | RuntimeException e) {
+				dbConnection.rollback();
+				throw e;
+			} finally {
+				TRANSACTION.remove();
+			}
+		}
+	}
+
+	/**
+	 * Runs action once the current transaction commits, or straight away outside inTransaction(). Used to update state
+	 * that must only change if a write really reached the database. Nothing is run if the transaction rolls back.
+	 *
+	 * @param action code to run after commit
+	 */
+	public static void afterCommit(Runnable action) {
+		Transaction transaction = TRANSACTION.get();
+		if (transaction == null) {
+			action.run();
+		} else {
+			transaction.afterCommit.add(action);
+		}
+	}
+
+	/**
+	 * @return current state of the pool and the time callers have spent waiting for connections
+	 */
+	public static PoolMetrics getPoolMetrics() {
+		HikariPoolMXBean poolMXBean = DATA_SOURCE.getHikariPoolMXBean();
+		return new PoolMetrics(
+				poolMXBean.getActiveConnections(),
+				poolMXBean.getIdleConnections(),
+				poolMXBean.getThreadsAwaitingConnection(),
+				CONNECTIONS_SERVED.sum(),
+				CONNECTION_FAILURES.sum(),
+				Duration.ofNanos(TOTAL_WAIT_NANOS.sum()),
+				Duration.ofNanos(MAX_WAIT_NANOS.get()));
+	}
+
+	/**
+	 * Closes every connection in the pool. Called once at shutdown; later calls to getConnection() fail.
+	 */
+	public static void close() {
+		LOGGER.info("Closing connection pool {}", getPoolMetrics());
+		DATA_SOURCE.close();
+	}
+
+	/**
+	 * Connection bound to a thread by inTransaction(). The proxy handed to store methods leaves transaction control to
+	 * inTransaction() and records the first SQLException thrown by the connection or any statement it prepared.
+	 */
+	private static final class Transaction implements InvocationHandler {
+		private final Connection connection;
+		private final Connection connectionProxy;
+		private final List<Runnable> afterCommit = new ArrayList<>();
+		private SQLException failure;
+
+		private Transaction(Connection connection) {
+			this.connection = connection;
+			this.connectionProxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[]{Connection.class}, this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+				case "close":
+				case "commit":
+				case "setAutoCommit":
+					return null;
+				case "rollback":
+					if (failure == null) {
+						failure = new SQLException("Rolled back by a store method");
+					}
+					return null;
+				default:
+					Object result = invokeRecordingFailure(connection, method, args);
+					if (result instanceof Statement) {
+						Object statement = result;
+						return Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[]{method.getReturnType()},
+								(statementProxy, statementMethod, statementArgs) -> invokeRecordingFailure(statement, statementMethod, statementArgs));
+					}
+					return result;
+			}
+		}
+
+		private Object invokeRecordingFailure(Object target, Method method, Object[] args) throws Throwable {
+			try {
+				return method.invoke(target, args);
+			} catch (InvocationTargetException ite) {
+				Throwable cause = ite.getCause();
+				if ((cause instanceof SQLException) && (failure == null)) {
+					failure = (SQLException) cause;
+				}
+				throw cause;
+			}
+		}
+	}
+
+	/**
+	 * Snapshot of the connection pool.
+	 */
+	public static final class PoolMetrics {
+		private final int activeConnections;
+		private final int idleConnections;
+		private final int threadsAwaitingConnection;
+		private final long connectionsServed;
+		private final long connectionFailures;
+		private final Duration totalWait;
+		private final Duration maxWait;
+
+		private PoolMetrics(int activeConnections, int idleConnections, int threadsAwaitingConnection,
+		                    long connectionsServed, long connectionFailures, Duration totalWait, Duration maxWait) {
+			this.activeConnections = activeConnections;
+			this.idleConnections = idleConnections;
+			this.threadsAwaitingConnection = threadsAwaitingConnection;
+			this.connectionsServed = connectionsServed;
+			this.connectionFailures = connectionFailures;
+			this.totalWait = totalWait;
+			this.maxWait = maxWait;
+		}
+
+		/**
+		 * @return connections borrowed and not yet closed
+		 */
+		public int getActiveConnections() {
+			return activeConnections;
+		}
+
+		public int getIdleConnections() {
+			return idleConnections;
+		}
+
+		public int getThreadsAwaitingConnection() {
+			return threadsAwaitingConnection;
+		}
+
+		/**
+		 * @return calls to getConnection() since startup, including those that failed
+		 */
+		public long getConnectionsServed() {
+			return connectionsServed;
+		}
+
+		/**
+		 * @return calls to getConnection() that timed out or could not reach the database
+		 */
+		public long getConnectionFailures() {
+			return connectionFailures;
+		}
+
+		/**
+		 * @return time spent in getConnection() since startup, summed over every caller
+		 */
+		public Duration getTotalWait() {
+			return totalWait;
+		}
+
+		/**
+		 * @return mean time spent in getConnection(), or zero if no connection has been requested
+		 */
+		public Duration getMeanWait() {
+			return (connectionsServed == 0L) ? Duration.ZERO : totalWait.dividedBy(connectionsServed);
+		}
+
+		public Duration getMaxWait() {
+			return maxWait;
+		}
 
-//	public static getConnection
+		@Override
+		public String toString() {
+			return "PoolMetrics{" +
+					"active=" + activeConnections +
+					", idle=" + idleConnections +
+					", awaiting=" + threadsAwaitingConnection +
+					", served=" + connectionsServed +
+					", failures=" + connectionFailures +
+					", meanWaitMicros=" + getMeanWait().toNanos() / 1_000L +
+					", maxWaitMicros=" + maxWait.toNanos() / 1_000L +
+					'}';
+		}
+	}
 }
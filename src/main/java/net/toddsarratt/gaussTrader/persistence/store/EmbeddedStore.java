@@ -0,0 +1,673 @@
+package net.toddsarratt.gaussTrader.persistence.store;
+
+import net.toddsarratt.gaussTrader.Position;
+import net.toddsarratt.gaussTrader.PositionBuilder;
+import net.toddsarratt.gaussTrader.domain.Stock;
+import net.toddsarratt.gaussTrader.orders.Order;
+import net.toddsarratt.gaussTrader.orders.OrderBuilder;
+import net.toddsarratt.gaussTrader.InstantPrice;
+import net.toddsarratt.gaussTrader.portfolio.PortfolioSummary;
+import net.toddsarratt.gaussTrader.singletons.SecurityType;
+import net.toddsarratt.gaussTrader.technicals.PriceSeries;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * A DataStore kept in memory and made durable by an append-only log file in one local directory, so the engine,
+ * benchmarks and backtests run with no database server. Reads never touch the disk. Each write updates memory and
+ * appends its records to store.log with a single write call, which returns once the operating system has the bytes;
+ * set syncWrites to also force every write to the device.
+ * <p>
+ * Records hold the same columns as the Postgres tables (watchlist, orders, positions, portfolios) plus runs of daily
+ * closes by ticker, and are framed as:
+ * <pre>
+ *     length of record (4 bytes), CRC32 of record (4 bytes), record
+ * </pre>
+ * Opening a store replays its log. A record cut short or corrupted by a crash ends the replay and is truncated away,
+ * losing at most the write that was in progress. Once the log holds many more records than there are live rows it is
+ * compacted, one record per row, into a new log that replaces the old one atomically.
+ * <p>
+ * A store holds the orders and positions of one portfolio; give each portfolio its own directory. Only one process
+ * may open a directory at a time.
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
+public class EmbeddedStore implements DataStore, AutoCloseable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(EmbeddedStore.class);
+	static final String LOG_FILE_NAME = "store.log";
+	private static final byte PUT_ROW = 1;
+	private static final byte PUT_CLOSES = 2;
+	private static final byte NULL_VALUE = 0;
+	private static final byte LONG_VALUE = 1;
+	private static final byte DECIMAL_VALUE = 2;
+	private static final byte BOOLEAN_VALUE = 3;
+	private static final byte STRING_VALUE = 4;
+	private static final byte DECIMAL_STRING_VALUE = 5;
+	private static final int MAX_STRING_BYTES = 0xFFFF;
+	private static final int FRAME_HEADER_BYTES = 8;
+	/* Logs with fewer records than this are never compacted */
+	private static final long COMPACT_MIN_RECORDS = 10_000L;
+	private static final String WATCHLIST = "watchlist";
+	private static final String ORDERS = "orders";
+	private static final String POSITIONS = "positions";
+	private static final String PORTFOLIOS = "portfolios";
+	private final Path logPath;
+	private final boolean syncWrites;
+	/* Rows are never changed once stored, only replaced, so readers need no lock */
+	private final Map<String, Map<String, Map<String, Object>>> tables = new ConcurrentHashMap<>();
+	private final Map<String, PriceSeries> closesByTicker = new ConcurrentHashMap<>();
+	/* Records of the write in progress, framed, and where the last one starts. Guarded by this */
+	private ByteBuffer frames = ByteBuffer.allocate(4096);
+	private int recordStart;
+	private final CRC32 crc32 = new CRC32();
+	private FileChannel logChannel;
+	private long logRecordCount = 0L;
+
+	private EmbeddedStore(Path directory, boolean syncWrites) {
+		this.logPath = directory.resolve(LOG_FILE_NAME);
+		this.syncWrites = syncWrites;
+		for (String table : new String[]{WATCHLIST, ORDERS, POSITIONS, PORTFOLIOS}) {
+			tables.put(table, new ConcurrentHashMap<>());
+		}
+	}
+
+	/**
+	 * Opens the store in directory, creating it if need be, and replays its log.
+	 *
+	 * @param directory  directory holding store.log
+	 * @param syncWrites true to force each write to the device before returning
+	 * @return the open store
+	 * @throws IOException if the log cannot be read or opened for writing
+	 */
+	public static EmbeddedStore open(Path directory, boolean syncWrites) throws IOException {
+		LOGGER.debug("Entering open(Path {}, boolean {})", directory, syncWrites);
+		Files.createDirectories(directory);
+		EmbeddedStore embeddedStore = new EmbeddedStore(directory, syncWrites);
+		embeddedStore.replay();
+		embeddedStore.compactIfNeeded();
+		embeddedStore.logChannel = FileChannel.open(embeddedStore.logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+		return embeddedStore;
+	}
+
+	@Override
+	public void resetWatchList() {
+		LOGGER.debug("Entering resetWatchList()");
+		updateRows(WATCHLIST, tables.get(WATCHLIST).keySet(), Map.of("active", Boolean.FALSE));
+	}
+
+	@Override
+	public HashMap<LocalDate, BigDecimal> readHistoricalPrices(String ticker, LocalDate earliestCloseDate) {
+		return new HashMap<>(readPriceSeries(ticker, earliestCloseDate).toMap());
+	}
+
+	@Override
+	public PriceSeries readPriceSeries(String ticker, LocalDate earliestCloseDate) {
+		LOGGER.debug("Entering readPriceSeries(String {}, LocalDate {})", ticker, earliestCloseDate);
+		return closesByTicker.getOrDefault(ticker, PriceSeries.empty()).since(earliestCloseDate);
+	}
+
+	@Override
+	public void writeStockMetrics(Stock stockToUpdate) {
+		writeStockMetrics(Set.of(stockToUpdate));
+	}
+
+	@Override
+	public synchronized void writeStockMetrics(Set<Stock> stocksToUpdate) {
+		LOGGER.debug("Entering writeStockMetrics(Set<Stock> of {} stocks)", stocksToUpdate.size());
+		for (Stock stock : stocksToUpdate) {
+			Map<String, Object> row = new LinkedHashMap<>();
+			row.put("ticker", stock.getTicker());
+			row.put("twenty_dma", stock.getMovingAverages().getTwentyDma());
+			row.put("first_low_boll", stock.getBollingerBands().calcSdFromSma(-1));
+			row.put("first_high_boll", stock.getBollingerBands().calcSdFromSma(1));
+			row.put("second_low_boll", stock.getBollingerBands().calcSdFromSma(-2));
+			row.put("second_high_boll", stock.getBollingerBands().calcSdFromSma(2));
+			row.put("last_tick", stock.getLastPrice().getPrice());
+			row.put("last_tick_epoch", stock.getLastPrice().getEpoch());
+			row.put("active", Boolean.TRUE);
+			putRow(WATCHLIST, stock.getTicker(), row);
+		}
+		writeFrames();
+	}
+
+	@Override
+	public void writeStockPrice(String ticker, LocalDate date, BigDecimal adjClose) {
+		writeStockPrices(Map.of(ticker, PriceSeries.builder(1).add(date, adjClose).build()));
+	}
+
+	/**
+	 * Merges closes into the stored series, leaving closes already stored as they are, and logs only the closes that
+	 * were new.
+	 */
+	@Override
+	public synchronized void writeStockPrices(Map<String, PriceSeries> closesByTickerToWrite) {
+		LOGGER.debug("Entering writeStockPrices(Map<String, PriceSeries> of {} tickers)", closesByTickerToWrite.size());
+		closesByTickerToWrite.forEach((ticker, closes) -> {
+			PriceSeries storedCloses = closesByTicker.getOrDefault(ticker, PriceSeries.empty());
+			PriceSeries.Builder newCloses = PriceSeries.builder(closes.size());
+			for (int index = 0; index < closes.size(); index++) {
+				if (!storedCloses.containsDate(closes.getDate(index))) {
+					newCloses.add(closes.getEpochDay(index), closes.getMicros(index));
+				}
+			}
+			putCloses(ticker, newCloses.build());
+		});
+		writeFrames();
+	}
+
+	@Override
+	public void writeStockPrice(String ticker, InstantPrice instantPrice) {
+		LOGGER.debug("Entering writeStockPrice(String {}, InstantPrice {})", ticker, instantPrice);
+		Map<String, Object> lastTick = new HashMap<>();
+		lastTick.put("last_tick", instantPrice.getPrice());
+		lastTick.put("last_tick_epoch", instantPrice.getEpoch());
+		updateRows(WATCHLIST, Set.of(ticker), lastTick);
+	}
+
+	@Override
+	public void writeStockPrice(Stock stock, InstantPrice instantPrice) {
+		writeStockPrice(stock.getTicker(), instantPrice);
+	}
+
+	@Override
+	public boolean tickerPriceInStore(String ticker) {
+		return !closesByTicker.getOrDefault(ticker, PriceSeries.empty()).isEmpty();
+	}
+
+	@Override
+	public void deactivateStock(String tickerToRemove) {
+		LOGGER.debug("Entering deactivateStock(String {})", tickerToRemove);
+		updateRows(WATCHLIST, Set.of(tickerToRemove), Map.of("active", Boolean.FALSE));
+	}
+
+	@Override
+	public boolean portfolioInStore(String name) {
+		return tables.get(PORTFOLIOS).containsKey(name);
+	}
+
+	@Override
+	public PortfolioSummary getPortfolioSummary(String portfolioName) {
+		Map<String, Object> row = tables.get(PORTFOLIOS).get(portfolioName);
+		if (row == null) {
+			LOGGER.warn("Portfolio {} is not in {}", portfolioName, logPath);
+			return null;
+		}
+		return new PortfolioSummary(portfolioName, (BigDecimal) row.get("net_asset_value"), (BigDecimal) row.get("free_cash"),
+				(BigDecimal) row.get("reserved_cash"), (BigDecimal) row.get("total_cash"));
+	}
+
+	@Override
+	public Set<Position> getPortfolioPositions() {
+		LOGGER.debug("Entering getPortfolioPositions()");
+		Set<Position> positions = new HashSet<>();
+		for (Map<String, Object> row : tables.get(POSITIONS).values()) {
+			if ((Boolean) row.get("open")) {
+				positions.add(rowToPosition(row));
+			}
+		}
+		return positions;
+	}
+
+	@Override
+	public Set<Order> getPortfolioOrders() {
+		LOGGER.debug("Entering getPortfolioOrders()");
+		Set<Order> orders = new HashSet<>();
+		for (Map<String, Object> row : tables.get(ORDERS).values()) {
+			if ((Boolean) row.get("open")) {
+				orders.add(OrderBuilder.of(SecurityType.of((String) row.get("sec_type")))
+						.orderId((Long) row.get("order_id"))
+						.open(true)
+						.underlyingTicker((String) row.get("underlying_ticker"))
+						.claimAgainstCash((BigDecimal) row.get("claim_against_cash"))
+						.build());
+			}
+		}
+		return orders;
+	}
+
+	@Override
+	public synchronized void write(Order order) {
+		LOGGER.debug("Entering write(Order {})", order.getOrderId());
+		Map<String, Object> row = new LinkedHashMap<>();
+		row.put("order_id", order.getOrderId());
+		row.put("open", order.isOpen());
+		row.put("ticker", order.getSecurity().getTicker());
+		row.put("underlying_ticker", order.getUnderlyingTicker());
+		row.put("sec_type", (order.isCall() ? SecurityType.CALL : (order.isPut() ? SecurityType.PUT : SecurityType.STOCK)).name());
+		row.put("action", String.valueOf(order.getAction()));
+		row.put("buy_or_sell", String.valueOf(order.getBuyOrSell()));
+		row.put("total_quantity", (long) order.getTotalQuantity());
+		row.put("tif", order.getTif());
+		row.put("claim_against_cash", order.getClaimAgainstCash());
+		putRow(ORDERS, Long.toString(order.getOrderId()), row);
+		writeFrames();
+	}
+
+	@Override
+	public synchronized void write(Position position) {
+		LOGGER.debug("Entering write(Position {})", position.getPositionId());
+		putRow(POSITIONS, Long.toString(position.getPositionId()), positionToRow(position));
+		writeFrames();
+	}
+
+	/**
+	 * Logs every changed mark in one write. Positions whose last tick matches the stored row are skipped.
+	 */
+	@Override
+	public synchronized void writeMarks(Collection<Position> positions) {
+		LOGGER.debug("Entering writeMarks(Collection<Position> of {} positions)", positions.size());
+		Map<String, Map<String, Object>> positionRows = tables.get(POSITIONS);
+		for (Position position : positions) {
+			String key = Long.toString(position.getPositionId());
+			Map<String, Object> storedRow = positionRows.get(key);
+			if ((storedRow == null) || !position.isOpen()) {
+				putRow(POSITIONS, key, positionToRow(position));
+				continue;
+			}
+			BigDecimal lastTick = position.getLastTick().getPrice();
+			if (lastTick.compareTo((BigDecimal) storedRow.get("last_tick")) != 0) {
+				Map<String, Object> markedRow = new LinkedHashMap<>(storedRow);
+				markedRow.put("last_tick", lastTick);
+				markedRow.put("last_tick_epoch", position.getLastTick().getEpoch());
+				markedRow.put("net_asset_value", position.getNetAssetValue());
+				putRow(POSITIONS, key, markedRow);
+			}
+		}
+		writeFrames();
+	}
+
+	@Override
+	public synchronized void write(PortfolioSummary summary) {
+		LOGGER.debug("Entering write(PortfolioSummary {})", summary.getName());
+		Map<String, Object> row = new LinkedHashMap<>();
+		row.put("name", summary.getName());
+		row.put("net_asset_value", summary.getNetAssetValue());
+		row.put("free_cash", summary.getFreeCash());
+		row.put("reserved_cash", summary.getReservedCash());
+		row.put("total_cash", summary.getTotalCash());
+		putRow(PORTFOLIOS, summary.getName(), row);
+		writeFrames();
+	}
+
+	@Override
+	public void close(Order orderToFill) {
+		write(orderToFill);
+	}
+
+	@Override
+	public void close(Position optionPositionToExercise) {
+		write(optionPositionToExercise);
+	}
+
+	/**
+	 * Forces the log to the device and closes it. The store cannot be written afterwards.
+	 */
+	@Override
+	public synchronized void close() {
+		LOGGER.debug("Entering close()");
+		try {
+			logChannel.force(false);
+			logChannel.close();
+		} catch (IOException ioe) {
+			LOGGER.warn("Could not close {}", logPath);
+			LOGGER.debug("Caught (IOException ioe)", ioe);
+		}
+	}
+
+	private static Map<String, Object> positionToRow(Position position) {
+		Map<String, Object> row = new LinkedHashMap<>();
+		row.put("position_id", position.getPositionId());
+		row.put("open", position.isOpen());
+		row.put("ticker", position.getTicker());
+		row.put("sec_type", (position.isCall() ? SecurityType.CALL : (position.isPut() ? SecurityType.PUT : SecurityType.STOCK)).name());
+		row.put("underlying_ticker", position.getUnderlyingTicker());
+		row.put("strike_price", position.getStrikePrice());
+		row.put("epoch_opened", position.getInstantOpened().toEpochMilli());
+		row.put("long_position", position.isLong());
+		row.put("number_transacted", (long) position.getNumberTransacted());
+		row.put("price_at_open", position.getPriceAtOpen());
+		row.put("cost_basis", position.getCostBasis());
+		row.put("last_tick", position.getLastTick().getPrice());
+		row.put("last_tick_epoch", position.getLastTick().getEpoch());
+		row.put("net_asset_value", position.getNetAssetValue());
+		row.put("epoch_closed", position.isOpen() ? null : position.getInstantClosed().toEpochMilli());
+		row.put("expiry", (position.getExpiry() == null) ? null : position.getExpiry().toEpochDay());
+		row.put("claim_against_cash", position.getClaimAgainstCash());
+		return row;
+	}
+
+	private static Position rowToPosition(Map<String, Object> row) {
+		PositionBuilder positionBuilder = new PositionBuilder()
+				.positionId((Long) row.get("position_id"))
+				.open((Boolean) row.get("open"))
+				.ticker((String) row.get("ticker"))
+				.securityType(SecurityType.of((String) row.get("sec_type")))
+				.underlyingTicker((String) row.get("underlying_ticker"))
+				.strikePrice((BigDecimal) row.get("strike_price"))
+				.instantOpened(Instant.ofEpochMilli((Long) row.get("epoch_opened")))
+				.longPosition((Boolean) row.get("long_position"))
+				.numberTransacted(Math.toIntExact((Long) row.get("number_transacted")))
+				.priceAtOpen((BigDecimal) row.get("price_at_open"))
+				.costBasis((BigDecimal) row.get("cost_basis"))
+				.price(InstantPrice.of((BigDecimal) row.get("last_tick"), Instant.ofEpochMilli((Long) row.get("last_tick_epoch"))))
+				.netAssetValue((BigDecimal) row.get("net_asset_value"))
+				.claimAgainstCash((BigDecimal) row.get("claim_against_cash"));
+		if (row.get("expiry") != null) {
+			positionBuilder.expiry(LocalDate.ofEpochDay((Long) row.get("expiry")));
+		}
+		return positionBuilder.build();
+	}
+
+	/**
+	 * Replaces the given columns of rows already stored and logs them in one write. Keys with no row are skipped.
+	 */
+	private synchronized void updateRows(String table, Collection<String> keys, Map<String, Object> columns) {
+		Map<String, Map<String, Object>> rows = tables.get(table);
+		for (String key : keys) {
+			Map<String, Object> storedRow = rows.get(key);
+			if (storedRow == null) {
+				LOGGER.debug("No row {} in {}", key, table);
+				continue;
+			}
+			Map<String, Object> updatedRow = new LinkedHashMap<>(storedRow);
+			updatedRow.putAll(columns);
+			putRow(table, key, updatedRow);
+		}
+		writeFrames();
+	}
+
+	/**
+	 * Stores row and adds its record to the write in progress.
+	 */
+	private void putRow(String table, String key, Map<String, Object> row) {
+		Map<String, Object> storedRow = Collections.unmodifiableMap(row);
+		tables.get(table).put(key, storedRow);
+		beginRecord(PUT_ROW);
+		putString(table);
+		putString(key);
+		ensureCapacity(Short.BYTES);
+		frames.putShort((short) storedRow.size());
+		for (Map.Entry<String, Object> column : storedRow.entrySet()) {
+			putString(column.getKey());
+			putValue(column.getValue());
+		}
+		endRecord();
+	}
+
+	/**
+	 * Merges closes into the stored series and adds their record to the write in progress.
+	 */
+	private void putCloses(String ticker, PriceSeries closes) {
+		if (closes.isEmpty()) {
+			return;
+		}
+		mergeCloses(ticker, closes);
+		beginRecord(PUT_CLOSES);
+		putString(ticker);
+		ensureCapacity(Integer.BYTES + closes.size() * (Integer.BYTES + Long.BYTES));
+		frames.putInt(closes.size());
+		for (int index = 0; index < closes.size(); index++) {
+			frames.putInt(closes.getEpochDay(index));
+			frames.putLong(closes.getMicros(index));
+		}
+		endRecord();
+	}
+
+	/* Closes already stored win over closes for the same date */
+	private void mergeCloses(String ticker, PriceSeries closes) {
+		PriceSeries storedCloses = closesByTicker.getOrDefault(ticker, PriceSeries.empty());
+		PriceSeries.Builder mergedCloses = PriceSeries.builder(storedCloses.size() + closes.size());
+		for (int index = 0; index < closes.size(); index++) {
+			mergedCloses.add(closes.getEpochDay(index), closes.getMicros(index));
+		}
+		for (int index = 0; index < storedCloses.size(); index++) {
+			mergedCloses.add(storedCloses.getEpochDay(index), storedCloses.getMicros(index));
+		}
+		closesByTicker.put(ticker, mergedCloses.build());
+	}
+
+	/**
+	 * Starts a record after room for its length and CRC, which endRecord() fills in.
+	 */
+	private void beginRecord(byte recordType) {
+		ensureCapacity(FRAME_HEADER_BYTES + 1);
+		recordStart = frames.position();
+		frames.position(recordStart + FRAME_HEADER_BYTES);
+		frames.put(recordType);
+	}
+
+	private void endRecord() {
+		int recordLength = frames.position() - recordStart - FRAME_HEADER_BYTES;
+		crc32.reset();
+		crc32.update(frames.array(), recordStart + FRAME_HEADER_BYTES, recordLength);
+		frames.putInt(recordStart, recordLength);
+		frames.putInt(recordStart + Integer.BYTES, (int) crc32.getValue());
+	}
+
+	private void ensureCapacity(int bytes) {
+		if (frames.remaining() < bytes) {
+			ByteBuffer grownFrames = ByteBuffer.allocate(Math.max(frames.capacity() * 2, frames.position() + bytes));
+			frames.flip();
+			grownFrames.put(frames);
+			frames = grownFrames;
+		}
+	}
+
+	/* Strings are written as their length in UTF-8 bytes (2 bytes) and the bytes */
+	private void putString(String value) {
+		byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+		if (valueBytes.length > MAX_STRING_BYTES) {
+			throw new IllegalArgumentException("Cannot store a string of " + valueBytes.length + " bytes");
+		}
+		ensureCapacity(Short.BYTES + valueBytes.length);
+		frames.putShort((short) valueBytes.length);
+		frames.put(valueBytes);
+	}
+
+	private static String getString(ByteBuffer recordBuffer) {
+		int valueLength = Short.toUnsignedInt(recordBuffer.getShort());
+		String value = new String(recordBuffer.array(), recordBuffer.arrayOffset() + recordBuffer.position(), valueLength,
+				StandardCharsets.UTF_8);
+		recordBuffer.position(recordBuffer.position() + valueLength);
+		return value;
+	}
+
+	/* Decimals are written as scale and unscaled value when the unscaled value fits a long, as a string otherwise */
+	private void putValue(Object value) {
+		ensureCapacity(1 + Integer.BYTES + Long.BYTES);
+		if (value == null) {
+			frames.put(NULL_VALUE);
+		} else if (value instanceof Long) {
+			frames.put(LONG_VALUE);
+			frames.putLong((Long) value);
+		} else if (value instanceof BigDecimal) {
+			BigDecimal decimal = (BigDecimal) value;
+			if (decimal.unscaledValue().bitLength() < Long.SIZE) {
+				frames.put(DECIMAL_VALUE);
+				frames.putInt(decimal.scale());
+				frames.putLong(decimal.unscaledValue().longValue());
+			} else {
+				frames.put(DECIMAL_STRING_VALUE);
+				putString(decimal.toString());
+			}
+		} else if (value instanceof Boolean) {
+			frames.put(BOOLEAN_VALUE);
+			frames.put((byte) ((Boolean) value ? 1 : 0));
+		} else if (value instanceof String) {
+			frames.put(STRING_VALUE);
+			putString((String) value);
+		} else {
+			throw new IllegalArgumentException("Cannot store " + value.getClass().getName() + " " + value);
+		}
+	}
+
+	private static Object getValue(ByteBuffer recordBuffer) throws IOException {
+		byte valueType = recordBuffer.get();
+		switch (valueType) {
+			case NULL_VALUE:
+				return null;
+			case LONG_VALUE:
+				return recordBuffer.getLong();
+			case DECIMAL_VALUE:
+				int scale = recordBuffer.getInt();
+				return BigDecimal.valueOf(recordBuffer.getLong(), scale);
+			case DECIMAL_STRING_VALUE:
+				return new BigDecimal(getString(recordBuffer));
+			case BOOLEAN_VALUE:
+				return recordBuffer.get() != 0;
+			case STRING_VALUE:
+				return getString(recordBuffer);
+		}
+		throw new IOException("Unknown value type " + valueType);
+	}
+
+	/**
+	 * Appends the records of the write in progress to the log. A failed append is logged and the change kept in
+	 * memory, so it is lost only if the store is reopened before a later compaction.
+	 */
+	private void writeFrames() {
+		try {
+			appendFrames();
+		} catch (IOException ioe) {
+			LOGGER.error("Could not append to {}", logPath);
+			LOGGER.debug("Caught (IOException ioe)", ioe);
+		}
+	}
+
+	/**
+	 * Appends the records of the write in progress to the log in one write call, forcing them to the device if
+	 * syncWrites is set.
+	 */
+	private void appendFrames() throws IOException {
+		if (frames.position() == 0) {
+			return;
+		}
+		frames.flip();
+		try {
+			while (frames.hasRemaining()) {
+				logChannel.write(frames);
+			}
+			if (syncWrites) {
+				logChannel.force(false);
+			}
+		} finally {
+			frames.clear();
+		}
+	}
+
+	private void replay() throws IOException {
+		if (!Files.exists(logPath)) {
+			LOGGER.info("Starting new store {}", logPath);
+			return;
+		}
+		long startNanos = System.nanoTime();
+		ByteBuffer logBuffer = ByteBuffer.wrap(Files.readAllBytes(logPath));
+		CRC32 replayCrc32 = new CRC32();
+		while (logBuffer.remaining() >= FRAME_HEADER_BYTES) {
+			int recordLength = logBuffer.getInt(logBuffer.position());
+			int recordCrc = logBuffer.getInt(logBuffer.position() + Integer.BYTES);
+			int recordStart = logBuffer.position() + FRAME_HEADER_BYTES;
+			if ((recordLength <= 0) || (recordLength > logBuffer.limit() - recordStart)) {
+				break;
+			}
+			replayCrc32.reset();
+			replayCrc32.update(logBuffer.array(), recordStart, recordLength);
+			if ((int) replayCrc32.getValue() != recordCrc) {
+				break;
+			}
+			applyRecord(logBuffer.duplicate().position(recordStart).limit(recordStart + recordLength));
+			logBuffer.position(recordStart + recordLength);
+			logRecordCount++;
+		}
+		if (logBuffer.hasRemaining()) {
+			LOGGER.warn("Truncating {} bytes of a partly written record from the end of {}", logBuffer.remaining(), logPath);
+			try (FileChannel truncateChannel = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+				truncateChannel.truncate(logBuffer.position());
+			}
+		}
+		LOGGER.info("Replayed {} records from {} in {}ms", logRecordCount, logPath, (System.nanoTime() - startNanos) / 1_000_000L);
+	}
+
+	private void applyRecord(ByteBuffer recordBuffer) throws IOException {
+		byte recordType = recordBuffer.get();
+		if (recordType == PUT_ROW) {
+			String table = getString(recordBuffer);
+			String key = getString(recordBuffer);
+			int columnCount = recordBuffer.getShort();
+			Map<String, Object> row = new LinkedHashMap<>();
+			for (int column = 0; column < columnCount; column++) {
+				row.put(getString(recordBuffer), getValue(recordBuffer));
+			}
+			tables.computeIfAbsent(table, newTable -> new ConcurrentHashMap<>()).put(key, Collections.unmodifiableMap(row));
+		} else if (recordType == PUT_CLOSES) {
+			String ticker = getString(recordBuffer);
+			int closeCount = recordBuffer.getInt();
+			PriceSeries.Builder closes = PriceSeries.builder(closeCount);
+			for (int index = 0; index < closeCount; index++) {
+				closes.add(recordBuffer.getInt(), recordBuffer.getLong());
+			}
+			mergeCloses(ticker, closes.build());
+		} else {
+			throw new IOException("Unknown record type " + recordType + " in " + logPath);
+		}
+	}
+
+	/**
+	 * Rewrites the log as one record per row and one per ticker when it has grown to more than twice that. The new
+	 * log is written beside the old one, forced to the device, then moved over it, so a crash leaves one or the other.
+	 */
+	private void compactIfNeeded() throws IOException {
+		long liveRecordCount = closesByTicker.size() + tables.values().stream().mapToLong(Map::size).sum();
+		if ((logRecordCount < COMPACT_MIN_RECORDS) || (logRecordCount <= 2 * liveRecordCount)) {
+			return;
+		}
+		LOGGER.info("Compacting {} from {} to {} records", logPath, logRecordCount, liveRecordCount);
+		Path compactPath = logPath.resolveSibling(LOG_FILE_NAME + ".compact");
+		Map<String, PriceSeries> storedCloses = new HashMap<>(closesByTicker);
+		closesByTicker.clear();
+		try (FileChannel compactChannel = FileChannel.open(compactPath, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			logChannel = compactChannel;
+			for (Map.Entry<String, Map<String, Map<String, Object>>> table : tables.entrySet()) {
+				for (Map.Entry<String, Map<String, Object>> row : table.getValue().entrySet()) {
+					putRow(table.getKey(), row.getKey(), row.getValue());
+					if (frames.position() >= (1 << 20)) {
+						appendFrames();
+					}
+				}
+			}
+			for (Map.Entry<String, PriceSeries> closes : storedCloses.entrySet()) {
+				putCloses(closes.getKey(), closes.getValue());
+				appendFrames();
+			}
+			compactChannel.force(true);
+		} finally {
+			logChannel = null;
+		}
+		Files.move(compactPath, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		logRecordCount = liveRecordCount;
+	}
+}
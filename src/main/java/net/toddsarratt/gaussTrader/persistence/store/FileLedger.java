@@ -0,0 +1,822 @@
+package net.toddsarratt.gaussTrader.persistence.store;
+
+import net.toddsarratt.gaussTrader.InstantPrice;
+import net.toddsarratt.gaussTrader.Money;
+import net.toddsarratt.gaussTrader.Position;
+import net.toddsarratt.gaussTrader.PositionBuilder;
+import net.toddsarratt.gaussTrader.PriceBasedAction;
+import net.toddsarratt.gaussTrader.domain.Option;
+import net.toddsarratt.gaussTrader.domain.Stock;
+import net.toddsarratt.gaussTrader.orders.OptionOrder;
+import net.toddsarratt.gaussTrader.orders.Order;
+import net.toddsarratt.gaussTrader.orders.OrderBuilder;
+import net.toddsarratt.gaussTrader.singletons.BuyOrSell;
+import net.toddsarratt.gaussTrader.singletons.SecurityType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * A PortfolioLedger kept as an append-only log of events in one local directory, with periodic snapshots of the
+ * portfolio so a restart reads the latest snapshot and replays only the events logged after it.
+ * <p>
+ * Events are held per thread as they are recorded, and commit() turns the events a thread recorded for one operation
+ * into one record, numbered and timestamped and framed as in EmbeddedStore:
+ * <pre>
+ *     length of record (4 bytes), CRC32 of record (4 bytes), sequence (8 bytes), epoch millis (8 bytes),
+ *     then for each event: type (1 byte), body
+ * </pre>
+ * A record passes its CRC whole or not at all, so a crash part way through an operation never leaves half of it in
+ * the log. Amounts are micros (see Money). A record is appended in one write call when it is committed, except a record
+ * of marks only, which is held until the next other record or flush() so a trading cycle's marks cost one write. Set
+ * syncWrites to force every append to the device.
+ * <p>
+ * ledger.log is never rewritten, so it is the full history of the portfolio. Every snapshotInterval events, and at
+ * each checkpoint(), ledger.snapshot is replaced atomically with the free and reserved cash, open positions and open
+ * orders, the sequence of the last record they include and the length of the log at that point, followed by a CRC32
+ * of the whole. Opening a ledger loads the snapshot and replays the log from that length. A snapshot that fails its
+ * CRC is ignored and the whole log replayed. A record cut short by a crash ends the replay and is truncated away.
+ * <p>
+ * Thread safe; recording an event touches only the recording thread's buffer, and commit() holds the ledger's lock.
+ * Only one process may open a directory at a time.
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
+public class FileLedger implements PortfolioLedger, AutoCloseable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(FileLedger.class);
+	static final String LOG_FILE_NAME = "ledger.log";
+	static final String SNAPSHOT_FILE_NAME = "ledger.snapshot";
+	private static final byte ORDER_PLACED = 1;
+	private static final byte ORDER_FILLED = 2;
+	private static final byte ORDER_EXPIRED = 3;
+	private static final byte POSITION_OPENED = 4;
+	private static final byte POSITION_CHANGED = 5;
+	private static final byte POSITION_MARKED = 6;
+	private static final byte POSITION_CLOSED = 7;
+	private static final byte CASH_MOVED = 8;
+	/* "GTLS" */
+	private static final int SNAPSHOT_MAGIC = 0x47544c53;
+	private static final int SNAPSHOT_VERSION = 2;
+	private static final long NO_EXPIRY = Long.MIN_VALUE;
+	private static final int MAX_STRING_BYTES = 0xFFFF;
+	private static final int FRAME_HEADER_BYTES = 8;
+	private final Path logPath;
+	private final Path snapshotPath;
+	private final boolean syncWrites;
+	private final long snapshotInterval;
+	/* The portfolio as of the last event recorded */
+	private long freeCash = 0L;
+	private long reservedCash = 0L;
+	private final Map<Long, PositionEntry> openPositions = new HashMap<>();
+	private final Map<Long, OrderEntry> openOrders = new HashMap<>();
+	/* The portfolio as of opening, for the recovery methods */
+	private boolean recoveredHistory;
+	private long recoveredFreeCash;
+	private long recoveredReservedCash;
+	private Set<Position> recoveredPositions = Set.of();
+	private Set<Order> recoveredOrders = Set.of();
+	private long sequence = 0L;
+	/* Bytes of the log holding every record up to sequence that has been appended */
+	private long logLength = 0L;
+	private long eventsSinceSnapshot = 0L;
+	/* Events each thread has recorded since its last commit() */
+	private final ThreadLocal<EventBuffer> pendingEvents = ThreadLocal.withInitial(EventBuffer::new);
+	/* Records committed but not yet appended, framed. Also used to build snapshots */
+	private final EventBuffer frames = new EventBuffer();
+	private final CRC32 crc32 = new CRC32();
+	private FileChannel logChannel;
+
+	private FileLedger(Path directory, boolean syncWrites, long snapshotInterval) {
+		this.logPath = directory.resolve(LOG_FILE_NAME);
+		this.snapshotPath = directory.resolve(SNAPSHOT_FILE_NAME);
+		this.syncWrites = syncWrites;
+		this.snapshotInterval = snapshotInterval;
+	}
+
+	/**
+	 * Opens the ledger in directory, creating it if need be, and recovers the portfolio from its snapshot and log.
+	 *
+	 * @param directory        directory holding ledger.log and ledger.snapshot
+	 * @param syncWrites       true to force each append to the device before returning
+	 * @param snapshotInterval events between snapshots
+	 * @return the open ledger
+	 * @throws IOException if the ledger cannot be read or opened for writing
+	 */
+	public static FileLedger open(Path directory, boolean syncWrites, long snapshotInterval) throws IOException {
+		LOGGER.debug("Entering open(Path {}, boolean {}, long {})", directory, syncWrites, snapshotInterval);
+		Files.createDirectories(directory);
+		FileLedger fileLedger = new FileLedger(directory, syncWrites, snapshotInterval);
+		fileLedger.loadSnapshot();
+		long replayedEvents = fileLedger.replay();
+		fileLedger.recoveredFreeCash = fileLedger.freeCash;
+		fileLedger.recoveredReservedCash = fileLedger.reservedCash;
+		fileLedger.recoveredPositions = fileLedger.buildPositions();
+		fileLedger.recoveredOrders = fileLedger.buildOrders();
+		fileLedger.recoveredHistory = (fileLedger.sequence > 0L);
+		fileLedger.logChannel = FileChannel.open(fileLedger.logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+		if (replayedEvents > 0) {
+			fileLedger.writeSnapshot();
+		}
+		return fileLedger;
+	}
+
+	@Override
+	public boolean hasHistory() {
+		return recoveredHistory;
+	}
+
+	@Override
+	public long getRecoveredFreeCash() {
+		return recoveredFreeCash;
+	}
+
+	@Override
+	public long getRecoveredReservedCash() {
+		return recoveredReservedCash;
+	}
+
+	@Override
+	public Set<Position> getRecoveredPositions() {
+		return recoveredPositions;
+	}
+
+	@Override
+	public Set<Order> getRecoveredOrders() {
+		return recoveredOrders;
+	}
+
+	@Override
+	public void orderPlaced(Order order) {
+		OrderEntry orderEntry = new OrderEntry();
+		orderEntry.orderId = order.getOrderId();
+		orderEntry.securityType = order.isCall() ? SecurityType.CALL : (order.isPut() ? SecurityType.PUT : SecurityType.STOCK);
+		orderEntry.ticker = order.getSecurity().getTicker();
+		orderEntry.underlyingTicker = order.getUnderlyingTicker();
+		orderEntry.buy = (order.getBuyOrSell() == BuyOrSell.BUY);
+		orderEntry.totalQuantity = order.getTotalQuantity();
+		orderEntry.limitPrice = Money.of(order.getLimitPrice());
+		orderEntry.triggerPrice = Money.of(order.getAction().getTriggerPrice());
+		orderEntry.claimAgainstCash = order.getClaimAgainstCashMicros();
+		orderEntry.tif = order.getTif();
+		if (order instanceof OptionOrder) {
+			Option option = ((OptionOrder) order).getOption();
+			orderEntry.strikePrice = Money.of(option.getStrike());
+			orderEntry.expiryEpochDay = option.getExpiry().toEpochDay();
+		} else {
+			orderEntry.expiryEpochDay = NO_EXPIRY;
+		}
+		orderEntry.epochOpened = System.currentTimeMillis();
+		putOrderEntry(pendingEvents.get().beginEvent(ORDER_PLACED), orderEntry);
+	}
+
+	@Override
+	public void orderFilled(Order order, BigDecimal fillPrice) {
+		pendingEvents.get().beginEvent(ORDER_FILLED)
+				.putLong(order.getOrderId())
+				.putLong(Money.of(fillPrice));
+	}
+
+	@Override
+	public void orderExpired(Order order) {
+		pendingEvents.get().beginEvent(ORDER_EXPIRED)
+				.putLong(order.getOrderId());
+	}
+
+	@Override
+	public void positionOpened(Position position) {
+		PositionEntry positionEntry = new PositionEntry();
+		positionEntry.positionId = position.getPositionId();
+		positionEntry.securityType = position.isCall() ? SecurityType.CALL : (position.isPut() ? SecurityType.PUT : SecurityType.STOCK);
+		positionEntry.ticker = position.getTicker();
+		positionEntry.underlyingTicker = position.getUnderlyingTicker();
+		positionEntry.longPosition = position.isLong();
+		positionEntry.numberTransacted = position.getNumberTransacted();
+		positionEntry.priceAtOpen = Money.of(position.getPriceAtOpen());
+		positionEntry.costBasis = position.getCostBasisMicros();
+		positionEntry.claimAgainstCash = position.getClaimAgainstCashMicros();
+		positionEntry.strikePrice = position.isStock() ? 0L : Money.of(position.getStrikePrice());
+		positionEntry.expiryEpochDay = (position.getExpiry() == null) ? NO_EXPIRY : position.getExpiry().toEpochDay();
+		positionEntry.epochOpened = position.getInstantOpened().toEpochMilli();
+		positionEntry.lastTick = positionEntry.priceAtOpen;
+		positionEntry.lastTickEpoch = System.currentTimeMillis();
+		putPositionEntry(pendingEvents.get().beginEvent(POSITION_OPENED), positionEntry);
+	}
+
+	@Override
+	public void positionChanged(Position position) {
+		pendingEvents.get().beginEvent(POSITION_CHANGED)
+				.putLong(position.getPositionId())
+				.putInt(position.getNumberTransacted())
+				.putLong(position.getCostBasisMicros());
+	}
+
+	@Override
+	public void positionMarked(Position position, long lastTick) {
+		pendingEvents.get().beginEvent(POSITION_MARKED)
+				.putLong(position.getPositionId())
+				.putLong(lastTick);
+	}
+
+	@Override
+	public void positionClosed(Position position) {
+		pendingEvents.get().beginEvent(POSITION_CLOSED)
+				.putLong(position.getPositionId())
+				.putLong(Money.of(position.getPriceAtClose()));
+	}
+
+	@Override
+	public void cashMoved(String reason, long freeCashDelta, long reservedDelta) {
+		pendingEvents.get().beginEvent(CASH_MOVED)
+				.putString(reason)
+				.putLong(freeCashDelta)
+				.putLong(reservedDelta);
+	}
+
+	/**
+	 * Frames the events this thread recorded since its last commit as one record and applies them to the ledger's
+	 * portfolio. The record is appended at once unless it holds only marks, in which case it waits for the next other
+	 * record or flush().
+	 */
+	@Override
+	public synchronized void commit() {
+		EventBuffer events = pendingEvents.get();
+		if (events.isEmpty()) {
+			return;
+		}
+		int recordStart = frames.position();
+		frames.skip(FRAME_HEADER_BYTES)
+				.putLong(sequence + 1)
+				.putLong(System.currentTimeMillis())
+				.put(events);
+		int recordLength = frames.position() - recordStart - FRAME_HEADER_BYTES;
+		crc32.reset();
+		crc32.update(frames.bytes.array(), recordStart + FRAME_HEADER_BYTES, recordLength);
+		frames.bytes.putInt(recordStart, recordLength);
+		frames.bytes.putInt(recordStart + Integer.BYTES, (int) crc32.getValue());
+		eventsSinceSnapshot += applyRecord(frames.bytes.duplicate().position(recordStart + FRAME_HEADER_BYTES)
+				.limit(recordStart + FRAME_HEADER_BYTES + recordLength));
+		boolean marksOnly = events.isMarksOnly();
+		events.clear();
+		if (!marksOnly) {
+			appendEvents();
+		}
+	}
+
+	/**
+	 * Clears the events this thread recorded since its last commit. Only the thread's own buffer is touched, so the
+	 * ledger's lock is not taken.
+	 */
+	@Override
+	public void discard() {
+		pendingEvents.get().clear();
+	}
+
+	/**
+	 * Appends any records of marks not yet appended.
+	 */
+	@Override
+	public synchronized void flush() {
+		appendEvents();
+	}
+
+	/**
+	 * Appends any records of marks not yet appended and writes a snapshot, so the next open replays nothing.
+	 */
+	@Override
+	public synchronized void checkpoint() {
+		appendEvents();
+		writeSnapshot();
+	}
+
+	/**
+	 * Checkpoints the ledger and closes the log. The ledger cannot be written afterwards.
+	 */
+	@Override
+	public synchronized void close() {
+		LOGGER.debug("Entering close()");
+		checkpoint();
+		try {
+			logChannel.force(false);
+			logChannel.close();
+		} catch (IOException ioe) {
+			LOGGER.warn("Could not close {}", logPath);
+			LOGGER.debug("Caught (IOException ioe)", ioe);
+		}
+	}
+
+	private void applyPositionChanged(long positionId, int numberTransacted, long costBasis) {
+		PositionEntry positionEntry = openPositions.get(positionId);
+		if (positionEntry != null) {
+			positionEntry.numberTransacted = numberTransacted;
+			positionEntry.costBasis = costBasis;
+		}
+	}
+
+	private void applyPositionMarked(long positionId, long lastTick, long epochMillis) {
+		PositionEntry positionEntry = openPositions.get(positionId);
+		if (positionEntry != null) {
+			positionEntry.lastTick = lastTick;
+			positionEntry.lastTickEpoch = epochMillis;
+		}
+	}
+
+	private void applyCashMoved(long freeCashDelta, long reservedDelta) {
+		freeCash = Money.plus(freeCash, freeCashDelta);
+		reservedCash = Money.plus(reservedCash, reservedDelta);
+	}
+
+	private static String getString(ByteBuffer recordBuffer) {
+		int valueLength = Short.toUnsignedInt(recordBuffer.getShort());
+		String value = new String(recordBuffer.array(), recordBuffer.arrayOffset() + recordBuffer.position(), valueLength,
+				StandardCharsets.UTF_8);
+		recordBuffer.position(recordBuffer.position() + valueLength);
+		return value;
+	}
+
+	private static void putOrderEntry(EventBuffer eventBuffer, OrderEntry orderEntry) {
+		eventBuffer.putLong(orderEntry.orderId)
+				.put((byte) orderEntry.securityType.ordinal())
+				.putString(orderEntry.ticker)
+				.putString(orderEntry.underlyingTicker)
+				.putString(orderEntry.tif)
+				.put((byte) (orderEntry.buy ? 1 : 0))
+				.putInt(orderEntry.totalQuantity)
+				.putLong(orderEntry.limitPrice)
+				.putLong(orderEntry.triggerPrice)
+				.putLong(orderEntry.claimAgainstCash)
+				.putLong(orderEntry.strikePrice)
+				.putLong(orderEntry.expiryEpochDay)
+				.putLong(orderEntry.epochOpened);
+	}
+
+	private static OrderEntry getOrderEntry(ByteBuffer recordBuffer) {
+		OrderEntry orderEntry = new OrderEntry();
+		orderEntry.orderId = recordBuffer.getLong();
+		orderEntry.securityType = SecurityType.values()[recordBuffer.get()];
+		orderEntry.ticker = getString(recordBuffer);
+		orderEntry.underlyingTicker = getString(recordBuffer);
+		orderEntry.tif = getString(recordBuffer);
+		orderEntry.buy = (recordBuffer.get() != 0);
+		orderEntry.totalQuantity = recordBuffer.getInt();
+		orderEntry.limitPrice = recordBuffer.getLong();
+		orderEntry.triggerPrice = recordBuffer.getLong();
+		orderEntry.claimAgainstCash = recordBuffer.getLong();
+		orderEntry.strikePrice = recordBuffer.getLong();
+		orderEntry.expiryEpochDay = recordBuffer.getLong();
+		orderEntry.epochOpened = recordBuffer.getLong();
+		return orderEntry;
+	}
+
+	private static void putPositionEntry(EventBuffer eventBuffer, PositionEntry positionEntry) {
+		eventBuffer.putLong(positionEntry.positionId)
+				.put((byte) positionEntry.securityType.ordinal())
+				.putString(positionEntry.ticker)
+				.putString(positionEntry.underlyingTicker)
+				.put((byte) (positionEntry.longPosition ? 1 : 0))
+				.putInt(positionEntry.numberTransacted)
+				.putLong(positionEntry.priceAtOpen)
+				.putLong(positionEntry.costBasis)
+				.putLong(positionEntry.claimAgainstCash)
+				.putLong(positionEntry.strikePrice)
+				.putLong(positionEntry.expiryEpochDay)
+				.putLong(positionEntry.epochOpened)
+				.putLong(positionEntry.lastTick)
+				.putLong(positionEntry.lastTickEpoch);
+	}
+
+	private static PositionEntry getPositionEntry(ByteBuffer recordBuffer) {
+		PositionEntry positionEntry = new PositionEntry();
+		positionEntry.positionId = recordBuffer.getLong();
+		positionEntry.securityType = SecurityType.values()[recordBuffer.get()];
+		positionEntry.ticker = getString(recordBuffer);
+		positionEntry.underlyingTicker = getString(recordBuffer);
+		positionEntry.longPosition = (recordBuffer.get() != 0);
+		positionEntry.numberTransacted = recordBuffer.getInt();
+		positionEntry.priceAtOpen = recordBuffer.getLong();
+		positionEntry.costBasis = recordBuffer.getLong();
+		positionEntry.claimAgainstCash = recordBuffer.getLong();
+		positionEntry.strikePrice = recordBuffer.getLong();
+		positionEntry.expiryEpochDay = recordBuffer.getLong();
+		positionEntry.epochOpened = recordBuffer.getLong();
+		positionEntry.lastTick = recordBuffer.getLong();
+		positionEntry.lastTickEpoch = recordBuffer.getLong();
+		return positionEntry;
+	}
+
+	/**
+	 * Appends the records not yet appended to the log in one write call, forcing them to the device if syncWrites is
+	 * set, then snapshots if snapshotInterval events have been committed since the last snapshot. A failed append is
+	 * logged and followed by a snapshot, which holds the records that could not be appended and starts the next replay
+	 * after whatever part of them reached the log.
+	 */
+	private void appendEvents() {
+		if (frames.isEmpty()) {
+			return;
+		}
+		ByteBuffer records = frames.bytes.flip();
+		try {
+			while (records.hasRemaining()) {
+				logLength += logChannel.write(records);
+			}
+			if (syncWrites) {
+				logChannel.force(false);
+			}
+		} catch (IOException ioe) {
+			LOGGER.error("Could not append to {}, records up to sequence {} are only in the next snapshot", logPath, sequence);
+			LOGGER.debug("Caught (IOException ioe)", ioe);
+			eventsSinceSnapshot = snapshotInterval;
+			try {
+				logLength = logChannel.size();
+			} catch (IOException sizeIoe) {
+				LOGGER.debug("Caught (IOException sizeIoe)", sizeIoe);
+			}
+		} finally {
+			frames.clear();
+		}
+		if (eventsSinceSnapshot >= snapshotInterval) {
+			writeSnapshot();
+		}
+	}
+
+	/**
+	 * Writes the portfolio as of the last event beside the snapshot, forces it to the device and moves it over the
+	 * snapshot, so a crash leaves the old snapshot or the new one. Call only with no records waiting to be appended.
+	 */
+	private void writeSnapshot() {
+		long startNanos = System.nanoTime();
+		Path newSnapshotPath = snapshotPath.resolveSibling(SNAPSHOT_FILE_NAME + ".new");
+		frames.putInt(SNAPSHOT_MAGIC)
+				.putInt(SNAPSHOT_VERSION)
+				.putLong(sequence)
+				.putLong(logLength)
+				.putLong(freeCash)
+				.putLong(reservedCash)
+				.putInt(openPositions.size());
+		openPositions.values().forEach(positionEntry -> putPositionEntry(frames, positionEntry));
+		frames.putInt(openOrders.size());
+		openOrders.values().forEach(orderEntry -> putOrderEntry(frames, orderEntry));
+		crc32.reset();
+		crc32.update(frames.bytes.array(), 0, frames.position());
+		frames.putInt((int) crc32.getValue());
+		ByteBuffer snapshot = frames.bytes.flip();
+		try (FileChannel snapshotChannel = FileChannel.open(newSnapshotPath, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			while (snapshot.hasRemaining()) {
+				snapshotChannel.write(snapshot);
+			}
+			snapshotChannel.force(true);
+			Files.move(newSnapshotPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			eventsSinceSnapshot = 0L;
+			LOGGER.debug("Wrote snapshot of {} positions and {} orders at sequence {} in {}us", openPositions.size(),
+					openOrders.size(), sequence, (System.nanoTime() - startNanos) / 1_000L);
+		} catch (IOException ioe) {
+			LOGGER.error("Could not write snapshot {}", snapshotPath);
+			LOGGER.debug("Caught (IOException ioe)", ioe);
+		} finally {
+			frames.clear();
+		}
+	}
+
+	/**
+	 * Loads the snapshot if there is one and it passes its CRC, leaving the ledger empty otherwise.
+	 */
+	private void loadSnapshot() throws IOException {
+		if (!Files.exists(snapshotPath)) {
+			return;
+		}
+		ByteBuffer snapshotBuffer = ByteBuffer.wrap(Files.readAllBytes(snapshotPath));
+		int checkedLength = snapshotBuffer.limit() - Integer.BYTES;
+		if (checkedLength < 2 * Integer.BYTES) {
+			LOGGER.warn("Ignoring snapshot {} of {} bytes and replaying all of {}", snapshotPath, snapshotBuffer.limit(), logPath);
+			return;
+		}
+		crc32.reset();
+		crc32.update(snapshotBuffer.array(), 0, checkedLength);
+		if ((snapshotBuffer.getInt(checkedLength) != (int) crc32.getValue()) ||
+				(snapshotBuffer.getInt() != SNAPSHOT_MAGIC) || (snapshotBuffer.getInt() != SNAPSHOT_VERSION)) {
+			LOGGER.warn("Ignoring snapshot {} that failed its check and replaying all of {}", snapshotPath, logPath);
+			return;
+		}
+		sequence = snapshotBuffer.getLong();
+		logLength = snapshotBuffer.getLong();
+		freeCash = snapshotBuffer.getLong();
+		reservedCash = snapshotBuffer.getLong();
+		for (int positionCount = snapshotBuffer.getInt(); positionCount > 0; positionCount--) {
+			PositionEntry positionEntry = getPositionEntry(snapshotBuffer);
+			openPositions.put(positionEntry.positionId, positionEntry);
+		}
+		for (int orderCount = snapshotBuffer.getInt(); orderCount > 0; orderCount--) {
+			OrderEntry orderEntry = getOrderEntry(snapshotBuffer);
+			openOrders.put(orderEntry.orderId, orderEntry);
+		}
+		LOGGER.info("Loaded snapshot {} at sequence {}", snapshotPath, sequence);
+	}
+
+	/**
+	 * Applies the records logged after the snapshot and truncates a record cut short at the end of the log.
+	 *
+	 * @return number of events applied
+	 */
+	private long replay() throws IOException {
+		if (!Files.exists(logPath)) {
+			LOGGER.info("Starting new ledger {}", logPath);
+			logLength = 0L;
+			return 0L;
+		}
+		long startNanos = System.nanoTime();
+		long replayedEvents = 0L;
+		try (FileChannel replayChannel = FileChannel.open(logPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long fileLength = replayChannel.size();
+			if (logLength > fileLength) {
+				LOGGER.error("Snapshot {} is ahead of {} at {} bytes, which is shorter than the {} bytes it held. Appending at the end",
+						snapshotPath, logPath, fileLength, logLength);
+				logLength = fileLength;
+				return 0L;
+			}
+			ByteBuffer logBuffer = ByteBuffer.allocate(Math.toIntExact(fileLength - logLength));
+			while (logBuffer.hasRemaining()) {
+				if (replayChannel.read(logBuffer, logLength + logBuffer.position()) < 0) {
+					break;
+				}
+			}
+			logBuffer.flip();
+			CRC32 replayCrc32 = new CRC32();
+			while (logBuffer.remaining() >= FRAME_HEADER_BYTES) {
+				int recordLength = logBuffer.getInt(logBuffer.position());
+				int recordCrc = logBuffer.getInt(logBuffer.position() + Integer.BYTES);
+				int recordStart = logBuffer.position() + FRAME_HEADER_BYTES;
+				if ((recordLength <= 0) || (recordLength > logBuffer.limit() - recordStart)) {
+					break;
+				}
+				replayCrc32.reset();
+				replayCrc32.update(logBuffer.array(), recordStart, recordLength);
+				if ((int) replayCrc32.getValue() != recordCrc) {
+					break;
+				}
+				replayedEvents += applyRecord(logBuffer.duplicate().position(recordStart).limit(recordStart + recordLength));
+				logBuffer.position(recordStart + recordLength);
+			}
+			if (logBuffer.hasRemaining()) {
+				LOGGER.warn("Truncating {} bytes of a partly written record from the end of {}", logBuffer.remaining(), logPath);
+				replayChannel.truncate(logLength + logBuffer.position());
+			}
+			logLength += logBuffer.position();
+		}
+		LOGGER.info("Replayed {} events from {} in {}ms", replayedEvents, logPath, (System.nanoTime() - startNanos) / 1_000_000L);
+		return replayedEvents;
+	}
+
+	/**
+	 * Applies each event of a record to the ledger's portfolio.
+	 *
+	 * @return number of events applied
+	 */
+	private long applyRecord(ByteBuffer recordBuffer) {
+		long recordSequence = recordBuffer.getLong();
+		long epochMillis = recordBuffer.getLong();
+		if (recordSequence != sequence + 1) {
+			LOGGER.warn("Record {} follows record {} in {}", recordSequence, sequence, logPath);
+		}
+		sequence = recordSequence;
+		long appliedEvents = 0L;
+		while (recordBuffer.hasRemaining()) {
+			byte eventType = recordBuffer.get();
+			switch (eventType) {
+				case ORDER_PLACED:
+					OrderEntry orderEntry = getOrderEntry(recordBuffer);
+					openOrders.put(orderEntry.orderId, orderEntry);
+					break;
+				case ORDER_FILLED:
+					openOrders.remove(recordBuffer.getLong());
+					recordBuffer.getLong();
+					break;
+				case ORDER_EXPIRED:
+					openOrders.remove(recordBuffer.getLong());
+					break;
+				case POSITION_OPENED:
+					PositionEntry positionEntry = getPositionEntry(recordBuffer);
+					openPositions.put(positionEntry.positionId, positionEntry);
+					break;
+				case POSITION_CHANGED:
+					applyPositionChanged(recordBuffer.getLong(), recordBuffer.getInt(), recordBuffer.getLong());
+					break;
+				case POSITION_MARKED:
+					applyPositionMarked(recordBuffer.getLong(), recordBuffer.getLong(), epochMillis);
+					break;
+				case POSITION_CLOSED:
+					openPositions.remove(recordBuffer.getLong());
+					recordBuffer.getLong();
+					break;
+				case CASH_MOVED:
+					getString(recordBuffer);
+					applyCashMoved(recordBuffer.getLong(), recordBuffer.getLong());
+					break;
+				default:
+					throw new IllegalStateException("Unknown event type " + eventType + " in record " + recordSequence + " of " + logPath);
+			}
+			appliedEvents++;
+		}
+		return appliedEvents;
+	}
+
+	private Set<Position> buildPositions() {
+		Set<Position> positions = new HashSet<>();
+		for (PositionEntry positionEntry : openPositions.values()) {
+			long marketValue = Money.timesQuantity(positionEntry.lastTick, (long) positionEntry.numberTransacted
+					* ((positionEntry.securityType == SecurityType.STOCK) ? 1 : 100) * (positionEntry.longPosition ? 1 : -1));
+			PositionBuilder positionBuilder = new PositionBuilder()
+					.positionId(positionEntry.positionId)
+					.open(true)
+					.ticker(positionEntry.ticker)
+					.securityType(positionEntry.securityType)
+					.underlyingTicker(positionEntry.underlyingTicker)
+					.instantOpened(Instant.ofEpochMilli(positionEntry.epochOpened))
+					.longPosition(positionEntry.longPosition)
+					.numberTransacted(positionEntry.numberTransacted)
+					.priceAtOpen(Money.toBigDecimal(positionEntry.priceAtOpen))
+					.costBasis(Money.toBigDecimal(positionEntry.costBasis))
+					.claimAgainstCash(Money.toBigDecimal(positionEntry.claimAgainstCash))
+					.price(InstantPrice.of(Money.toBigDecimal(positionEntry.lastTick), Instant.ofEpochMilli(positionEntry.lastTickEpoch)))
+					.netAssetValue(Money.toBigDecimal(marketValue));
+			if (positionEntry.securityType != SecurityType.STOCK) {
+				positionBuilder.strikePrice(Money.toBigDecimal(positionEntry.strikePrice));
+			}
+			if (positionEntry.expiryEpochDay != NO_EXPIRY) {
+				positionBuilder.expiry(LocalDate.ofEpochDay(positionEntry.expiryEpochDay));
+			}
+			positions.add(positionBuilder.build());
+		}
+		return positions;
+	}
+
+	private Set<Order> buildOrders() {
+		Set<Order> orders = new HashSet<>();
+		for (OrderEntry orderEntry : openOrders.values()) {
+			BuyOrSell buyOrSell = orderEntry.buy ? BuyOrSell.BUY : BuyOrSell.SELL;
+			OrderBuilder orderBuilder = OrderBuilder.of(orderEntry.securityType);
+			if (orderEntry.securityType == SecurityType.STOCK) {
+				orderBuilder.security(Stock.withoutTechnicals(orderEntry.ticker));
+			} else {
+				orderBuilder.security(Option.of(orderEntry.ticker, orderEntry.securityType,
+						LocalDate.ofEpochDay(orderEntry.expiryEpochDay), orderEntry.underlyingTicker,
+						Money.toBigDecimal(orderEntry.strikePrice)));
+			}
+			orders.add(orderBuilder
+					.orderId(orderEntry.orderId)
+					.open(true)
+					.limitPrice(Money.toBigDecimal(orderEntry.limitPrice))
+					.action(PriceBasedAction.of(Money.toBigDecimal(orderEntry.triggerPrice), true, buyOrSell,
+							orderEntry.securityType, orderEntry.totalQuantity))
+					.underlyingTicker(orderEntry.underlyingTicker)
+					.buyOrSell(buyOrSell)
+					.totalQuantity(orderEntry.totalQuantity)
+					.tif(orderEntry.tif)
+					.instantOpened(Instant.ofEpochMilli(orderEntry.epochOpened))
+					.claimAgainstCash(Money.toBigDecimal(orderEntry.claimAgainstCash))
+					.build());
+		}
+		return orders;
+	}
+
+	/**
+	 * Events or a snapshot being built, in a buffer that grows to fit. Strings are put as their length in UTF-8 bytes
+	 * (2 bytes) and the bytes, null as empty.
+	 */
+	private static final class EventBuffer {
+		private ByteBuffer bytes = ByteBuffer.allocate(4096);
+		private boolean marksOnly = true;
+
+		private EventBuffer beginEvent(byte eventType) {
+			marksOnly &= (eventType == POSITION_MARKED);
+			return put(eventType);
+		}
+
+		private boolean isEmpty() {
+			return bytes.position() == 0;
+		}
+
+		/**
+		 * @return true if every event begun since the last clear() was a mark
+		 */
+		private boolean isMarksOnly() {
+			return marksOnly;
+		}
+
+		private int position() {
+			return bytes.position();
+		}
+
+		private EventBuffer skip(int byteCount) {
+			ensureCapacity(byteCount);
+			bytes.position(bytes.position() + byteCount);
+			return this;
+		}
+
+		private EventBuffer put(byte value) {
+			ensureCapacity(1);
+			bytes.put(value);
+			return this;
+		}
+
+		private EventBuffer putInt(int value) {
+			ensureCapacity(Integer.BYTES);
+			bytes.putInt(value);
+			return this;
+		}
+
+		private EventBuffer putLong(long value) {
+			ensureCapacity(Long.BYTES);
+			bytes.putLong(value);
+			return this;
+		}
+
+		private EventBuffer putString(String value) {
+			byte[] valueBytes = (value == null) ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+			if (valueBytes.length > MAX_STRING_BYTES) {
+				throw new IllegalArgumentException("Cannot record a string of " + valueBytes.length + " bytes");
+			}
+			ensureCapacity(Short.BYTES + valueBytes.length);
+			bytes.putShort((short) valueBytes.length);
+			bytes.put(valueBytes);
+			return this;
+		}
+
+		/* Puts the contents of other, leaving other as it was */
+		private EventBuffer put(EventBuffer other) {
+			ensureCapacity(other.position());
+			bytes.put(other.bytes.array(), 0, other.position());
+			return this;
+		}
+
+		private void clear() {
+			bytes.clear();
+			marksOnly = true;
+		}
+
+		private void ensureCapacity(int byteCount) {
+			if (bytes.remaining() < byteCount) {
+				ByteBuffer grownBytes = ByteBuffer.allocate(Math.max(bytes.capacity() * 2, bytes.position() + byteCount));
+				bytes.flip();
+				grownBytes.put(bytes);
+				bytes = grownBytes;
+			}
+		}
+	}
+
+	/**
+	 * An open position as the ledger keeps it. Amounts are micros, times are epoch millis.
+	 */
+	private static final class PositionEntry {
+		private long positionId;
+		private SecurityType securityType;
+		private String ticker;
+		private String underlyingTicker;
+		private boolean longPosition;
+		private int numberTransacted;
+		private long priceAtOpen;
+		private long costBasis;
+		private long claimAgainstCash;
+		private long strikePrice;
+		private long expiryEpochDay;
+		private long epochOpened;
+		private long lastTick;
+		private long lastTickEpoch;
+	}
+
+	/**
+	 * An open order as the ledger keeps it. Amounts are micros, times are epoch millis.
+	 */
+	private static final class OrderEntry {
+		private long orderId;
+		private SecurityType securityType;
+		private String ticker;
+		private String underlyingTicker;
+		private String tif;
+		private boolean buy;
+		private int totalQuantity;
+		private long limitPrice;
+		private long triggerPrice;
+		private long claimAgainstCash;
+		private long strikePrice;
+		private long expiryEpochDay;
+		private long epochOpened;
+	}
+}
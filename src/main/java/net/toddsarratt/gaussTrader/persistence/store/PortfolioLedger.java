@@ -0,0 +1,130 @@
+package net.toddsarratt.gaussTrader.persistence.store;
+
+import net.toddsarratt.gaussTrader.Position;
+import net.toddsarratt.gaussTrader.orders.Order;
+
+import java.math.BigDecimal;
+import java.util.Set;
+
+/**
+ * Append-only record of the accounting events that change a portfolio: orders placed, filled and expired, positions
+ * opened, changed by an exercise, marked to market and closed, and every movement of free and reserved cash.
+ * PortfolioAccountant records each event as it applies it, so replaying the ledger rebuilds the portfolio exactly and
+ * the ledger doubles as an audit trail of how cash and positions got where they are.
+ * <p>
+ * The recovery methods return the portfolio as the ledger had it when opened. A ledger with no history has nothing to
+ * recover, and the accountant seeds it from the portfolio it was given instead.
+ * <p>
+ * PortfolioAccountant records events from several threads, so implementations must be thread safe. Events about one
+ * position or order arrive in the order they happened; cash events from different threads may arrive in either order,
+ * which does not matter as they only add. The accountant commits at the end of each operation, so the events of one
+ * fill or exercise are recovered together or not at all, and discards them if the operation throws.
+ * <p>
+ * NONE records nothing and is used when no ledger is configured.
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
+public interface PortfolioLedger {
+	PortfolioLedger NONE = new PortfolioLedger() {
+	};
+
+	/**
+	 * @return true if the ledger held events when opened, so the recovery methods describe the portfolio
+	 */
+	default boolean hasHistory() {
+		return false;
+	}
+
+	/**
+	 * @return free cash in micros when the ledger was opened
+	 */
+	default long getRecoveredFreeCash() {
+		return 0L;
+	}
+
+	/**
+	 * @return reserved cash in micros when the ledger was opened
+	 */
+	default long getRecoveredReservedCash() {
+		return 0L;
+	}
+
+	/**
+	 * @return positions open when the ledger was opened
+	 */
+	default Set<Position> getRecoveredPositions() {
+		return Set.of();
+	}
+
+	/**
+	 * @return orders open when the ledger was opened
+	 */
+	default Set<Order> getRecoveredOrders() {
+		return Set.of();
+	}
+
+	default void orderPlaced(Order order) {
+	}
+
+	default void orderFilled(Order order, BigDecimal fillPrice) {
+	}
+
+	default void orderExpired(Order order) {
+	}
+
+	default void positionOpened(Position position) {
+	}
+
+	/**
+	 * Records the number transacted and cost basis of an open position after an exercise delivered part of it.
+	 */
+	default void positionChanged(Position position) {
+	}
+
+	/**
+	 * @param lastTick last price of the position's security in micros
+	 */
+	default void positionMarked(Position position, long lastTick) {
+	}
+
+	/**
+	 * Records that position closed at its priceAtClose.
+	 */
+	default void positionClosed(Position position) {
+	}
+
+	/**
+	 * @param reason        what the cash moved for
+	 * @param freeCashDelta change in free cash in micros
+	 * @param reservedDelta change in reserved cash in micros
+	 */
+	default void cashMoved(String reason, long freeCashDelta, long reservedDelta) {
+	}
+
+	/**
+	 * Records the events this thread recorded since its last commit as one operation, which recovery applies whole or
+	 * not at all. Events not yet committed are not recovered.
+	 */
+	default void commit() {
+	}
+
+	/**
+	 * Drops the events this thread recorded since its last commit, for an operation that failed part way through.
+	 * Nothing of it is recorded, so recovery does not apply half of it.
+	 */
+	default void discard() {
+	}
+
+	/**
+	 * Makes every event committed so far durable. Call at least once per trading cycle.
+	 */
+	default void flush() {
+	}
+
+	/**
+	 * Flushes and records the portfolio as it stands, so recovery need not replay the events before this point.
+	 */
+	default void checkpoint() {
+	}
+}
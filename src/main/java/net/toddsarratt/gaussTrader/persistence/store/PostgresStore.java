@@ -2,14 +2,18 @@ package net.toddsarratt.gaussTrader.persistence.store;
 
 import net.toddsarratt.gaussTrader.Position;
 import net.toddsarratt.gaussTrader.PositionBuilder;
+import net.toddsarratt.gaussTrader.PriceBasedAction;
+import net.toddsarratt.gaussTrader.domain.Option;
 import net.toddsarratt.gaussTrader.domain.Stock;
 import net.toddsarratt.gaussTrader.orders.Order;
 import net.toddsarratt.gaussTrader.orders.OrderBuilder;
-import net.toddsarratt.gaussTrader.persistence.entity.InstantPrice;
-import net.toddsarratt.gaussTrader.portfolio.PortfolioAccountant;
+import net.toddsarratt.gaussTrader.InstantPrice;
 import net.toddsarratt.gaussTrader.portfolio.PortfolioSummary;
+import net.toddsarratt.gaussTrader.securities.Security;
+import net.toddsarratt.gaussTrader.singletons.BuyOrSell;
 import net.toddsarratt.gaussTrader.singletons.Constants;
 import net.toddsarratt.gaussTrader.singletons.SecurityType;
+import net.toddsarratt.gaussTrader.technicals.PriceSeries;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,12 +24,21 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The {@code PostgresStore} class implements the DataStore interface
@@ -35,31 +48,21 @@ import java.util.Set;
  */
 public class PostgresStore implements DataStore {
 	private static final Logger LOGGER = LoggerFactory.getLogger(PostgresStore.class);
-//	private static PGSimpleDataSource pgDataSource = new PGSimpleDataSource();
+	private static final ZoneId PRICES_ZONE = ZoneId.of("America/New_York");
+	private static final LocalTime PRICES_CLOSE_TIME = LocalTime.of(16, 0);
+	private static final int PRICE_BATCH_SIZE = 1_000;
+	/* Last tick written by writeMarks() for each open position, in millionths of a dollar */
+	private final Map<Long, Long> markedTickMicros = new ConcurrentHashMap<>();
 
 	@PersistenceContext
 	EntityManager em;
 
-	/**
-	 * Set up Postgres database connection
-	 */
-	static {
-		LOGGER.debug("Entering connect()");
-		LOGGER.debug("pgDataSource.setServerName({})", Constants.DB_IP);
-		pgDataSource.setServerName(Constants.DB_IP);
-		LOGGER.debug("pgDataSource.setDatabaseName({})", Constants.DB_NAME);
-		pgDataSource.setDatabaseName(Constants.DB_NAME);
-		LOGGER.debug("pgDataSource.setUser({})", Constants.DB_USER);
-		pgDataSource.setUser(Constants.DB_USER);
-		LOGGER.debug("pgDataSource.setPassword({})", Constants.DB_PASSWORD);
-		pgDataSource.setPassword(Constants.DB_PASSWORD);
-	}
-
 	/* TODO: Here should be DTOs */
 	public static Position dbToPortfolioPosition(ResultSet dbResult) throws SQLException {
 		LOGGER.debug("Entering Portfolio.dbToPortfolioPosition(ResultSet dbResult)");
 		PositionBuilder positionBuilder = new PositionBuilder();
 		positionBuilder.positionId(dbResult.getLong("position_id"))
+				.originatingOrderId(dbResult.getLong("originating_order_id"))
 				.open(dbResult.getBoolean("open"))
 				.ticker(dbResult.getString("ticker"))
 				.securityType(SecurityType.of(dbResult.getString("sec_type")))
@@ -70,66 +73,60 @@ public class PostgresStore implements DataStore {
 				.numberTransacted(dbResult.getInt("number_transacted"))
 				.priceAtOpen(BigDecimal.valueOf(dbResult.getDouble("price_at_open")))
 				.costBasis(BigDecimal.valueOf(dbResult.getDouble("cost_basis")))
-				.price(BigDecimal.valueOf(dbResult.getDouble("last_tick")))
+				/* The time of the last mark is not stored, PortfolioAccountant marks the position again when it is read */
+				.price(InstantPrice.of(BigDecimal.valueOf(dbResult.getDouble("last_tick")), Instant.now()))
 				.netAssetValue(BigDecimal.valueOf(dbResult.getDouble("net_asset_value")))
-				// TODO: Add field "expiry" to take the place of "epoch_expiry" in database
-				.expiry(dbResult.getDate("expiry").toLocalDate())
 				.claimAgainstCash(BigDecimal.valueOf(dbResult.getDouble("claim_against_cash")));
-//				.originatingOrderId(new TransactionId(dbResult.getLong("originating_order_id")));
+		LocalDate expiry = toExpiry(dbResult);
+		if (expiry != null) {
+			positionBuilder.expiry(expiry);
+		}
 		return positionBuilder.build();
 	}
 
 	public static Order dbToPortfolioOrder(ResultSet dbResult) throws SQLException {
 		LOGGER.debug("Entering Portfolio.dbToPortfolioOrder(ResultSet dbResult)");
 		SecurityType secType = SecurityType.of(dbResult.getString("sec_type"));
+		BuyOrSell buyOrSell = BuyOrSell.valueOf(dbResult.getString("action"));
+		BigDecimal limitPrice = BigDecimal.valueOf(dbResult.getDouble("limit_price"));
+		int totalQuantity = dbResult.getInt("total_quantity");
 		OrderBuilder orderBuilder = OrderBuilder.of(secType);
-		orderBuilder.orderId(dbResult.getLong("order_id"))
+		if (secType == SecurityType.STOCK) {
+			orderBuilder.security(Stock.withoutTechnicals(dbResult.getString("ticker")));
+		} else {
+			orderBuilder.security(Option.of(dbResult.getString("ticker"), secType, toExpiry(dbResult),
+					dbResult.getString("underlying_ticker"), BigDecimal.valueOf(dbResult.getDouble("strike_price"))));
+		}
+		return orderBuilder.orderId(dbResult.getLong("order_id"))
 				.open(true)
-				.ticker(dbResult.getString("ticker"));
-//				.underlyingTicker(dbResult.getString("underlying_ticker"))
-//				.strikePrice(dbResult.getDouble("strike_price"))
-//				.limitPrice(dbResult.getDouble("limit_price"))
-//				.action(dbResult.getString("action"))
-//				.totalQuantity(dbResult.getInt("total_quantity"))
-//				.secType(secType)
-//				.tif(dbResult.getString("tif"))
-//				.epochOpened(dbResult.getLong("epoch_opened"))
-//				.expiry(dbResult.getLong("epoch_expiry"))
-//				.claimAgainstCash(dbResult.getDouble("claim_against_cash"));
-		return orderBuilder.build();
+				.limitPrice(limitPrice)
+				/* The trigger price is not stored, the limit price stands in for it */
+				.action(PriceBasedAction.of(limitPrice, true, buyOrSell, secType, totalQuantity))
+				.underlyingTicker(dbResult.getString("underlying_ticker"))
+				.buyOrSell(buyOrSell)
+				.totalQuantity(totalQuantity)
+				.tif(dbResult.getString("tif"))
+				.instantOpened(Instant.ofEpochMilli(dbResult.getLong("epoch_opened")))
+				.claimAgainstCash(BigDecimal.valueOf(dbResult.getDouble("claim_against_cash")))
+				.build();
 	}
 
-	/**
-	 * Writes the last known price of a stock to the database
-	 *
-	 * @param stock stock whose price needs to be written to the database
-	 */
-	@Override
-	public void updateStockPriceToStorage(Stock stock) {
-		String ticker = stock.getTicker();
-		LOGGER.debug("Entering updateStockPriceToStorage(Stock {})", ticker);
-		String sqlCommand = "UPDATE watchlist SET last_tick = ?, last_tick_epoch = ? WHERE ticker = ?";
-		PreparedStatement sqlStatement;
-		int insertedRowCount;
-		try {
-			LOGGER.debug("Getting connection to {}", Constants.DB_NAME);
-			LOGGER.debug("Inserting current stock price for ticker {} into database.", ticker);
-			Connection dbConnection = pgDataSource.getConnection();
-			sqlStatement = dbConnection.prepareStatement(sqlCommand);
-			InstantPrice currentPrice = stock.getLastPrice();
-			long lastTickEpoch = currentPrice.getEpoch();
-			sqlStatement.setDouble(1, currentPrice.getPriceAsDouble());
-			sqlStatement.setLong(2, lastTickEpoch);
-			sqlStatement.setString(3, ticker);
-			LOGGER.debug("Executing UPDATE watchlist SET last_tick = {}, last_tick_epoch = {} WHERE ticker = {}", currentPrice, lastTickEpoch, ticker);
-			if ((insertedRowCount = sqlStatement.executeUpdate()) != 1) {
-				LOGGER.warn("Inserted {} rows. Should have inserted 1 row.", insertedRowCount);
-			}
-			dbConnection.close();
-		} catch (SQLException sqle) {
-			LOGGER.info("Unable to get connection to {}", Constants.DB_NAME);
-			LOGGER.debug("Caught (SQLException sqle)", sqle);
-		}
+	/* epoch_expiry is the epoch millisecond of the start of the expiry date in New York, null for stocks */
+	private static LocalDate toExpiry(ResultSet dbResult) throws SQLException {
+		long expiryEpoch = dbResult.getLong("epoch_expiry");
+		return dbResult.wasNull() ? null : Instant.ofEpochMilli(expiryEpoch).atZone(PRICES_ZONE).toLocalDate();
+	}
+
+	private static Long toExpiryEpoch(LocalDate expiry) {
+		return (expiry == null) ? null : expiry.atStartOfDay(PRICES_ZONE).toInstant().toEpochMilli();
+	}
+
+	private static Long toEpoch(Instant instant) {
+		return (instant == null) ? null : instant.toEpochMilli();
+	}
+
+	private static Double toDouble(BigDecimal amount) {
+		return (amount == null) ? null : amount.doubleValue();
 	}
 
 	/**
@@ -138,13 +135,11 @@ public class PostgresStore implements DataStore {
 	@Override
 	public void resetWatchList() {
 		PreparedStatement sqlStatement;
-		try {
-			LOGGER.debug("Getting connection to {}", Constants.DB_NAME);
-			Connection dbConnection = pgDataSource.getConnection();
+		LOGGER.debug("Getting connection to {}", Constants.DB_NAME);
+		try (Connection dbConnection = DataStoreManager.getConnection()) {
 			sqlStatement = dbConnection.prepareStatement("UPDATE watchlist SET active = FALSE");
 			LOGGER.debug("Executing UPDATE watchlist SET active = FALSE");
 			sqlStatement.executeUpdate();
-			dbConnection.close();
 		} catch (SQLException sqle) {
 			LOGGER.info("Unable to get connection to {}", Constants.DB_NAME);
 			LOGGER.debug("Caught (SQLException sqle)", sqle);
@@ -156,9 +151,8 @@ public class PostgresStore implements DataStore {
 		LOGGER.debug("Entering WatchList.updateDb(Stock {})", stockToUpdate.getTicker());
 		PreparedStatement sqlUniquenessStatement;
 		PreparedStatement sqlUpdateStatement;
-		try {
-			LOGGER.debug("Getting connection to {}", Constants.DB_NAME);
-			Connection dbConnection = pgDataSource.getConnection();
+		LOGGER.debug("Getting connection to {}", Constants.DB_NAME);
+		try (Connection dbConnection = DataStoreManager.getConnection()) {
 			String ticker = stockToUpdate.getTicker();
 			sqlUniquenessStatement = dbConnection.prepareStatement("SELECT DISTINCT ticker FROM watchlist WHERE ticker = ?");
 			sqlUniquenessStatement.setString(1, ticker);
@@ -181,7 +175,6 @@ public class PostgresStore implements DataStore {
 			sqlUpdateStatement.setString(8, stockToUpdate.getTicker());
 			LOGGER.debug("Executing SQL insert into watchlist table");
 			sqlUpdateStatement.executeUpdate();
-			dbConnection.close();
 		} catch (SQLException sqle) {
 			LOGGER.info("SQLException attempting to update DB table watchlist for {}", stockToUpdate.getTicker());
 			LOGGER.debug("Exception", sqle);
@@ -196,15 +189,13 @@ public class PostgresStore implements DataStore {
 	@Override
 	public boolean tickerPriceInStore(String ticker) {
 		LOGGER.debug("Entering DBHistoricalPrices.tickerPriceInDb()");
-		Connection dbConnection;
-		try {
-			dbConnection = pgDataSource.getConnection();
-			PreparedStatement summarySqlStatement = dbConnection.prepareStatement("SELECT DISTINCT ticker FROM prices WHERE ticker = ?");
+		try (Connection dbConnection = DataStoreManager.getConnection()) {
+			/* Stops at the first row found by the prices_pkey index instead of scanning every close for ticker */
+			PreparedStatement summarySqlStatement = dbConnection.prepareStatement("SELECT EXISTS (SELECT 1 FROM prices WHERE ticker = ?)");
 			summarySqlStatement.setString(1, ticker);
-			LOGGER.debug("Executing SELECT DISTINCT ticker FROM prices WHERE ticker = {}", ticker);
+			LOGGER.debug("Executing SELECT EXISTS (SELECT 1 FROM prices WHERE ticker = {})", ticker);
 			ResultSet tickerInDbResultSet = summarySqlStatement.executeQuery();
-			dbConnection.close();
-			return (tickerInDbResultSet.next());
+			return (tickerInDbResultSet.next() && tickerInDbResultSet.getBoolean(1));
 		} catch (SQLException sqle) {
 			LOGGER.info("SQLException attempting to find historical price for {}", ticker);
 			LOGGER.debug("Exception", sqle);
@@ -215,13 +206,11 @@ public class PostgresStore implements DataStore {
 	@Override
 	public void deactivateStock(String tickerToRemove) {
 		PreparedStatement sqlUpdateStatement;
-		try {
-			LOGGER.debug("Getting connection to {}", Constants.DB_NAME);
-			Connection dbConnection = pgDataSource.getConnection();
+		LOGGER.debug("Getting connection to {}", Constants.DB_NAME);
+		try (Connection dbConnection = DataStoreManager.getConnection()) {
 			sqlUpdateStatement = dbConnection.prepareStatement("UPDATE watchlist SET active = FALSE where ticker = ?");
 			sqlUpdateStatement.setString(1, tickerToRemove);
 			sqlUpdateStatement.executeUpdate();
-			dbConnection.close();
 		} catch (SQLException sqle) {
 			LOGGER.info("SQLException attempting to update DB table watchlist for {}", tickerToRemove);
 			LOGGER.debug("Exception", sqle);
@@ -229,43 +218,135 @@ public class PostgresStore implements DataStore {
 	}
 
 	@Override
-	public Set<Position> getPortfolioPositions(PortfolioAccountant portfolioAccountant) throws SQLException {
+	public Set<Position> getPortfolioPositions() throws SQLException {
 		LOGGER.debug("Entering Portfolio.getDbPortfolioPositions()");
-		Connection dbConnection = pgDataSource.getConnection();
 		Position portfolioPositionEntry;
 		Set<Position> positions = new HashSet<>();
-		PreparedStatement positionSqlStatement = dbConnection.prepareStatement("SELECT * FROM positions WHERE portfolio = ? AND open = true");
-		positionSqlStatement.setString(1, portfolioAccountant.getName());
-		LOGGER.debug("Executing SELECT * FROM positions WHERE portfolio = {} AND open = true", portfolioAccountant.getName());
-		ResultSet openPositionsResultSet = positionSqlStatement.executeQuery();
-		while (openPositionsResultSet.next()) {
-			portfolioPositionEntry = dbToPortfolioPosition(openPositionsResultSet);
-			if (portfolioPositionEntry.isExpired()) {
-				LOGGER.warn("Position {} read from the database has expired", portfolioPositionEntry.getTicker());
-				portfolioAccountant.reconcileExpiredOptionPosition(portfolioPositionEntry);
-			} else {
+		try (Connection dbConnection = DataStoreManager.getConnection()) {
+			PreparedStatement positionSqlStatement = dbConnection.prepareStatement("SELECT * FROM positions WHERE portfolio = ? AND open = true");
+			positionSqlStatement.setString(1, Constants.PORTFOLIO_NAME);
+			LOGGER.debug("Executing SELECT * FROM positions WHERE portfolio = {} AND open = true", Constants.PORTFOLIO_NAME);
+			ResultSet openPositionsResultSet = positionSqlStatement.executeQuery();
+			while (openPositionsResultSet.next()) {
+				portfolioPositionEntry = dbToPortfolioPosition(openPositionsResultSet);
 				LOGGER.debug("Adding {} {}", portfolioPositionEntry.getPositionId(), portfolioPositionEntry.getTicker());
 				positions.add(portfolioPositionEntry);
 			}
 		}
-		dbConnection.close();
 		return positions;
 	}
 
+	@Override
+	public Set<Order> getPortfolioOrders() {
+		LOGGER.debug("Entering Portfolio.getDbPortfolioOrders()");
+		Set<Order> portfolioOrders = new HashSet<>();
+		try (Connection dbConnection = DataStoreManager.getConnection()) {
+			Order portfolioOrderEntry;
+			PreparedStatement orderSqlStatement = dbConnection.prepareStatement("SELECT * FROM orders WHERE portfolio = ? AND open = true");
+			orderSqlStatement.setString(1, Constants.PORTFOLIO_NAME);
+			LOGGER.debug("Executing SELECT * FROM orders WHERE portfolio = {} AND open = true", Constants.PORTFOLIO_NAME);
+			ResultSet openOrdersResultSet = orderSqlStatement.executeQuery();
+			while (openOrdersResultSet.next()) {
+				portfolioOrderEntry = dbToPortfolioOrder(openOrdersResultSet);
+				LOGGER.debug("Adding {} {}", portfolioOrderEntry.getOrderId(), portfolioOrderEntry.getSecurity().getTicker());
+				portfolioOrders.add(portfolioOrderEntry);
+			}
+		} catch (SQLException sqle) {
+			LOGGER.warn("Unable to read open orders of {} from {}", Constants.PORTFOLIO_NAME, Constants.DB_NAME);
+			LOGGER.debug("Caught (SQLException sqle)", sqle);
+		}
+		return portfolioOrders;
+	}
+
+	/**
+	 * Inserts the order, or replaces the stored row if the order was written before, so an order closed by a fill or
+	 * expiry is written the same way as a new one.
+	 */
 	@Override
 	public void write(Order order) {
-		try {
-			throw new SQLException();
+		LOGGER.debug("Entering Portfolio.insertDbOrder(Order {})", order.getOrderId());
+		Security security = order.getSecurity();
+		LocalDate expiry = security.isOption() ? ((Option) security).getExpiry() : null;
+		BigDecimal strikePrice = security.isOption() ? ((Option) security).getStrike() : null;
+		try (Connection dbConnection = DataStoreManager.getConnection()) {
+			PreparedStatement orderSqlStatement = dbConnection.prepareStatement(
+					"INSERT INTO orders (portfolio, order_id, open, ticker, epoch_expiry, underlying_ticker, strike_price, limit_price, " +
+							"action, total_quantity, sec_type, tif, epoch_opened, claim_against_cash, epoch_closed, close_reason, fill_price) " +
+							"VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) " +
+							"ON CONFLICT (portfolio, order_id) DO UPDATE SET open = EXCLUDED.open, epoch_closed = EXCLUDED.epoch_closed, " +
+							"close_reason = EXCLUDED.close_reason, fill_price = EXCLUDED.fill_price");
+			orderSqlStatement.setString(1, Constants.PORTFOLIO_NAME);
+			orderSqlStatement.setLong(2, order.getOrderId());
+			orderSqlStatement.setBoolean(3, order.isOpen());
+			orderSqlStatement.setString(4, security.getTicker());
+			orderSqlStatement.setObject(5, toExpiryEpoch(expiry), Types.BIGINT);
+			orderSqlStatement.setString(6, order.getUnderlyingTicker());
+			orderSqlStatement.setObject(7, toDouble(strikePrice), Types.DOUBLE);
+			orderSqlStatement.setDouble(8, order.getLimitPrice().doubleValue());
+			orderSqlStatement.setString(9, order.getBuyOrSell().name());
+			orderSqlStatement.setInt(10, order.getTotalQuantity());
+			orderSqlStatement.setString(11, security.getSecType().name());
+			orderSqlStatement.setString(12, order.getTif());
+			orderSqlStatement.setLong(13, order.getInstantOpened().toEpochMilli());
+			orderSqlStatement.setDouble(14, order.getClaimAgainstCash().doubleValue());
+			orderSqlStatement.setObject(15, order.isOpen() ? null : toEpoch(order.getInstantClosed()), Types.BIGINT);
+			orderSqlStatement.setString(16, order.isOpen() ? null : order.getCloseReason());
+			orderSqlStatement.setObject(17, order.isOpen() ? null : toDouble(order.getFillPrice()), Types.DOUBLE);
+			LOGGER.debug("Executing INSERT INTO orders for order_id {} ON CONFLICT DO UPDATE", order.getOrderId());
+			int insertedRowCount;
+			if ((insertedRowCount = orderSqlStatement.executeUpdate()) != 1) {
+				LOGGER.warn("Inserted {} rows. Should have inserted 1 row", insertedRowCount);
+			}
 		} catch (SQLException sqle) {
 			LOGGER.warn("Unable to add order {} to DB", order.getOrderId());
 			LOGGER.debug("Caught (SQLException sqle)", sqle);
 		}
 	}
 
+	/**
+	 * Inserts the position, or replaces its mark and close columns if the position was written before.
+	 */
 	@Override
 	public void write(Position position) {
-		try {
-			throw new SQLException();
+		LOGGER.debug("Entering Portfolio.insertDbPosition(Position {})", position.getPositionId());
+		try (Connection dbConnection = DataStoreManager.getConnection()) {
+			PreparedStatement positionSqlStatement = dbConnection.prepareStatement(
+					"INSERT INTO positions (portfolio, position_id, open, ticker, sec_type, epoch_expiry, underlying_ticker, strike_price, " +
+							"epoch_opened, long_position, number_transacted, price_at_open, cost_basis, last_tick, net_asset_value, " +
+							"claim_against_cash, originating_order_id, epoch_closed, price_at_close, profit) " +
+							"VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) " +
+							"ON CONFLICT (portfolio, position_id) DO UPDATE SET open = EXCLUDED.open, " +
+							"number_transacted = EXCLUDED.number_transacted, last_tick = EXCLUDED.last_tick, " +
+							"net_asset_value = EXCLUDED.net_asset_value, epoch_closed = EXCLUDED.epoch_closed, " +
+							"price_at_close = EXCLUDED.price_at_close, profit = EXCLUDED.profit");
+			positionSqlStatement.setString(1, Constants.PORTFOLIO_NAME);
+			positionSqlStatement.setLong(2, position.getPositionId());
+			positionSqlStatement.setBoolean(3, position.isOpen());
+			positionSqlStatement.setString(4, position.getTicker());
+			positionSqlStatement.setString(5, (position.isCall() ? SecurityType.CALL : (position.isPut() ? SecurityType.PUT : SecurityType.STOCK)).name());
+			positionSqlStatement.setObject(6, toExpiryEpoch(position.getExpiry()), Types.BIGINT);
+			positionSqlStatement.setString(7, position.getUnderlyingTicker());
+			positionSqlStatement.setObject(8, toDouble(position.getStrikePrice()), Types.DOUBLE);
+			positionSqlStatement.setLong(9, position.getInstantOpened().toEpochMilli());
+			positionSqlStatement.setBoolean(10, position.isLong());
+			positionSqlStatement.setInt(11, position.getNumberTransacted());
+			positionSqlStatement.setDouble(12, position.getPriceAtOpen().doubleValue());
+			positionSqlStatement.setDouble(13, position.getCostBasis().doubleValue());
+			positionSqlStatement.setDouble(14, position.getLastTick().getPrice().doubleValue());
+			positionSqlStatement.setObject(15, toDouble(position.getNetAssetValue()), Types.DOUBLE);
+			positionSqlStatement.setDouble(16, position.getClaimAgainstCash().doubleValue());
+			positionSqlStatement.setLong(17, position.getOriginatingOrderId());
+			positionSqlStatement.setObject(18, position.isOpen() ? null : toEpoch(position.getInstantClosed()), Types.BIGINT);
+			positionSqlStatement.setObject(19, position.isOpen() ? null : toDouble(position.getPriceAtClose()), Types.DOUBLE);
+			positionSqlStatement.setObject(20, position.isOpen() ? null : toDouble(position.getProfit()), Types.DOUBLE);
+			LOGGER.debug("Executing INSERT INTO positions for position_id {} ON CONFLICT DO UPDATE", position.getPositionId());
+			int insertedRowCount;
+			if ((insertedRowCount = positionSqlStatement.executeUpdate()) != 1) {
+				LOGGER.warn("Inserted {} rows. Should have inserted 1 row", insertedRowCount);
+			}
+			if (!position.isOpen()) {
+				markedTickMicros.remove(position.getPositionId());
+			}
 		} catch (SQLException sqle) {
 			LOGGER.warn("Unable to add position {} to DB", position.getPositionId());
 			LOGGER.debug("Caught (SQLException sqle)", sqle);
@@ -274,346 +355,266 @@ public class PostgresStore implements DataStore {
 
 	@Override
 	public void write(PortfolioSummary summary) {
-		if (portfolioInDb()) {
-			LOGGER.debug("Portfolio \"{}\" exists in database. Running updates instead of inserts", name);
-			updateDbSummary();
-		} else {
-			LOGGER.debug("Inserting portfolio \"{}\" newly into database", name);
-			insertDbSummary();
+		LOGGER.debug("Entering Portfolio.insertDbSummary()");
+		try (Connection dbConnection = DataStoreManager.getConnection()) {
+			PreparedStatement summarySqlStatement = dbConnection.prepareStatement(
+					"INSERT INTO portfolios (name, net_asset_value, free_cash, reserved_cash, total_cash) VALUES (?, ?, ?, ?, ?) " +
+							"ON CONFLICT (name) DO UPDATE SET net_asset_value = EXCLUDED.net_asset_value, free_cash = EXCLUDED.free_cash, " +
+							"reserved_cash = EXCLUDED.reserved_cash, total_cash = EXCLUDED.total_cash");
+			summarySqlStatement.setString(1, summary.getName());
+			summarySqlStatement.setDouble(2, summary.getNetAssetValue().doubleValue());
+			summarySqlStatement.setDouble(3, summary.getFreeCash().doubleValue());
+			summarySqlStatement.setDouble(4, summary.getReservedCash().doubleValue());
+			summarySqlStatement.setDouble(5, summary.getTotalCash().doubleValue());
+			LOGGER.debug("Executing INSERT INTO portfolios (name, net_asset_value, free_cash, reserved_cash, total_cash) VALUES ({}, {}, {}, {}, {})",
+					summary.getName(), summary.getNetAssetValue(), summary.getFreeCash(), summary.getReservedCash(), summary.getTotalCash());
+			int insertedRowCount;
+			if ((insertedRowCount = summarySqlStatement.executeUpdate()) != 1) {
+				LOGGER.warn("Inserted {} rows. Should have inserted 1 row", insertedRowCount);
+			}
+		} catch (SQLException sqle) {
+			LOGGER.warn("Unable to write summary of portfolio {} to DB", summary.getName());
+			LOGGER.debug("Caught (SQLException sqle)", sqle);
 		}
 	}
 
 	@Override
-	public void close(Position positionToClose) throws SQLException {
-		int updatedRowCount;
-		Connection dbConnection = pgDataSource.getConnection();
-		String sqlString = "UPDATE positions SET epoch_closed = ?, price_at_close = ?, profit = ?, open = 'false' WHERE position_id = ?";
-		PreparedStatement newPositionSqlStatement;
-		newPositionSqlStatement = dbConnection.prepareStatement(sqlString);
-		newPositionSqlStatement.setLong(1, positionToClose.getEpochClosed());
-		newPositionSqlStatement.setDouble(2, positionToClose.getPriceAtClose());
-		newPositionSqlStatement.setDouble(3, positionToClose.getProfit());
-		newPositionSqlStatement.setLong(4, positionToClose.getPositionId());
-		LOGGER.debug("Executing UPDATE positions SET epoch_closed = {}, price_at_close = {}, profit = {}, open = 'false' WHERE position_id = {}",
-				positionToClose.getEpochClosed(), positionToClose.getPriceAtClose(), positionToClose.getProfit(), positionToClose.getPositionId());
-		if ((updatedRowCount = newPositionSqlStatement.executeUpdate()) != 1) {
-			LOGGER.warn("Updated {} rows. Should have updated 1 row", updatedRowCount);
-		}
-		dbConnection.close();
+	public void close(Order orderToFill) {
+		write(orderToFill);
 	}
 
 	@Override
-	public LinkedHashMap<Long, BigDecimal> readHistoricalPrices(String ticker, DateTime earliestCloseDate) {
-		LOGGER.debug("Entering getDBPrices(String {}, DateTime {} ({})",
-				ticker, earliestCloseDate.getMillis(), earliestCloseDate.toString());
-		LinkedHashMap<Long, BigDecimal> queriedPrices = new LinkedHashMap<>();
-		int pricesNeeded = Constants.BOLL_BAND_PERIOD;
-		int dbPricesFound = 0;
-		try {
-			LOGGER.debug("Getting connection to {}", Constants.DB_NAME);
-			Connection dbConnection = pgDataSource.getConnection();
-			PreparedStatement sqlStatement = dbConnection.prepareStatement("SELECT * FROM prices WHERE ticker = ? AND close_epoch >= ?");
-			sqlStatement.setString(1, ticker);
-			sqlStatement.setLong(2, earliestCloseDate.getMillis());
-			LOGGER.debug("SELECT * FROM prices WHERE ticker = {} AND close_epoch >= {}", ticker, earliestCloseDate.getMillis());
-			ResultSet historicalPriceResultSet = sqlStatement.executeQuery();
-			while (historicalPriceResultSet.next() && (dbPricesFound < pricesNeeded)) {
-				long closeEpoch = historicalPriceResultSet.getLong("close_epoch");
-				double adjClose = historicalPriceResultSet.getDouble("adj_close");
-				LOGGER.debug("Adding {}, {}", closeEpoch, adjClose);
-				queriedPrices.put(closeEpoch, BigDecimal.valueOf(adjClose));
-				dbPricesFound++;
-			}
-			dbConnection.close();
+	public void close(Position positionToClose) {
+		write(positionToClose);
+	}
+
+	@Override
+	public boolean portfolioInStore(String name) {
+		LOGGER.debug("Entering portfolioInStore(String {})", name);
+		try (Connection dbConnection = DataStoreManager.getConnection()) {
+			PreparedStatement portfolioSqlStatement = dbConnection.prepareStatement("SELECT EXISTS (SELECT 1 FROM portfolios WHERE name = ?)");
+			portfolioSqlStatement.setString(1, name);
+			ResultSet portfolioInDbResultSet = portfolioSqlStatement.executeQuery();
+			return (portfolioInDbResultSet.next() && portfolioInDbResultSet.getBoolean(1));
 		} catch (SQLException sqle) {
-			LOGGER.info("Unable to get connection to {}", Constants.DB_NAME);
-			LOGGER.debug("Caught (SQLException sqle)", sqle);
-		}
-		LOGGER.debug("Found {} prices in db", dbPricesFound);
-		LOGGER.debug("Returning from database LinkedHashMap with size {}", queriedPrices.size());
-		if (dbPricesFound != queriedPrices.size()) {
-			LOGGER.warn("Mismatch between prices found {} and number returned {}, possible duplication?", dbPricesFound, queriedPrices.size());
+			LOGGER.info("SQLException attempting to find portfolio {}", name);
+			LOGGER.debug("Exception", sqle);
 		}
-		return queriedPrices;
+		return false;
 	}
 
 	@Override
-	public void addStockPriceToStore(String ticker, long dateEpoch, double adjClose) {
-		LOGGER.debug("Entering DBHistoricalPrices.addStockPrice(String {}, long {}, double {})", ticker, dateEpoch, adjClose);
-		Connection dbConnection;
-		int insertedRowCount;
-		try {
-			LOGGER.debug("Getting connection to {}", Constants.DB_NAME);
-			LOGGER.debug("Inserting historical stock price data for ticker {} into the database.", ticker);
-			dbConnection = pgDataSource.getConnection();
-			PreparedStatement sqlStatement = dbConnection.prepareStatement("INSERT INTO prices (ticker, adj_close, close_epoch) VALUES (?, ?, ?)");
-			sqlStatement.setString(1, ticker);
-			sqlStatement.setDouble(2, adjClose);
-			sqlStatement.setLong(3, dateEpoch);
-			LOGGER.debug("Executing INSERT INTO prices (ticker, adj_close, close_epoch) VALUES ({}, {}, {})", ticker, adjClose, dateEpoch);
-			if ((insertedRowCount = sqlStatement.executeUpdate()) != 1) {
-				LOGGER.warn("Inserted {} rows. Should have inserted 1 row.", insertedRowCount);
+	public PortfolioSummary getPortfolioSummary(String portfolioName) {
+		LOGGER.debug("Entering Portfolio.getDbPortfolioSummary()");
+		try (Connection dbConnection = DataStoreManager.getConnection()) {
+			PreparedStatement portfolioSummaryStatement = dbConnection.prepareStatement("SELECT * FROM portfolios WHERE name = ?");
+			portfolioSummaryStatement.setString(1, portfolioName);
+			LOGGER.debug("Executing SELECT * FROM portfolios WHERE name = {}", portfolioName);
+			ResultSet portfolioSummaryResultSet = portfolioSummaryStatement.executeQuery();
+			if (portfolioSummaryResultSet.next()) {
+				return new PortfolioSummary(portfolioName,
+						BigDecimal.valueOf(portfolioSummaryResultSet.getDouble("net_asset_value")),
+						BigDecimal.valueOf(portfolioSummaryResultSet.getDouble("free_cash")),
+						BigDecimal.valueOf(portfolioSummaryResultSet.getDouble("reserved_cash")),
+						BigDecimal.valueOf(portfolioSummaryResultSet.getDouble("total_cash")));
 			}
-			dbConnection.close();
+			LOGGER.warn("Portfolio {} is not in {}", portfolioName, Constants.DB_NAME);
 		} catch (SQLException sqle) {
-			LOGGER.info("Unable to get connection to {}", Constants.DB_NAME);
+			LOGGER.warn("Unable to read summary of portfolio {} from {}", portfolioName, Constants.DB_NAME);
 			LOGGER.debug("Caught (SQLException sqle)", sqle);
 		}
+		return null;
 	}
 
+	/**
+	 * Marks every position whose last tick changed since it was last marked with one UPDATE joined to the unnested
+	 * arrays of position ids, ticks and net asset values, however many positions there are. Closed positions are
+	 * written by close() and skipped here.
+	 */
 	@Override
-	private void insertOrder(Order portfolioOrder) throws SQLException {
-		LOGGER.debug("Entering Portfolio.insertDbOrder(Order {})", portfolioOrder.getOrderId());
-		Connection dbConnection = pgDataSource.getConnection();
-		String sqlString = "INSERT INTO orders (portfolio, order_id, open, ticker, epoch_expiry, underlying_ticker, strike_price, limit_price, " +
-				"action, total_quantity, sec_type, tif, epoch_opened, claim_against_cash) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-		PreparedStatement newOrderSqlStatement;
-		int insertedRowCount;
-		int updatedRowCount;
-		newOrderSqlStatement = dbConnection.prepareStatement(sqlString);
-		newOrderSqlStatement.setString(1, Constants.PORTFOLIO_NAME);
-		newOrderSqlStatement.setLong(2, portfolioOrder.getOrderId());
-		newOrderSqlStatement.setBoolean(3, portfolioOrder.isOpen());
-		newOrderSqlStatement.setString(4, portfolioOrder.getTicker());
-		newOrderSqlStatement.setLong(5, portfolioOrder.getExpiry().getMillis());
-		newOrderSqlStatement.setString(6, portfolioOrder.getUnderlyingTicker());
-		newOrderSqlStatement.setDouble(7, portfolioOrder.getStrikePrice());
-		newOrderSqlStatement.setDouble(8, portfolioOrder.getLimitPrice());
-		newOrderSqlStatement.setString(9, portfolioOrder.getAction());
-		newOrderSqlStatement.setInt(10, portfolioOrder.getTotalQuantity());
-		newOrderSqlStatement.setString(11, portfolioOrder.getSecType());
-		newOrderSqlStatement.setString(12, portfolioOrder.getTif());
-		newOrderSqlStatement.setLong(13, portfolioOrder.getEpochOpened());
-		newOrderSqlStatement.setDouble(14, portfolioOrder.getClaimAgainstCash());
-		LOGGER.debug("Executing INSERT INTO orders (portfolio, order_id, open, ticker, epoch_expiry, underlying_ticker, strike_price, limit_price, " +
-						"action, total_quantity, sec_type, tif, epoch_opened,claim_against_cash) VALUES ({}, {}, {}, {}, {}, {}, {}, {}, {}, {}, {}, {}, {}, {})",
-				Constants.PORTFOLIO_NAME, portfolioOrder.getOrderId(), portfolioOrder.isOpen(), portfolioOrder.getTicker(), portfolioOrder.getExpiry().getMillis(),
-				portfolioOrder.getUnderlyingTicker(), portfolioOrder.getStrikePrice(), portfolioOrder.getLimitPrice(), portfolioOrder.getAction(),
-				portfolioOrder.getTotalQuantity(), portfolioOrder.getSecType(), portfolioOrder.getTif(), portfolioOrder.getEpochOpened(),
-				portfolioOrder.getClaimAgainstCash());
-		if ((insertedRowCount = newOrderSqlStatement.executeUpdate()) != 1) {
-			LOGGER.warn("Inserted {} rows. Should have inserted 1 row", insertedRowCount);
-		}
-		if (!portfolioOrder.isOpen()) {
-			sqlString = "UPDATE orders SET epoch_closed = ?, close_reason = ?, fill_price = ?, open = 'false' WHERE order_id = ?";
-			newOrderSqlStatement = dbConnection.prepareStatement(sqlString);
-			newOrderSqlStatement.setLong(1, portfolioOrder.getEpochClosed());
-			newOrderSqlStatement.setString(2, portfolioOrder.getCloseReason());
-			newOrderSqlStatement.setDouble(3, portfolioOrder.getFillPrice());
-			newOrderSqlStatement.setLong(4, portfolioOrder.getOrderId());
-			LOGGER.debug("Executing UPDATE orders SET epoch_closed = {}, close_reason = {}, fill_price = {}, open = 'false' WHERE order_id = {}",
-					portfolioOrder.getEpochClosed(), portfolioOrder.getCloseReason(), portfolioOrder.getFillPrice(), portfolioOrder.getOrderId());
-			if ((updatedRowCount = newOrderSqlStatement.executeUpdate()) != 1) {
-				LOGGER.warn("Updated {} rows. Should have updated 1 row", updatedRowCount);
+	public void writeMarks(Collection<Position> positions) {
+		LOGGER.debug("Entering writeMarks(Collection<Position> of {} positions)", positions.size());
+		positions.stream()
+				.filter(position -> !position.isOpen())
+				.forEach(position -> markedTickMicros.remove(position.getPositionId()));
+		List<Long> positionIds = new ArrayList<>();
+		List<Double> lastTicks = new ArrayList<>();
+		List<Double> netAssetValues = new ArrayList<>();
+		Map<Long, Long> newTickMicros = new HashMap<>();
+		for (Position position : positions) {
+			if (!position.isOpen()) {
+				continue;
 			}
+			BigDecimal lastTick = position.getLastTick().getPrice();
+			long lastTickMicros = PriceSeries.toMicros(lastTick);
+			Long markedMicros = markedTickMicros.get(position.getPositionId());
+			if ((markedMicros != null) && (markedMicros == lastTickMicros)) {
+				continue;
+			}
+			positionIds.add(position.getPositionId());
+			lastTicks.add(lastTick.doubleValue());
+			netAssetValues.add(position.getNetAssetValue().doubleValue());
+			newTickMicros.put(position.getPositionId(), lastTickMicros);
 		}
-		dbConnection.close();
-	}
-
-	@Override
-	public void closeOrder(Order portfolioOrder) throws SQLException {
-		/* Nothing changes in an order unless it is filled (i.e. closed) */
-		LOGGER.debug("Entering Portfolio.closeDbOrder(Order {})", portfolioOrder.getOrderId());
-		Connection dbConnection = pgDataSource.getConnection();
-		if (!portfolioOrder.isOpen()) {
-			String sqlString = "UPDATE orders SET open = false, epoch_closed = ?, close_reason = ?, fill_price = ? WHERE order_id = ?";
-			PreparedStatement updateOrderSqlStatement;
-			int updatedRowCount;
-			updateOrderSqlStatement = dbConnection.prepareStatement(sqlString);
-			updateOrderSqlStatement.setLong(1, portfolioOrder.getEpochClosed());
-			updateOrderSqlStatement.setString(2, portfolioOrder.getCloseReason());
-			updateOrderSqlStatement.setDouble(3, portfolioOrder.getFillPrice());
-			updateOrderSqlStatement.setLong(4, portfolioOrder.getOrderId());
-			LOGGER.debug("Executing UPDATE orders SET open = false, epoch_closed = {}, close_reason = {}, fill_price = {} WHERE order_id = {}",
-					portfolioOrder.getEpochClosed(), portfolioOrder.getCloseReason(), portfolioOrder.getFillPrice(), portfolioOrder.getOrderId());
-			if ((updatedRowCount = updateOrderSqlStatement.executeUpdate()) != 1) {
-				LOGGER.warn("Updated {} rows. Should have updated 1 row", updatedRowCount);
+		if (positionIds.isEmpty()) {
+			LOGGER.debug("No position ticks changed");
+			return;
+		}
+		long startNanos = System.nanoTime();
+		LOGGER.debug("Getting connection to {}", Constants.DB_NAME);
+		try (Connection dbConnection = DataStoreManager.getConnection()) {
+			PreparedStatement sqlStatement = dbConnection.prepareStatement(
+					"UPDATE positions SET last_tick = marks.last_tick, net_asset_value = marks.net_asset_value " +
+							"FROM unnest(?, ?, ?) AS marks(position_id, last_tick, net_asset_value) " +
+							"WHERE positions.position_id = marks.position_id");
+			sqlStatement.setArray(1, dbConnection.createArrayOf("int8", positionIds.toArray()));
+			sqlStatement.setArray(2, dbConnection.createArrayOf("float8", lastTicks.toArray()));
+			sqlStatement.setArray(3, dbConnection.createArrayOf("float8", netAssetValues.toArray()));
+			LOGGER.debug("Executing UPDATE positions SET last_tick, net_asset_value FROM unnest() of {} positions", positionIds.size());
+			int updatedRowCount = sqlStatement.executeUpdate();
+			if (updatedRowCount != positionIds.size()) {
+				LOGGER.warn("Updated {} rows. Should have updated {} rows", updatedRowCount, positionIds.size());
 			}
+			/* Inside a transaction the marks only count once it commits */
+			DataStoreManager.afterCommit(() -> markedTickMicros.putAll(newTickMicros));
+			LOGGER.info("Marked {} of {} positions to market in {}ms", updatedRowCount, positions.size(),
+					Duration.ofNanos(System.nanoTime() - startNanos).toMillis());
+		} catch (SQLException sqle) {
+			LOGGER.warn("Unable to mark {} positions to market in {}", positionIds.size(), Constants.DB_NAME);
+			LOGGER.debug("Caught (SQLException sqle)", sqle);
 		}
-		dbConnection.close();
 	}
 
 	@Override
-	public void insertPosition(Position portfolioPosition) throws SQLException {
-		LOGGER.debug("Entering Portfolio.insertDbPosition(Position {})", portfolioPosition.getPositionId());
-		Connection dbConnection = pgDataSource.getConnection();
-		String sqlString = "INSERT INTO positions (portfolio, position_id, open, ticker, sec_type, epoch_expiry, " +
-				"underlying_ticker, strike_price, epoch_opened, long_position, number_transacted, price_at_open, " +
-				"cost_basis, last_tick, net_asset_value, claim_against_cash, originating_order_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-		PreparedStatement newPositionSqlStatement;
-		int insertedRowCount;
-		double positionPrice = portfolioPosition.getLastTick();
-		newPositionSqlStatement = dbConnection.prepareStatement(sqlString);
-		newPositionSqlStatement.setString(1, name);
-		newPositionSqlStatement.setLong(2, portfolioPosition.getPositionId());
-		newPositionSqlStatement.setBoolean(3, portfolioPosition.isOpen());
-		newPositionSqlStatement.setString(4, portfolioPosition.getTicker());
-		newPositionSqlStatement.setString(5, portfolioPosition.getSecType());
-		newPositionSqlStatement.setLong(6, portfolioPosition.getExpiry().getMillis());
-		newPositionSqlStatement.setString(7, portfolioPosition.getUnderlyingTicker());
-		newPositionSqlStatement.setDouble(8, portfolioPosition.getStrikePrice());
-		newPositionSqlStatement.setLong(9, portfolioPosition.getEpochOpened());
-		newPositionSqlStatement.setBoolean(10, portfolioPosition.isLong());
-		newPositionSqlStatement.setInt(11, portfolioPosition.getNumberTransacted());
-		newPositionSqlStatement.setDouble(12, portfolioPosition.getPriceAtOpen());
-		newPositionSqlStatement.setDouble(13, portfolioPosition.getCostBasis());
-		newPositionSqlStatement.setDouble(14, positionPrice);
-		newPositionSqlStatement.setDouble(15, portfolioPosition.calculateNetAssetValue());
-		newPositionSqlStatement.setDouble(16, portfolioPosition.getClaimAgainstCash());
-		newPositionSqlStatement.setDouble(17, portfolioPosition.getOriginatingOrderId());
-		LOGGER.debug("Executing INSERT INTO positions (portfolio, position_id, open, ticker, sec_type, epoch_expiry, underlying_ticker, strike_price, epoch_opened, " +
-						"long_position, number_transacted, price_at_open, cost_basis, last_tick, net_asset_value, claim_against_cash, originating_order_id) " +
-						"VALUES ({}, {}, {}, {}, {}, {}, {}, {}, {}, {}, {}, {}, {}, {}, {}, {}, {})",
-				name, portfolioPosition.getPositionId(), portfolioPosition.isOpen(), portfolioPosition.getTicker(), portfolioPosition.getSecType(),
-				portfolioPosition.getExpiry().getMillis(), portfolioPosition.getTicker(), portfolioPosition.getStrikePrice(), portfolioPosition.getEpochOpened(),
-				portfolioPosition.isLong(), portfolioPosition.getNumberTransacted(), portfolioPosition.getPriceAtOpen(), portfolioPosition.getCostBasis(),
-				positionPrice, portfolioPosition.calculateNetAssetValue(), portfolioPosition.getClaimAgainstCash(), portfolioPosition.getOriginatingOrderId());
-		if ((insertedRowCount = newPositionSqlStatement.executeUpdate()) != 1) {
-			LOGGER.warn("Inserted {} rows. Should have inserted 1 row", insertedRowCount);
-		}
-		dbConnection.close();
+	public HashMap<LocalDate, BigDecimal> readHistoricalPrices(String ticker, LocalDate earliestCloseDate) {
+		return readPriceSeries(ticker, earliestCloseDate).toMap();
 	}
 
+	/**
+	 * Reads closes straight into a PriceSeries without boxing a date or price per row. close_epoch is the epoch
+	 * millisecond of the close, which falls on the trading date in New York.
+	 */
 	@Override
-	public void updatePosition(Position portfolioPosition) throws SQLException {
-		LOGGER.debug("Entering Portfolio.updateDbPosition(Position {})", portfolioPosition.getPositionId());
-		Connection dbConnection = pgDataSource.getConnection();
-		String sqlString = "UPDATE positions SET last_tick = ?, net_asset_value = ? WHERE position_id = ?";
-		PreparedStatement updatePositionSqlStatement;
-		int updatedRowCount;
-		double positionPrice = portfolioPosition.getLastTick();
-		updatePositionSqlStatement = dbConnection.prepareStatement(sqlString);
-		updatePositionSqlStatement.setDouble(1, positionPrice);
-		updatePositionSqlStatement.setDouble(2, portfolioPosition.calculateNetAssetValue());
-		updatePositionSqlStatement.setLong(3, portfolioPosition.getPositionId());
-		LOGGER.debug("Executing UPDATE positions SET last_tick = {}, net_asset_value = {} WHERE position_id = {}",
-				positionPrice, portfolioPosition.calculateNetAssetValue(), portfolioPosition.getPositionId());
-		if ((updatedRowCount = updatePositionSqlStatement.executeUpdate()) != 1) {
-			LOGGER.warn("Updated {} rows. Should have updated 1 row", updatedRowCount);
-		}
-		if (!portfolioPosition.isOpen()) {
-			sqlString = "UPDATE positions SET epoch_closed = ?, price_at_close = ?, profit = ?, open = 'false' WHERE position_id = ?";
-			updatePositionSqlStatement = dbConnection.prepareStatement(sqlString);
-			updatePositionSqlStatement.setLong(1, portfolioPosition.getEpochClosed());
-			updatePositionSqlStatement.setDouble(2, portfolioPosition.getPriceAtClose());
-			updatePositionSqlStatement.setDouble(3, portfolioPosition.getProfit());
-			updatePositionSqlStatement.setLong(4, portfolioPosition.getPositionId());
-			LOGGER.debug("Executing UPDATE positions SET epoch_closed = {}, price_at_close = {}, profit = {}, open = 'false' WHERE position_id = {}",
-					portfolioPosition.getEpochClosed(), portfolioPosition.getPriceAtClose(), portfolioPosition.getProfit(), portfolioPosition.getPositionId());
-		}
-		if ((updatedRowCount = updatePositionSqlStatement.executeUpdate()) != 1) {
-			LOGGER.warn("Updated {} rows. Should have updated 1 row", updatedRowCount);
+	public PriceSeries readPriceSeries(String ticker, LocalDate earliestCloseDate) {
+		LOGGER.debug("Entering readPriceSeries(String {}, LocalDate {})", ticker, earliestCloseDate);
+		long earliestCloseEpoch = earliestCloseDate.atStartOfDay(PRICES_ZONE).toInstant().toEpochMilli();
+		PriceSeries.Builder priceSeriesBuilder = PriceSeries.builder(Constants.BOLL_BAND_PERIOD);
+		LOGGER.debug("Getting connection to {}", Constants.DB_NAME);
+		try (Connection dbConnection = DataStoreManager.getConnection()) {
+			PreparedStatement sqlStatement = dbConnection.prepareStatement(
+					"SELECT close_epoch, adj_close FROM prices WHERE ticker = ? AND close_epoch >= ? ORDER BY close_epoch");
+			sqlStatement.setString(1, ticker);
+			sqlStatement.setLong(2, earliestCloseEpoch);
+			LOGGER.debug("Executing SELECT close_epoch, adj_close FROM prices WHERE ticker = {} AND close_epoch >= {} ORDER BY close_epoch",
+					ticker, earliestCloseEpoch);
+			ResultSet historicalPriceResultSet = sqlStatement.executeQuery();
+			while (historicalPriceResultSet.next()) {
+				LocalDate closeDate = Instant.ofEpochMilli(historicalPriceResultSet.getLong("close_epoch")).atZone(PRICES_ZONE).toLocalDate();
+				priceSeriesBuilder.add(closeDate, BigDecimal.valueOf(historicalPriceResultSet.getDouble("adj_close")));
+			}
+		} catch (SQLException sqle) {
+			LOGGER.info("Unable to read historical prices for {} from {}", ticker, Constants.DB_NAME);
+			LOGGER.debug("Caught (SQLException sqle)", sqle);
 		}
-		dbConnection.close();
+		PriceSeries priceSeries = priceSeriesBuilder.build();
+		LOGGER.debug("Found {} in db", priceSeries);
+		return priceSeries;
 	}
 
+	/**
+	 * Reads closes for every ticker in one query. Rows arrive grouped by ticker, so each series is built in date order.
+	 */
 	@Override
-	public void insertSummary() throws SQLException {
-		LOGGER.debug("Entering Portfolio.insertDbSummary()");
-		Connection dbConnection = pgDataSource.getConnection();
-		String sqlString = "INSERT INTO portfolios (name, net_asset_value, free_cash, reserved_cash, total_cash) VALUES (?, ?, ?, ?, ?)";
-		PreparedStatement newSummarySqlStatement;
-		int insertedRowCount;
-		newSummarySqlStatement = dbConnection.prepareStatement(sqlString);
-		newSummarySqlStatement.setString(1, name);
-		newSummarySqlStatement.setDouble(2, netAssetValue);
-		newSummarySqlStatement.setDouble(3, freeCash);
-		newSummarySqlStatement.setDouble(4, reservedCash);
-		newSummarySqlStatement.setDouble(5, totalCash);
-		LOGGER.debug("Executing INSERT INTO portfolios (name, net_asset_value, free_cash, reserved_cash, total_cash) VALUES ({}, {}, {}, {}, {})",
-				name, netAssetValue, freeCash, reservedCash, totalCash);
-		if ((insertedRowCount = newSummarySqlStatement.executeUpdate()) != 1) {
-			LOGGER.warn("Inserted {} rows. Should have inserted 1 row", insertedRowCount);
+	public Map<String, PriceSeries> readPriceSeries(Collection<String> tickers, LocalDate earliestCloseDate) {
+		LOGGER.debug("Entering readPriceSeries(Collection<String> of {} tickers, LocalDate {})", tickers.size(), earliestCloseDate);
+		long earliestCloseEpoch = earliestCloseDate.atStartOfDay(PRICES_ZONE).toInstant().toEpochMilli();
+		Map<String, PriceSeries.Builder> buildersByTicker = new HashMap<>();
+		tickers.forEach(ticker -> buildersByTicker.put(ticker, PriceSeries.builder(Constants.BOLL_BAND_PERIOD)));
+		LOGGER.debug("Getting connection to {}", Constants.DB_NAME);
+		try (Connection dbConnection = DataStoreManager.getConnection()) {
+			PreparedStatement sqlStatement = dbConnection.prepareStatement(
+					"SELECT ticker, close_epoch, adj_close FROM prices WHERE ticker = ANY(?) AND close_epoch >= ? ORDER BY ticker, close_epoch");
+			sqlStatement.setArray(1, dbConnection.createArrayOf("varchar", tickers.toArray()));
+			sqlStatement.setLong(2, earliestCloseEpoch);
+			LOGGER.debug("Executing SELECT ticker, close_epoch, adj_close FROM prices WHERE ticker = ANY({}) AND close_epoch >= {} ORDER BY ticker, close_epoch",
+					tickers, earliestCloseEpoch);
+			ResultSet historicalPriceResultSet = sqlStatement.executeQuery();
+			while (historicalPriceResultSet.next()) {
+				LocalDate closeDate = Instant.ofEpochMilli(historicalPriceResultSet.getLong("close_epoch")).atZone(PRICES_ZONE).toLocalDate();
+				buildersByTicker.get(historicalPriceResultSet.getString("ticker"))
+						.add(closeDate, BigDecimal.valueOf(historicalPriceResultSet.getDouble("adj_close")));
+			}
+		} catch (SQLException sqle) {
+			LOGGER.info("Unable to read historical prices for {} tickers from {}", tickers.size(), Constants.DB_NAME);
+			LOGGER.debug("Caught (SQLException sqle)", sqle);
 		}
-		dbConnection.close();
+		Map<String, PriceSeries> priceSeriesByTicker = new HashMap<>();
+		buildersByTicker.forEach((ticker, builder) -> priceSeriesByTicker.put(ticker, builder.build()));
+		return priceSeriesByTicker;
 	}
 
 	@Override
-	public void updateSummary(PortfolioAccountant portfolioAccountant) throws SQLException {
-		LOGGER.debug("Entering Portfolio.updateDbSummary()");
-		Connection dbConnection = pgDataSource.getConnection();
-		String sqlString = "UPDATE portfolios SET net_asset_value = ?, free_cash = ?, reserved_cash = ?, total_cash = ? WHERE name = ?";
-		PreparedStatement updateSummarySqlStatement = dbConnection.prepareStatement(sqlString);
-		int updatedRowCount;
-		calculateNetAssetValue();
-		updateSummarySqlStatement.setDouble(1, netAssetValue);
-		updateSummarySqlStatement.setDouble(2, freeCash);
-		updateSummarySqlStatement.setDouble(3, reservedCash);
-		updateSummarySqlStatement.setDouble(4, totalCash);
-		updateSummarySqlStatement.setString(5, name);
-		LOGGER.debug("Executing UPDATE portfolios SET net_asset_value = {}, free_cash = {}, reserved_cash = {}, total_cash = {} WHERE name = {}",
-				netAssetValue, freeCash, reservedCash, totalCash, name);
-		if ((updatedRowCount = updateSummarySqlStatement.executeUpdate()) != 1) {
-			LOGGER.warn("Updated {} rows. Should have updated 1 row", updatedRowCount);
-		}
-		dbConnection.close();
+	public void writeStockPrice(String ticker, LocalDate date, BigDecimal adjClose) {
+		writeStockPrices(ticker, PriceSeries.builder(1).add(date, adjClose).build());
 	}
 
+	/**
+	 * Inserts every close as a JDBC batch in a single transaction, sent PRICE_BATCH_SIZE rows at a time. Rows already
+	 * in the table are skipped by the primary key on (ticker, close_epoch) rather than failing the batch. close_epoch
+	 * is the epoch millisecond of the 4pm New York close on each date. If any batch fails the whole write is rolled
+	 * back.
+	 */
 	@Override
-	Set<Order> getPortfolioOrders(String portfolioName) throws SQLException {
-		LOGGER.debug("Entering Portfolio.getDbPortfolioOrders()");
-		Connection dbConnection = pgDataSource.getConnection();
-		Order portfolioOrderEntry;
-		PreparedStatement orderSqlStatement = dbConnection.prepareStatement("SELECT * FROM orders WHERE portfolio = ? AND open = true");
-		orderSqlStatement.setString(1, name);
-		LOGGER.debug("Executing SELECT * FROM orders WHERE portfolio = {} AND open = true", name);
-		ResultSet openOrdersResultSet = orderSqlStatement.executeQuery();
-		while (openOrdersResultSet.next()) {
-			portfolioOrderEntry = dbToPortfolioOrder(openOrdersResultSet);
-			LOGGER.debug("Adding {} {}", portfolioOrderEntry.getOrderId(), portfolioOrderEntry.getTicker());
-			portfolioOrders.add(portfolioOrderEntry);
+	public void writeStockPrices(Map<String, PriceSeries> closesByTicker) {
+		int closeCount = closesByTicker.values().stream().mapToInt(PriceSeries::size).sum();
+		LOGGER.debug("Entering writeStockPrices(Map<String, PriceSeries> of {} tickers, {} closes)", closesByTicker.size(), closeCount);
+		if (closeCount == 0) {
+			return;
 		}
-		dbConnection.close();
-	}
-
-	@Override
-	public void dbPositionsWrite() throws SQLException {
-		LOGGER.debug("Entering Portfolio.endOfDayDbPositionsWrite()");
-		Connection dbConnection = pgDataSource.getConnection();
-		ResultSet positionResultSet;
-		PreparedStatement positionSqlStatement = dbConnection.prepareStatement("SELECT * FROM positions WHERE portfolio = ? AND position_id = ?");
-		positionSqlStatement.setString(1, name);
-		for (Position portfolioPosition : portfolioPositions) {
-			positionSqlStatement.setLong(2, portfolioPosition.getPositionId());
-			LOGGER.debug("Executing SELECT * FROM positions WHERE portfolio = {} AND position_id = {}", name, portfolioPosition.getPositionId());
-			positionResultSet = positionSqlStatement.executeQuery();
-			if (positionResultSet.next()) {
-				LOGGER.debug("positionResultSet.next() == true, position {} exists in database. Running update instead of insert", portfolioPosition.getPositionId());
-				updateDbPosition(portfolioPosition);
-			} else {
-				LOGGER.debug("positionResultSet.next() == false, inserting position {} newly into database", portfolioPosition.getPositionId());
-				insertDbPosition(portfolioPosition);
+		long startNanos = System.nanoTime();
+		LOGGER.debug("Getting connection to {}", Constants.DB_NAME);
+		try (Connection dbConnection = DataStoreManager.getConnection()) {
+			try {
+				dbConnection.setAutoCommit(false);
+				PreparedStatement sqlStatement = dbConnection.prepareStatement(
+						"INSERT INTO prices (ticker, adj_close, close_epoch) VALUES (?, ?, ?) ON CONFLICT (ticker, close_epoch) DO NOTHING");
+				int batchedRowCount = 0;
+				int insertedRowCount = 0;
+				for (Map.Entry<String, PriceSeries> tickerCloses : closesByTicker.entrySet()) {
+					PriceSeries closes = tickerCloses.getValue();
+					for (int index = 0; index < closes.size(); index++) {
+						sqlStatement.setString(1, tickerCloses.getKey());
+						sqlStatement.setDouble(2, closes.getPrice(index).doubleValue());
+						sqlStatement.setLong(3, closes.getDate(index).atTime(PRICES_CLOSE_TIME).atZone(PRICES_ZONE).toInstant().toEpochMilli());
+						sqlStatement.addBatch();
+						if (++batchedRowCount % PRICE_BATCH_SIZE == 0) {
+							insertedRowCount += insertedRows(sqlStatement.executeBatch());
+						}
+					}
+				}
+				if (batchedRowCount % PRICE_BATCH_SIZE != 0) {
+					insertedRowCount += insertedRows(sqlStatement.executeBatch());
+				}
+				dbConnection.commit();
+				LOGGER.info("Inserted {} of {} closes for {} tickers in {}ms", insertedRowCount, closeCount,
+						closesByTicker.size(), Duration.ofNanos(System.nanoTime() - startNanos).toMillis());
+			} catch (SQLException sqle) {
+				dbConnection.rollback();
+				throw sqle;
 			}
+		} catch (SQLException sqle) {
+			LOGGER.warn("Unable to write {} closes to {}", closeCount, Constants.DB_NAME);
+			LOGGER.debug("Caught (SQLException sqle)", sqle);
 		}
-		dbConnection.close();
 	}
 
-	@Override
-	void getDbPortfolioSummary() throws SQLException {
-		LOGGER.debug("Entering Portfolio.getDbPortfolioSummary()");
-		Connection dbConnection = pgDataSource.getConnection();
-		PreparedStatement portfolioSummaryStatement = dbConnection.prepareStatement("SELECT * FROM portfolios WHERE name = ?");
-		portfolioSummaryStatement.setString(1, name);
-		LOGGER.debug("Executing SELECT * FROM portfolios WHERE name = {}", name);
-		ResultSet portfolioSummaryResultSet = portfolioSummaryStatement.executeQuery();
-		if (portfolioSummaryResultSet.next()) {
-			netAssetValue = portfolioSummaryResultSet.getDouble("net_asset_value");
-			freeCash = portfolioSummaryResultSet.getDouble("free_cash");
-			reservedCash = portfolioSummaryResultSet.getDouble("reserved_cash");
-			calculateTotalCash();
+	/* Drivers may report Statement.SUCCESS_NO_INFO instead of a row count, which is counted as one row */
+	private static int insertedRows(int[] batchResults) {
+		int insertedRowCount = 0;
+		for (int batchResult : batchResults) {
+			insertedRowCount += (batchResult == Statement.SUCCESS_NO_INFO) ? 1 : Math.max(batchResult, 0);
 		}
-		dbConnection.close();
-		LOGGER.info("Returning from DB netAssetValue {} freeCash {} reservedCash {}", netAssetValue, freeCash, reservedCash);
-	}
-
-	@Override
-	public HashMap<LocalDate, BigDecimal> readHistoricalPrices(String ticker, LocalDate earliestCloseDate) {
-		return null;
-	}
-
-	@Override
-	public void writeStockPrice(String ticker, LocalDate date, BigDecimal adjClose) {
-
+		return insertedRowCount;
 	}
 
 	@Override
@@ -626,23 +627,12 @@ public class PostgresStore implements DataStore {
 
 	}
 
+	/**
+	 * Every PostgresStore call made by writes shares one pooled connection and one transaction (see
+	 * DataStoreManager.inTransaction()).
+	 */
 	@Override
-	public boolean portfolioInStore(String name) {
-		return false;
-	}
-
-	@Override
-	public PortfolioSummary getPortfolioSummary(String portfolioName) {
-		return null;
-	}
-
-	@Override
-	public Set<Order> getPortfolioOrders() {
-		return null;
-	}
-
-	@Override
-	public void close(Order orderToFill) {
-
+	public void inTransaction(Runnable writes) throws SQLException {
+		DataStoreManager.inTransaction(writes);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,223 @@
+package net.toddsarratt.gaussTrader.persistence.store;
+
+import net.toddsarratt.gaussTrader.singletons.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Brings the Postgres schema up to date from SQL migration scripts kept on the classpath under db/migration. Scripts
+ * are named V&lt;version&gt;__&lt;description&gt;.sql and applied in version order, each in its own transaction, so a
+ * script that fails leaves the schema as the previous one left it. The driver splits a script into statements itself,
+ * dollar quoted DO blocks included.
+ * <p>
+ * Applied versions are recorded in the schema_version table with a CRC32 of their script. A script edited after it
+ * was applied stops the migration rather than leaving hosts with different schemas under the same version; ship the
+ * change as a new script instead. Migrations hold a Postgres advisory lock, so two hosts starting at once apply each
+ * script only once.
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
+public class SchemaMigrator {
+	private static final Logger LOGGER = LoggerFactory.getLogger(SchemaMigrator.class);
+	static final String MIGRATION_PATH = "db/migration/";
+	/* Every script, in the order applied. Add new scripts to the end */
+	static final List<String> MIGRATIONS = List.of(
+			"V0__baseline_schema.sql",
+			"V1__partition_prices_by_year.sql"
+	);
+	private static final Pattern MIGRATION_NAME = Pattern.compile("V(\\d+)__(\\w+)\\.sql");
+	/* Arbitrary key for pg_advisory_xact_lock(), shared by every GaussTrader host */
+	private static final long MIGRATION_LOCK_KEY = 0x6761757373L;
+
+	/**
+	 * Applies every migration not yet recorded in schema_version.
+	 *
+	 * @return number of migrations applied
+	 * @throws IOException           if a script cannot be read
+	 * @throws SQLException          if a script fails, in which case it and every later script are left unapplied
+	 * @throws IllegalStateException if an applied script has since been changed
+	 */
+	public int migrate() throws IOException, SQLException {
+		LOGGER.debug("Entering migrate()");
+		List<Migration> migrations = loadMigrations();
+		createVersionTable();
+		Map<Integer, Long> appliedChecksums = readAppliedChecksums();
+		int appliedCount = 0;
+		for (Migration migration : migrations) {
+			Long appliedChecksum = appliedChecksums.remove(migration.version);
+			if (appliedChecksum == null) {
+				if (apply(migration)) {
+					appliedCount++;
+				}
+			} else {
+				migration.verify(appliedChecksum);
+			}
+		}
+		if (!appliedChecksums.isEmpty()) {
+			LOGGER.warn("{} has versions {} applied that this build does not know about", Constants.DB_NAME,
+					appliedChecksums.keySet());
+		}
+		LOGGER.info("Schema of {} is at version {} ({} migrations applied)", Constants.DB_NAME,
+				migrations.get(migrations.size() - 1).version, appliedCount);
+		return appliedCount;
+	}
+
+	private List<Migration> loadMigrations() throws IOException {
+		List<Migration> migrations = new ArrayList<>();
+		for (String scriptName : MIGRATIONS) {
+			Migration migration = Migration.of(scriptName, readScript(scriptName));
+			if (!migrations.isEmpty() && (migration.version <= migrations.get(migrations.size() - 1).version)) {
+				throw new IllegalStateException("Migration " + scriptName + " is out of version order");
+			}
+			migrations.add(migration);
+		}
+		return migrations;
+	}
+
+	private void createVersionTable() throws SQLException {
+		LOGGER.debug("Getting connection to {}", Constants.DB_NAME);
+		try (Connection dbConnection = DataStoreManager.getConnection();
+		     Statement sqlStatement = dbConnection.createStatement()) {
+			sqlStatement.execute("CREATE TABLE IF NOT EXISTS schema_version (" +
+					"version integer PRIMARY KEY, " +
+					"description character varying(200) NOT NULL, " +
+					"script character varying(200) NOT NULL, " +
+					"checksum bigint NOT NULL, " +
+					"installed_on timestamp with time zone NOT NULL DEFAULT now(), " +
+					"execution_ms bigint NOT NULL)");
+		}
+	}
+
+	private Map<Integer, Long> readAppliedChecksums() throws SQLException {
+		Map<Integer, Long> appliedChecksums = new TreeMap<>();
+		LOGGER.debug("Getting connection to {}", Constants.DB_NAME);
+		try (Connection dbConnection = DataStoreManager.getConnection();
+		     Statement sqlStatement = dbConnection.createStatement()) {
+			LOGGER.debug("Executing SELECT version, checksum FROM schema_version");
+			ResultSet versionResultSet = sqlStatement.executeQuery("SELECT version, checksum FROM schema_version");
+			while (versionResultSet.next()) {
+				appliedChecksums.put(versionResultSet.getInt("version"), versionResultSet.getLong("checksum"));
+			}
+		}
+		return appliedChecksums;
+	}
+
+	/**
+	 * Runs one migration and records it in schema_version in the same transaction, unless another host applied it
+	 * while this one waited for the lock.
+	 *
+	 * @return true if the migration was applied by this call
+	 */
+	private boolean apply(Migration migration) throws SQLException {
+		LOGGER.debug("Entering apply(Migration {})", migration.scriptName);
+		long startNanos = System.nanoTime();
+		LOGGER.debug("Getting connection to {}", Constants.DB_NAME);
+		try (Connection dbConnection = DataStoreManager.getConnection()) {
+			dbConnection.setAutoCommit(false);
+			try {
+				PreparedStatement lockStatement = dbConnection.prepareStatement("SELECT pg_advisory_xact_lock(?)");
+				lockStatement.setLong(1, MIGRATION_LOCK_KEY);
+				lockStatement.execute();
+				PreparedStatement appliedStatement = dbConnection.prepareStatement("SELECT checksum FROM schema_version WHERE version = ?");
+				appliedStatement.setInt(1, migration.version);
+				ResultSet appliedResultSet = appliedStatement.executeQuery();
+				if (appliedResultSet.next()) {
+					dbConnection.rollback();
+					migration.verify(appliedResultSet.getLong("checksum"));
+					return false;
+				}
+				LOGGER.info("Applying {} to {}", migration.scriptName, Constants.DB_NAME);
+				try (Statement sqlStatement = dbConnection.createStatement()) {
+					sqlStatement.execute(migration.script);
+				}
+				long executionMillis = Duration.ofNanos(System.nanoTime() - startNanos).toMillis();
+				PreparedStatement versionStatement = dbConnection.prepareStatement(
+						"INSERT INTO schema_version (version, description, script, checksum, execution_ms) VALUES (?, ?, ?, ?, ?)");
+				versionStatement.setInt(1, migration.version);
+				versionStatement.setString(2, migration.description);
+				versionStatement.setString(3, migration.scriptName);
+				versionStatement.setLong(4, migration.checksum);
+				versionStatement.setLong(5, executionMillis);
+				versionStatement.executeUpdate();
+				dbConnection.commit();
+				LOGGER.info("Applied {} to {} in {}ms", migration.scriptName, Constants.DB_NAME, executionMillis);
+				return true;
+			} catch (SQLException sqle) {
+				LOGGER.error("Migration {} failed, rolling back", migration.scriptName);
+				dbConnection.rollback();
+				throw sqle;
+			}
+		}
+	}
+
+	static String readScript(String scriptName) throws IOException {
+		try (InputStream scriptStream = SchemaMigrator.class.getClassLoader().getResourceAsStream(MIGRATION_PATH + scriptName)) {
+			if (scriptStream == null) {
+				throw new IOException("No migration " + MIGRATION_PATH + scriptName + " on the classpath");
+			}
+			return new String(scriptStream.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * One migration script, its version parsed from the name and its checksum.
+	 */
+	static final class Migration {
+		private final int version;
+		private final String description;
+		private final String scriptName;
+		private final String script;
+		private final long checksum;
+
+		private Migration(int version, String description, String scriptName, String script, long checksum) {
+			this.version = version;
+			this.description = description;
+			this.scriptName = scriptName;
+			this.script = script;
+			this.checksum = checksum;
+		}
+
+		static Migration of(String scriptName, String script) {
+			Matcher nameMatcher = MIGRATION_NAME.matcher(scriptName);
+			if (!nameMatcher.matches()) {
+				throw new IllegalArgumentException("Migration " + scriptName + " is not named V<version>__<description>.sql");
+			}
+			return new Migration(Integer.parseInt(nameMatcher.group(1)), nameMatcher.group(2).replace('_', ' '),
+					scriptName, script, checksum(script));
+		}
+
+		/**
+		 * CRC32 of the script with line endings normalized, so a checkout with Windows line endings matches.
+		 */
+		static long checksum(String script) {
+			CRC32 crc32 = new CRC32();
+			crc32.update(script.replace("\r\n", "\n").getBytes(StandardCharsets.UTF_8));
+			return crc32.getValue();
+		}
+
+		private void verify(long appliedChecksum) {
+			if (appliedChecksum != checksum) {
+				throw new IllegalStateException("Migration " + scriptName + " has changed since it was applied (checksum " +
+						checksum + ", applied " + appliedChecksum + ")");
+			}
+		}
+	}
+}
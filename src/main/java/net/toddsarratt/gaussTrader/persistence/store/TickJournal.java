@@ -0,0 +1,334 @@
+package net.toddsarratt.gaussTrader.persistence.store;
+
+import net.toddsarratt.gaussTrader.technicals.PriceSeries;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Append-only journal of intraday ticks in memory-mapped files, so the trading loop records every tick at memory speed
+ * and only daily closes go to the database. Each market day (New York) has its own pair of files: ticks_&lt;date&gt;.jnl
+ * holding fixed size records and ticks_&lt;date&gt;.tickers listing the ticker of each ticker id, one per line in id
+ * order. A journal file is laid out as:
+ * <pre>
+ *     header   magic, format version, number of records written (16 bytes)
+ *     records  ticker id (4 bytes), epoch nanoseconds (8 bytes), price in millionths of a dollar (8 bytes)
+ * </pre>
+ * Appending a tick writes one record into the mapping and then bumps the record count, so a reader never sees a
+ * partly written record. The mapping doubles when full, and the journal rolls over to a new pair of files on the first
+ * tick of a new market day. Reopening a day carries on after its last record.
+ * <p>
+ * Ticks are not forced to disk on append. The operating system writes the mapping back even if the process dies, so
+ * only a crash of the host itself can lose recent ticks. Call force() or close() to write them out immediately.
+ * <p>
+ * NONE journals nothing and is used when the ticks are already recorded, as when trading a ReplayMarket.
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
+public class TickJournal implements AutoCloseable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(TickJournal.class);
+	/* "GTJ1" */
+	private static final int MAGIC = 0x47544A31;
+	private static final int FORMAT_VERSION = 1;
+	private static final int HEADER_BYTES = 16;
+	private static final int RECORD_COUNT_OFFSET = 8;
+	/** Bytes in one tick record */
+	public static final int RECORD_BYTES = 20;
+	private static final long NANOS_PER_SECOND = 1_000_000_000L;
+	private static final Pattern JOURNAL_FILE_NAME = Pattern.compile("ticks_(\\d{4}-\\d{2}-\\d{2})\\.jnl");
+	private static final ZoneId MARKET_ZONE = ZoneId.of("America/New_York");
+	public static final TickJournal NONE = new TickJournal(Paths.get(""), 1) {
+		@Override
+		public void append(String ticker, long epochNanos, long priceMicros) {
+		}
+
+		@Override
+		public void force() {
+		}
+
+		@Override
+		public void close() {
+		}
+	};
+	private final Path directory;
+	private final int initialRecords;
+	private final Map<String, Integer> tickerIds = new HashMap<>();
+	private LocalDate journalDate;
+	/* Bounds of journalDate in epoch nanoseconds, so most appends skip the time zone lookup */
+	private long journalStartNanos;
+	private long journalEndNanos;
+	private FileChannel channel;
+	private MappedByteBuffer mapping;
+	private BufferedWriter tickerWriter;
+	private int recordCapacity;
+	private int recordCount;
+
+	/**
+	 * Creates a journal writing to directory. No file is opened until the first tick is appended.
+	 *
+	 * @param directory      directory holding the journal files. Created if missing
+	 * @param initialRecords records each day's file has room for before its mapping is first doubled
+	 */
+	public TickJournal(Path directory, int initialRecords) {
+		if (initialRecords < 1) {
+			throw new IllegalArgumentException("initialRecords must be at least 1");
+		}
+		this.directory = directory;
+		this.initialRecords = initialRecords;
+	}
+
+	/**
+	 * Records a tick. A tick that cannot be written is logged and dropped rather than stopping the trading loop.
+	 *
+	 * @param ticker  stock ticker
+	 * @param instant moment of the tick
+	 * @param price   price of the tick
+	 */
+	public void append(String ticker, Instant instant, BigDecimal price) {
+		append(ticker, toEpochNanos(instant), PriceSeries.toMicros(price));
+	}
+
+	private static long toEpochNanos(Instant instant) {
+		return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), NANOS_PER_SECOND), instant.getNano());
+	}
+
+	/**
+	 * Records a tick. A tick that cannot be written is logged and dropped rather than stopping the trading loop.
+	 *
+	 * @param ticker      stock ticker
+	 * @param epochNanos  moment of the tick in nanoseconds since the epoch
+	 * @param priceMicros price of the tick in millionths of a dollar
+	 */
+	public synchronized void append(String ticker, long epochNanos, long priceMicros) {
+		try {
+			if ((journalDate == null) || (epochNanos < journalStartNanos) || (epochNanos >= journalEndNanos)) {
+				roll(Instant.ofEpochSecond(0L, epochNanos).atZone(MARKET_ZONE).toLocalDate());
+			}
+			if (recordCount == recordCapacity) {
+				grow();
+			}
+			int position = HEADER_BYTES + recordCount * RECORD_BYTES;
+			mapping.putInt(position, tickerId(ticker))
+					.putLong(position + 4, epochNanos)
+					.putLong(position + 12, priceMicros);
+			recordCount++;
+			mapping.putLong(RECORD_COUNT_OFFSET, recordCount);
+		} catch (IOException ioe) {
+			LOGGER.warn("Could not journal tick for {}", ticker);
+			LOGGER.debug("Caught (IOException ioe)", ioe);
+		}
+	}
+
+	private int tickerId(String ticker) throws IOException {
+		Integer tickerId = tickerIds.get(ticker);
+		if (tickerId == null) {
+			/* The ticker is on disk before any record refers to it */
+			tickerWriter.write(ticker);
+			tickerWriter.newLine();
+			tickerWriter.flush();
+			tickerId = tickerIds.size();
+			tickerIds.put(ticker, tickerId);
+		}
+		return tickerId;
+	}
+
+	private void roll(LocalDate tickDate) throws IOException {
+		closeDay();
+		Files.createDirectories(directory);
+		Path journalPath = journalPath(tickDate);
+		Path tickersPath = tickersPath(tickDate);
+		channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		long existingBytes = channel.size();
+		recordCapacity = (int) Math.max(initialRecords, (existingBytes - HEADER_BYTES) / RECORD_BYTES);
+		mapping = map(recordCapacity);
+		if (existingBytes == 0L) {
+			mapping.putInt(0, MAGIC).putInt(4, FORMAT_VERSION).putLong(RECORD_COUNT_OFFSET, 0L);
+			recordCount = 0;
+		} else {
+			checkHeader(mapping, journalPath);
+			recordCount = Math.toIntExact(mapping.getLong(RECORD_COUNT_OFFSET));
+			tickerIds.clear();
+			for (String ticker : readTickers(tickersPath)) {
+				tickerIds.put(ticker, tickerIds.size());
+			}
+		}
+		tickerWriter = Files.newBufferedWriter(tickersPath, StandardCharsets.US_ASCII,
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		journalDate = tickDate;
+		journalStartNanos = toEpochNanos(tickDate.atStartOfDay(MARKET_ZONE).toInstant());
+		journalEndNanos = toEpochNanos(tickDate.plusDays(1).atStartOfDay(MARKET_ZONE).toInstant());
+		LOGGER.info("Journaling ticks to {} from record {}", journalPath, recordCount);
+	}
+
+	private void grow() throws IOException {
+		LOGGER.debug("Growing tick journal for {} past {} records", journalDate, recordCapacity);
+		mapping.force();
+		recordCapacity = Math.multiplyExact(recordCapacity, 2);
+		mapping = map(recordCapacity);
+	}
+
+	private MappedByteBuffer map(int records) throws IOException {
+		/* Mapping past the end of the file extends it */
+		MappedByteBuffer newMapping = channel.map(FileChannel.MapMode.READ_WRITE, 0L,
+				HEADER_BYTES + (long) records * RECORD_BYTES);
+		newMapping.order(ByteOrder.LITTLE_ENDIAN);
+		return newMapping;
+	}
+
+	/**
+	 * Writes every tick appended so far to disk.
+	 */
+	public synchronized void force() {
+		if (mapping != null) {
+			mapping.force();
+		}
+	}
+
+	/**
+	 * Forces the current day to disk and closes its files. A later append opens them again.
+	 */
+	@Override
+	public synchronized void close() {
+		try {
+			closeDay();
+		} catch (IOException ioe) {
+			LOGGER.warn("Could not close tick journal for {}", journalDate);
+			LOGGER.debug("Caught (IOException ioe)", ioe);
+		}
+	}
+
+	private void closeDay() throws IOException {
+		if (channel == null) {
+			return;
+		}
+		LOGGER.info("Closing tick journal for {} at {} records", journalDate, recordCount);
+		try {
+			if (mapping != null) {
+				mapping.force();
+			}
+			if (tickerWriter != null) {
+				tickerWriter.close();
+			}
+		} finally {
+			channel.close();
+			channel = null;
+			mapping = null;
+			tickerWriter = null;
+			journalDate = null;
+			tickerIds.clear();
+		}
+	}
+
+	/**
+	 * @return every market day with a journal in the directory, earliest first
+	 * @throws IOException if the directory cannot be listed
+	 */
+	public List<LocalDate> getJournalDates() throws IOException {
+		List<LocalDate> journalDates = new ArrayList<>();
+		if (Files.isDirectory(directory)) {
+			try (DirectoryStream<Path> journalPaths = Files.newDirectoryStream(directory, "ticks_*.jnl")) {
+				for (Path journalPath : journalPaths) {
+					Matcher nameMatcher = JOURNAL_FILE_NAME.matcher(journalPath.getFileName().toString());
+					if (nameMatcher.matches()) {
+						journalDates.add(LocalDate.parse(nameMatcher.group(1)));
+					}
+				}
+			}
+		}
+		Collections.sort(journalDates);
+		return journalDates;
+	}
+
+	/**
+	 * Passes every tick journaled on a market day to listener in the order appended. Safe to call while the day is
+	 * still being written; ticks appended after the call starts are not replayed.
+	 *
+	 * @param date     market day to replay
+	 * @param listener called once for each tick
+	 * @return number of ticks replayed, 0 if there is no journal for date
+	 * @throws IOException if the journal cannot be read or is corrupt
+	 */
+	public int replay(LocalDate date, TickListener listener) throws IOException {
+		LOGGER.debug("Entering replay(LocalDate {}, TickListener)", date);
+		Path journalPath = journalPath(date);
+		if (Files.notExists(journalPath)) {
+			return 0;
+		}
+		ByteBuffer journal;
+		try (FileChannel readChannel = FileChannel.open(journalPath, StandardOpenOption.READ)) {
+			journal = readChannel.map(FileChannel.MapMode.READ_ONLY, 0L, readChannel.size()).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		checkHeader(journal, journalPath);
+		int records = Math.toIntExact(journal.getLong(RECORD_COUNT_OFFSET));
+		String[] tickers = readTickers(tickersPath(date)).toArray(new String[0]);
+		for (int record = 0; record < records; record++) {
+			int position = HEADER_BYTES + record * RECORD_BYTES;
+			int tickerId = journal.getInt(position);
+			if (tickerId >= tickers.length) {
+				throw new IOException(journalPath + " record " + record + " has unknown ticker id " + tickerId);
+			}
+			listener.onTick(tickers[tickerId], journal.getLong(position + 4), journal.getLong(position + 12));
+		}
+		LOGGER.info("Replayed {} ticks for {} tickers from {}", records, tickers.length, journalPath);
+		return records;
+	}
+
+	private static void checkHeader(ByteBuffer journal, Path journalPath) throws IOException {
+		if ((journal.capacity() < HEADER_BYTES) || (journal.getInt(0) != MAGIC) || (journal.getInt(4) != FORMAT_VERSION)) {
+			throw new IOException(journalPath + " is not a version " + FORMAT_VERSION + " tick journal");
+		}
+		long records = journal.getLong(RECORD_COUNT_OFFSET);
+		if (HEADER_BYTES + records * RECORD_BYTES > journal.capacity()) {
+			throw new IOException(journalPath + " claims " + records + " records but is " + journal.capacity() + " bytes");
+		}
+	}
+
+	private static List<String> readTickers(Path tickersPath) throws IOException {
+		return Files.exists(tickersPath) ? Files.readAllLines(tickersPath, StandardCharsets.US_ASCII) : new ArrayList<>();
+	}
+
+	private Path journalPath(LocalDate date) {
+		return directory.resolve("ticks_" + date + ".jnl");
+	}
+
+	private Path tickersPath(LocalDate date) {
+		return directory.resolve("ticks_" + date + ".tickers");
+	}
+
+	/**
+	 * Receives ticks replayed from a journal. Prices stay in fixed point so replaying a day allocates nothing per tick.
+	 */
+	@FunctionalInterface
+	public interface TickListener {
+		/**
+		 * @param ticker      stock ticker
+		 * @param epochNanos  moment of the tick in nanoseconds since the epoch
+		 * @param priceMicros price of the tick in millionths of a dollar
+		 */
+		void onTick(String ticker, long epochNanos, long priceMicros);
+	}
+}
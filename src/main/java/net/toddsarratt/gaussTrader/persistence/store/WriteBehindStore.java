@@ -0,0 +1,445 @@
+package net.toddsarratt.gaussTrader.persistence.store;
+
+import net.toddsarratt.gaussTrader.Position;
+import net.toddsarratt.gaussTrader.domain.Stock;
+import net.toddsarratt.gaussTrader.orders.Order;
+import net.toddsarratt.gaussTrader.InstantPrice;
+import net.toddsarratt.gaussTrader.portfolio.PortfolioSummary;
+import net.toddsarratt.gaussTrader.singletons.Constants;
+import net.toddsarratt.gaussTrader.technicals.PriceSeries;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * A DataStore decorator which takes writes off the trading thread. Write calls return as soon as the write is queued;
+ * a background thread applies queued writes to the underlying store in order, up to maxBatchSize at a time, each batch
+ * in one transaction (see DataStore.inTransaction()). If a batch fails its writes are retried one at a time so one bad
+ * write does not lose the others, and a write that fails again is logged and dropped.
+ * <p>
+ * Writes of the same order, position, portfolio summary or stock metrics that are still queued are coalesced: the new
+ * write replaces the queued one in its place in the queue, so only the latest state is written. Marks to market are
+ * merged into the marks still queued, so each cycle adds at most one statement. Every other write is queued as it
+ * comes.
+ * <p>
+ * Orders and positions are snapshotted when their write is queued, on the calling thread, so the row written is the
+ * order or position as it was at the call even if a fill, mark or close changes it before the background thread gets
+ * to it.
+ * <p>
+ * The queue holds at most maxPending writes. When it is full, callers wait for the background thread to make room,
+ * which only happens if the store falls far behind. Reads wait until queued writes have been applied (flush()) and
+ * then go straight to the underlying store, so a read always sees earlier writes.
+ * <p>
+ * The background thread is a daemon, so call flush() or shutdown() before exiting or queued writes are lost.
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
+public class WriteBehindStore implements DataStore {
+	private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindStore.class);
+	private final DataStore dataStore;
+	private final int maxPending;
+	private final int maxBatchSize;
+	/* Queued writes by coalescing key, in the order they are to be written. Guarded by lock */
+	private final Map<String, Consumer<DataStore>> pendingWrites = new LinkedHashMap<>();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+	private final Condition drained = lock.newCondition();
+	/* Writes made inside inTransaction() on this thread, queued together when it returns */
+	private final ThreadLocal<List<Consumer<DataStore>>> transactionWrites = new ThreadLocal<>();
+	/* Snapshots of positions to mark by position id, while a writeMarks() is queued and not yet started. Guarded by lock */
+	private Map<Long, Position> queuedMarks;
+	private final Thread writerThread;
+	private long nextSequence = 0L;
+	private boolean writing = false;
+	private boolean stopped = false;
+	private final LongAdder writtenCount = new LongAdder();
+	private final LongAdder coalescedCount = new LongAdder();
+	private final LongAdder failedCount = new LongAdder();
+	private final LongAdder waitedCount = new LongAdder();
+
+	/**
+	 * Queues writes in front of dataStore using WRITE_BEHIND_MAX_PENDING and WRITE_BEHIND_BATCH_SIZE from the properties
+	 * file.
+	 *
+	 * @param dataStore store to write to
+	 */
+	public WriteBehindStore(DataStore dataStore) {
+		this(dataStore, Constants.WRITE_BEHIND_MAX_PENDING, Constants.WRITE_BEHIND_BATCH_SIZE);
+	}
+
+	/**
+	 * @param dataStore    store to write to
+	 * @param maxPending   most writes queued before callers wait
+	 * @param maxBatchSize most writes applied in one transaction
+	 */
+	public WriteBehindStore(DataStore dataStore, int maxPending, int maxBatchSize) {
+		if (maxPending < 1) {
+			throw new IllegalArgumentException("maxPending must be at least 1");
+		}
+		if (maxBatchSize < 1) {
+			throw new IllegalArgumentException("maxBatchSize must be at least 1");
+		}
+		this.dataStore = dataStore;
+		this.maxPending = maxPending;
+		this.maxBatchSize = maxBatchSize;
+		writerThread = new Thread(this::writeQueuedBatches, "write-behind");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	private void enqueue(String key, Consumer<DataStore> write) {
+		List<Consumer<DataStore>> writesInTransaction = transactionWrites.get();
+		if (writesInTransaction != null) {
+			writesInTransaction.add(write);
+			return;
+		}
+		lock.lock();
+		try {
+			if (stopped) {
+				throw new IllegalStateException("WriteBehindStore has been shut down");
+			}
+			if (key == null) {
+				key = "#" + nextSequence++;
+			} else if (pendingWrites.containsKey(key)) {
+				LOGGER.debug("Coalescing queued write {}", key);
+				pendingWrites.put(key, write);
+				coalescedCount.increment();
+				return;
+			}
+			if (pendingWrites.size() >= maxPending) {
+				LOGGER.warn("Write queue is full with {} writes, waiting for the data store", maxPending);
+				waitedCount.increment();
+				while (pendingWrites.size() >= maxPending) {
+					notFull.awaitUninterruptibly();
+				}
+			}
+			pendingWrites.put(key, write);
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void writeQueuedBatches() {
+		LOGGER.debug("Entering writeQueuedBatches()");
+		while (true) {
+			List<Consumer<DataStore>> batch = new ArrayList<>();
+			lock.lock();
+			try {
+				while (pendingWrites.isEmpty() && !stopped) {
+					notEmpty.awaitUninterruptibly();
+				}
+				if (pendingWrites.isEmpty()) {
+					LOGGER.info("Write-behind thread stopped after {} writes, {} coalesced, {} failed",
+							writtenCount.sum(), coalescedCount.sum(), failedCount.sum());
+					return;
+				}
+				Iterator<Consumer<DataStore>> pendingIterator = pendingWrites.values().iterator();
+				while (pendingIterator.hasNext() && (batch.size() < maxBatchSize)) {
+					batch.add(pendingIterator.next());
+					pendingIterator.remove();
+				}
+				writing = true;
+				notFull.signalAll();
+			} finally {
+				lock.unlock();
+			}
+			write(batch);
+			lock.lock();
+			try {
+				writing = false;
+				if (pendingWrites.isEmpty()) {
+					drained.signalAll();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private void write(List<Consumer<DataStore>> batch) {
+		long startNanos = System.nanoTime();
+		try {
+			dataStore.inTransaction(() -> batch.forEach(write -> write.accept(dataStore)));
+			writtenCount.add(batch.size());
+			LOGGER.debug("Wrote batch of {} in {}ms", batch.size(), Duration.ofNanos(System.nanoTime() - startNanos).toMillis());
+			return;
+		} catch (SQLException | RuntimeException e) {
+			LOGGER.warn("Batch of {} writes failed, retrying one at a time", batch.size());
+			LOGGER.debug("Caught (Exception e)", e);
+		}
+		for (Consumer<DataStore> write : batch) {
+			try {
+				dataStore.inTransaction(() -> write.accept(dataStore));
+				writtenCount.increment();
+			} catch (SQLException | RuntimeException e) {
+				failedCount.increment();
+				LOGGER.warn("Write failed again, dropping it");
+				LOGGER.debug("Caught (Exception e)", e);
+			}
+		}
+	}
+
+	/**
+	 * Blocks until every queued write, including any queued while waiting, has been applied.
+	 */
+	@Override
+	public void flush() {
+		long startNanos = System.nanoTime();
+		lock.lock();
+		try {
+			while ((!pendingWrites.isEmpty() || writing) && writerThread.isAlive()) {
+				drained.awaitUninterruptibly();
+			}
+		} finally {
+			lock.unlock();
+		}
+		LOGGER.debug("Flushed in {}ms", Duration.ofNanos(System.nanoTime() - startNanos).toMillis());
+	}
+
+	/**
+	 * Applies every queued write, then stops the background thread. Later writes throw IllegalStateException.
+	 */
+	public void shutdown() {
+		lock.lock();
+		try {
+			stopped = true;
+			notEmpty.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		try {
+			writerThread.join();
+		} catch (InterruptedException ie) {
+			LOGGER.warn("Interrupted waiting for queued writes");
+			LOGGER.debug("Caught (InterruptedException ie)", ie);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Queues the writes made by writes on this store as one unit, applied in a single transaction. Returns without
+	 * waiting for them to be written; reads made by writes see only what was written before it was called.
+	 */
+	@Override
+	public void inTransaction(Runnable writes) {
+		if (transactionWrites.get() != null) {
+			writes.run();
+			return;
+		}
+		List<Consumer<DataStore>> writesInTransaction = new ArrayList<>();
+		transactionWrites.set(writesInTransaction);
+		try {
+			writes.run();
+		} finally {
+			transactionWrites.remove();
+		}
+		if (!writesInTransaction.isEmpty()) {
+			enqueue(null, store -> writesInTransaction.forEach(write -> write.accept(store)));
+		}
+	}
+
+	public int getPendingCount() {
+		lock.lock();
+		try {
+			return pendingWrites.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getWrittenCount() {
+		return writtenCount.sum();
+	}
+
+	public long getCoalescedCount() {
+		return coalescedCount.sum();
+	}
+
+	public long getFailedCount() {
+		return failedCount.sum();
+	}
+
+	/**
+	 * @return number of writes that waited for room in a full queue
+	 */
+	public long getWaitedCount() {
+		return waitedCount.sum();
+	}
+
+	@Override
+	public void resetWatchList() {
+		enqueue(null, DataStore::resetWatchList);
+	}
+
+	@Override
+	public HashMap<LocalDate, BigDecimal> readHistoricalPrices(String ticker, LocalDate earliestCloseDate) {
+		flush();
+		return dataStore.readHistoricalPrices(ticker, earliestCloseDate);
+	}
+
+	@Override
+	public PriceSeries readPriceSeries(String ticker, LocalDate earliestCloseDate) {
+		flush();
+		return dataStore.readPriceSeries(ticker, earliestCloseDate);
+	}
+
+	@Override
+	public Map<String, PriceSeries> readPriceSeries(Collection<String> tickers, LocalDate earliestCloseDate) {
+		flush();
+		return dataStore.readPriceSeries(tickers, earliestCloseDate);
+	}
+
+	@Override
+	public void writeStockMetrics(Stock stockToUpdate) {
+		enqueue("metrics:" + stockToUpdate.getTicker(), store -> store.writeStockMetrics(stockToUpdate));
+	}
+
+	@Override
+	public void writeStockMetrics(Set<Stock> stocksToUpdate) {
+		stocksToUpdate.forEach(this::writeStockMetrics);
+	}
+
+	@Override
+	public void writeStockPrice(String ticker, LocalDate date, BigDecimal adjClose) {
+		enqueue(null, store -> store.writeStockPrice(ticker, date, adjClose));
+	}
+
+	@Override
+	public void writeStockPrices(Map<String, PriceSeries> closesByTicker) {
+		Map<String, PriceSeries> closesToWrite = new HashMap<>(closesByTicker);
+		enqueue(null, store -> store.writeStockPrices(closesToWrite));
+	}
+
+	@Override
+	public void writeStockPrice(String ticker, InstantPrice instantPrice) {
+		enqueue(null, store -> store.writeStockPrice(ticker, instantPrice));
+	}
+
+	@Override
+	public void writeStockPrice(Stock stock, InstantPrice instantPrice) {
+		enqueue(null, store -> store.writeStockPrice(stock, instantPrice));
+	}
+
+	@Override
+	public boolean tickerPriceInStore(String ticker) {
+		flush();
+		return dataStore.tickerPriceInStore(ticker);
+	}
+
+	@Override
+	public void deactivateStock(String tickerToRemove) {
+		enqueue(null, store -> store.deactivateStock(tickerToRemove));
+	}
+
+	@Override
+	public boolean portfolioInStore(String name) {
+		flush();
+		return dataStore.portfolioInStore(name);
+	}
+
+	@Override
+	public PortfolioSummary getPortfolioSummary(String portfolioName) {
+		flush();
+		return dataStore.getPortfolioSummary(portfolioName);
+	}
+
+	@Override
+	public Set<Position> getPortfolioPositions() throws SQLException {
+		flush();
+		return dataStore.getPortfolioPositions();
+	}
+
+	@Override
+	public Set<Order> getPortfolioOrders() {
+		flush();
+		return dataStore.getPortfolioOrders();
+	}
+
+	@Override
+	public void write(Order order) {
+		Order orderRow = order.snapshot();
+		enqueue("order:" + orderRow.getOrderId(), store -> store.write(orderRow));
+	}
+
+	@Override
+	public void write(Position position) {
+		Position positionRow = position.snapshot();
+		enqueue("position:" + positionRow.getPositionId(), store -> store.write(positionRow));
+	}
+
+	@Override
+	public void writeMarks(Collection<Position> positions) {
+		if (transactionWrites.get() != null) {
+			List<Position> positionsToMark = positions.stream()
+					.map(Position::snapshot)
+					.collect(Collectors.toList());
+			enqueue(null, store -> store.writeMarks(positionsToMark));
+			return;
+		}
+		lock.lock();
+		try {
+			if (queuedMarks != null) {
+				LOGGER.debug("Merging {} positions into queued marks", positions.size());
+				positions.forEach(position -> queuedMarks.put(position.getPositionId(), position.snapshot()));
+				coalescedCount.increment();
+				return;
+			}
+			Map<Long, Position> marks = new LinkedHashMap<>();
+			positions.forEach(position -> marks.put(position.getPositionId(), position.snapshot()));
+			queuedMarks = marks;
+			enqueue(null, store -> store.writeMarks(takeMarks(marks)));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/* Once a marks write starts, later marks are queued separately */
+	private List<Position> takeMarks(Map<Long, Position> marks) {
+		lock.lock();
+		try {
+			if (queuedMarks == marks) {
+				queuedMarks = null;
+			}
+			return new ArrayList<>(marks.values());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void write(PortfolioSummary summary) {
+		enqueue("summary:" + summary.getName(), store -> store.write(summary));
+	}
+
+	@Override
+	public void close(Order orderToFill) {
+		Order orderRow = orderToFill.snapshot();
+		enqueue(null, store -> store.close(orderRow));
+	}
+
+	@Override
+	public void close(Position optionPositionToExercise) {
+		Position positionRow = optionPositionToExercise.snapshot();
+		enqueue(null, store -> store.close(positionRow));
+	}
+}
@@ -0,0 +1,73 @@
+package net.toddsarratt.gaussTrader.portfolio;
+
+import net.toddsarratt.gaussTrader.Money;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Free and reserved cash of a portfolio in micros (see Money). Every method holds the account's own lock, so checking
+ * free cash and reserving it for an order is one atomic step: orders placed on different threads can never reserve
+ * more than the free cash there was, and free plus reserved cash only changes when cash enters or leaves the
+ * portfolio. Read both balances inside synchronized (cashAccount) when they must agree with each other.
+ * <p>
+ * Each change is a few additions, so the lock is held only briefly and strategy threads working on different tickers
+ * hardly contend for it.
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
+class CashAccount {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CashAccount.class);
+	private long freeCash;
+	private long reservedCash;
+
+	CashAccount(long freeCash, long reservedCash) {
+		this.freeCash = freeCash;
+		this.reservedCash = reservedCash;
+	}
+
+	/**
+	 * Adds freeCashDelta to free cash and reservedDelta to reserved cash, either of which may be negative. Amounts are
+	 * only formatted for the log when debug logging is on, so moving cash does not allocate.
+	 */
+	synchronized void move(String reason, long freeCashDelta, long reservedDelta) {
+		long newFreeCash = Money.plus(freeCash, freeCashDelta);
+		long newReservedCash = Money.plus(reservedCash, reservedDelta);
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("freeCash ${} += {} ${} == ${}, reservedCash ${} += ${} == ${}", Money.toString(freeCash), reason,
+					Money.toString(freeCashDelta), Money.toString(newFreeCash), Money.toString(reservedCash),
+					Money.toString(reservedDelta), Money.toString(newReservedCash));
+		}
+		freeCash = newFreeCash;
+		reservedCash = newReservedCash;
+	}
+
+	/**
+	 * Moves amount from free cash to reserved cash if there is that much free cash.
+	 *
+	 * @return true if the cash was reserved, false if free cash is less than amount and nothing changed
+	 */
+	synchronized boolean tryReserve(String reason, long amount) {
+		if (freeCash < amount) {
+			LOGGER.debug("freeCash ${} < {} ${}", Money.toString(freeCash), reason, Money.toString(amount));
+			return false;
+		}
+		move(reason, Math.negateExact(amount), amount);
+		return true;
+	}
+
+	synchronized long getFreeCash() {
+		return freeCash;
+	}
+
+	synchronized long getReservedCash() {
+		return reservedCash;
+	}
+
+	/**
+	 * @return free plus reserved cash
+	 */
+	synchronized long getTotalCash() {
+		return Money.plus(freeCash, reservedCash);
+	}
+}
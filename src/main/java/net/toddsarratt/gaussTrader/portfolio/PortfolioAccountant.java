@@ -2,9 +2,16 @@ package net.toddsarratt.gaussTrader.portfolio;
 
 import net.toddsarratt.gaussTrader.InstantPrice;
 import net.toddsarratt.gaussTrader.InsufficientFundsException;
+import net.toddsarratt.gaussTrader.Money;
+import net.toddsarratt.gaussTrader.Position;
 import net.toddsarratt.gaussTrader.TradingStrategy;
+import net.toddsarratt.gaussTrader.domain.Stock;
 import net.toddsarratt.gaussTrader.market.Market;
-import net.toddsarratt.gaussTrader.persistence.entity.*;
+import net.toddsarratt.gaussTrader.orders.Order;
+import net.toddsarratt.gaussTrader.persistence.entity.Portfolio;
+import net.toddsarratt.gaussTrader.persistence.store.DataStore;
+import net.toddsarratt.gaussTrader.persistence.store.PortfolioLedger;
+import net.toddsarratt.gaussTrader.securities.Security;
 import net.toddsarratt.gaussTrader.singletons.Constants;
 import net.toddsarratt.gaussTrader.singletons.SecurityType;
 import net.toddsarratt.gaussTrader.singletons.Sentiment;
@@ -12,212 +19,380 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.math.BigDecimal;
+import java.sql.SQLException;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
 
-import static net.toddsarratt.gaussTrader.singletons.BuyOrSell.BUY;
-import static net.toddsarratt.gaussTrader.singletons.BuyOrSell.SELL;
-import static net.toddsarratt.gaussTrader.singletons.Constants.BIGDECIMAL_ONE_HUNDRED;
 import static net.toddsarratt.gaussTrader.singletons.SecurityType.CALL;
+import static net.toddsarratt.gaussTrader.singletons.SecurityType.PUT;
 import static net.toddsarratt.gaussTrader.singletons.SecurityType.STOCK;
 import static net.toddsarratt.gaussTrader.singletons.Sentiment.LONG;
 import static net.toddsarratt.gaussTrader.singletons.Sentiment.SHORT;
 
+/**
+ * Keeps the cash, positions and orders of a portfolio and applies every change to them.
+ * <p>
+ * Thread safe, so the strategy can evaluate many tickers in parallel while fills and marks arrive on other threads.
+ * Each change to one underlying ticker's positions and orders holds that ticker's lock, one of UNDERLYING_LOCK_STRIPES
+ * shared by hash, so threads trading different tickers rarely wait on each other. Cash is in a CashAccount, which
+ * checks and reserves cash for a new order in one step under its own lock. The locks are always taken underlying
+ * first, then the index, aggregates, cash or ledger, and never two underlying locks at once except in
+ * lockAllUnderlyings(), which takes them in order.
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
 public class PortfolioAccountant {
 	private static final Logger LOGGER = LoggerFactory.getLogger(PortfolioAccountant.class);
+	private static final int UNDERLYING_LOCK_STRIPES = 64;
 	private Portfolio portfolio;
 	private Market market;
-
-	PortfolioAccountant(Portfolio portfolio,
-	                    Market market) {
+	/* Open positions and orders by underlying ticker, kept up to date as they open, fill, close and expire */
+	private final PositionIndex positionIndex = new PositionIndex();
+	/* Market value of open positions, overall and by underlying, moved by deltas as positions are marked, open and close */
+	private final PortfolioAggregates portfolioAggregates = new PortfolioAggregates();
+	private int cyclesSinceAggregateCheck = 0;
+	/* Cash in micros (see Money), converted to BigDecimal only for getSummary() */
+	private final CashAccount cashAccount;
+	private final ReentrantLock[] underlyingLocks = new ReentrantLock[UNDERLYING_LOCK_STRIPES];
+	/* Every change to cash, positions and orders, recorded as it is applied and committed once per operation, inside the
+	 * underlying's lock so records about one underlying are logged in the order they were applied. Each operation
+	 * discards in its finally block, which drops the events of an operation that threw and does nothing after a commit */
+	private final PortfolioLedger ledger;
+	private final DataStore dataStore;
+	private TradingStrategy tradingStrategy;
+
+	public PortfolioAccountant(Portfolio portfolio,
+	                           Market market) {
+		this(portfolio, market, DataStore.NONE, PortfolioLedger.NONE);
+	}
+
+	/**
+	 * If ledger has history the portfolio's cash, open positions and open orders are recovered from it, since it holds
+	 * every change made since the portfolio was last written. Otherwise the open positions and orders are read from
+	 * dataStore and the ledger is seeded with them and the portfolio's cash.
+	 */
+	public PortfolioAccountant(Portfolio portfolio,
+	                           Market market,
+	                           DataStore dataStore,
+	                           PortfolioLedger ledger) {
 		this.portfolio = portfolio;
 		this.market = market;
+		this.dataStore = dataStore;
+		this.ledger = ledger;
+		for (int stripe = 0; stripe < underlyingLocks.length; stripe++) {
+			underlyingLocks[stripe] = new ReentrantLock();
+		}
+		if (ledger.hasHistory()) {
+			LOGGER.info("Recovering portfolio {} from ledger", portfolio.getName());
+			this.cashAccount = new CashAccount(ledger.getRecoveredFreeCash(), ledger.getRecoveredReservedCash());
+			positionIndex.addAll(ledger.getRecoveredPositions(), ledger.getRecoveredOrders());
+		} else {
+			this.cashAccount = new CashAccount(Money.of(portfolio.getFreeCash()), Money.of(portfolio.getReservedCash()));
+			positionIndex.addAll(readOpenPositions(dataStore), dataStore.getPortfolioOrders());
+		}
+		try {
+			if (!ledger.hasHistory()) {
+				positionIndex.getOpenPositions().forEach(ledger::positionOpened);
+				positionIndex.getOpenOrders().forEach(ledger::orderPlaced);
+				ledger.cashMoved("Opening balance", cashAccount.getFreeCash(), cashAccount.getReservedCash());
+			}
+			positionIndex.getOpenPositions().forEach(this::markToMarket);
+			ledger.commit();
+		} finally {
+			ledger.discard();
+		}
+		ledger.checkpoint();
+	}
+
+	private static Set<Position> readOpenPositions(DataStore dataStore) {
+		try {
+			return dataStore.getPortfolioPositions();
+		} catch (SQLException sqle) {
+			LOGGER.error("Could not read open positions from data store", sqle);
+			throw new IllegalStateException("Open positions could not be read", sqle);
+		}
 	}
 
 	public BigDecimal calcPortfolioNav() {
-		return calculateTotalCash().add(calcOpenPositionsNav());
+		return Money.toBigDecimal(calcPortfolioNavMicros());
+	}
+
+	/**
+	 * @return cash plus market value of open positions, in micros
+	 */
+	public long calcPortfolioNavMicros() {
+		return Money.plus(calculateTotalCash(), portfolioAggregates.getOpenPositionsNav());
 	}
 
-	BigDecimal calcOpenPositionsNav() {
-		return portfolio.getPositions().stream()
-				.filter(Position::isOpen)
-				.map(this::calculatePositionNetAssetValue)
-				.reduce(BigDecimal.ZERO, BigDecimal::add);
+	long calcOpenPositionsNav() {
+		return portfolioAggregates.getOpenPositionsNav();
 	}
 
-	private BigDecimal calculatePositionNetAssetValue(Position position) {
-		Security security = position.getSecurity();
-		SecurityType securityType = security.getSecurityType();
-		Sentiment sentiment = position.getSentiment();
-		InstantPrice lastTick = market.getLastTick(security);
-		return lastTick.getPrice().multiply(new BigDecimal(position.getNumberTransacted()))
-				.multiply(securityType == STOCK ? BigDecimal.ONE : Constants.BIGDECIMAL_ONE_HUNDRED)
-				.multiply(sentiment == LONG ? BigDecimal.ONE : Constants.BIGDECIMAL_MINUS_ONE);
+	/**
+	 * @return market value of open stock and option positions in underlyingTicker, negative if net short
+	 */
+	public BigDecimal getExposure(String underlyingTicker) {
+		return Money.toBigDecimal(portfolioAggregates.getExposure(underlyingTicker));
 	}
 
+	private static long calculatePositionNetAssetValue(Position position, long lastPrice) {
+		return Money.timesQuantity(lastPrice,
+				(long) position.getNumberTransacted() * (position.isStock() ? 1 : 100) * (position.isLong() ? 1 : -1));
+	}
 
-	BigDecimal calculateTotalCash() {
-		return portfolio.getFreeCash().add(portfolio.getReservedCash());
+	/**
+	 * Takes the position's last tick from the market and moves NAV and exposure by the change in its market value.
+	 * The mark is left for the caller to commit with the rest of its operation.
+	 * A position closed on another thread since it was listed is skipped, so it is not put back into the totals. The
+	 * tick is fetched before taking the underlying's lock so a slow quote does not hold up the ticker. When the market
+	 * has no price the position keeps its previous mark rather than being valued at zero.
+	 */
+	private void markToMarket(Position position) {
+		InstantPrice lastTick = market.getLastTick(position.getSecurity());
+		if (lastTick == InstantPrice.NO_PRICE) {
+			LOGGER.warn("Could not get valid price for ticker {}", position.getTicker());
+			return;
+		}
+		ReentrantLock underlyingLock = lockFor(position.getUnderlyingTicker());
+		underlyingLock.lock();
+		try {
+			if (!position.isOpen()) {
+				return;
+			}
+			position.setLastTick(lastTick);
+			long lastPrice = Money.of(lastTick.getPrice());
+			long netAssetValue = calculatePositionNetAssetValue(position, lastPrice);
+			/* Kept on the position as well, as writeMarks() stores it beside the last tick */
+			position.setNetAssetValue(Money.toBigDecimal(netAssetValue));
+			portfolioAggregates.mark(position, netAssetValue);
+			ledger.positionMarked(position, lastPrice);
+		} finally {
+			underlyingLock.unlock();
+		}
 	}
 
-	long countUncoveredLongStockShares(Stock stock) {
+	/**
+	 * @return the lock guarding changes to positions and orders in underlyingTicker
+	 */
+	private ReentrantLock lockFor(String underlyingTicker) {
+		return underlyingLocks[Math.floorMod(underlyingTicker.hashCode(), underlyingLocks.length)];
+	}
+
+	/**
+	 * Takes every underlying lock, in order, so nothing in the portfolio changes until unlockAllUnderlyings().
+	 */
+	private void lockAllUnderlyings() {
+		for (ReentrantLock underlyingLock : underlyingLocks) {
+			underlyingLock.lock();
+		}
+	}
+
+	private void unlockAllUnderlyings() {
+		for (int stripe = underlyingLocks.length - 1; stripe >= 0; stripe--) {
+			underlyingLocks[stripe].unlock();
+		}
+	}
+
+	private void openPosition(Position position) {
+		positionIndex.add(position);
+		ledger.positionOpened(position);
+		markToMarket(position);
+	}
+
+	private void closePosition(Position position) {
+		positionIndex.remove(position);
+		portfolioAggregates.remove(position);
+		ledger.positionClosed(position);
+	}
+
+	/**
+	 * Every Constants.NAV_CHECK_CYCLES calls, recalculates the market value of each open position from its last tick
+	 * and checks the running NAV and exposures against the sums. Call once per trading cycle after marking positions.
+	 */
+	void checkAggregates() {
+		if (++cyclesSinceAggregateCheck < Constants.NAV_CHECK_CYCLES) {
+			return;
+		}
+		cyclesSinceAggregateCheck = 0;
+		/* Hold every underlying so no position is marked, opened or closed between the sums and the comparison */
+		lockAllUnderlyings();
+		try {
+			Map<Position, Long> marketValues = new IdentityHashMap<>();
+			for (Position openPosition : positionIndex.getOpenPositions()) {
+				marketValues.put(openPosition,
+						calculatePositionNetAssetValue(openPosition, Money.of(openPosition.getLastTick().getPrice())));
+			}
+			portfolioAggregates.verify(marketValues);
+		} finally {
+			unlockAllUnderlyings();
+		}
+	}
+
+	/**
+	 * @return free plus reserved cash, in micros
+	 */
+	long calculateTotalCash() {
+		return cashAccount.getTotalCash();
+	}
+
+	/**
+	 * Adds amount (micros, negative to take cash out) to free cash.
+	 */
+	private void adjustFreeCash(String reason, long amount) {
+		moveCash(reason, amount, 0L);
+	}
+
+	/**
+	 * Adds amount (micros, negative to release cash) to reserved cash.
+	 */
+	private void adjustReservedCash(String reason, long amount) {
+		moveCash(reason, 0L, amount);
+	}
+
+	/**
+	 * Moves amount (micros) from free cash to reserved cash, or back if amount is negative.
+	 */
+	private void reserveCash(String reason, long amount) {
+		moveCash(reason, Math.negateExact(amount), amount);
+	}
+
+	/**
+	 * Applies a change to free and reserved cash and records it in the ledger as one event. Cash events only add, so
+	 * the ledger may record changes from different threads in either order.
+	 */
+	private void moveCash(String reason, long freeCashDelta, long reservedDelta) {
+		cashAccount.move(reason, freeCashDelta, reservedDelta);
+		ledger.cashMoved(reason, freeCashDelta, reservedDelta);
+	}
+
+	/**
+	 * Makes every ledger event recorded so far durable, including this cycle's marks. Call once per trading cycle.
+	 */
+	void flushLedger() {
+		ledger.flush();
+	}
+
+	/**
+	 * Snapshots the portfolio in the ledger so the next start replays nothing before this point. Call at end of day.
+	 */
+	void checkpointLedger() {
+		ledger.checkpoint();
+	}
+
+	public long countUncoveredLongStockShares(Stock stock) {
 		return (countOfOpenLongStockShares(stock) - numberOfOpenCallShorts(stock));
 	}
 
 	public long countOfOpenLongStockShares(Security security) {
-		long openLongCount = portfolio.getPositions().stream()
-				.filter(p -> p.getSecurity().equals(security) &&
-						p.isOpen() &&
-						p.getSecurity().getSecurityType() == STOCK &&
-						p.getSentiment() == LONG)
-				.mapToLong(Position::getNumberTransacted)
-				.sum();
+		long openLongCount = positionIndex.countOpenPositionQuantity(security.getTicker(), STOCK, LONG);
 		LOGGER.debug("Returning openLongCount = {} from portfolio of ticker {}", openLongCount, security.getTicker());
 		return openLongCount;
 	}
 
 	public long countOfOpenShortStockShares(Security security) {
-		long openShortCount = portfolio.getPositions().stream()
-				.filter(p -> p.getSecurity().equals(security) &&
-						p.isOpen() &&
-						p.getSecurity().getSecurityType() == STOCK &&
-						p.getSentiment() == SHORT)
-				.mapToLong(Position::getNumberTransacted)
-				.sum();
+		long openShortCount = positionIndex.countOpenPositionQuantity(security.getTicker(), STOCK, SHORT);
 		LOGGER.debug("Returning openShortCount = {} from Portfolio.numberOfOpenStockShorts(Security {})", openShortCount, security.getTicker());
 		return openShortCount;
 	}
 
 	public long numberOfOpenCallLongs(Security security) {
-		long openLongCount = portfolio.getPositions().stream()
-				.filter(p -> p.getSecurity().equals(security) &&
-						p.isOpen() &&
-						p.getSecurity().getSecurityType() == CALL &&
-						p.getSentiment() == LONG)
-				.mapToLong(Position::getNumberTransacted)
-				.sum();
+		long openLongCount = positionIndex.countOpenPositionQuantity(security.getTicker(), CALL, LONG);
 		LOGGER.debug("Returning openLongCount = {} from Portfolio.numberOfOpenCallLongs(Security {})", openLongCount, security.getTicker());
 		return openLongCount;
 	}
 
+	/**
+	 * Short calls include open orders to sell calls, so the strategy does not write calls against the same shares twice
+	 */
 	public long numberOfOpenCallShorts(Security security) {
-		int openShortCount = 0;
-		// TODO : Lamda
-		for (Position portfolioPosition : positions) {
-			if ((security.getTicker().equals(portfolioPosition.getUnderlyingTicker())) &&
-					portfolioPosition.isOpen() &&
-					portfolioPosition.isShort() &&
-					portfolioPosition.isCall()) {
-				openShortCount += portfolioPosition.getNumberTransacted();
-			}
-		}
-		// TODO : Lamda
-		for (Order portfolioOrder : orders) {
-			if ((security.getTicker().equals(portfolioOrder.getUnderlyingTicker())) &&
-					portfolioOrder.isOpen() &&
-					portfolioOrder.getBuyOrSell() == SELL &&
-					portfolioOrder.isCall()) {
-				openShortCount += portfolioOrder.getTotalQuantity();
-			}
-		}
+		long openShortCount = countOpenPositionAndOrderQuantity(security, CALL, SHORT);
 		LOGGER.debug("Returning openShortCount = {} from Portfolio.numberOfOpenCallShorts(Security {})", openShortCount, security.getTicker());
 		return openShortCount;
 	}
 
 	public int numberOfOpenPutLongs(Security security) {
-		int openLongCount = 0;
-		// TODO : Lamda
-		for (Position portfolioPosition : positions) {
-			if ((security.getTicker().equals(portfolioPosition.getUnderlyingTicker())) &&
-					portfolioPosition.isOpen() &&
-					portfolioPosition.isLong() &&
-					portfolioPosition.isPut()) {
-				openLongCount += portfolioPosition.getNumberTransacted();
-			}
-		}
-		// TODO : Lamda
-		for (Order portfolioOrder : orders) {
-			if ((security.getTicker().equals(portfolioOrder.getUnderlyingTicker())) &&
-					portfolioOrder.isOpen() &&
-					portfolioOrder.getBuyOrSell() == BUY &&
-					portfolioOrder.isPut()) {
-				openLongCount += portfolioOrder.getTotalQuantity();
-			}
-		}
+		int openLongCount = Math.toIntExact(countOpenPositionAndOrderQuantity(security, PUT, LONG));
 		LOGGER.debug("Returning openLongCount = {} from Portfolio.numberOfOpenPutLongs(Security {})", openLongCount, security.getTicker());
 		return openLongCount;
 	}
 
 	public int numberOfOpenPutShorts(Security security) {
-		String securityTicker = security.getTicker();
-		int openShortCount = 0;
-		// TODO : Lamda
-		for (Position portfolioPosition : positions) {
-			if ((securityTicker.equals(portfolioPosition.getUnderlyingTicker())) &&
-					portfolioPosition.isOpen() &&
-					portfolioPosition.isShort() &&
-					portfolioPosition.isPut()) {
-				openShortCount += portfolioPosition.getNumberTransacted();
-			}
-		}
-		// TODO : Lamda
-		for (Order portfolioOrder : orders) {
-			if ((securityTicker.equals(portfolioOrder.getUnderlyingTicker())) &&
-					portfolioOrder.isOpen() &&
-					portfolioOrder.getBuyOrSell() == SELL &&
-					portfolioOrder.isPut()) {
-				openShortCount += portfolioOrder.getTotalQuantity();
-			}
-		}
+		int openShortCount = Math.toIntExact(countOpenPositionAndOrderQuantity(security, PUT, SHORT));
 		LOGGER.debug("Returning openShortCount = {} from Portfolio.numberOfOpenPutShorts(Security {})", openShortCount, security.getTicker());
 		return openShortCount;
 	}
 
+	/**
+	 * Counts under the underlying's lock, so an order part way through filling into a position is not counted twice.
+	 */
+	private long countOpenPositionAndOrderQuantity(Security security, SecurityType securityType, Sentiment sentiment) {
+		ReentrantLock underlyingLock = lockFor(security.getTicker());
+		underlyingLock.lock();
+		try {
+			return positionIndex.countOpenQuantity(security.getTicker(), securityType, sentiment);
+		} finally {
+			underlyingLock.unlock();
+		}
+	}
+
+	/**
+	 * Reserves the order's claim against cash and adds it to the portfolio. Checking and reserving free cash is one
+	 * step, so orders added on different threads at once can not together reserve more cash than is free.
+	 *
+	 * @throws InsufficientFundsException if free cash is less than the order's claim against cash
+	 */
 	public void addNewOrder(Order orderToAdd) throws InsufficientFundsException {
 		LOGGER.debug("Entering Portfolio.addNewOrder(Order {})", orderToAdd);
-		BigDecimal orderRequiredCash = orderToAdd.getClaimAgainstCash();
-		LOGGER.debug("orderRequiredCash = orderToAdd.getClaimAgainstCash() = ${}", orderRequiredCash);
-		// The suggested idiom for performing these comparisons is: (x.compareTo(y) <op> 0), where <op> is one of the six comparison operators.
-		if (freeCash.compareTo(orderRequiredCash) < 0) {
-			LOGGER.debug("freeCash {} < orderRequiredCash {}", freeCash, orderRequiredCash);
-			throw new InsufficientFundsException(orderToAdd.getSecurity().getTicker(), orderRequiredCash.doubleValue(), freeCash.doubleValue());
+		long orderRequiredCash = orderToAdd.getClaimAgainstCashMicros();
+		ReentrantLock underlyingLock = lockFor(orderToAdd.getUnderlyingTicker());
+		underlyingLock.lock();
+		try {
+			if (!cashAccount.tryReserve("orderToAdd.getClaimAgainstCash()", orderRequiredCash)) {
+				throw new InsufficientFundsException(orderToAdd.getSecurity().getTicker(), Money.toDouble(orderRequiredCash),
+						Money.toDouble(cashAccount.getFreeCash()));
+			}
+			ledger.cashMoved("orderToAdd.getClaimAgainstCash()", Math.negateExact(orderRequiredCash), orderRequiredCash);
+			positionIndex.add(orderToAdd);
+			ledger.orderPlaced(orderToAdd);
+			ledger.commit();
+		} finally {
+			ledger.discard();
+			underlyingLock.unlock();
 		}
-		LOGGER.debug("reservedCash ${} += orderRequiredCash ${} == ${}", reservedCash, orderRequiredCash, reservedCash.add(orderRequiredCash));
-		reservedCash = reservedCash.add(orderRequiredCash);
-		LOGGER.debug("freeCash ${} -= orderRequiredCash ${} == ${}", freeCash, orderRequiredCash, freeCash.subtract(orderRequiredCash));
-		freeCash = freeCash.subtract(orderRequiredCash);
-		LOGGER.info("orderRequiredCash == ${}, freeCash == ${}, reservedCash == ${}", orderRequiredCash, freeCash, reservedCash);
-		orders.add(orderToAdd);
-		LOGGER.info("Added order id {} to portfolio {}", orderToAdd.getOrderId(), name);
+		LOGGER.info("Added order id {} to portfolio {}, reserving ${}", orderToAdd.getOrderId(), portfolio.getName(), Money.toString(orderRequiredCash));
 		dataStore.write(orderToAdd);
 	}
 
 	public void addNewPosition(Position position) {
 		LOGGER.debug("Entering Portfolio.addNewPosition(Position {})", position.getPositionId());
-		positions.add(position);
-		LOGGER.debug("freeCash ${} -= position.getCostBasis() ${} == ${}", freeCash, position.getCostBasis(), freeCash.subtract(position.getCostBasis()));
-		freeCash = freeCash.subtract(position.getCostBasis());
-		LOGGER.debug("freeCash ${} -= position.getClaimAgainstCash() ${} == ${}", freeCash, position.getClaimAgainstCash(), freeCash.subtract(position.getClaimAgainstCash()));
-		freeCash = freeCash.subtract(position.getClaimAgainstCash());
-		LOGGER.debug("reservedCash ${} += position.getClaimAgainstCash() ${} == ${}", reservedCash, position.getClaimAgainstCash(), reservedCash.add(position.getClaimAgainstCash()));
-		reservedCash = reservedCash.add(position.getClaimAgainstCash());
+		ReentrantLock underlyingLock = lockFor(position.getUnderlyingTicker());
+		underlyingLock.lock();
+		try {
+			openPosition(position);
+			adjustFreeCash("-position.getCostBasis()", Math.negateExact(position.getCostBasisMicros()));
+			reserveCash("position.getClaimAgainstCash()", position.getClaimAgainstCashMicros());
+			ledger.commit();
+		} finally {
+			ledger.discard();
+			underlyingLock.unlock();
+		}
 		dataStore.write(position);
 		/** TODO : Move try catch to called method which should write to a file if dbwrite fails */
 	}
 
 	public List<Order> getListOfOpenOrders() {
 		LOGGER.debug("Entering Portfolio.getListOfOpenOrders()");
-		List<Order> openOrderList = new ArrayList<>();
-		// TODO : Lambda
-		for (Order portfolioOrder : orders) {
-			if (portfolioOrder.isOpen()) {
-				openOrderList.add(portfolioOrder);
-			}
-		}
+		List<Order> openOrderList = positionIndex.getOpenOrders();
 		LOGGER.debug("Returning {}", Arrays.toString(openOrderList.toArray()));
 		return openOrderList;
 	}
@@ -225,62 +400,55 @@ public class PortfolioAccountant {
 	@SuppressWarnings("WeakerAccess")
 	public List<Position> getListOfOpenPositions() {
 		LOGGER.debug("Entering Portfolio.getListOfOpenPositions()");
-		List<Position> openPositionList = new ArrayList<>();
-		// TODO : Lambda
-		for (Position portfolioPosition : positions) {
-			if (portfolioPosition.isOpen()) {
-				openPositionList.add(portfolioPosition);
-			}
-		}
+		List<Position> openPositionList = positionIndex.getOpenPositions();
 		LOGGER.debug("Returning {}", Arrays.toString(openPositionList.toArray()));
 		return openPositionList;
 	}
 
 	public List<Position> getListOfOpenOptionPositions() {
 		LOGGER.debug("Entering Portfolio.getListOfOpenOptionPositions()");
-		List<Position> openOptionPositionList = new ArrayList<>();
-		// TODO : Lambda
-		for (Position portfolioPosition : positions) {
-			if (portfolioPosition.isOpen() && portfolioPosition.isOption()) {
-				openOptionPositionList.add(portfolioPosition);
-			}
-		}
+		List<Position> openOptionPositionList = positionIndex.getOpenPositions().stream()
+				.filter(Position::isOption)
+				.collect(Collectors.toList());
 		LOGGER.debug("Returning {}", openOptionPositionList.toString());
 		return openOptionPositionList;
 	}
 
 	public List<Position> getListOfOpenStockPositions() {
 		LOGGER.debug("Entering Portfolio.getListOfOpenStockPositions()");
-		List<Position> openStockPositionList = new ArrayList<>();
-		// TODO : Lambda
-		for (Position portfolioPosition : positions) {
-			if (portfolioPosition.isOpen() && portfolioPosition.isStock()) {
-				openStockPositionList.add(portfolioPosition);
-			}
-		}
+		List<Position> openStockPositionList = positionIndex.getOpenPositions().stream()
+				.filter(Position::isStock)
+				.collect(Collectors.toList());
 		LOGGER.debug("Returning {}", openStockPositionList.toString());
 		return openStockPositionList;
 	}
 
 	public void fillOrder(Order orderToFill, BigDecimal fillPrice) {
 		LOGGER.debug("Entering Portfolio.fillOrder(Order {}, BigDecimal {})", orderToFill.getOrderId(), fillPrice);
-		Position positionTakenByOrder = new Position(orderToFill, fillPrice);
-		positions.add(positionTakenByOrder);
-		/* Unreserve cash to fill order */
-		LOGGER.debug("freeCash ${} += orderToFill.getClaimAgainstCash() ${} == ${}", freeCash, orderToFill.getClaimAgainstCash(), freeCash.add(orderToFill.getClaimAgainstCash()));
-		freeCash = freeCash.add(orderToFill.getClaimAgainstCash());
-		LOGGER.debug("reservedCash ${} -= orderToFill.getClaimAgainstCash() ${} == ${}", reservedCash, orderToFill.getClaimAgainstCash(), reservedCash.subtract(orderToFill.getClaimAgainstCash()));
-		reservedCash = reservedCash.subtract(orderToFill.getClaimAgainstCash());
-		/* Reserve cash if position creates liability (selling an option or shorting a stock) */
-		LOGGER.debug("freeCash ${} -= positionTakenByOrder.getClaimAgainstCash() ${} == ${}", freeCash, positionTakenByOrder.getClaimAgainstCash(), freeCash.subtract(positionTakenByOrder.getClaimAgainstCash()));
-		freeCash = freeCash.subtract(positionTakenByOrder.getClaimAgainstCash());
-		LOGGER.debug("reservedCash ${} -= positionTakenByOrder.getClaimAgainstCash() ${} == ${}", reservedCash, positionTakenByOrder.getClaimAgainstCash(), reservedCash.add(positionTakenByOrder.getClaimAgainstCash()));
-		reservedCash = reservedCash.add(positionTakenByOrder.getClaimAgainstCash());
-		/* Adjust free cash based on position cost basis */
-		LOGGER.debug("freeCash ${} -= positionTakenByOrder.getCostBasis() ${} == ${}", freeCash, positionTakenByOrder.getCostBasis(), freeCash.subtract(positionTakenByOrder.getCostBasis()));
-		freeCash = freeCash.subtract(positionTakenByOrder.getCostBasis());
-		calculateTotalCash();
-		orderToFill.fill(fillPrice);
+		Position positionTakenByOrder;
+		ReentrantLock underlyingLock = lockFor(orderToFill.getUnderlyingTicker());
+		underlyingLock.lock();
+		try {
+			if (!orderToFill.isOpen()) {
+				LOGGER.warn("Order id {} was closed before it could be filled", orderToFill.getOrderId());
+				return;
+			}
+			positionTakenByOrder = new Position(orderToFill, fillPrice);
+			openPosition(positionTakenByOrder);
+			/* Unreserve the order's cash, reserve cash if the position creates a liability (selling an option or shorting
+			 * a stock) and pay the position's cost basis in one move, so no other thread can take the unreserved cash
+			 * before the position's claim is reserved */
+			long reservedDelta = Money.minus(positionTakenByOrder.getClaimAgainstCashMicros(), orderToFill.getClaimAgainstCashMicros());
+			moveCash("orderToFill filled", Money.minus(Math.negateExact(reservedDelta), positionTakenByOrder.getCostBasisMicros()),
+					reservedDelta);
+			orderToFill.fill(fillPrice);
+			positionIndex.remove(orderToFill);
+			ledger.orderFilled(orderToFill, fillPrice);
+			ledger.commit();
+		} finally {
+			ledger.discard();
+			underlyingLock.unlock();
+		}
 		dataStore.write(positionTakenByOrder);
 		dataStore.close(orderToFill);
 	}
@@ -301,44 +469,57 @@ public class PortfolioAccountant {
 			}
 	}
 
-	void exerciseOption(Position optionPositionToExercise) {
+	public void exerciseOption(Position optionPositionToExercise) {
 		/* If short put buy the stock at the strike price
 		 * if short call find a position in the stock to sell at strike price or buy the stock and then deliver
 		 * If long put find position to put, or take the cash
 		 * If long call buy stock at strike price, or take the cash
 		 */
 		LOGGER.debug("Entering Portfolio.exerciseOption(Position {})", optionPositionToExercise.getPositionId());
-		if (optionPositionToExercise.isShort()) {
-			if (optionPositionToExercise.isPut()) {
-				exerciseShortPut(optionPositionToExercise);
-			} else {
-				exerciseShortCall(optionPositionToExercise);
+		/* Delivery changes stock positions in the same underlying, so hold its lock for the whole exercise */
+		ReentrantLock underlyingLock = lockFor(optionPositionToExercise.getUnderlyingTicker());
+		underlyingLock.lock();
+		try {
+			if (!optionPositionToExercise.isOpen()) {
+				LOGGER.warn("Position id {} was closed before it could be exercised", optionPositionToExercise.getPositionId());
+				return;
 			}
-		} else {
-			if (optionPositionToExercise.isPut()) {
-				exerciseLongPut(optionPositionToExercise);
+			if (optionPositionToExercise.isShort()) {
+				if (optionPositionToExercise.isPut()) {
+					exerciseShortPut(optionPositionToExercise);
+				} else {
+					exerciseShortCall(optionPositionToExercise);
+				}
 			} else {
-				exerciseLongCall(optionPositionToExercise);
+				if (optionPositionToExercise.isPut()) {
+					exerciseLongPut(optionPositionToExercise);
+				} else {
+					exerciseLongCall(optionPositionToExercise);
+				}
 			}
+			optionPositionToExercise.close(BigDecimal.ZERO);
+			closePosition(optionPositionToExercise);
+			adjustReservedCash("-optionPositionToExercise.getClaimAgainstCash()",
+					Math.negateExact(optionPositionToExercise.getClaimAgainstCashMicros()));
+			ledger.commit();
+		} finally {
+			ledger.discard();
+			underlyingLock.unlock();
 		}
-		optionPositionToExercise.close(BigDecimal.ZERO);
 		dataStore.close(optionPositionToExercise);
-		LOGGER.debug("reservedCash ${} -= optionPositionToExercise.getClaimAgainstCash() ${} == ${}",
-				reservedCash, optionPositionToExercise.getClaimAgainstCash(),
-				reservedCash.subtract(optionPositionToExercise.getClaimAgainstCash()));
-		reservedCash = reservedCash.subtract(optionPositionToExercise.getClaimAgainstCash());
 	}
 
 	private void exerciseShortPut(Position optionPositionToExercise) {
 		LOGGER.debug("Entering Portfolio.exerciseShortPut(Position {})", optionPositionToExercise.getPositionId());
 		Position optionToStockPosition = Position.exerciseOptionPosition(optionPositionToExercise);
-		positions.add(optionToStockPosition);
+		openPosition(optionToStockPosition);
 		dataStore.write(optionToStockPosition);
 	}
 
 	private void exerciseShortCall(Position optionPositionToExercise) {
 		LOGGER.debug("Entering Portfolio.exerciseShortCall(Position {})", optionPositionToExercise.getPositionId());
 		int contractsToHonor = optionPositionToExercise.getNumberTransacted();
+		long strikePrice = Money.of(optionPositionToExercise.getStrikePrice());
 		while (contractsToHonor > 0) {
 			Position calledAwayStockPosition = findStockPositionToDeliver(optionPositionToExercise.getUnderlyingTicker());
 			if (calledAwayStockPosition != null) {
@@ -346,57 +527,47 @@ public class PortfolioAccountant {
 					/* Exercise 100 shares / 1 contract per loop */
 					calledAwayStockPosition.setNumberTransacted(calledAwayStockPosition.getNumberTransacted() - 100);
 					contractsToHonor--;
-					LOGGER.debug("freeCash {} += optionPositionToExercise.getStrikePrice() {} * 100",
-							freeCash, optionPositionToExercise.getStrikePrice());
-					freeCash = freeCash.add(optionPositionToExercise.getStrikePrice().multiply(BIGDECIMAL_ONE_HUNDRED));
-					LOGGER.debug("freeCash == {}", freeCash);
+					adjustFreeCash("optionPositionToExercise.getStrikePrice() * 100", Money.timesQuantity(strikePrice, 100L));
 				}
 				if (calledAwayStockPosition.getNumberTransacted() == 0) {
 					calledAwayStockPosition.close(optionPositionToExercise.getStrikePrice());
+					closePosition(calledAwayStockPosition);
+				} else {
+					ledger.positionChanged(calledAwayStockPosition);
+					markToMarket(calledAwayStockPosition);
 				}
 			} else {
 				/* Buy the stock at market price and deliver it */
 				optionPositionToExercise.setNumberTransacted(contractsToHonor);
 				Position buyStockToDeliverPosition = Position.exerciseOptionPosition(optionPositionToExercise);
-				BigDecimal positionLastPrice = buyStockToDeliverPosition.getLastTick().getPrice();
-				LOGGER.debug("freeCash ${} -= buyStockToDeliverPosition.getLastTick() ${} * buyStockToDeliverPosition.getNumberTransacted() ${}",
-						freeCash, positionLastPrice, buyStockToDeliverPosition.getNumberTransacted());
-				freeCash = freeCash.subtract(positionLastPrice).multiply(new BigDecimal(buyStockToDeliverPosition.getNumberTransacted()));
-				LOGGER.debug("freeCash == ${}", freeCash);
+				long positionLastPrice = Money.of(market.getLastTick(buyStockToDeliverPosition.getSecurity()).getPrice());
+				adjustFreeCash("-buyStockToDeliverPosition.getLastTick() * buyStockToDeliverPosition.getNumberTransacted()",
+						Money.timesQuantity(positionLastPrice, -buyStockToDeliverPosition.getNumberTransacted()));
 				buyStockToDeliverPosition.close(optionPositionToExercise.getStrikePrice());
 				contractsToHonor--;
-				LOGGER.debug("freeCash ${} += optionPositionToExercise.getStrikePrice() ${} * 100.00", freeCash, optionPositionToExercise.getStrikePrice());
-				freeCash = freeCash.add(optionPositionToExercise.getStrikePrice()).multiply(BIGDECIMAL_ONE_HUNDRED);
-				LOGGER.debug("freeCash == ${}", freeCash);
+				adjustFreeCash("optionPositionToExercise.getStrikePrice() * 100", Money.timesQuantity(strikePrice, 100L));
 			}
 		}
 	}
 
 	private void exerciseLongPut(Position optionPositionToExercise) {
 		LOGGER.debug("Entering Portfolio.exerciseLongPut(Position {})", optionPositionToExercise.getPositionId());
+		long strikePrice = Money.of(optionPositionToExercise.getStrikePrice());
 		for (int contractsToHonor = 1; contractsToHonor <= optionPositionToExercise.getNumberTransacted(); contractsToHonor++) {
 			Position puttingToStockPosition = findStockPositionToDeliver(optionPositionToExercise.getUnderlyingTicker());
 			if (puttingToStockPosition != null) {
 				puttingToStockPosition.close(optionPositionToExercise.getStrikePrice());
+				closePosition(puttingToStockPosition);
 				dataStore.close(puttingToStockPosition);
-				BigDecimal newFreeCash = freeCash.add(optionPositionToExercise.getStrikePrice().multiply(
-						new BigDecimal(optionPositionToExercise.getNumberTransacted()).multiply(BIGDECIMAL_ONE_HUNDRED)));
-				LOGGER.debug("freeCash ${} += optionPositionToExercise.getStrikePrice() ${} * optionPositionToExercise.getNumberTransacted() ${} * 100.0== ${}",
-						freeCash, optionPositionToExercise.getStrikePrice(), optionPositionToExercise.getNumberTransacted(),
-						newFreeCash);
-				freeCash = newFreeCash;
+				adjustFreeCash("optionPositionToExercise.getStrikePrice() * optionPositionToExercise.getNumberTransacted() * 100",
+						Money.timesQuantity(strikePrice, optionPositionToExercise.getNumberTransacted() * 100L));
 			} else {
 				/* Buy the stock at market price and deliver it */
 				Position buyStockToDeliverPosition = Position.exerciseOptionPosition(optionPositionToExercise);
-				BigDecimal newFreeCash = freeCash.subtract(buyStockToDeliverPosition.getCostBasis());
-				LOGGER.debug("freeCash ${} -= buyStockToDeliverPosition.getCostBasis() ${} = ${}", freeCash, buyStockToDeliverPosition.getCostBasis());
-				freeCash = newFreeCash;
+				adjustFreeCash("-buyStockToDeliverPosition.getCostBasis()", Math.negateExact(buyStockToDeliverPosition.getCostBasisMicros()));
 				buyStockToDeliverPosition.close(optionPositionToExercise.getStrikePrice());
-				newFreeCash = buyStockToDeliverPosition.getPriceAtOpen().multiply(
-						new BigDecimal(buyStockToDeliverPosition.getNumberTransacted()));
-				LOGGER.debug("freeCash ${} += buyStockToDeliverPosition.getPriceAtOpen() ${} * buyStockToDeliverPosition.getNumberTransacted() ${} = ${}",
-						freeCash, buyStockToDeliverPosition.getPriceAtOpen(), buyStockToDeliverPosition.getNumberTransacted(), newFreeCash);
-				freeCash = newFreeCash;
+				adjustFreeCash("buyStockToDeliverPosition.getPriceAtOpen() * buyStockToDeliverPosition.getNumberTransacted()",
+						Money.timesQuantity(Money.of(buyStockToDeliverPosition.getPriceAtOpen()), buyStockToDeliverPosition.getNumberTransacted()));
 			}
 		}
 	}
@@ -404,29 +575,33 @@ public class PortfolioAccountant {
 	private void exerciseLongCall(Position optionPositionToExercise) {
 		LOGGER.debug("Entering exerciseLongCall(Position {})", optionPositionToExercise.getPositionId());
 		Position optionToStockPosition = Position.exerciseOptionPosition(optionPositionToExercise);
-		positions.add(optionToStockPosition);
-		BigDecimal newFreeCash = freeCash.subtract(optionToStockPosition.getCostBasis());
-		LOGGER.debug("freeCash ${} -= optionToStockPosition.getCostBasis() ${} = ${}",
-				freeCash, optionToStockPosition.getCostBasis(), newFreeCash);
-		freeCash = newFreeCash;
+		openPosition(optionToStockPosition);
+		adjustFreeCash("-optionToStockPosition.getCostBasis()", Math.negateExact(optionToStockPosition.getCostBasisMicros()));
 		dataStore.write(optionToStockPosition);
 	}
 
-	void expireOptionPosition(Position optionPositionToExercise) {
+	public void expireOptionPosition(Position optionPositionToExercise) {
 		LOGGER.debug("Entering Portfolio.expireOptionPosition(Position {})", optionPositionToExercise.getPositionId());
 		if (optionPositionToExercise.isStock()) {
 			LOGGER.warn("Attempted to expire a stock position");
 			return;
 		}
-		BigDecimal newFreeCash = freeCash.add(optionPositionToExercise.getClaimAgainstCash());
-		LOGGER.debug("freeCash ${} += optionPositionToExercise.getClaimAgainstCash() ${} = ${}",
-				freeCash, optionPositionToExercise.getClaimAgainstCash(), newFreeCash);
-		freeCash = newFreeCash;
-		BigDecimal newReservedCash = reservedCash.subtract(optionPositionToExercise.getClaimAgainstCash());
-		LOGGER.debug("reservedCash -= optionPositionToExercise.getClaimAgainstCash()",
-				reservedCash, optionPositionToExercise.getClaimAgainstCash(), newReservedCash);
-		reservedCash = newReservedCash;
-		optionPositionToExercise.close(BigDecimal.ZERO);
+		ReentrantLock underlyingLock = lockFor(optionPositionToExercise.getUnderlyingTicker());
+		underlyingLock.lock();
+		try {
+			if (!optionPositionToExercise.isOpen()) {
+				LOGGER.warn("Position id {} was closed before it could expire", optionPositionToExercise.getPositionId());
+				return;
+			}
+			reserveCash("-optionPositionToExercise.getClaimAgainstCash()",
+					Math.negateExact(optionPositionToExercise.getClaimAgainstCashMicros()));
+			optionPositionToExercise.close(BigDecimal.ZERO);
+			closePosition(optionPositionToExercise);
+			ledger.commit();
+		} finally {
+			ledger.discard();
+			underlyingLock.unlock();
+		}
 		dataStore.close(optionPositionToExercise);
 	}
 
@@ -436,14 +611,14 @@ public class PortfolioAccountant {
 	 */
 	Position findStockPositionToDeliver(String tickerToDeliver) {
 		LOGGER.debug("Entering Portfolio.findStockPositionToDeliver(String {})", tickerToDeliver);
-		BigDecimal lowestCostBasis = BigDecimal.ZERO;
+		long lowestCostBasis = 0L;
 		Position positionToDeliver = null;
-		for (Position openPosition : getListOfOpenPositions()) {
-			if (openPosition.isStock() &&
-					openPosition.getTicker().equals(tickerToDeliver) &&
-					(openPosition.getCostBasis().compareTo(lowestCostBasis) < 0) &&
-					(openPosition.getNumberTransacted() >= 100)) {
-				lowestCostBasis = openPosition.getCostBasis();
+		List<Position> openStockPositions = new ArrayList<>(positionIndex.getOpenPositions(tickerToDeliver, STOCK, LONG));
+		openStockPositions.addAll(positionIndex.getOpenPositions(tickerToDeliver, STOCK, SHORT));
+		for (Position openPosition : openStockPositions) {
+			if ((openPosition.getNumberTransacted() >= 100) &&
+					((positionToDeliver == null) || (openPosition.getCostBasisMicros() < lowestCostBasis))) {
+				lowestCostBasis = openPosition.getCostBasisMicros();
 				positionToDeliver = openPosition;
 			}
 		}
@@ -453,39 +628,62 @@ public class PortfolioAccountant {
 	void endOfDayDataStoreWrite() {
 		LOGGER.debug("Entering Portfolio.endOfDayDbWrite()");
 		dataStore.write(getSummary());
-		positions.stream().forEach(dataStore::write);
+		// Positions are inserted when opened and closed by close(), so only open positions' marks are left to write
+		dataStore.writeMarks(getListOfOpenPositions());
 	}
 
 
 	public PortfolioSummary getSummary() {
-		return new PortfolioSummary(name, netAssetValue, freeCash, reservedCash, totalCash);
+		long freeCash;
+		long reservedCash;
+		/* Read both balances in one step so they add up to the total cash reported with them */
+		synchronized (cashAccount) {
+			freeCash = cashAccount.getFreeCash();
+			reservedCash = cashAccount.getReservedCash();
+		}
+		return new PortfolioSummary(portfolio.getName(), calcPortfolioNav(), Money.toBigDecimal(freeCash), Money.toBigDecimal(reservedCash),
+				Money.toBigDecimal(Money.plus(freeCash, reservedCash)));
 	}
 
 	public void expireOrder(Order expiredOrder) {
-		LOGGER.debug("Entering Portfolio.expireOrder(Order {}) with freeCash {} and reservedCash {}",
-				expiredOrder.getOrderId(), freeCash, reservedCash);
-		freeCash = freeCash.add(expiredOrder.getClaimAgainstCash());
-		reservedCash = reservedCash.subtract(expiredOrder.getClaimAgainstCash());
-		LOGGER.debug("claimAgainstCash() ${}, freeCash ${}, reservedCash ${}", expiredOrder.getClaimAgainstCash(), freeCash, reservedCash);
-		calculateTotalCash();
-		expiredOrder.closeExpired();
+		LOGGER.debug("Entering Portfolio.expireOrder(Order {})", expiredOrder.getOrderId());
+		ReentrantLock underlyingLock = lockFor(expiredOrder.getUnderlyingTicker());
+		underlyingLock.lock();
+		try {
+			if (!expiredOrder.isOpen()) {
+				LOGGER.warn("Order id {} was closed before it could expire", expiredOrder.getOrderId());
+				return;
+			}
+			reserveCash("-expiredOrder.getClaimAgainstCash()", Math.negateExact(expiredOrder.getClaimAgainstCashMicros()));
+			expiredOrder.closeExpired();
+			positionIndex.remove(expiredOrder);
+			ledger.orderExpired(expiredOrder);
+			ledger.commit();
+		} finally {
+			ledger.discard();
+			underlyingLock.unlock();
+		}
 		dataStore.close(expiredOrder);
 	}
 
-	void updateOptionPositions() {
+	public void updateOptionPositions() {
 		// TODO : Load returning options tickers into a set and only getLastTick() once
 		LOGGER.debug("Entering Portfolio.updateOptionPositions");
-		for (Position optionPositionToUpdate : getListOfOpenOptionPositions()) {
-			optionPositionToUpdate.setLastTick(optionPositionToUpdate.getLastTick());
-				optionPositionToUpdate.calculateNetAssetValue();
+		try {
+			getListOfOpenOptionPositions().forEach(this::markToMarket);
+			ledger.commit();
+		} finally {
+			ledger.discard();
 		}
 	}
 
-	void updateStockPositions() {
+	public void updateStockPositions() {
 		LOGGER.debug("Entering Portfolio.updateStockPositions");
-		for (Position stockPositionToUpdate : getListOfOpenStockPositions()) {
-			stockPositionToUpdate.setLastTick(stock.getLastPrice());
-				stockPositionToUpdate.calculateNetAssetValue();
+		try {
+			getListOfOpenStockPositions().forEach(this::markToMarket);
+			ledger.commit();
+		} finally {
+			ledger.discard();
 		}
 	}
 
@@ -494,7 +692,7 @@ public class PortfolioAccountant {
 	}
 
 	public TradingStrategy getTradingStrategy() {
-		return null;
+		return tradingStrategy;
 	}
 
 	public void setTradingStrategy(TradingStrategy tradingStrategy) {
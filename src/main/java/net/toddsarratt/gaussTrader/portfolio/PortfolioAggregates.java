@@ -0,0 +1,150 @@
+package net.toddsarratt.gaussTrader.portfolio;
+
+import net.toddsarratt.gaussTrader.Money;
+import net.toddsarratt.gaussTrader.Position;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Running totals of the market value of a portfolio's open positions, overall and by underlying ticker, so portfolio
+ * NAV and exposure to one ticker are read in constant time. PortfolioAccountant reports each position's new market
+ * value when it opens or is marked to market and removes it when it closes; the totals move by the difference from
+ * the value last reported. Values are micros (see Money) and sums of micros are exact, so the totals stay exactly
+ * equal to a sum taken from scratch and marking a position does not allocate.
+ * <p>
+ * Thread safe. Every method holds the aggregates' own lock, which is held only for a few additions, so positions in
+ * different underlyings can be marked from different threads.
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
+class PortfolioAggregates {
+	private static final Logger LOGGER = LoggerFactory.getLogger(PortfolioAggregates.class);
+	/* Market value last reported for each open position. Positions are mutable, so keyed by identity */
+	private final Map<Position, MarketValue> marketValues = new IdentityHashMap<>();
+	private final Map<String, Exposure> exposureByUnderlying = new HashMap<>();
+	private long openPositionsNav = 0L;
+
+	/**
+	 * Records the market value of an open position, adding it to the totals if it is new.
+	 *
+	 * @param position    open position
+	 * @param marketValue last tick * shares (stock) or last tick * 100 * contracts (options) in micros, negative for
+	 *                    shorts
+	 */
+	synchronized void mark(Position position, long marketValue) {
+		MarketValue previousValue = marketValues.get(position);
+		Exposure exposure = exposureByUnderlying.computeIfAbsent(position.getUnderlyingTicker(), ticker -> new Exposure());
+		if (previousValue == null) {
+			marketValues.put(position, new MarketValue(marketValue));
+			exposure.positionCount++;
+			adjust(exposure, marketValue);
+		} else {
+			adjust(exposure, Money.minus(marketValue, previousValue.micros));
+			previousValue.micros = marketValue;
+		}
+	}
+
+	/**
+	 * Takes a closed position out of the totals.
+	 */
+	synchronized void remove(Position position) {
+		MarketValue previousValue = marketValues.remove(position);
+		if (previousValue == null) {
+			return;
+		}
+		Exposure exposure = exposureByUnderlying.get(position.getUnderlyingTicker());
+		adjust(exposure, Math.negateExact(previousValue.micros));
+		if (--exposure.positionCount == 0) {
+			exposureByUnderlying.remove(position.getUnderlyingTicker());
+		}
+	}
+
+	/**
+	 * @return market value of all open positions in micros
+	 */
+	synchronized long getOpenPositionsNav() {
+		return openPositionsNav;
+	}
+
+	/**
+	 * @return market value of open positions in underlyingTicker in micros, stock and options together
+	 */
+	synchronized long getExposure(String underlyingTicker) {
+		Exposure exposure = exposureByUnderlying.get(underlyingTicker);
+		return (exposure == null) ? 0L : exposure.marketValue;
+	}
+
+	/**
+	 * @return market value of open positions by underlying ticker, in dollars
+	 */
+	synchronized Map<String, BigDecimal> getExposures() {
+		Map<String, BigDecimal> exposures = new HashMap<>();
+		exposureByUnderlying.forEach((ticker, exposure) -> exposures.put(ticker, Money.toBigDecimal(exposure.marketValue)));
+		return exposures;
+	}
+
+	/**
+	 * Compares the running totals with totals of marketValuesFromScratch and replaces them if they differ, which only
+	 * happens if a change to a position was not reported.
+	 *
+	 * @param marketValuesFromScratch market value of every open position in micros, just calculated
+	 * @return true if the running totals matched
+	 */
+	synchronized boolean verify(Map<Position, Long> marketValuesFromScratch) {
+		PortfolioAggregates fromScratch = new PortfolioAggregates();
+		marketValuesFromScratch.forEach(fromScratch::mark);
+		if (hasSameTotals(fromScratch)) {
+			LOGGER.debug("Open positions NAV ${} matches a recalculation over {} positions",
+					Money.toString(openPositionsNav), marketValues.size());
+			return true;
+		}
+		LOGGER.error("Open positions NAV ${} and exposures {} drifted from recalculated ${} and {}. Using recalculated values",
+				Money.toString(openPositionsNav), getExposures(), Money.toString(fromScratch.openPositionsNav), fromScratch.getExposures());
+		marketValues.clear();
+		marketValues.putAll(fromScratch.marketValues);
+		exposureByUnderlying.clear();
+		exposureByUnderlying.putAll(fromScratch.exposureByUnderlying);
+		openPositionsNav = fromScratch.openPositionsNav;
+		return false;
+	}
+
+	private boolean hasSameTotals(PortfolioAggregates other) {
+		if ((openPositionsNav != other.openPositionsNav) ||
+				!marketValues.keySet().equals(other.marketValues.keySet()) ||
+				!exposureByUnderlying.keySet().equals(other.exposureByUnderlying.keySet())) {
+			return false;
+		}
+		return exposureByUnderlying.entrySet().stream()
+				.allMatch(exposure -> exposure.getValue().marketValue == other.getExposure(exposure.getKey()));
+	}
+
+	private void adjust(Exposure exposure, long delta) {
+		openPositionsNav = Money.plus(openPositionsNav, delta);
+		exposure.marketValue = Money.plus(exposure.marketValue, delta);
+	}
+
+	/**
+	 * Market value last reported for one position, updated in place when the position is marked again.
+	 */
+	private static final class MarketValue {
+		private long micros;
+
+		private MarketValue(long micros) {
+			this.micros = micros;
+		}
+	}
+
+	/**
+	 * Market value of the open positions in one underlying ticker and how many there are.
+	 */
+	private static final class Exposure {
+		private long marketValue = 0L;
+		private int positionCount = 0;
+	}
+}
@@ -1,14 +1,24 @@
 package net.toddsarratt.gaussTrader.portfolio;
 
 import net.toddsarratt.gaussTrader.ActionProcessor;
+import net.toddsarratt.gaussTrader.InstantPrice;
+import net.toddsarratt.gaussTrader.InsufficientFundsException;
+import net.toddsarratt.gaussTrader.Position;
 import net.toddsarratt.gaussTrader.TradingStrategy;
+import net.toddsarratt.gaussTrader.domain.Stock;
 import net.toddsarratt.gaussTrader.market.Market;
+import net.toddsarratt.gaussTrader.market.ReplayMarket;
+import net.toddsarratt.gaussTrader.orders.Order;
 import net.toddsarratt.gaussTrader.persistence.dao.PortfolioDao;
-import net.toddsarratt.gaussTrader.persistence.entity.InstantPrice;
-import net.toddsarratt.gaussTrader.persistence.entity.Order;
 import net.toddsarratt.gaussTrader.persistence.entity.Portfolio;
-import net.toddsarratt.gaussTrader.persistence.entity.Position;
 import net.toddsarratt.gaussTrader.persistence.store.DataStore;
+import net.toddsarratt.gaussTrader.persistence.store.EmbeddedStore;
+import net.toddsarratt.gaussTrader.persistence.store.FileLedger;
+import net.toddsarratt.gaussTrader.persistence.store.PortfolioLedger;
+import net.toddsarratt.gaussTrader.persistence.store.PostgresStore;
+import net.toddsarratt.gaussTrader.persistence.store.SchemaMigrator;
+import net.toddsarratt.gaussTrader.persistence.store.TickJournal;
+import net.toddsarratt.gaussTrader.persistence.store.WriteBehindStore;
 import net.toddsarratt.gaussTrader.singletons.Constants;
 import net.toddsarratt.gaussTrader.strategy.OptionWritesAgainstBollingerBands;
 import org.slf4j.Logger;
@@ -16,40 +26,84 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.file.Paths;
+import java.sql.SQLException;
 import java.time.DayOfWeek;
 import java.time.Duration;
 import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.Flow.Subscriber;
 import java.util.concurrent.Flow.Subscription;
+import java.util.stream.Collectors;
 
 public class PortfolioManager implements Runnable, Subscriber<Order> {
 	private static final Logger LOGGER = LoggerFactory.getLogger(PortfolioManager.class);
 
-	private Market market;
+	private final Market market;
 	private Portfolio portfolio;
-	private DataStore dataStore;
+	private final DataStore dataStore;
 	private PortfolioAccountant portfolioAccountant;
 	private ActionProcessor actionProcessor;
 	private TradingStrategy tradingStrategy;
+	private final TickJournal tickJournal;
 
-	public PortfolioManager() {
+	/**
+	 * Manages the configured portfolio against market, keeping its orders, positions and prices in dataStore. The
+	 * accountant is built from the same two, so a ReplayMarket or a scratch store given here is the one every fill and
+	 * mark goes through.
+	 */
+	public PortfolioManager(Market market, DataStore dataStore) {
+		this.market = market;
+		this.dataStore = dataStore;
 		portfolio = retrievePortfolio();
-		market = retrieveMarket();
-		dataStore = retrieveDataStore();
 		portfolioAccountant = retrievePortfolioAccountant();
+		tickJournal = retrieveTickJournal();
 		tradingStrategy = retrieveTradingStrategy();
 		actionProcessor = retireveActionProcesser();
 		actionProcessor.subscribe(this);
 		tradingStrategy.subscribe(actionProcessor);
 	}
 
-	private DataStore retrieveDataStore() {
-		return null;
+	/**
+	 * @return the configured data store, the embedded store if EMBEDDED_STORE_DIR is set and the database otherwise
+	 */
+	public static DataStore retrieveDataStore() {
+		if (!Constants.EMBEDDED_STORE_DIR.isEmpty()) {
+			return openEmbeddedStore();
+		}
+		if (Constants.DB_MIGRATE_ON_STARTUP) {
+			migrateSchema();
+		}
+		return new WriteBehindStore(new PostgresStore());
+	}
+
+	/**
+	 * Opens the embedded store in place of the database. Its writes return as soon as the operating system has them,
+	 * so it needs no WriteBehindStore in front.
+	 */
+	private static DataStore openEmbeddedStore() {
+		try {
+			return EmbeddedStore.open(Paths.get(Constants.EMBEDDED_STORE_DIR), Constants.EMBEDDED_STORE_SYNC_WRITES);
+		} catch (IOException ioe) {
+			LOGGER.error("Could not open embedded store in {}", Constants.EMBEDDED_STORE_DIR, ioe);
+			throw new IllegalStateException("Embedded store could not be opened", ioe);
+		}
 	}
 
-	private Market retrieveMarket() {
-		return null;
+	/**
+	 * Applies any schema migrations the database is missing before the first store method runs. Trading against a
+	 * schema the SQL in PostgresStore does not match would fail write by write, so a failed migration stops startup.
+	 */
+	private static void migrateSchema() {
+		try {
+			new SchemaMigrator().migrate();
+		} catch (IOException | SQLException e) {
+			LOGGER.error("Could not migrate schema of {}", Constants.DB_NAME, e);
+			throw new IllegalStateException("Schema migration failed", e);
+		}
 	}
 
 	private Portfolio retrievePortfolio() {
@@ -62,11 +116,33 @@ public class PortfolioManager implements Runnable, Subscriber<Order> {
 //		TradingStrategyDao tradingStrategyDao = new TradingStrategyDao();
 //		String tradingStrategyName = Constants.getTradingStrategyName();
 //		return tradingStrategyDao.read(tradingStrategyName);
-		return new OptionWritesAgainstBollingerBands();
+		return new OptionWritesAgainstBollingerBands(portfolioAccountant, market, tickJournal);
+	}
+
+	/**
+	 * A ReplayMarket's ticks were journaled when they were first traded, so replaying them journals nothing.
+	 */
+	private TickJournal retrieveTickJournal() {
+		if (market instanceof ReplayMarket) {
+			return TickJournal.NONE;
+		}
+		return new TickJournal(Paths.get(Constants.TICK_JOURNAL_DIR), Constants.TICK_JOURNAL_INITIAL_RECORDS);
 	}
 
 	private PortfolioAccountant retrievePortfolioAccountant() {
-		return new PortfolioAccountant(portfolio, market);
+		return new PortfolioAccountant(portfolio, market, dataStore, retrieveLedger());
+	}
+
+	private PortfolioLedger retrieveLedger() {
+		if (Constants.LEDGER_DIR.isEmpty()) {
+			return PortfolioLedger.NONE;
+		}
+		try {
+			return FileLedger.open(Paths.get(Constants.LEDGER_DIR), Constants.LEDGER_SYNC_WRITES, Constants.LEDGER_SNAPSHOT_EVENTS);
+		} catch (IOException ioe) {
+			LOGGER.error("Could not open portfolio ledger in {}", Constants.LEDGER_DIR, ioe);
+			throw new IllegalStateException("Portfolio ledger could not be opened", ioe);
+		}
 	}
 
 	private ActionProcessor retireveActionProcesser() {
@@ -96,6 +172,10 @@ public class PortfolioManager implements Runnable, Subscriber<Order> {
 		}
 		reconcileExpiringOptions();
 		persistPortfolio();
+		portfolioAccountant.checkpointLedger();
+		tickJournal.close();
+		// Wait for the day's queued writes to reach the data store
+		dataStore.flush();
 		LOGGER.info("End trading day.");
 	}
 
@@ -110,21 +190,19 @@ public class PortfolioManager implements Runnable, Subscriber<Order> {
 				durationUntilMarketOpens.toHours(),
 				durationUntilMarketOpens.toMinutes(),
 				durationUntilMarketOpens.toSeconds());
-		try {
-			Thread.sleep(durationUntilMarketOpens.toMillis());
-		} catch (InterruptedException ie) {
-			LOGGER.warn("Caught InterruptedException sleeping until market open", ie);
-		}
+		market.sleep(durationUntilMarketOpens);
 	}
 
 	private void tradeUntilMarketClose() {
 		while (market.isOpen()) {
 			// TODO: Executor needed here
-			portfolio.getTradingStrategy().run();
-			portfolio.updateOptionPositions();
-			portfolio.updateStockPositions();
-			portfolio.calculateNetAssetValue();
-			dataStore.write(portfolio.getSummary());
+			tradingStrategy.run();
+			portfolioAccountant.updateOptionPositions();
+			portfolioAccountant.updateStockPositions();
+			portfolioAccountant.checkAggregates();
+			portfolioAccountant.flushLedger();
+			dataStore.writeMarks(portfolioAccountant.getListOfOpenPositions());
+			dataStore.write(portfolioAccountant.getSummary());
 			pauseBetweenCycles();
 		}
 		checkOpenOrders();
@@ -133,31 +211,30 @@ public class PortfolioManager implements Runnable, Subscriber<Order> {
 
 	private void checkOpenOrders() {
 		LOGGER.debug("Entering checkOpenOrders()");
-		for (Order openOrder : portfolio.getListOfOpenOrders()) {
+		List<Order> openOrders = portfolioAccountant.getListOfOpenOrders();
+		Map<String, InstantPrice> lastTicks = market.lastTicks(openOrders.stream()
+				.map(openOrder -> openOrder.getSecurity().getTicker())
+				.collect(Collectors.toSet()));
+		for (Order openOrder : openOrders) {
 			LOGGER.debug("Checking current open orderId {} for ticker {}", openOrder.getOrderId(), openOrder.getSecurity().getTicker());
-			InstantPrice lastTick = market.lastTick(openOrder.getSecurity());
+			InstantPrice lastTick = lastTicks.getOrDefault(openOrder.getSecurity().getTicker(), InstantPrice.NO_PRICE);
 			LOGGER.debug("{} lastTick == {}", openOrder.getSecurity().getTicker(), lastTick);
 			if (openOrder.canBeFilled(lastTick.getPrice())) {
 				LOGGER.debug("openOrder.canBeFilled({}) returned true for ticker {}", lastTick, openOrder.getSecurity().getTicker());
-				portfolio.fillOrder(openOrder, lastTick.getPrice());
+				portfolioAccountant.fillOrder(openOrder, lastTick.getPrice());
 			}
 		}
 	}
 
 	private void pauseBetweenCycles() {
 		LOGGER.debug("Entering pauseBetweenCycles()");
-		long msUntilMarketClose = market.getClosingZonedDateTime().toEpochSecond() -
-				market.getCurrentZonedDateTime().toEpochSecond();
+		long msUntilMarketClose = Duration.between(market.getCurrentZonedDateTime(),
+				market.getClosingZonedDateTime()).toMillis();
 		LOGGER.debug("Comparing msUntilMarketClose {} with Constants.DELAY_MS {}", msUntilMarketClose, Constants.DELAY_MS);
 		long sleepTimeMs = Math.min(msUntilMarketClose, Constants.DELAY_MS);
 		if (sleepTimeMs > 0) {
-			try {
-				LOGGER.debug("Sleeping for {}ms ({}min)", sleepTimeMs, sleepTimeMs / 60_000);
-				Thread.sleep(sleepTimeMs);
-			} catch (InterruptedException ie) {
-				LOGGER.warn("Interrupted exception trying to sleep {} ms", sleepTimeMs);
-				LOGGER.debug("Caught (InterruptedException ie)", ie);
-			}
+			LOGGER.debug("Sleeping for {}ms ({}min)", sleepTimeMs, sleepTimeMs / 60_000);
+			market.sleep(Duration.ofMillis(sleepTimeMs));
 		}
 	}
 
@@ -170,13 +247,13 @@ public class PortfolioManager implements Runnable, Subscriber<Order> {
 	private void reconcileExpiringOptions() {
 		LOGGER.debug("Entering reconcileExpiringOptions()");
 		LOGGER.info("Checking for expiring options");
-		LocalDate today = LocalDate.now();
+		LocalDate today = market.getCurrentDateTime().toLocalDate();
 		LocalDate thisFriday = today.plusDays(DayOfWeek.FRIDAY.getValue() - today.getDayOfWeek().getValue());
 		int thisFridayJulian = thisFriday.getDayOfYear();
 		int thisFridayYear = thisFriday.getYear();
 		if (today.getDayOfWeek() == DayOfWeek.FRIDAY) {
 			LOGGER.debug("Today is Friday, checking portfolio for expiring options");
-			for (Position openOptionPosition : portfolio.getListOfOpenOptionPositions()) {
+			for (Position openOptionPosition : portfolioAccountant.getListOfOpenOptionPositions()) {
 				LOGGER.debug("Examining positionId {} for option ticker {}", openOptionPosition.getPositionId(), openOptionPosition.getTicker());
 				LOGGER.debug("Comparing Friday Julian {} to {} and year {} to {}",
 						openOptionPosition.getExpiry().getDayOfYear(), thisFridayJulian, openOptionPosition.getExpiry().getYear(), thisFridayYear);
@@ -184,20 +261,20 @@ public class PortfolioManager implements Runnable, Subscriber<Order> {
 						(openOptionPosition.getExpiry().getYear() == thisFridayYear)) {
 					LOGGER.debug("Option expires tomorrow, checking moneyness");
 					try {
-						InstantPrice stockLastTick = market.lastTick(openOptionPosition.getSecurity());
+						InstantPrice stockLastTick = market.getLastTick(Stock.withoutTechnicals(openOptionPosition.getUnderlyingTicker()));
 						BigDecimal stockPrice = stockLastTick.getPrice();
-						if (stockPrice.compareTo(BigDecimal.ZERO) < 0) {
+						if (stockPrice.compareTo(BigDecimal.ZERO) <= 0) {
 							/* TODO : Need logic to handle this condition */
 							throw new IOException("Foo");
 						}
 						if (openOptionPosition.isPut() &&
 								(stockPrice.compareTo(openOptionPosition.getStrikePrice()) <= 0)) {
-							portfolio.exerciseOption(openOptionPosition);
+							portfolioAccountant.exerciseOption(openOptionPosition);
 						} else if (openOptionPosition.isCall() &&
 								(stockPrice.compareTo(openOptionPosition.getStrikePrice()) >= 0)) {
-							portfolio.exerciseOption(openOptionPosition);
+							portfolioAccountant.exerciseOption(openOptionPosition);
 						} else {
-							portfolio.expireOptionPosition(openOptionPosition);
+							portfolioAccountant.expireOptionPosition(openOptionPosition);
 						}
 					} catch (IOException ioe) {
 						LOGGER.info("Caught IOException attempting to get information on open option position ticker {}", openOptionPosition.getTicker());
@@ -214,10 +291,45 @@ public class PortfolioManager implements Runnable, Subscriber<Order> {
 		/* Only call this method if the trading day has ended */
 		LOGGER.debug("Entering TradingSession.closeGoodForDayOrders()");
 		LOGGER.info("Closing GFD orders");
-		for (Order checkExpiredOrder : portfolio.getListOfOpenOrders()) {
+		for (Order checkExpiredOrder : portfolioAccountant.getListOfOpenOrders()) {
 			if (checkExpiredOrder.getTif().equals("GFD")) {
-				portfolio.expireOrder(checkExpiredOrder);
+				portfolioAccountant.expireOrder(checkExpiredOrder);
+			}
+		}
+	}
+
+	/**
+	 * Writes each watched stock's closing price to the data store and rolls it into that stock's moving averages and
+	 * Bollinger bands, so tomorrow's technicals are ready without rereading price history.
+	 * <p>
+	 * This method should NOT be called if options expiration occurs on a Friday when the market is closed.
+	 * Do not make any change to this logic assuming that it will always be run on a day when
+	 * option positions have been opened, closed, or updated
+	 */
+	private void persistClosingPrices() {
+		LOGGER.debug("Entering persistClosingPrices()");
+		LOGGER.info("Writing closing prices to DB");
+		List<Stock> watchList = portfolioAccountant.getWatchList();
+		Map<String, InstantPrice> closingPrices = market.lastTicks(watchList.stream()
+				.map(Stock::getTicker)
+				.collect(Collectors.toList()));
+		ZonedDateTime marketClose = market.getClosingZonedDateTime();
+		LocalDate tradingDate = marketClose.toLocalDate();
+		for (Stock stock : watchList) {
+			InstantPrice closingPrice = closingPrices.getOrDefault(stock.getTicker(), InstantPrice.NO_PRICE);
+			if (closingPrice == InstantPrice.NO_PRICE) {
+				LOGGER.warn("Could not get valid price for ticker {}", stock.getTicker());
+				continue;
+			}
+			/* Quotes stop at the 4pm close, before getClosingZonedDateTime(), so only a tick from an earlier day is stale */
+			LocalDate tickDate = closingPrice.getInstant().atZone(marketClose.getZone()).toLocalDate();
+			if (tickDate.isBefore(tradingDate)) {
+				LOGGER.warn("Last tick for {} at {} is from before trading date {}", stock.getTicker(),
+						closingPrice.getInstant(), tradingDate);
+				continue;
 			}
+			dataStore.writeStockPrice(stock.getTicker(), tradingDate, closingPrice.getPrice());
+			stock.addClose(closingPrice.getPrice());
 		}
 	}
 
@@ -226,26 +338,14 @@ public class PortfolioManager implements Runnable, Subscriber<Order> {
 		return market;
 	}
 
-	public void setMarket(Market market) {
-		this.market = market;
-	}
-
 	public PortfolioAccountant getPortfolio() {
-		return portfolio;
-	}
-
-	public void setPortfolio(PortfolioAccountant portfolioAccountant) {
-		this.portfolio = portfolioAccountant;
+		return portfolioAccountant;
 	}
 
 	public DataStore getDataStore() {
 		return dataStore;
 	}
 
-	public void setDataStore(DataStore dataStore) {
-		this.dataStore = dataStore;
-	}
-
 	/**
 	 * Method invoked prior to invoking any other Subscriber
 	 * methods for the given Subscription. If this method throws
@@ -271,8 +371,11 @@ public class PortfolioManager implements Runnable, Subscriber<Order> {
 	 */
 	@Override
 	public void onNext(Order order) {
-		if (orderMeetsPortfolioRules(order)) {
-			portfolio.add(order);
+		try {
+			portfolioAccountant.addNewOrder(order);
+		} catch (InsufficientFundsException ife) {
+			LOGGER.warn("Not enough free cash to place order id {}", order.getOrderId());
+			LOGGER.debug("Caught (InsufficientFundsException ife)", ife);
 		}
 	}
 
@@ -0,0 +1,224 @@
+package net.toddsarratt.gaussTrader.portfolio;
+
+import net.toddsarratt.gaussTrader.Position;
+import net.toddsarratt.gaussTrader.orders.Order;
+import net.toddsarratt.gaussTrader.singletons.SecurityType;
+import net.toddsarratt.gaussTrader.singletons.Sentiment;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static net.toddsarratt.gaussTrader.singletons.BuyOrSell.BUY;
+import static net.toddsarratt.gaussTrader.singletons.SecurityType.CALL;
+import static net.toddsarratt.gaussTrader.singletons.SecurityType.PUT;
+import static net.toddsarratt.gaussTrader.singletons.SecurityType.STOCK;
+import static net.toddsarratt.gaussTrader.singletons.Sentiment.LONG;
+import static net.toddsarratt.gaussTrader.singletons.Sentiment.SHORT;
+
+/**
+ * Open positions and open orders of a portfolio by underlying ticker, security type and sentiment, so the questions
+ * the trading strategy asks about one ticker each cycle look only at that ticker's open holdings instead of every
+ * position and order the portfolio ever held. Stock positions are filed under their own ticker, which is their
+ * underlying ticker.
+ * <p>
+ * PortfolioAccountant adds positions and orders as they open and removes them as they fill, close or expire. Anything
+ * found closed when a bucket is read is dropped from it as well, so a position closed without telling the index is
+ * never counted. Quantities are summed when asked for rather than kept as running totals, because an exercise can
+ * change the number of shares in a position that stays open.
+ * <p>
+ * Thread safe. Each underlying ticker's holdings are guarded by their own lock, so threads working on different
+ * tickers do not contend, and the whole-portfolio lists lock one ticker at a time. Compound changes that must be seen
+ * together, such as an order filling into a position, are made under PortfolioAccountant's lock for the underlying.
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
+class PositionIndex {
+	private static final int BUCKET_COUNT = SecurityType.values().length * Sentiment.values().length;
+	private final Map<String, Holdings> holdingsByTicker = new ConcurrentHashMap<>();
+
+	void addAll(Collection<Position> positions, Collection<Order> orders) {
+		positions.forEach(this::add);
+		orders.forEach(this::add);
+	}
+
+	/**
+	 * Adds position if it is open.
+	 */
+	void add(Position position) {
+		if (position.isOpen()) {
+			Holdings holdings = holdingsOf(position.getUnderlyingTicker());
+			synchronized (holdings) {
+				holdings.positions.get(bucketOf(position)).add(position);
+			}
+		}
+	}
+
+	void remove(Position position) {
+		Holdings holdings = holdingsByTicker.get(position.getUnderlyingTicker());
+		if (holdings != null) {
+			synchronized (holdings) {
+				holdings.positions.get(bucketOf(position)).remove(position);
+			}
+		}
+	}
+
+	/**
+	 * Adds order if it is open.
+	 */
+	void add(Order order) {
+		if (order.isOpen()) {
+			Holdings holdings = holdingsOf(order.getUnderlyingTicker());
+			synchronized (holdings) {
+				holdings.orders.get(bucketOf(order)).add(order);
+			}
+		}
+	}
+
+	void remove(Order order) {
+		Holdings holdings = holdingsByTicker.get(order.getUnderlyingTicker());
+		if (holdings != null) {
+			synchronized (holdings) {
+				holdings.orders.get(bucketOf(order)).remove(order);
+			}
+		}
+	}
+
+	/**
+	 * @return open positions in underlyingTicker of the given type and sentiment
+	 */
+	List<Position> getOpenPositions(String underlyingTicker, SecurityType securityType, Sentiment sentiment) {
+		Holdings holdings = holdingsByTicker.get(underlyingTicker);
+		if (holdings == null) {
+			return List.of();
+		}
+		synchronized (holdings) {
+			List<Position> positions = holdings.positions.get(bucketOf(securityType, sentiment));
+			positions.removeIf(position -> !position.isOpen());
+			return List.copyOf(positions);
+		}
+	}
+
+	/**
+	 * @return every open position, for the whole portfolio
+	 */
+	List<Position> getOpenPositions() {
+		List<Position> openPositions = new ArrayList<>();
+		for (Holdings holdings : holdingsByTicker.values()) {
+			synchronized (holdings) {
+				for (List<Position> positions : holdings.positions) {
+					positions.removeIf(position -> !position.isOpen());
+					openPositions.addAll(positions);
+				}
+			}
+		}
+		return openPositions;
+	}
+
+	/**
+	 * @return every open order, for the whole portfolio
+	 */
+	List<Order> getOpenOrders() {
+		List<Order> openOrders = new ArrayList<>();
+		for (Holdings holdings : holdingsByTicker.values()) {
+			synchronized (holdings) {
+				for (List<Order> orders : holdings.orders) {
+					orders.removeIf(order -> !order.isOpen());
+					openOrders.addAll(orders);
+				}
+			}
+		}
+		return openOrders;
+	}
+
+	/**
+	 * @return shares (stock) or contracts (options) held in open positions in underlyingTicker of the given type and
+	 * sentiment
+	 */
+	long countOpenPositionQuantity(String underlyingTicker, SecurityType securityType, Sentiment sentiment) {
+		Holdings holdings = holdingsByTicker.get(underlyingTicker);
+		if (holdings == null) {
+			return 0L;
+		}
+		synchronized (holdings) {
+			return sumOpenPositions(holdings, bucketOf(securityType, sentiment));
+		}
+	}
+
+	/**
+	 * @return shares (stock) or contracts (options) still to be filled by open orders in underlyingTicker of the given
+	 * type, buying for LONG and selling for SHORT
+	 */
+	long countOpenOrderQuantity(String underlyingTicker, SecurityType securityType, Sentiment sentiment) {
+		Holdings holdings = holdingsByTicker.get(underlyingTicker);
+		if (holdings == null) {
+			return 0L;
+		}
+		synchronized (holdings) {
+			return sumOpenOrders(holdings, bucketOf(securityType, sentiment));
+		}
+	}
+
+	/**
+	 * @return countOpenPositionQuantity() plus countOpenOrderQuantity(), summed under one lock
+	 */
+	long countOpenQuantity(String underlyingTicker, SecurityType securityType, Sentiment sentiment) {
+		Holdings holdings = holdingsByTicker.get(underlyingTicker);
+		if (holdings == null) {
+			return 0L;
+		}
+		int bucket = bucketOf(securityType, sentiment);
+		synchronized (holdings) {
+			return sumOpenPositions(holdings, bucket) + sumOpenOrders(holdings, bucket);
+		}
+	}
+
+	/* Caller holds the lock on holdings */
+	private static long sumOpenPositions(Holdings holdings, int bucket) {
+		List<Position> positions = holdings.positions.get(bucket);
+		positions.removeIf(position -> !position.isOpen());
+		return positions.stream().mapToLong(Position::getNumberTransacted).sum();
+	}
+
+	/* Caller holds the lock on holdings */
+	private static long sumOpenOrders(Holdings holdings, int bucket) {
+		List<Order> orders = holdings.orders.get(bucket);
+		orders.removeIf(order -> !order.isOpen());
+		return orders.stream().mapToLong(Order::getTotalQuantity).sum();
+	}
+
+	private Holdings holdingsOf(String underlyingTicker) {
+		return holdingsByTicker.computeIfAbsent(underlyingTicker, ticker -> new Holdings());
+	}
+
+	private static int bucketOf(Position position) {
+		return bucketOf(position.isCall() ? CALL : (position.isPut() ? PUT : STOCK), position.isLong() ? LONG : SHORT);
+	}
+
+	private static int bucketOf(Order order) {
+		return bucketOf(order.isCall() ? CALL : (order.isPut() ? PUT : STOCK), (order.getBuyOrSell() == BUY) ? LONG : SHORT);
+	}
+
+	private static int bucketOf(SecurityType securityType, Sentiment sentiment) {
+		return (securityType.ordinal() * Sentiment.values().length) + sentiment.ordinal();
+	}
+
+	/**
+	 * Open positions and orders in one underlying ticker, one list per security type and sentiment. The lists are
+	 * guarded by the Holdings' own lock.
+	 */
+	private static final class Holdings {
+		private final List<List<Position>> positions = new ArrayList<>(BUCKET_COUNT);
+		private final List<List<Order>> orders = new ArrayList<>(BUCKET_COUNT);
+
+		private Holdings() {
+			for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+				positions.add(new ArrayList<>());
+				orders.add(new ArrayList<>());
+			}
+		}
+	}
+}
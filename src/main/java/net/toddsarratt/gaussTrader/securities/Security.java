@@ -1,8 +1,9 @@
 package net.toddsarratt.gaussTrader.securities;
 
+import net.toddsarratt.gaussTrader.InstantPrice;
 import net.toddsarratt.gaussTrader.singletons.SecurityType;
 
-interface Security {
+public interface Security {
 
 	String getTicker();
 
@@ -11,4 +12,6 @@ interface Security {
 	boolean isStock();
 
 	boolean isOption();
+
+	InstantPrice getLastPrice();
 }
@@ -4,7 +4,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.FileInputStream;
+import java.io.InputStream;
 import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -26,6 +29,21 @@ public class Constants {
 	public static final Logger LOGGER = LoggerFactory.getLogger(Constants.class);
 	public static final String DEFAULT_CONFIG_FILENAME = "GaussTrader.properties";
 	public static final Properties PROPERTIES = new Properties();
+
+	/* Must run before any of the fields below read PROPERTIES. Falls back to the copy on the classpath when
+	 * DEFAULT_CONFIG_FILENAME is not in the working directory */
+	static {
+		try (InputStream defaultsIn = Files.exists(Paths.get(DEFAULT_CONFIG_FILENAME)) ?
+				new FileInputStream(DEFAULT_CONFIG_FILENAME) :
+				Constants.class.getClassLoader().getResourceAsStream(DEFAULT_CONFIG_FILENAME)) {
+			// create and load default properties
+			PROPERTIES.load(defaultsIn);
+		} catch (Exception pokemon) {
+			LOGGER.error("Problem loading properties", pokemon);
+			System.exit(1);
+		}
+	}
+
 	public static final String PORTFOLIO_NAME = PROPERTIES.getProperty("PORTFOLIO_NAME");
 	public static final String DB_IP = PROPERTIES.getProperty("DB_IP");
 	public static final String DB_NAME = PROPERTIES.getProperty("DB_NAME");
@@ -42,6 +60,61 @@ public class Constants {
 			Integer.valueOf(
 					PROPERTIES.getProperty("DELAY", "60")
 			);
+	public static final int QUOTE_CACHE_TTL_MS = Integer.valueOf(
+			PROPERTIES.getProperty("QUOTE_CACHE_TTL_MS", String.valueOf(DELAY_MS))
+	);
+	public static final int QUOTE_CACHE_MAX_SIZE = Integer.valueOf(
+			PROPERTIES.getProperty("QUOTE_CACHE_MAX_SIZE", "1000")
+	);
+	public static final int WATCHLIST_BOOTSTRAP_THREADS = Integer.valueOf(
+			PROPERTIES.getProperty("WATCHLIST_BOOTSTRAP_THREADS", "8")
+	);
+	public static final int DB_POOL_MIN_IDLE = Integer.valueOf(
+			PROPERTIES.getProperty("DB_POOL_MIN_IDLE", "2")
+	);
+	public static final int DB_POOL_MAX_SIZE = Integer.valueOf(
+			PROPERTIES.getProperty("DB_POOL_MAX_SIZE", "10")
+	);
+	public static final int DB_POOL_IDLE_TIMEOUT_MS = Integer.valueOf(
+			PROPERTIES.getProperty("DB_POOL_IDLE_TIMEOUT_MS", "600000")
+	);
+	public static final int DB_POOL_CONNECTION_TIMEOUT_MS = Integer.valueOf(
+			PROPERTIES.getProperty("DB_POOL_CONNECTION_TIMEOUT_MS", "30000")
+	);
+	public static final int DB_POOL_VALIDATION_TIMEOUT_MS = Integer.valueOf(
+			PROPERTIES.getProperty("DB_POOL_VALIDATION_TIMEOUT_MS", "5000")
+	);
+	public static final int DB_POOL_LEAK_DETECTION_MS = Integer.valueOf(
+			PROPERTIES.getProperty("DB_POOL_LEAK_DETECTION_MS", "60000")
+	);
+	public static final Boolean DB_MIGRATE_ON_STARTUP = Boolean.valueOf(
+			PROPERTIES.getProperty("DB_MIGRATE_ON_STARTUP", "true")
+	);
+	public static final int WRITE_BEHIND_MAX_PENDING = Integer.valueOf(
+			PROPERTIES.getProperty("WRITE_BEHIND_MAX_PENDING", "10000")
+	);
+	public static final int WRITE_BEHIND_BATCH_SIZE = Integer.valueOf(
+			PROPERTIES.getProperty("WRITE_BEHIND_BATCH_SIZE", "500")
+	);
+	public static final String PRICE_CACHE_DIR = PROPERTIES.getProperty("PRICE_CACHE_DIR", "");
+	public static final String TICK_JOURNAL_DIR = PROPERTIES.getProperty("TICK_JOURNAL_DIR", "tickJournal");
+	public static final int TICK_JOURNAL_INITIAL_RECORDS = Integer.valueOf(
+			PROPERTIES.getProperty("TICK_JOURNAL_INITIAL_RECORDS", "1000000")
+	);
+	public static final String EMBEDDED_STORE_DIR = PROPERTIES.getProperty("EMBEDDED_STORE_DIR", "");
+	public static final Boolean EMBEDDED_STORE_SYNC_WRITES = Boolean.valueOf(
+			PROPERTIES.getProperty("EMBEDDED_STORE_SYNC_WRITES", "false")
+	);
+	public static final String LEDGER_DIR = PROPERTIES.getProperty("LEDGER_DIR", "");
+	public static final Boolean LEDGER_SYNC_WRITES = Boolean.valueOf(
+			PROPERTIES.getProperty("LEDGER_SYNC_WRITES", "false")
+	);
+	public static final long LEDGER_SNAPSHOT_EVENTS = Long.valueOf(
+			PROPERTIES.getProperty("LEDGER_SNAPSHOT_EVENTS", "10000")
+	);
+	public static final int NAV_CHECK_CYCLES = Integer.valueOf(
+			PROPERTIES.getProperty("NAV_CHECK_CYCLES", "60")
+	);
 	public static final List<String> TICKERS = List.of(
 			PROPERTIES.getProperty("TICKERS")
 					.replaceAll("\\s", "")
@@ -51,39 +124,39 @@ public class Constants {
 	public static final List<Integer> JULIAN_HOLIDAYS_2017 =
 			Arrays.stream(
 					PROPERTIES.getProperty("JULIAN_HOLIDAYS_2017").split(","))
+					.map(String::trim)
 					.map(Integer::valueOf)
-					.collect(Collectors.toCollection(List::of)
-					);
+					.collect(Collectors.toUnmodifiableList());
 	public static final List<Integer> JULIAN_HOLIDAYS_2018 =
 			Arrays.stream(
 					PROPERTIES.getProperty("JULIAN_HOLIDAYS_2018").split(","))
+					.map(String::trim)
 					.map(Integer::valueOf)
-					.collect(Collectors.toCollection(List::of)
-					);
+					.collect(Collectors.toUnmodifiableList());
 	public static final List<Integer> JULIAN_HOLIDAYS_2019 =
 			Arrays.stream(
 					PROPERTIES.getProperty("JULIAN_HOLIDAYS_2019").split(","))
+					.map(String::trim)
 					.map(Integer::valueOf)
-					.collect(Collectors.toCollection(List::of)
-					);
+					.collect(Collectors.toUnmodifiableList());
 	public static final List<Integer> JULIAN_1PM_CLOSE_2017 =
 			Arrays.stream(
 					PROPERTIES.getProperty("JULIAN_1PM_CLOSE_2017").split(","))
+					.map(String::trim)
 					.map(Integer::valueOf)
-					.collect(Collectors.toCollection(List::of)
-					);
+					.collect(Collectors.toUnmodifiableList());
 	public static final List<Integer> JULIAN_1PM_CLOSE_2018 =
 			Arrays.stream(
 					PROPERTIES.getProperty("JULIAN_1PM_CLOSE_2018").split(","))
+					.map(String::trim)
 					.map(Integer::valueOf)
-					.collect(Collectors.toCollection(List::of)
-					);
+					.collect(Collectors.toUnmodifiableList());
 	public static final List<Integer> JULIAN_1PM_CLOSE_2019 =
 			Arrays.stream(
 					PROPERTIES.getProperty("JULIAN_1PM_CLOSE_2019").split(","))
+					.map(String::trim)
 					.map(Integer::valueOf)
-					.collect(Collectors.toCollection(List::of)
-					);
+					.collect(Collectors.toUnmodifiableList());
 	public static final Map<Integer, List<Integer>> HOLIDAY_MAP = Map.of(
 			2017, JULIAN_HOLIDAYS_2017,
 			2018, JULIAN_HOLIDAYS_2018,
@@ -93,16 +166,6 @@ public class Constants {
 			2018, JULIAN_1PM_CLOSE_2018,
 			2019, JULIAN_1PM_CLOSE_2019);
 
-	static {
-		try (FileInputStream defaultsIn = new FileInputStream(DEFAULT_CONFIG_FILENAME)) {
-			// create and load default properties
-			PROPERTIES.load(defaultsIn);
-		} catch (Exception pokemon) {
-			LOGGER.error("Problem loading properties", pokemon);
-			System.exit(1);
-		}
-	}
-
 	public static String getDefaultConfigFilename() {
 		return DEFAULT_CONFIG_FILENAME;
 	}
@@ -0,0 +1,150 @@
+package net.toddsarratt.gaussTrader.strategy;
+
+import net.toddsarratt.gaussTrader.singletons.Constants;
+import net.toddsarratt.gaussTrader.technicals.BollingerBands;
+
+import java.math.BigDecimal;
+import java.util.Objects;
+
+/**
+ * Tunable settings of the Bollinger band option writing strategy. Live trading uses the values from the properties
+ * file (fromConstants()); backtests and parameter sweeps create their own. Bands are numbered as in Stock:
+ * <pre>
+ *     band 1 = SMA + sd1 standard deviations
+ *     band 2 = SMA + sd2 standard deviations
+ *     band 3 = SMA - sd1 standard deviations
+ *     band 4 = SMA - sd2 standard deviations
+ *     band 5 = SMA - sd3 standard deviations
+ * </pre>
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
+public class BollingerParameters {
+	private final int period;
+	private final BigDecimal sd1;
+	private final BigDecimal sd2;
+	private final BigDecimal sd3;
+	private final BigDecimal stockPctOfPortfolio;
+
+	private BollingerParameters(int period, BigDecimal sd1, BigDecimal sd2, BigDecimal sd3, BigDecimal stockPctOfPortfolio) {
+		this.period = period;
+		this.sd1 = sd1;
+		this.sd2 = sd2;
+		this.sd3 = sd3;
+		this.stockPctOfPortfolio = stockPctOfPortfolio;
+	}
+
+	/**
+	 * Static factory method for creating BollingerParameters objects.
+	 *
+	 * @param period              number of closes in the moving average and standard deviation
+	 * @param sd1                 standard deviations to the first band
+	 * @param sd2                 standard deviations to the second band
+	 * @param sd3                 standard deviations to the third (lower only) band
+	 * @param stockPctOfPortfolio most of the portfolio, in percent, to commit to one stock
+	 * @return BollingerParameters object
+	 */
+	public static BollingerParameters of(int period, BigDecimal sd1, BigDecimal sd2, BigDecimal sd3, BigDecimal stockPctOfPortfolio) {
+		if (period < 2) {
+			throw new IllegalArgumentException("period must be at least 2");
+		}
+		if ((sd1.compareTo(sd2) > 0) || (sd2.compareTo(sd3) > 0)) {
+			throw new IllegalArgumentException("Standard deviations must satisfy sd1 <= sd2 <= sd3");
+		}
+		if (stockPctOfPortfolio.signum() <= 0) {
+			throw new IllegalArgumentException("stockPctOfPortfolio must be positive");
+		}
+		return new BollingerParameters(period, sd1, sd2, sd3, stockPctOfPortfolio);
+	}
+
+	/**
+	 * @return parameters read from the properties file
+	 */
+	public static BollingerParameters fromConstants() {
+		return new BollingerParameters(Constants.getBollBandPeriod(),
+				Constants.getBollingerSd1(),
+				Constants.getBollingerSd2(),
+				Constants.getBollingerSd3(),
+				Constants.STOCK_PCT_OF_PORTFOLIO);
+	}
+
+	/**
+	 * Price of a numbered band.
+	 *
+	 * @param bollingerBands moving average and standard deviation of the stock
+	 * @param band           band number 1 through 5
+	 * @return price of the band
+	 */
+	public BigDecimal band(BollingerBands bollingerBands, int band) {
+		switch (band) {
+			case 1:
+				return bollingerBands.calcBand(sd1);
+			case 2:
+				return bollingerBands.calcBand(sd2);
+			case 3:
+				return bollingerBands.calcBand(sd1.negate());
+			case 4:
+				return bollingerBands.calcBand(sd2.negate());
+			case 5:
+				return bollingerBands.calcBand(sd3.negate());
+		}
+		throw new IllegalArgumentException(band + " is not a valid Bollinger band");
+	}
+
+	public int getPeriod() {
+		return period;
+	}
+
+	public BigDecimal getSd1() {
+		return sd1;
+	}
+
+	public BigDecimal getSd2() {
+		return sd2;
+	}
+
+	public BigDecimal getSd3() {
+		return sd3;
+	}
+
+	public BigDecimal getStockPctOfPortfolio() {
+		return stockPctOfPortfolio;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof BollingerParameters)) {
+			return false;
+		}
+		BollingerParameters that = (BollingerParameters) o;
+		return period == that.period &&
+				sd1.compareTo(that.sd1) == 0 &&
+				sd2.compareTo(that.sd2) == 0 &&
+				sd3.compareTo(that.sd3) == 0 &&
+				stockPctOfPortfolio.compareTo(that.stockPctOfPortfolio) == 0;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(period,
+				sd1.stripTrailingZeros(),
+				sd2.stripTrailingZeros(),
+				sd3.stripTrailingZeros(),
+				stockPctOfPortfolio.stripTrailingZeros());
+	}
+
+	@Override
+	public String toString() {
+		return "BollingerParameters{" +
+				"period=" + period +
+				", sd1=" + sd1 +
+				", sd2=" + sd2 +
+				", sd3=" + sd3 +
+				", stockPctOfPortfolio=" + stockPctOfPortfolio +
+				'}';
+	}
+}
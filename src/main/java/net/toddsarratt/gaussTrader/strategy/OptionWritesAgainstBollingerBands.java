@@ -1,84 +1,107 @@
 package net.toddsarratt.gaussTrader.strategy;
 
 import net.toddsarratt.gaussTrader.InsufficientFundsException;
+import net.toddsarratt.gaussTrader.Money;
 import net.toddsarratt.gaussTrader.PriceBasedAction;
 import net.toddsarratt.gaussTrader.TradingStrategy;
 import net.toddsarratt.gaussTrader.domain.Option;
 import net.toddsarratt.gaussTrader.domain.Stock;
-import net.toddsarratt.gaussTrader.persistence.entity.InstantPrice;
-import net.toddsarratt.gaussTrader.persistence.entity.Order;
+import net.toddsarratt.gaussTrader.InstantPrice;
+import net.toddsarratt.gaussTrader.market.Market;
+import net.toddsarratt.gaussTrader.orders.Order;
+import net.toddsarratt.gaussTrader.persistence.store.TickJournal;
 import net.toddsarratt.gaussTrader.portfolio.PortfolioAccountant;
-import net.toddsarratt.gaussTrader.singletons.Constants;
+import net.toddsarratt.gaussTrader.singletons.BuyOrSell;
 import net.toddsarratt.gaussTrader.singletons.SecurityType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.util.Iterator;
+import java.util.Collection;
+import java.util.Map;
 import java.util.concurrent.Flow.Subscriber;
 import java.util.concurrent.Flow.Subscription;
+import java.util.stream.Collectors;
 
 public class OptionWritesAgainstBollingerBands implements TradingStrategy {
 	private static final Logger LOGGER = LoggerFactory.getLogger(OptionWritesAgainstBollingerBands.class);
 
 	private static final String SHORT_NAME = "BigMoney";
+	private static final BollingerParameters PROPERTIES_PARAMETERS = BollingerParameters.fromConstants();
+	private final PortfolioAccountant portfolioAccountant;
+	private final Market market;
+	/* Intraday ticks go to the journal; only daily closes are written to the data store */
+	private final TickJournal tickJournal;
 
-	private static PriceBasedAction createCallAction(Stock stock, BigDecimal stockPrice, PortfolioAccountant portfolioAccountant) {
+	/**
+	 * Trades the watch list of portfolioAccountant, pricing it and the options written against it from market and
+	 * appending each stock tick to tickJournal.
+	 */
+	public OptionWritesAgainstBollingerBands(PortfolioAccountant portfolioAccountant, Market market, TickJournal tickJournal) {
+		this.portfolioAccountant = portfolioAccountant;
+		this.market = market;
+		this.tickJournal = tickJournal;
+	}
+
+	private static PriceBasedAction createCallAction(Stock stock, BigDecimal stockPrice, PortfolioAccountant portfolioAccountant,
+	                                                 BollingerParameters parameters) {
 		LOGGER.debug("Entering createCallAction(Stock {}, BigDecimal {})", stock.getTicker(), stockPrice);
-		if (portfolioAccountant.countUncoveredLongStockPositions(stock) < 1) {
+		if (portfolioAccountant.countUncoveredLongStockShares(stock) < 1) {
 			LOGGER.info("Open long {} positions is equal or less than current short calls positions. Taking no action.", stock.getTicker());
 			return PriceBasedAction.DO_NOTHING;
 		}
-		if (stockPrice.compareTo(stock.getBollingerBand(2)) >= 0) {
-			LOGGER.info("Stock {} at ${} is above 2nd Bollinger Band of {}", stock.getTicker(), stockPrice, stock.getBollingerBand(2));
-			return new PriceBasedAction(stockPrice,
+		if (stockPrice.compareTo(parameters.band(stock.getBollingerBands(), 2)) >= 0) {
+			LOGGER.info("Stock {} at ${} is above 2nd Bollinger Band of {}", stock.getTicker(), stockPrice, parameters.band(stock.getBollingerBands(), 2));
+			return PriceBasedAction.of(stockPrice,
 					true,
-					"SELL",
+					BuyOrSell.SELL,
 					SecurityType.CALL,
-					Math.min(portfolioAccountant.countOfOpenLongStockShares(stock), 5));
+					Math.toIntExact(Math.min(portfolioAccountant.countOfOpenLongStockShares(stock), 5L)));
 		}
 		/* TODO : Consider removing this if statement. We should not be in this method if the condition wasn't met, though
 		 * it does protect against misuse of the API. Also, why is the PriceBasedAction exactly the same as above? */
-		if (stockPrice.compareTo(stock.getBollingerBand(1)) >= 0) {
-			LOGGER.info("Stock {} at ${} is above 1st Bollinger Band of {}", stock.getTicker(), stockPrice, stock.getBollingerBand(1));
-			return new PriceBasedAction(stockPrice,
+		if (stockPrice.compareTo(parameters.band(stock.getBollingerBands(), 1)) >= 0) {
+			LOGGER.info("Stock {} at ${} is above 1st Bollinger Band of {}", stock.getTicker(), stockPrice, parameters.band(stock.getBollingerBands(), 1));
+			return PriceBasedAction.of(stockPrice,
 					true,
-					"SELL",
+					BuyOrSell.SELL,
 					SecurityType.CALL,
-					Math.min(portfolioAccountant.countOfOpenLongStockShares(stock), 5));
+					Math.toIntExact(Math.min(portfolioAccountant.countOfOpenLongStockShares(stock), 5L)));
 		}
 		return PriceBasedAction.DO_NOTHING;
 	}
 
-	private static PriceBasedAction createPutAction(Stock stock, BigDecimal stockPrice, PortfolioAccountant portfolioAccountant) {
+	private static PriceBasedAction createPutAction(Stock stock, BigDecimal stockPrice, PortfolioAccountant portfolioAccountant,
+	                                                BollingerParameters parameters) {
 		LOGGER.debug("Entering createPutAction(Stock {}, BigDecimal {})", stock.getTicker(), stockPrice);
 		int openPutShorts = portfolioAccountant.numberOfOpenPutShorts(stock);
-		int maximumContracts = Constants.STOCK_PCT_OF_PORTFOLIO.divide(Constants.BIGDECIMAL_ONE_HUNDRED, 3, RoundingMode.HALF_UP)
-				.divide(stockPrice.multiply(Constants.BIGDECIMAL_ONE_HUNDRED), 3, RoundingMode.HALF_UP)
-				.multiply(portfolioAccountant.calcPortfolioNav())
-				.intValue();
-		if (stockPrice.compareTo(stock.getBollingerBand(5)) <= 0) {
-			LOGGER.info("Stock {} at ${} is below 3rd Bollinger Band of {}", stock.getTicker(), stockPrice, stock.getBollingerBand(5));
+		/* Sized in micros, rounding down so the contracts never cost more than the allowed share of NAV */
+		long sizingBudget = Money.times(portfolioAccountant.calcPortfolioNavMicros(),
+				Money.of(parameters.getStockPctOfPortfolio()), RoundingMode.DOWN) / 100L;
+		long contractCost = Money.timesQuantity(Money.of(stockPrice), 100L);
+		int maximumContracts = Math.toIntExact(Money.quotient(sizingBudget, contractCost));
+		if (stockPrice.compareTo(parameters.band(stock.getBollingerBands(), 5)) <= 0) {
+			LOGGER.info("Stock {} at ${} is below 3rd Bollinger Band of {}", stock.getTicker(), stockPrice, parameters.band(stock.getBollingerBands(), 5));
 			if (openPutShorts < maximumContracts) {
-				return new PriceBasedAction(stockPrice, true, "SELL", SecurityType.PUT, Math.max(maximumContracts / 4, 1));
+				return PriceBasedAction.of(stockPrice, true, BuyOrSell.SELL, SecurityType.PUT, Math.max(maximumContracts / 4, 1));
 			}
 			LOGGER.info("Open short put {} positions equals {}. Taking no action.", stock.getTicker(), openPutShorts);
 			return PriceBasedAction.DO_NOTHING;
 		}
-		if (stockPrice.compareTo(stock.getBollingerBand(4)) <= 0) {
-			LOGGER.info("Stock {} at ${} is below 2nd Bollinger Band of {}", stock.getTicker(), stockPrice, stock.getBollingerBand(4));
+		if (stockPrice.compareTo(parameters.band(stock.getBollingerBands(), 4)) <= 0) {
+			LOGGER.info("Stock {} at ${} is below 2nd Bollinger Band of {}", stock.getTicker(), stockPrice, parameters.band(stock.getBollingerBands(), 4));
 			if (openPutShorts < maximumContracts / 2) {
-				return new PriceBasedAction(stockPrice, true, "SELL", SecurityType.PUT, Math.max(maximumContracts / 4, 1));
+				return PriceBasedAction.of(stockPrice, true, BuyOrSell.SELL, SecurityType.PUT, Math.max(maximumContracts / 4, 1));
 			}
 			LOGGER.info("Open short put {} positions equals {}. Taking no action.", stock.getTicker(), openPutShorts);
 			return PriceBasedAction.DO_NOTHING;
 		}
 		/* TODO : Consider removing this if statement. We should not be in this method if the condition wasn't met */
-		if (stockPrice.compareTo(stock.getBollingerBand(3)) <= 0) {
-			LOGGER.info("Stock {} at ${} is below 1st Bollinger Band of {}", stock.getTicker(), stockPrice, stock.getBollingerBand(3));
+		if (stockPrice.compareTo(parameters.band(stock.getBollingerBands(), 3)) <= 0) {
+			LOGGER.info("Stock {} at ${} is below 1st Bollinger Band of {}", stock.getTicker(), stockPrice, parameters.band(stock.getBollingerBands(), 3));
 			if (openPutShorts < maximumContracts / 4) {
-				return new PriceBasedAction(stockPrice, true, "SELL", SecurityType.PUT, Math.max(maximumContracts / 4, 1));
+				return PriceBasedAction.of(stockPrice, true, BuyOrSell.SELL, SecurityType.PUT, Math.max(maximumContracts / 4, 1));
 			}
 			LOGGER.info("Open short put {} positions equals {}. Taking no action.", stock.getTicker(), openPutShorts);
 		}
@@ -88,7 +111,7 @@ public class OptionWritesAgainstBollingerBands implements TradingStrategy {
 	/**
 	 * Decide if a security's current price triggers a predetermined event. For this trading strategy, a stock price
 	 * following below its Bollinger band triggers the sale of a put. A stock price above its Bollinger band triggers
-	 * the sale of a covered call.
+	 * the sale of a covered call. Band widths and position sizing come from the properties file.
 	 *
 	 * @param stock               stock whose price may trigger an action
 	 * @param stockPrice          last known price to compare against stock's bollinger bands
@@ -96,17 +119,37 @@ public class OptionWritesAgainstBollingerBands implements TradingStrategy {
 	 * @return PriceBasedAction based on input parameters and trade strategy
 	 */
 	public static PriceBasedAction findActionToTake(Stock stock, BigDecimal stockPrice, PortfolioAccountant portfolioAccountant) {
+		return findActionToTake(stock, stockPrice, portfolioAccountant, PROPERTIES_PARAMETERS);
+	}
+
+	/**
+	 * As findActionToTake(Stock, BigDecimal, PortfolioAccountant) with band widths and position sizing taken from
+	 * parameters instead of the properties file. The stock's Bollinger bands must be calculated over
+	 * parameters.getPeriod() closes.
+	 *
+	 * @param stock               stock whose price may trigger an action
+	 * @param stockPrice          last known price to compare against stock's bollinger bands
+	 * @param portfolioAccountant portfolio being traded
+	 * @param parameters          strategy settings
+	 * @return PriceBasedAction based on input parameters and trade strategy
+	 */
+	public static PriceBasedAction findActionToTake(Stock stock, BigDecimal stockPrice, PortfolioAccountant portfolioAccountant,
+	                                                BollingerParameters parameters) {
 		LOGGER.debug("Entering findActionToTake(Stock {})", stock.getTicker());
-		LOGGER.debug("Comparing current price ${} against Bollinger Bands {}", stockPrice, stock.describeBollingerBands());
-		if (stockPrice.compareTo(stock.getBollingerBand(1)) >= 0) {
-			return createCallAction(stock, stockPrice, portfolioAccountant);
+		LOGGER.debug("Comparing current price ${} against Bollinger Bands {}", stockPrice, stock.getBollingerBands());
+		if (stockPrice.compareTo(parameters.band(stock.getBollingerBands(), 1)) >= 0) {
+			return createCallAction(stock, stockPrice, portfolioAccountant, parameters);
+		}
+		if ((stock.getFiftyDma() == null) || (stock.getTwoHundredDma() == null)) {
+			LOGGER.info("Stock {} has too little history for 50DMA and 200DMA. No further checks.", stock.getTicker());
+			return PriceBasedAction.DO_NOTHING;
 		}
 		if (stock.getFiftyDma().compareTo(stock.getTwoHundredDma()) < 0) {
 			LOGGER.info("Stock {} 50DMA < 200DMA. No further checks.", stock.getTicker());
 			return PriceBasedAction.DO_NOTHING;
 		}
-		if (stockPrice.compareTo(stock.getBollingerBand(3)) <= 0) {
-			return createPutAction(stock, stockPrice, portfolioAccountant);
+		if (stockPrice.compareTo(parameters.band(stock.getBollingerBands(), 3)) <= 0) {
+			return createPutAction(stock, stockPrice, portfolioAccountant, parameters);
 		}
 		LOGGER.info("Stock {} at ${} is within Bollinger Bands", stock.getTicker(), stockPrice);
 		return PriceBasedAction.DO_NOTHING;
@@ -134,9 +177,9 @@ public class OptionWritesAgainstBollingerBands implements TradingStrategy {
 									LOGGER.warn("Couldn't find valid option");
 									break;
 								}
-								portfolio.addNewOrder(
+								portfolioAccountant.addNewOrder(
 										Order.of(optionToTrade,
-												market.lastTick(optionToTrade).getPrice(),
+												market.getLastTick(optionToTrade).getPrice(),
 												action,
 												"GFD"));
 								break;
@@ -170,24 +213,28 @@ public class OptionWritesAgainstBollingerBands implements TradingStrategy {
 	 */
 	@Override
 	public void run() {
-		Iterator<Stock> stockIterator = portfolio.getWatchList().iterator();
-		// if the end of the list is reached, start from the beginning with a new iterator
-		if (!stockIterator.hasNext()) {
-			stockIterator = portfolio.getWatchList().iterator();
-			if (!stockIterator.hasNext()) {
-				LOGGER.warn("No stocks to trade");
-				break;
-			}
+		Collection<Stock> watchList = portfolioAccountant.getWatchList();
+		if (watchList.isEmpty()) {
+			LOGGER.warn("No stocks to trade");
+			return;
 		}
-		Stock stock = stockIterator.next();
-		InstantPrice currentInstantPrice = market.lastTick(stock);
-		BigDecimal stockPrice = currentInstantPrice.getPrice();
-		dataStore.writeStockPrice(stock.getTicker(), currentInstantPrice);
-		PriceBasedAction actionToTake = TradingStrategy.findActionToTake(stock, stockPrice, portfolio);
-		if (actionToTake.isActionable()) {
-			takeActionOnStock(stock, actionToTake);
+		/* One batched request for the whole watch list instead of one request per stock */
+		Map<String, InstantPrice> lastTicks = market.lastTicks(watchList.stream()
+				.map(Stock::getTicker)
+				.collect(Collectors.toList()));
+		for (Stock stock : watchList) {
+			InstantPrice currentInstantPrice = lastTicks.getOrDefault(stock.getTicker(), InstantPrice.NO_PRICE);
+			if (currentInstantPrice == InstantPrice.NO_PRICE) {
+				LOGGER.warn("Could not get valid price for ticker {}", stock.getTicker());
+				continue;
+			}
+			BigDecimal stockPrice = currentInstantPrice.getPrice();
+			tickJournal.append(stock.getTicker(), currentInstantPrice.getInstant(), stockPrice);
+			PriceBasedAction actionToTake = findActionToTake(stock, stockPrice, portfolioAccountant);
+			if (actionToTake.isActionable()) {
+				takeActionOnStock(stock, actionToTake);
+			}
 		}
-
 	}
 
 	/**
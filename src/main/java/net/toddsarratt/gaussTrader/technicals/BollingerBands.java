@@ -7,8 +7,8 @@ import org.slf4j.LoggerFactory;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.LocalDate;
-import java.util.Collection;
 import java.util.Map;
+import java.util.TreeMap;
 
 public class BollingerBands {
 	private static final Logger LOGGER = LoggerFactory.getLogger(BollingerBands.class);
@@ -17,39 +17,59 @@ public class BollingerBands {
 
 	private BollingerBands() {}
 
-	public static BollingerBands generateBollingerBands(Map<LocalDate, BigDecimal> priceMap) {
-		LOGGER.debug("Entering generateBollingerBands()");
+	/**
+	 * Static factory method for Bollinger bands whose moving average and standard deviation are already known.
+	 *
+	 * @param simpleMovingAverage  simple moving average of the period
+	 * @param oneStandardDeviation one standard deviation of the period
+	 * @return BollingerBands object
+	 */
+	public static BollingerBands of(BigDecimal simpleMovingAverage, BigDecimal oneStandardDeviation) {
 		BollingerBands bollingerBands = new BollingerBands();
+		bollingerBands.setSimpleMovingAverage(simpleMovingAverage);
+		bollingerBands.setOneStandardDeviation(oneStandardDeviation);
+		return bollingerBands;
+	}
+
+	/**
+	 * Static factory method for Bollinger bands of the last period closes in a price series.
+	 *
+	 * @param closes daily closes
+	 * @param period number of closes in the bands
+	 * @return BollingerBands object, or null if there are fewer than period closes
+	 */
+	public static BollingerBands of(PriceSeries closes, int period) {
+		if (closes.size() < period) {
+			LOGGER.warn("Only {} closes available to calculate {} day Bollinger Bands", closes.size(), period);
+			return null;
+		}
+		BigDecimal simpleMovingAverage = BigDecimal.valueOf(closes.meanMicros(period, closes.size()))
+				.movePointLeft(PriceSeries.SCALE)
+				.setScale(3, RoundingMode.HALF_UP);
+		BigDecimal standardDeviation = BigDecimal.valueOf(closes.standardDeviationMicros(period, closes.size()))
+				.movePointLeft(PriceSeries.SCALE);
+		return of(simpleMovingAverage, standardDeviation);
+	}
 
+	/**
+	 * Static factory method for Bollinger bands of the last Constants.getBollBandPeriod() closes in priceMap. To keep
+	 * bands current as new closes and ticks arrive use RollingBollingerBands instead.
+	 *
+	 * @param priceMap closes by date
+	 * @return BollingerBands object, or null if there are not enough closes
+	 */
+	public static BollingerBands generateBollingerBands(Map<LocalDate, BigDecimal> priceMap) {
+		LOGGER.debug("Entering generateBollingerBands()");
 		if (priceMap.containsValue(Constants.BIGDECIMAL_MINUS_ONE)) {
 			LOGGER.warn("Not enough historical data to calculate Bollinger Bands");
 			return null;
 		}
-
-		Collection<BigDecimal> historicalPriceArray = priceMap.values();
-
-		BigDecimal sigmaSimpleMovingAverage = historicalPriceArray
-				.stream()
-				.reduce(BigDecimal.ZERO, BigDecimal::add);
-		LOGGER.debug("sigmaSimpleMovingAverage = {}", sigmaSimpleMovingAverage);
-
-		BigDecimal period = new BigDecimal(Constants.getBollBandPeriod());
-
-		BigDecimal simpleMovingAverage = sigmaSimpleMovingAverage.divide(period, 3, RoundingMode.HALF_UP);
-		LOGGER.debug("simpleMovingAverage = {}", simpleMovingAverage);
-
-		BigDecimal sigmaStandardDeviation = historicalPriceArray
-				.stream()
-				.map(adjClose -> adjClose.subtract(simpleMovingAverage))
-				.map(distance -> distance.pow(2))
-				.reduce(BigDecimal.ZERO, BigDecimal::add);
-		LOGGER.debug("sigmaStandardDeviation = {}", sigmaStandardDeviation);
-
-		BigDecimal standardDeviation = BigDecimal.valueOf(Math.sqrt(sigmaStandardDeviation.divide(period, 3, RoundingMode.HALF_UP).doubleValue()));
-		LOGGER.debug("standardDeviation = {}", standardDeviation);
-
-		bollingerBands.setSimpleMovingAverage(simpleMovingAverage);
-		bollingerBands.setOneStandardDeviation(standardDeviation);
+		BollingerBands bollingerBands = RollingBollingerBands.of(Constants.getBollBandPeriod(), new TreeMap<>(priceMap).values())
+				.getBollingerBands();
+		if (bollingerBands == null) {
+			LOGGER.warn("Only {} closes available to calculate Bollinger Bands", priceMap.size());
+		}
+		LOGGER.debug("bollingerBands = {}", bollingerBands);
 		return bollingerBands;
 	}
 
@@ -57,6 +77,16 @@ public class BollingerBands {
 		return getSimpleMovingAverage().add(getOneStandardDeviation().multiply(BigDecimal.valueOf(deviations)));
 	}
 
+	/**
+	 * Band a fractional number of standard deviations from the moving average. Negative deviations are below it.
+	 *
+	 * @param deviations standard deviations from the moving average
+	 * @return price of the band
+	 */
+	public BigDecimal calcBand(BigDecimal deviations) {
+		return getSimpleMovingAverage().add(getOneStandardDeviation().multiply(deviations));
+	}
+
 	public BigDecimal getSimpleMovingAverage() {
 		return simpleMovingAverage;
 	}
@@ -72,4 +102,12 @@ public class BollingerBands {
 	public void setOneStandardDeviation(BigDecimal oneStandardDeviation) {
 		this.oneStandardDeviation = oneStandardDeviation;
 	}
+
+	@Override
+	public String toString() {
+		return "BollingerBands{" +
+				"simpleMovingAverage=" + simpleMovingAverage +
+				", oneStandardDeviation=" + oneStandardDeviation +
+				'}';
+	}
 }
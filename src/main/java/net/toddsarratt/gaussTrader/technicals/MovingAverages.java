@@ -14,6 +14,20 @@ public class MovingAverages {
 		this.twoHundredDma = twoHundredDma;
 	}
 
+	/**
+	 * Static factory method for the 20, 50 and 200 day moving averages of the last closes in a price series. An
+	 * average with too few closes behind it is null.
+	 *
+	 * @param closes daily closes
+	 * @return MovingAverages object
+	 */
+	public static MovingAverages of(PriceSeries closes) {
+		return new MovingAverages(
+				closes.simpleMovingAverage(20, 4),
+				closes.simpleMovingAverage(50, 4),
+				closes.simpleMovingAverage(200, 4));
+	}
+
 	public BigDecimal getTwentyDma() {
 		return twentyDma;
 	}
@@ -37,4 +51,13 @@ public class MovingAverages {
 	public void setTwoHundredDma(BigDecimal twoHundredDma) {
 		this.twoHundredDma = twoHundredDma;
 	}
+
+	@Override
+	public String toString() {
+		return "MovingAverages{" +
+				"twentyDma=" + twentyDma +
+				", fiftyDma=" + fiftyDma +
+				", twoHundredDma=" + twoHundredDma +
+				'}';
+	}
 }
@@ -0,0 +1,347 @@
+package net.toddsarratt.gaussTrader.technicals;
+
+import net.toddsarratt.gaussTrader.Money;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Daily closes for one security held in two parallel primitive arrays: the epoch day of each close and the price in
+ * millionths of a dollar. Dates are unique and ascending, so a date is found by binary search. Compared to a
+ * HashMap&lt;LocalDate, BigDecimal&gt; a close costs 12 bytes instead of well over 100, and indicator loops walk
+ * contiguous memory instead of chasing pointers.
+ * <p>
+ * Prices are rounded half up to six decimal places when added. A PriceSeries is immutable; use a Builder or of() to
+ * create one.
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
+public final class PriceSeries {
+	/** Decimal places kept for each price, the same as Money so closes and account amounts share one form */
+	public static final int SCALE = Money.SCALE;
+	private static final BigDecimal MICROS_PER_DOLLAR = BigDecimal.valueOf(Money.ONE);
+	private static final PriceSeries EMPTY = new PriceSeries(new int[0], new long[0]);
+	private final int[] epochDays;
+	private final long[] micros;
+
+	private PriceSeries(int[] epochDays, long[] micros) {
+		this.epochDays = epochDays;
+		this.micros = micros;
+	}
+
+	public static PriceSeries empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * Static factory method converting a map of closes. Null prices are skipped.
+	 *
+	 * @param priceMap closes by date, in any order
+	 * @return PriceSeries object
+	 */
+	public static PriceSeries of(Map<LocalDate, BigDecimal> priceMap) {
+		Builder builder = builder(priceMap.size());
+		priceMap.forEach((date, price) -> {
+			if (price != null) {
+				builder.add(date, price);
+			}
+		});
+		return builder.build();
+	}
+
+	/**
+	 * Static factory method taking arrays already in PriceSeries form, for readers that decode closes straight into
+	 * arrays. The arrays are not copied, so the caller must not change them afterwards.
+	 *
+	 * @param epochDays dates of the closes as LocalDate.toEpochDay(), strictly ascending
+	 * @param micros    prices in millionths of a dollar, one for each date
+	 * @return PriceSeries object backed by the arrays
+	 * @throws IllegalArgumentException if the arrays differ in length or the dates are not strictly ascending
+	 */
+	public static PriceSeries wrap(int[] epochDays, long[] micros) {
+		if (epochDays.length != micros.length) {
+			throw new IllegalArgumentException(epochDays.length + " dates but " + micros.length + " prices");
+		}
+		for (int index = 1; index < epochDays.length; index++) {
+			if (epochDays[index] <= epochDays[index - 1]) {
+				throw new IllegalArgumentException("Dates not ascending at index " + index);
+			}
+		}
+		return (epochDays.length == 0) ? EMPTY : new PriceSeries(epochDays, micros);
+	}
+
+	/**
+	 * @param expectedSize number of closes expected, used to size the arrays
+	 * @return empty Builder
+	 */
+	public static Builder builder(int expectedSize) {
+		return new Builder(expectedSize);
+	}
+
+	/**
+	 * Converts a price to the fixed point form held by a PriceSeries, which is Money's.
+	 *
+	 * @param price price in dollars
+	 * @return price in millionths of a dollar
+	 * @see Money#of(BigDecimal)
+	 */
+	public static long toMicros(BigDecimal price) {
+		return Money.of(price);
+	}
+
+	public int size() {
+		return epochDays.length;
+	}
+
+	public boolean isEmpty() {
+		return epochDays.length == 0;
+	}
+
+	public LocalDate getDate(int index) {
+		return LocalDate.ofEpochDay(epochDays[index]);
+	}
+
+	public int getEpochDay(int index) {
+		return epochDays[index];
+	}
+
+	/**
+	 * @param index position in the series, 0 being the earliest close
+	 * @return price in millionths of a dollar
+	 */
+	public long getMicros(int index) {
+		return micros[index];
+	}
+
+	public BigDecimal getPrice(int index) {
+		return BigDecimal.valueOf(micros[index], SCALE);
+	}
+
+	public LocalDate getFirstDate() {
+		return getDate(0);
+	}
+
+	public LocalDate getLastDate() {
+		return getDate(size() - 1);
+	}
+
+	/**
+	 * @param date date of the close
+	 * @return index of the close on date, or a negative number if there is none (see Arrays.binarySearch())
+	 */
+	public int indexOf(LocalDate date) {
+		return Arrays.binarySearch(epochDays, Math.toIntExact(date.toEpochDay()));
+	}
+
+	/**
+	 * @param date date of the close
+	 * @return index of the last close on or before date, or -1 if every close is after date
+	 */
+	public int floorIndex(LocalDate date) {
+		int index = indexOf(date);
+		return (index >= 0) ? index : -index - 2;
+	}
+
+	public boolean containsDate(LocalDate date) {
+		return indexOf(date) >= 0;
+	}
+
+	/**
+	 * @param date date of the close
+	 * @return close on date, or null if there is none
+	 */
+	public BigDecimal getPrice(LocalDate date) {
+		int index = indexOf(date);
+		return (index >= 0) ? getPrice(index) : null;
+	}
+
+	/**
+	 * @param earliestDate earliest close to keep
+	 * @return closes on or after earliestDate
+	 */
+	public PriceSeries since(LocalDate earliestDate) {
+		int index = indexOf(earliestDate);
+		return subSeries((index >= 0) ? index : -index - 1, size());
+	}
+
+	/**
+	 * @param count number of closes to keep
+	 * @return the last count closes, or every close if there are fewer
+	 */
+	public PriceSeries last(int count) {
+		return subSeries(Math.max(size() - count, 0), size());
+	}
+
+	/**
+	 * @param from index of the first close to keep
+	 * @param to   index after the last close to keep
+	 * @return closes from index from inclusive to index to exclusive
+	 */
+	public PriceSeries subSeries(int from, int to) {
+		if ((from == 0) && (to == size())) {
+			return this;
+		}
+		return new PriceSeries(Arrays.copyOfRange(epochDays, from, to), Arrays.copyOfRange(micros, from, to));
+	}
+
+	/**
+	 * Simple moving average of the closes up to and including index end - 1.
+	 *
+	 * @param period number of closes to average
+	 * @param end    index after the last close to average
+	 * @return average in millionths of a dollar
+	 * @throws IllegalArgumentException if fewer than period closes precede end
+	 */
+	public double meanMicros(int period, int end) {
+		checkWindow(period, end);
+		long sum = 0L;
+		for (int index = end - period; index < end; index++) {
+			sum += micros[index];
+		}
+		return (double) sum / period;
+	}
+
+	/**
+	 * Population standard deviation of the closes up to and including index end - 1.
+	 *
+	 * @param period number of closes
+	 * @param end    index after the last close
+	 * @return standard deviation in millionths of a dollar
+	 * @throws IllegalArgumentException if fewer than period closes precede end
+	 */
+	public double standardDeviationMicros(int period, int end) {
+		double mean = meanMicros(period, end);
+		double sumOfSquares = 0.0;
+		for (int index = end - period; index < end; index++) {
+			double distance = micros[index] - mean;
+			sumOfSquares += distance * distance;
+		}
+		return Math.sqrt(sumOfSquares / period);
+	}
+
+	/**
+	 * Simple moving average of the last period closes.
+	 *
+	 * @param period number of closes to average
+	 * @param scale  decimal places of the result
+	 * @return average price, or null if there are fewer than period closes
+	 */
+	public BigDecimal simpleMovingAverage(int period, int scale) {
+		if (size() < period) {
+			return null;
+		}
+		return BigDecimal.valueOf(meanMicros(period, size()))
+				.divide(MICROS_PER_DOLLAR, scale, RoundingMode.HALF_UP);
+	}
+
+	private void checkWindow(int period, int end) {
+		if ((period < 1) || (end > size()) || (end - period < 0)) {
+			throw new IllegalArgumentException("Cannot take " + period + " closes ending at " + end + " of " + size());
+		}
+	}
+
+	/**
+	 * @return closes in date order, for callers still working with maps
+	 */
+	public LinkedHashMap<LocalDate, BigDecimal> toMap() {
+		LinkedHashMap<LocalDate, BigDecimal> priceMap = new LinkedHashMap<>();
+		for (int index = 0; index < size(); index++) {
+			priceMap.put(getDate(index), getPrice(index));
+		}
+		return priceMap;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		PriceSeries that = (PriceSeries) o;
+		return Arrays.equals(epochDays, that.epochDays) && Arrays.equals(micros, that.micros);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Arrays.hashCode(epochDays) + Arrays.hashCode(micros);
+	}
+
+	@Override
+	public String toString() {
+		return "PriceSeries{" +
+				"size=" + size() +
+				(isEmpty() ? "" : ", first=" + getFirstDate() + ", last=" + getLastDate()) +
+				'}';
+	}
+
+	/**
+	 * Collects closes in any order. If a date is added more than once the last price added wins.
+	 */
+	public static final class Builder {
+		private int[] epochDays;
+		private long[] micros;
+		private int size = 0;
+		private boolean ascending = true;
+
+		private Builder(int expectedSize) {
+			epochDays = new int[Math.max(expectedSize, 8)];
+			micros = new long[epochDays.length];
+		}
+
+		public Builder add(LocalDate date, BigDecimal price) {
+			return add(Math.toIntExact(date.toEpochDay()), toMicros(price));
+		}
+
+		/**
+		 * @param epochDay date of the close as LocalDate.toEpochDay()
+		 * @param price    price in millionths of a dollar
+		 * @return this Builder
+		 */
+		public Builder add(int epochDay, long price) {
+			if (size == epochDays.length) {
+				epochDays = Arrays.copyOf(epochDays, size * 2);
+				micros = Arrays.copyOf(micros, size * 2);
+			}
+			if ((size > 0) && (epochDay <= epochDays[size - 1])) {
+				ascending = false;
+			}
+			epochDays[size] = epochDay;
+			micros[size] = price;
+			size++;
+			return this;
+		}
+
+		public PriceSeries build() {
+			if (size == 0) {
+				return EMPTY;
+			}
+			if (ascending) {
+				return new PriceSeries(Arrays.copyOf(epochDays, size), Arrays.copyOf(micros, size));
+			}
+			/* Stable sort keeps duplicates in the order added, so keeping the last of each run keeps the last added */
+			int[] order = IntStream.range(0, size)
+					.boxed()
+					.sorted(Comparator.comparingInt(index -> epochDays[index]))
+					.mapToInt(Integer::intValue)
+					.toArray();
+			int[] sortedEpochDays = new int[size];
+			long[] sortedMicros = new long[size];
+			int unique = 0;
+			for (int index : order) {
+				if ((unique > 0) && (sortedEpochDays[unique - 1] == epochDays[index])) {
+					sortedMicros[unique - 1] = micros[index];
+				} else {
+					sortedEpochDays[unique] = epochDays[index];
+					sortedMicros[unique] = micros[index];
+					unique++;
+				}
+			}
+			return new PriceSeries(Arrays.copyOf(sortedEpochDays, unique), Arrays.copyOf(sortedMicros, unique));
+		}
+	}
+}
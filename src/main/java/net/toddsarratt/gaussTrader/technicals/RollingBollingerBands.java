@@ -0,0 +1,212 @@
+package net.toddsarratt.gaussTrader.technicals;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Bollinger bands over a fixed window of closes that are kept up to date one price at a time. A running sum and sum
+ * of squares are held for the window, so adding a close or an intraday tick costs the same however long the period,
+ * and bands can be refreshed for a whole watch list without rebuilding Stock objects or rereading price history.
+ * <p>
+ * Closes are added with addClose(), oldest first. Once the window is full each new close pushes out the oldest one.
+ * Between closes, updateIntraday() treats the latest tick as a provisional close for today: the intraday bands are
+ * those the window would hold if the market closed at that price. Every tick replaces the previous provisional price
+ * and the next addClose() discards it. The bands of closes alone are unaffected by intraday ticks.
+ * <p>
+ * Sums are held as BigDecimal so adding and removing prices never drifts. Methods are synchronized so a thread
+ * streaming ticks can share an instance with the thread running the strategy.
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
+public class RollingBollingerBands {
+	private static final Logger LOGGER = LoggerFactory.getLogger(RollingBollingerBands.class);
+	private final int period;
+	private final BigDecimal bigPeriod;
+	/* Ring buffer of the last period closes. nextSlot holds the oldest close once the window is full */
+	private final BigDecimal[] window;
+	private int nextSlot = 0;
+	private int closeCount = 0;
+	private BigDecimal sum = BigDecimal.ZERO;
+	private BigDecimal sumOfSquares = BigDecimal.ZERO;
+	private BigDecimal intradayPrice;
+	/* Snapshots are rebuilt only after the window changes */
+	private BollingerBands closingBands;
+	private BollingerBands intradayBands;
+
+	/**
+	 * @param period number of closes in the window
+	 */
+	public RollingBollingerBands(int period) {
+		if (period < 2) {
+			throw new IllegalArgumentException("Bollinger band period must be at least 2");
+		}
+		this.period = period;
+		this.bigPeriod = BigDecimal.valueOf(period);
+		this.window = new BigDecimal[period];
+	}
+
+	/**
+	 * Static factory method for a window primed with closes already recorded.
+	 *
+	 * @param period number of closes in the window
+	 * @param closes closes in date order, oldest first. Only the last period closes are kept
+	 * @return RollingBollingerBands object
+	 */
+	public static RollingBollingerBands of(int period, Iterable<BigDecimal> closes) {
+		RollingBollingerBands rollingBollingerBands = new RollingBollingerBands(period);
+		closes.forEach(rollingBollingerBands::addClose);
+		return rollingBollingerBands;
+	}
+
+	/**
+	 * Static factory method for a window primed with the last period closes of a price series.
+	 *
+	 * @param period number of closes in the window
+	 * @param closes daily closes
+	 * @return RollingBollingerBands object
+	 */
+	public static RollingBollingerBands of(int period, PriceSeries closes) {
+		RollingBollingerBands rollingBollingerBands = new RollingBollingerBands(period);
+		for (int index = Math.max(closes.size() - period, 0); index < closes.size(); index++) {
+			rollingBollingerBands.addClose(closes.getPrice(index));
+		}
+		return rollingBollingerBands;
+	}
+
+	/**
+	 * Adds a daily close to the window, pushing out the oldest close if the window is full. Any provisional intraday
+	 * price is discarded.
+	 *
+	 * @param close closing price
+	 */
+	public synchronized void addClose(BigDecimal close) {
+		LOGGER.debug("Entering addClose(BigDecimal {})", close);
+		if (closeCount == period) {
+			BigDecimal oldest = window[nextSlot];
+			sum = sum.subtract(oldest);
+			sumOfSquares = sumOfSquares.subtract(oldest.multiply(oldest));
+		} else {
+			closeCount++;
+		}
+		window[nextSlot] = close;
+		sum = sum.add(close);
+		sumOfSquares = sumOfSquares.add(close.multiply(close));
+		nextSlot = (nextSlot + 1) % period;
+		intradayPrice = null;
+		closingBands = null;
+		intradayBands = null;
+	}
+
+	/**
+	 * Uses the latest tick as a provisional close for today, replacing any earlier tick.
+	 *
+	 * @param price latest intraday price
+	 */
+	public synchronized void updateIntraday(BigDecimal price) {
+		if (!price.equals(intradayPrice)) {
+			intradayPrice = price;
+			intradayBands = null;
+		}
+	}
+
+	/**
+	 * @return true once period closes have been added
+	 */
+	public synchronized boolean isReady() {
+		return closeCount == period;
+	}
+
+	public int getPeriod() {
+		return period;
+	}
+
+	/**
+	 * Bands of the closes in the window.
+	 *
+	 * @return BollingerBands snapshot, or null if fewer than period closes have been added
+	 */
+	public synchronized BollingerBands getBollingerBands() {
+		if ((closingBands == null) && isReady()) {
+			closingBands = calculate(sum, sumOfSquares);
+		}
+		return closingBands;
+	}
+
+	/**
+	 * Bands of the closes in the window with the latest intraday tick standing in as today's close. The oldest close
+	 * drops out to make room, as it would at the close. Without an intraday tick these are the closing bands.
+	 *
+	 * @return BollingerBands snapshot, or null if fewer than period prices are available
+	 */
+	public synchronized BollingerBands getIntradayBollingerBands() {
+		if (intradayPrice == null) {
+			return getBollingerBands();
+		}
+		if (intradayBands == null) {
+			BigDecimal intradaySum = sum.add(intradayPrice);
+			BigDecimal intradaySumOfSquares = sumOfSquares.add(intradayPrice.multiply(intradayPrice));
+			if (isReady()) {
+				BigDecimal oldest = window[nextSlot];
+				intradaySum = intradaySum.subtract(oldest);
+				intradaySumOfSquares = intradaySumOfSquares.subtract(oldest.multiply(oldest));
+			} else if (closeCount < period - 1) {
+				return null;
+			}
+			intradayBands = calculate(intradaySum, intradaySumOfSquares);
+		}
+		return intradayBands;
+	}
+
+	/**
+	 * Price a whole number of standard deviations from the moving average of the closes in the window.
+	 *
+	 * @param deviations standard deviations from the moving average. Negative deviations are below it
+	 * @return price of the band
+	 * @throws IllegalStateException if fewer than period closes have been added
+	 */
+	public BigDecimal calcSdFromSma(int deviations) {
+		return readyBands().calcSdFromSma(deviations);
+	}
+
+	/**
+	 * Price a fractional number of standard deviations from the moving average of the closes in the window.
+	 *
+	 * @param deviations standard deviations from the moving average. Negative deviations are below it
+	 * @return price of the band
+	 * @throws IllegalStateException if fewer than period closes have been added
+	 */
+	public BigDecimal calcBand(BigDecimal deviations) {
+		return readyBands().calcBand(deviations);
+	}
+
+	private BollingerBands readyBands() {
+		BollingerBands bollingerBands = getBollingerBands();
+		if (bollingerBands == null) {
+			throw new IllegalStateException("Only " + closeCount + " of " + period + " closes added");
+		}
+		return bollingerBands;
+	}
+
+	/* Population variance: E[x^2] - E[x]^2 */
+	private BollingerBands calculate(BigDecimal windowSum, BigDecimal windowSumOfSquares) {
+		BigDecimal simpleMovingAverage = windowSum.divide(bigPeriod, 3, RoundingMode.HALF_UP);
+		BigDecimal variance = windowSumOfSquares.subtract(windowSum.multiply(windowSum).divide(bigPeriod, 6, RoundingMode.HALF_UP))
+				.divide(bigPeriod, 3, RoundingMode.HALF_UP);
+		BigDecimal standardDeviation = BigDecimal.valueOf(Math.sqrt(Math.max(variance.doubleValue(), 0.0)));
+		return BollingerBands.of(simpleMovingAverage, standardDeviation);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "RollingBollingerBands{" +
+				"period=" + period +
+				", closes=" + closeCount +
+				", intradayPrice=" + intradayPrice +
+				", bollingerBands=" + getBollingerBands() +
+				'}';
+	}
+}
@@ -0,0 +1,97 @@
+package net.toddsarratt.gaussTrader.technicals;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * 20, 50 and 200 day simple moving averages kept up to date one close at a time. The last 200 closes are held in a
+ * ring buffer of fixed point prices (see PriceSeries) with a running sum for each period, so each close costs three
+ * additions and three subtractions whatever the history length.
+ * <p>
+ * Methods are synchronized so end of day updates can share an instance with the thread running the strategy.
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
+public class RollingMovingAverages {
+	/** Closes needed before every average is available */
+	public static final int LONGEST_PERIOD = 200;
+	private static final int[] PERIODS = {20, 50, LONGEST_PERIOD};
+	private static final int SCALE = 4;
+	private final long[] window = new long[LONGEST_PERIOD];
+	private final long[] sums = new long[PERIODS.length];
+	private int nextSlot = 0;
+	private int closeCount = 0;
+	private MovingAverages movingAverages;
+
+	/**
+	 * Static factory method primed with the last 200 closes of a price series.
+	 *
+	 * @param closes daily closes
+	 * @return RollingMovingAverages object
+	 */
+	public static RollingMovingAverages of(PriceSeries closes) {
+		RollingMovingAverages rollingMovingAverages = new RollingMovingAverages();
+		for (int index = Math.max(closes.size() - LONGEST_PERIOD, 0); index < closes.size(); index++) {
+			rollingMovingAverages.addMicros(closes.getMicros(index));
+		}
+		return rollingMovingAverages;
+	}
+
+	/**
+	 * Adds a daily close, dropping the close that falls out of each period.
+	 *
+	 * @param close closing price
+	 */
+	public void addClose(BigDecimal close) {
+		addMicros(PriceSeries.toMicros(close));
+	}
+
+	private synchronized void addMicros(long close) {
+		for (int period = 0; period < PERIODS.length; period++) {
+			if (closeCount >= PERIODS[period]) {
+				sums[period] -= window[(nextSlot - PERIODS[period] + LONGEST_PERIOD) % LONGEST_PERIOD];
+			}
+			sums[period] += close;
+		}
+		window[nextSlot] = close;
+		nextSlot = (nextSlot + 1) % LONGEST_PERIOD;
+		closeCount = Math.min(closeCount + 1, LONGEST_PERIOD);
+		movingAverages = null;
+	}
+
+	/**
+	 * @return true once 200 closes have been added
+	 */
+	public synchronized boolean isReady() {
+		return closeCount == LONGEST_PERIOD;
+	}
+
+	/**
+	 * Averages of the closes added so far. An average with fewer closes than its period is null.
+	 *
+	 * @return MovingAverages snapshot
+	 */
+	public synchronized MovingAverages getMovingAverages() {
+		if (movingAverages == null) {
+			movingAverages = new MovingAverages(average(0), average(1), average(2));
+		}
+		return movingAverages;
+	}
+
+	private BigDecimal average(int period) {
+		if (closeCount < PERIODS[period]) {
+			return null;
+		}
+		return BigDecimal.valueOf(sums[period], PriceSeries.SCALE)
+				.divide(BigDecimal.valueOf(PERIODS[period]), SCALE, RoundingMode.HALF_UP);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "RollingMovingAverages{" +
+				"closes=" + closeCount +
+				", movingAverages=" + getMovingAverages() +
+				'}';
+	}
+}
@@ -3,12 +3,12 @@ package net.toddsarratt.gaussTrader.views;
 import net.toddsarratt.gaussTrader.GaussTrader;
 import net.toddsarratt.gaussTrader.domain.Stock;
 import net.toddsarratt.gaussTrader.persistence.store.DataStore;
+import net.toddsarratt.gaussTrader.singletons.Constants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.HashSet;
 import java.util.List;
-import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -45,16 +45,13 @@ public class WatchList {
 
 	/**
 	 * Adds a ticker or tickers to the list of securities for the application to watch, which is held by tickerSet.
+	 * Tickers are validated and loaded concurrently by WatchListBootstrap.
 	 *
 	 * @param tickers String vararg representing tickers to watch
 	 */
 	public void watch(List<String> tickers) {
-		tickers.stream()
-				.map(Stock::of)
-				// If "ticker" is not valid, Stock.of(ticker) might return null TODO: Handle invalid ticker
-				.filter(Objects::nonNull)
-				// Make sure Bollinger bands have been calculated
-				.filter(stock -> stock.getBollingerBands() != null)
+		new WatchListBootstrap(Constants.WATCHLIST_BOOTSTRAP_THREADS)
+				.load(tickers)
 				.forEach(tradeableStockSet::add);
 	}
 
@@ -0,0 +1,164 @@
+package net.toddsarratt.gaussTrader.views;
+
+import net.toddsarratt.gaussTrader.GaussTrader;
+import net.toddsarratt.gaussTrader.domain.Stock;
+import net.toddsarratt.gaussTrader.market.Market;
+import net.toddsarratt.gaussTrader.persistence.store.ColumnarPriceCache;
+import net.toddsarratt.gaussTrader.persistence.store.DataStore;
+import net.toddsarratt.gaussTrader.singletons.Constants;
+import net.toddsarratt.gaussTrader.technicals.PriceSeries;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * Builds the Stock objects for a watch list concurrently. Startup runs in three phases, each timed:
+ * <ol>
+ *     <li>validate: every ticker is checked with the market, at most parallelism at a time</li>
+ *     <li>read history: stored closes for every valid ticker are read from the data store in one query, or from the
+ *     ColumnarPriceCache in PRICE_CACHE_DIR after syncing it with the data store</li>
+ *     <li>hydrate: each Stock is built from its stored closes, at most parallelism at a time. Only closes missing from
+ *     the store are downloaded from the market</li>
+ * </ol>
+ * A ticker that fails validation or hydration is logged and left out rather than stopping the others.
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
+public class WatchListBootstrap {
+	private static final Logger LOGGER = LoggerFactory.getLogger(WatchListBootstrap.class);
+	private static final Market MARKET = GaussTrader.getMarket();
+	private static final DataStore DATA_STORE = GaussTrader.getDataStore();
+	private static final ColumnarPriceCache PRICE_CACHE =
+			Constants.PRICE_CACHE_DIR.isBlank() ? null : new ColumnarPriceCache(Paths.get(Constants.PRICE_CACHE_DIR));
+	private final int parallelism;
+	private final Map<String, Duration> phaseTimings = new LinkedHashMap<>();
+
+	/**
+	 * @param parallelism most tickers validated or hydrated at once
+	 */
+	public WatchListBootstrap(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be at least 1");
+		}
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Validates and builds a Stock for each ticker. Stocks without Bollinger bands are left out as they cannot be
+	 * traded.
+	 *
+	 * @param tickers tickers to watch. Duplicates are ignored
+	 * @return tradeable stocks in ticker order
+	 */
+	public List<Stock> load(Collection<String> tickers) {
+		LOGGER.debug("Entering load(Collection<String> of {} tickers)", tickers.size());
+		phaseTimings.clear();
+		long startNanos = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+		List<Stock> stocks;
+		try {
+			long phaseStartNanos = System.nanoTime();
+			List<String> validTickers = validate(new TreeSet<>(tickers), executor);
+			phaseStartNanos = recordPhase("validate", phaseStartNanos);
+			LocalDate earliestHistoryDate = Stock.earliestHistoryDate();
+			Map<String, PriceSeries> storedPrices = readStoredPrices(validTickers, earliestHistoryDate);
+			phaseStartNanos = recordPhase("read history", phaseStartNanos);
+			stocks = hydrate(validTickers, storedPrices, executor);
+			recordPhase("hydrate", phaseStartNanos);
+		} finally {
+			executor.shutdown();
+		}
+		phaseTimings.put("total", Duration.ofNanos(System.nanoTime() - startNanos));
+		LOGGER.info("Loaded {} of {} tickers on {} threads {}", stocks.size(), tickers.size(), parallelism,
+				describePhaseTimings());
+		return stocks;
+	}
+
+	private List<String> validate(Collection<String> tickers, ExecutorService executor) {
+		Map<String, CompletableFuture<Boolean>> validations = new LinkedHashMap<>();
+		for (String ticker : tickers) {
+			validations.put(ticker, CompletableFuture.supplyAsync(() -> MARKET.tickerValid(ticker), executor)
+					.exceptionally(throwable -> {
+						LOGGER.warn("Could not validate ticker {}", ticker);
+						LOGGER.debug("Caught (Throwable)", throwable);
+						return false;
+					}));
+		}
+		List<String> validTickers = new ArrayList<>();
+		validations.forEach((ticker, validation) -> {
+			if (validation.join()) {
+				validTickers.add(ticker);
+			} else {
+				LOGGER.warn("Ticker {} is not valid, not watching", ticker);
+			}
+		});
+		return validTickers;
+	}
+
+	private Map<String, PriceSeries> readStoredPrices(List<String> tickers, LocalDate earliestHistoryDate) {
+		if (PRICE_CACHE != null) {
+			try {
+				PRICE_CACHE.sync(DATA_STORE, tickers, earliestHistoryDate);
+				return PRICE_CACHE.readPriceSeries(tickers, earliestHistoryDate);
+			} catch (IOException ioe) {
+				LOGGER.warn("Could not use price cache in {}, reading history from the data store", Constants.PRICE_CACHE_DIR);
+				LOGGER.debug("Caught (IOException ioe)", ioe);
+			}
+		}
+		return DATA_STORE.readPriceSeries(tickers, earliestHistoryDate);
+	}
+
+	private List<Stock> hydrate(List<String> tickers, Map<String, PriceSeries> storedPrices, ExecutorService executor) {
+		List<CompletableFuture<Stock>> hydrations = tickers.stream()
+				.map(ticker -> CompletableFuture.supplyAsync(
+						() -> Stock.of(ticker, storedPrices.getOrDefault(ticker, PriceSeries.empty())), executor)
+						.exceptionally(throwable -> {
+							LOGGER.warn("Could not load history for {}, not watching", ticker);
+							LOGGER.debug("Caught (Throwable)", throwable);
+							return null;
+						}))
+				.collect(Collectors.toList());
+		return hydrations.stream()
+				.map(CompletableFuture::join)
+				.filter(Objects::nonNull)
+				// Make sure Bollinger bands have been calculated
+				.filter(stock -> stock.getBollingerBands() != null)
+				.collect(Collectors.toList());
+	}
+
+	private long recordPhase(String phase, long phaseStartNanos) {
+		long nowNanos = System.nanoTime();
+		phaseTimings.put(phase, Duration.ofNanos(nowNanos - phaseStartNanos));
+		return nowNanos;
+	}
+
+	private String describePhaseTimings() {
+		return phaseTimings.entrySet().stream()
+				.map(phaseTiming -> phaseTiming.getKey() + " " + phaseTiming.getValue().toMillis() + "ms")
+				.collect(Collectors.joining(", ", "(", ")"));
+	}
+
+	/**
+	 * @return time taken by each phase of the last load(), in the order run, followed by the total
+	 */
+	public Map<String, Duration> getPhaseTimings() {
+		return Collections.unmodifiableMap(phaseTimings);
+	}
+}
@@ -0,0 +1,116 @@
+--
+-- Schema as of pgDumpSchema.2016_Jul_29.sql. Every statement is safe to run against a database built from that dump
+-- or an older one, so existing hosts pick up only what they are missing and new hosts get the whole schema.
+--
+-- Hosts created before the second Bollinger bands were tracked have a watchlist without second_low_boll and
+-- second_high_boll (and some without active or last_tick_epoch), which PostgresStore.writeStockMetrics() writes to.
+--
+
+CREATE OR REPLACE FUNCTION portfolio_trigger() RETURNS trigger
+    LANGUAGE plpgsql
+    AS $$
+DECLARE
+BEGIN
+  PERFORM pg_notify('portfolioNotify', row_to_json(NEW)::text);
+  RETURN new;
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION watchlist_trigger() RETURNS trigger
+    LANGUAGE plpgsql
+    AS $$
+DECLARE
+BEGIN
+  PERFORM pg_notify('watchlistNotify', row_to_json(NEW)::text);
+  RETURN new;
+END;
+$$;
+
+CREATE TABLE IF NOT EXISTS adjustedreservedcash (
+    reserved_cash double precision
+);
+
+CREATE TABLE IF NOT EXISTS orders (
+    portfolio character varying(20) NOT NULL,
+    order_id bigint NOT NULL,
+    open boolean,
+    ticker character varying(32),
+    underlying_ticker character varying(32),
+    strike_price double precision,
+    limit_price double precision,
+    action character varying(20),
+    total_quantity integer,
+    sec_type character varying(20),
+    tif character varying(20),
+    epoch_opened bigint,
+    epoch_closed bigint,
+    close_reason character varying(20),
+    fill_price double precision,
+    epoch_expiry bigint,
+    claim_against_cash double precision,
+    CONSTRAINT orders_pkey PRIMARY KEY (portfolio, order_id)
+);
+
+CREATE TABLE IF NOT EXISTS portfolios (
+    name character varying(20) NOT NULL,
+    net_asset_value double precision,
+    free_cash double precision,
+    reserved_cash double precision,
+    total_cash double precision,
+    CONSTRAINT portfolios_pkey PRIMARY KEY (name)
+);
+
+CREATE TABLE IF NOT EXISTS positions (
+    portfolio character varying(20) NOT NULL,
+    position_id bigint NOT NULL,
+    open boolean,
+    ticker character varying(32),
+    sec_type character varying(20),
+    underlying_ticker character varying(32),
+    strike_price double precision,
+    epoch_opened bigint,
+    long_position boolean,
+    number_transacted integer,
+    price_at_open double precision,
+    cost_basis double precision,
+    last_tick double precision,
+    net_asset_value double precision,
+    epoch_closed bigint,
+    price_at_close double precision,
+    profit double precision,
+    epoch_expiry bigint,
+    claim_against_cash double precision,
+    originating_order_id bigint,
+    CONSTRAINT positions_pkey PRIMARY KEY (portfolio, position_id)
+);
+
+CREATE TABLE IF NOT EXISTS prices (
+    ticker character varying(32) NOT NULL,
+    adj_close double precision,
+    close_epoch bigint NOT NULL,
+    CONSTRAINT prices_pkey PRIMARY KEY (ticker, close_epoch)
+);
+
+CREATE TABLE IF NOT EXISTS watchlist (
+    ticker character varying(32) NOT NULL,
+    twenty_dma double precision,
+    first_low_boll double precision,
+    first_high_boll double precision,
+    last_tick double precision,
+    last_tick_epoch bigint,
+    active boolean,
+    second_low_boll double precision,
+    second_high_boll double precision,
+    CONSTRAINT watchlist_pkey PRIMARY KEY (ticker)
+);
+
+ALTER TABLE watchlist ADD COLUMN IF NOT EXISTS last_tick_epoch bigint;
+ALTER TABLE watchlist ADD COLUMN IF NOT EXISTS active boolean;
+ALTER TABLE watchlist ADD COLUMN IF NOT EXISTS second_low_boll double precision;
+ALTER TABLE watchlist ADD COLUMN IF NOT EXISTS second_high_boll double precision;
+
+DROP TRIGGER IF EXISTS portfolio_changes ON portfolios;
+CREATE TRIGGER portfolio_changes AFTER UPDATE ON portfolios FOR EACH ROW EXECUTE PROCEDURE portfolio_trigger();
+
+DROP TRIGGER IF EXISTS watchlist_changes ON watchlist;
+CREATE TRIGGER watchlist_changes AFTER UPDATE ON watchlist FOR EACH ROW EXECUTE PROCEDURE watchlist_trigger();
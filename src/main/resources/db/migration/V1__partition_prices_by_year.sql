@@ -0,0 +1,60 @@
+--
+-- Rebuilds prices as a table range partitioned by close_epoch, one partition per calendar year (UTC), with a primary
+-- key on (ticker, close_epoch). The key backs every "WHERE ticker = ? AND close_epoch >= ?" lookup and the
+-- "ON CONFLICT (ticker, close_epoch)" inserts, and range lookups only visit the partitions they cover.
+--
+-- Existing rows are copied across with duplicate (ticker, close_epoch) rows removed, keeping the one stored furthest
+-- into the old table (normally the last written).
+-- Closes are stamped 4pm New York, so a UTC year boundary never splits a trading day. Partitions run from the
+-- earliest stored year to ten years ahead; anything outside lands in prices_default.
+--
+-- Does nothing if prices is already partitioned, as on hosts where this script was run by hand before migrations
+-- were tracked in schema_version.
+--
+-- Requires PostgreSQL 11 or later.
+--
+
+DO $$
+DECLARE
+    first_year integer;
+    last_year integer := extract(year FROM now())::integer + 10;
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_partitioned_table WHERE partrelid = 'prices'::regclass) THEN
+        RAISE NOTICE 'prices is already partitioned';
+        RETURN;
+    END IF;
+
+    ALTER TABLE prices RENAME TO prices_unpartitioned;
+
+    ALTER TABLE prices_unpartitioned DROP CONSTRAINT IF EXISTS prices_pkey;
+
+    CREATE TABLE prices (
+        ticker character varying(32) NOT NULL,
+        adj_close double precision,
+        close_epoch bigint NOT NULL,
+        CONSTRAINT prices_pkey PRIMARY KEY (ticker, close_epoch)
+    ) PARTITION BY RANGE (close_epoch);
+
+    SELECT coalesce(min(extract(year FROM to_timestamp(close_epoch / 1000.0) AT TIME ZONE 'UTC'))::integer,
+                    extract(year FROM now())::integer)
+        INTO first_year
+        FROM prices_unpartitioned;
+    FOR partition_year IN first_year..last_year LOOP
+        EXECUTE format('CREATE TABLE prices_%s PARTITION OF prices FOR VALUES FROM (%s) TO (%s)',
+                       partition_year,
+                       extract(epoch FROM make_timestamptz(partition_year, 1, 1, 0, 0, 0, 'UTC'))::bigint * 1000,
+                       extract(epoch FROM make_timestamptz(partition_year + 1, 1, 1, 0, 0, 0, 'UTC'))::bigint * 1000);
+    END LOOP;
+
+    CREATE TABLE prices_default PARTITION OF prices DEFAULT;
+
+    INSERT INTO prices (ticker, adj_close, close_epoch)
+    SELECT DISTINCT ON (ticker, close_epoch) ticker, adj_close, close_epoch
+        FROM prices_unpartitioned
+        ORDER BY ticker, close_epoch, ctid DESC;
+
+    DROP TABLE prices_unpartitioned;
+END
+$$;
+
+ANALYZE prices;
@@ -0,0 +1,77 @@
+package net.toddsarratt.gaussTrader;
+
+import org.testng.annotations.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Checks the rounding rules in Money's javadoc: of() rounds half up to the micro, order sizing rounds DOWN, and sums
+ * and whole quantity products are exact and throw rather than wrap.
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
+public class MoneyTest {
+
+	@Test
+	public void of_roundsHalfUpToTheMicro() {
+		assertEquals(Money.of(new BigDecimal("1.0000005")), 1_000_001L);
+		assertEquals(Money.of(new BigDecimal("1.00000049")), 1_000_000L);
+		assertEquals(Money.of(new BigDecimal("-1.0000005")), -1_000_001L);
+		assertEquals(Money.of(new BigDecimal("112.35")), 112_350_000L);
+	}
+
+	@Test(expectedExceptions = ArithmeticException.class)
+	public void of_amountTooLargeForMicros_throwsException() {
+		Money.of(new BigDecimal("10000000000000"));
+	}
+
+	@Test
+	public void times_roundsDownForPutSizing() {
+		/* 10% of $100,000.000009 is $10,000.0000009, which must not round up to a micro more than allowed */
+		long sizingBudget = Money.times(Money.of(new BigDecimal("100000.000009")), Money.of(new BigDecimal("0.10")),
+				RoundingMode.DOWN);
+		assertEquals(sizingBudget, Money.of(new BigDecimal("10000.000000")));
+		assertEquals(Money.times(1_000_001L, 500_000L, RoundingMode.DOWN), 500_000L);
+		assertEquals(Money.times(-1_000_001L, 500_000L, RoundingMode.DOWN), -500_000L);
+		assertEquals(Money.times(1_000_001L, 500_000L, RoundingMode.HALF_UP), 500_001L);
+	}
+
+	@Test
+	public void times_productBeyondALong_stillRoundsDown() {
+		assertEquals(Money.times(Long.MAX_VALUE, Money.ONE / 2, RoundingMode.DOWN), Long.MAX_VALUE / 2);
+	}
+
+	@Test
+	public void quotient_countsWholeContractsOnly() {
+		long contractCost = Money.timesQuantity(Money.of(new BigDecimal("42.17")), 100L);
+		assertEquals(Money.quotient(Money.of(new BigDecimal("42169.99")), contractCost), 9L);
+		assertEquals(Money.quotient(Money.of(new BigDecimal("42170.00")), contractCost), 10L);
+	}
+
+	@Test
+	public void plusMinusAndTimesQuantity_areExact() {
+		assertEquals(Money.plus(Money.of(new BigDecimal("0.1")), Money.of(new BigDecimal("0.2"))),
+				Money.of(new BigDecimal("0.3")));
+		assertEquals(Money.minus(Money.ONE, 1L), 999_999L);
+		assertEquals(Money.timesQuantity(1_234_567L, -100L), -123_456_700L);
+	}
+
+	@Test(expectedExceptions = ArithmeticException.class)
+	public void plus_overflow_throwsException() {
+		Money.plus(Long.MAX_VALUE, 1L);
+	}
+
+	@Test(expectedExceptions = ArithmeticException.class)
+	public void minus_overflow_throwsException() {
+		Money.minus(Long.MIN_VALUE, 1L);
+	}
+
+	@Test(expectedExceptions = ArithmeticException.class)
+	public void timesQuantity_overflow_throwsException() {
+		Money.timesQuantity(Long.MAX_VALUE / 2 + 1, 2L);
+	}
+}
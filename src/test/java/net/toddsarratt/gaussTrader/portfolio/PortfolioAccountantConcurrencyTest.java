@@ -0,0 +1,153 @@
+package net.toddsarratt.gaussTrader.portfolio;
+
+import net.toddsarratt.gaussTrader.InsufficientFundsException;
+import net.toddsarratt.gaussTrader.Money;
+import net.toddsarratt.gaussTrader.Position;
+import net.toddsarratt.gaussTrader.PriceBasedAction;
+import net.toddsarratt.gaussTrader.domain.Option;
+import net.toddsarratt.gaussTrader.market.ReplayMarket;
+import net.toddsarratt.gaussTrader.orders.Order;
+import net.toddsarratt.gaussTrader.persistence.entity.Portfolio;
+import net.toddsarratt.gaussTrader.singletons.BuyOrSell;
+import net.toddsarratt.gaussTrader.singletons.SecurityType;
+import org.testng.annotations.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Hammers PortfolioAccountant from many threads at once and checks that cash still adds up. Every order is written
+ * against one of a few underlyings so threads contend for the same locks, and each order is filled and expired by two
+ * threads racing each other, so exactly one of them must win.
+ *
+ * @author Todd Sarratt todd.sarratt@gmail.com
+ * @since v0.2
+ */
+public class PortfolioAccountantConcurrencyTest {
+	private static final long STARTING_CASH = Money.ONE * 1_000_000L;
+	private static final int THREADS = 16;
+	private static final int ORDERS_PER_THREAD = 2_000;
+	private static final String[] UNDERLYINGS = {"AAPL", "IBM", "MSFT", "XOM", "GE", "T", "KO", "PFE"};
+	private static final LocalDate EXPIRY = LocalDate.of(2026, 12, 18);
+
+	private static PortfolioAccountant newAccountant(long freeCash) {
+		Portfolio portfolio = new Portfolio();
+		portfolio.setName("concurrencyTest");
+		portfolio.setFreeCash(Money.toBigDecimal(freeCash));
+		portfolio.setReservedCash(BigDecimal.ZERO);
+		return new PortfolioAccountant(portfolio, new ReplayMarket(EXPIRY.minusYears(1L), EXPIRY));
+	}
+
+	private static Order newShortPutOrder(String underlying, Random random) {
+		BigDecimal strike = BigDecimal.valueOf(10 + random.nextInt(90));
+		int contracts = 1 + random.nextInt(5);
+		return Order.of(Option.of(underlying, SecurityType.PUT, EXPIRY, strike), BigDecimal.ONE,
+				PriceBasedAction.of(strike, true, BuyOrSell.SELL, SecurityType.PUT, contracts), "GFD");
+	}
+
+	@Test
+	public void concurrentOrdersFillsAndExpiries_keepCashInvariants() throws Exception {
+		PortfolioAccountant accountant = newAccountant(STARTING_CASH);
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS * 2 + 1);
+		CountDownLatch start = new CountDownLatch(1);
+		AtomicBoolean done = new AtomicBoolean();
+		AtomicBoolean freeCashWentNegative = new AtomicBoolean();
+		AtomicLong ordersPlaced = new AtomicLong();
+		List<Future<?>> traders = new ArrayList<>();
+		try {
+			for (int thread = 0; thread < THREADS; thread++) {
+				Random random = new Random(thread);
+				traders.add(executor.submit(() -> {
+					start.await();
+					for (int i = 0; i < ORDERS_PER_THREAD; i++) {
+						Order order = newShortPutOrder(UNDERLYINGS[random.nextInt(UNDERLYINGS.length)], random);
+						try {
+							accountant.addNewOrder(order);
+						} catch (InsufficientFundsException ife) {
+							continue;
+						}
+						ordersPlaced.incrementAndGet();
+						/* Race a fill against an expiry of the same order; the loser must find it closed and change nothing */
+						BigDecimal fillPrice = BigDecimal.valueOf(50 + random.nextInt(200), 2);
+						Future<?> expiry = executor.submit(() -> accountant.expireOrder(order));
+						if (random.nextBoolean()) {
+							accountant.fillOrder(order, fillPrice);
+						}
+						expiry.get();
+					}
+					return null;
+				}));
+			}
+			Future<?> auditor = executor.submit(() -> {
+				start.await();
+				while (!done.get()) {
+					if (accountant.getSummary().getFreeCash().signum() < 0) {
+						freeCashWentNegative.set(true);
+					}
+				}
+				return null;
+			});
+			start.countDown();
+			for (Future<?> trader : traders) {
+				trader.get();
+			}
+			done.set(true);
+			auditor.get();
+		} finally {
+			executor.shutdownNow();
+		}
+
+		List<Position> openPositions = accountant.getListOfOpenPositions();
+		long premiumsCollected = openPositions.stream().mapToLong(position -> -position.getCostBasisMicros()).sum();
+		long claimsOfOpenPositions = openPositions.stream().mapToLong(Position::getClaimAgainstCashMicros).sum();
+		PortfolioSummary summary = accountant.getSummary();
+
+		assertTrue(ordersPlaced.get() > 0L);
+		assertFalse(freeCashWentNegative.get(), "Free cash went negative");
+		assertTrue(accountant.getListOfOpenOrders().isEmpty(), "Every order was filled or expired");
+		assertEquals(Money.of(summary.getTotalCash()), STARTING_CASH + premiumsCollected);
+		assertEquals(Money.of(summary.getReservedCash()), claimsOfOpenPositions);
+	}
+
+	@Test
+	public void concurrentReservations_neverReserveMoreThanIsFree() throws Exception {
+		CashAccount cashAccount = new CashAccount(Money.ONE * 1_000L, 0L);
+		ExecutorService executor = Executors.newFixedThreadPool(32);
+		AtomicLong reservations = new AtomicLong();
+		List<Future<?>> reservers = new ArrayList<>();
+		try {
+			for (int thread = 0; thread < 32; thread++) {
+				reservers.add(executor.submit(() -> {
+					for (int i = 0; i < 10_000; i++) {
+						if (cashAccount.tryReserve("concurrentReservations", Money.ONE * 7L)) {
+							reservations.incrementAndGet();
+						}
+					}
+					return null;
+				}));
+			}
+			for (Future<?> reserver : reservers) {
+				reserver.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertEquals(reservations.get(), 142L);
+		assertEquals(cashAccount.getFreeCash(), Money.ONE * 6L);
+		assertEquals(cashAccount.getReservedCash(), Money.ONE * 994L);
+	}
+}